@@ -0,0 +1,84 @@
+package bench;
+
+import client.gui.WhackAMoleBoard;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The client's board telling its observers about a change. Each observer
+ * does what the GUI does on an update, taking the cells that changed and
+ * reading each one, so the cost grows with the number of observers rather
+ * than the size of the board. The number of players sets how many observers
+ * there are, as if each player's view were watching the same board.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhackAMoleBoardBenchmark {
+    /** the number of rows and of columns */
+    @Param({"5", "50", "500"})
+    public int size;
+
+    /** the number of observers */
+    @Param({"1", "2", "16"})
+    public int players;
+
+    private WhackAMoleBoard board;
+    private int[] delta;
+    private int moles;
+    private int next;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        moles = size * size;
+        board = new WhackAMoleBoard(size, size);
+        for (int i = 0; i < players; i++) {
+            int[] changed = new int[moles];
+            board.addObserver(model -> {
+                int up = 0;
+                int count = model.takeChanged(changed);
+                for (int j = 0; j < count; j++) {
+                    if (model.getContents(changed[j] / model.cols, changed[j] % model.cols) == WhackAMoleBoard.Move.UP) {
+                        up++;
+                    }
+                }
+                blackhole.consume(up);
+            });
+        }
+        // a tick's worth of changes: a few moles rising and as many falling
+        delta = new int[16];
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] = (int) ((i * 2654435761L) % moles);
+        }
+    }
+
+    @Benchmark
+    public void moleUpAndDown() {
+        int id = next;
+        next = next + 1 == moles ? 0 : next + 1;
+        board.setUp(id);
+        board.setDown(id);
+    }
+
+    @Benchmark
+    public void applyDelta() {
+        board.applyDelta(delta, 0, delta.length / 2, delta.length / 2, delta.length / 2);
+    }
+}
@@ -0,0 +1,181 @@
+package bench;
+
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding messages the way the two ends do: the server
+ * decoding whacks in {@code WhackAMolePlayer.run} and encoding mole and score
+ * messages for the outbox, and the client reading a stream of server
+ * messages in {@code WhackAMoleNetworkClient.run}. Each is measured in both
+ * wire formats. Bigger boards mean longer mole numbers, and more players
+ * mean longer {@code SCORE} messages in the client's stream.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhackAMoleCodecBenchmark {
+    /** the number of rows and of columns */
+    @Param({"5", "50", "500"})
+    public int size;
+
+    /** the number of players in the game */
+    @Param({"2", "16"})
+    public int players;
+
+    /** how many messages of each kind to cycle through */
+    private static final int MESSAGES = 1024;
+
+    private byte[][] textWhacks;
+    private byte[][] binaryWhacks;
+    private byte[] textStream;
+    private byte[] binaryStream;
+    private ByteArrayInputStream textIn;
+    private ByteArrayInputStream binaryIn;
+    private final byte[] line = new byte[WAMBinaryProtocol.MAX_FRAME];
+    private final WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+    private final ByteBuffer out = ByteBuffer.allocate(64);
+    private int[] scores;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        int moles = size * size;
+        textWhacks = new byte[MESSAGES][];
+        binaryWhacks = new byte[MESSAGES][];
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(WAMBinaryProtocol.MAX_FRAME);
+        scores = new int[players];
+        for (int i = 0; i < MESSAGES; i++) {
+            int mole = (int) ((i * 2654435761L) % moles);
+            int player = i % players;
+            textWhacks[i] = encode(buffer, false, WAMBinaryProtocol.WHACK, mole, player);
+            binaryWhacks[i] = encode(buffer, true, WAMBinaryProtocol.WHACK, mole, player);
+            // what the client reads: a mole rising, falling, and the scores
+            text.write(encode(buffer, false, WAMBinaryProtocol.MOLE_UP, mole));
+            binary.write(encode(buffer, true, WAMBinaryProtocol.MOLE_UP, mole));
+            text.write(encode(buffer, false, WAMBinaryProtocol.MOLE_DOWN, mole));
+            binary.write(encode(buffer, true, WAMBinaryProtocol.MOLE_DOWN, mole));
+            scores[player] += i % 3 == 0 ? -1 : 2;
+            text.write(scoreLine(scores));
+            binary.write(bytes(WAMBinaryProtocol.scoreFrame(scores)));
+        }
+        textStream = text.toByteArray();
+        binaryStream = binary.toByteArray();
+        textIn = new ByteArrayInputStream(textStream);
+        binaryIn = new ByteArrayInputStream(binaryStream);
+    }
+
+    private static byte[] encode(ByteBuffer buffer, boolean binary, byte opcode, int... args) {
+        buffer.clear();
+        if (args.length == 1) {
+            WAMCodec.encode(buffer, binary, opcode, args[0]);
+        }
+        else {
+            WAMCodec.encode(buffer, binary, opcode, args[0], args[1]);
+        }
+        buffer.flip();
+        return bytes(buffer);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] scoreLine(int[] scores) {
+        StringBuilder line = new StringBuilder("SCORE");
+        for (int score : scores) {
+            line.append(' ').append(score);
+        }
+        return line.append('\n').toString().getBytes();
+    }
+
+    private int next() {
+        next = (next + 1) & (MESSAGES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public int decodeWhackText() throws IOException {
+        byte[] whack = textWhacks[next()];
+        WAMCodec.decodeText(whack, 0, whack.length - 1, frame);
+        return frame.args[0];
+    }
+
+    @Benchmark
+    public int decodeWhackBinary() throws IOException {
+        byte[] whack = binaryWhacks[next()];
+        WAMBinaryProtocol.decode(whack, 0, whack.length, frame);
+        return frame.args[0];
+    }
+
+    @Benchmark
+    public int encodeMoleUpText() {
+        out.clear();
+        WAMCodec.encode(out, false, WAMBinaryProtocol.MOLE_UP, next() * size);
+        return out.position();
+    }
+
+    @Benchmark
+    public int encodeMoleUpBinary() {
+        out.clear();
+        WAMCodec.encode(out, true, WAMBinaryProtocol.MOLE_UP, next() * size);
+        return out.position();
+    }
+
+    @Benchmark
+    public ByteBuffer encodeScores() {
+        return WAMBinaryProtocol.scoreFrame(scores);
+    }
+
+    /**
+     * One message of the client's stream, read and decoded as text.
+     */
+    @Benchmark
+    public int readServerText() throws IOException {
+        if (textIn.available() == 0) {
+            textIn.reset();
+        }
+        int length = WAMCodec.readLine(textIn, line);
+        WAMCodec.decodeText(line, 0, length, frame);
+        return frame.opcode;
+    }
+
+    /**
+     * One message of the client's stream, read and decoded as binary.
+     */
+    @Benchmark
+    public int readServerBinary() throws IOException {
+        if (binaryIn.available() == 0) {
+            binaryIn.reset();
+        }
+        int length = WAMBinaryProtocol.readFrame(binaryIn, line);
+        WAMBinaryProtocol.decode(line, 0, length, frame);
+        return frame.opcode;
+    }
+}
@@ -0,0 +1,88 @@
+package bench;
+
+import server.WhackAMoleExecutors;
+import server.WhackAMoleGame;
+import server.WhackAMolePlayer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A mole rising and falling, as {@link WhackAMoleGame#setUp} and
+ * {@link WhackAMoleGame#setDown} send it to every player. The players write
+ * to {@link WhackAMoleMemoryConnection in-memory connections}, drained by the
+ * shared writer pool as in a real server. The game is running, since moles
+ * only come up then, so its own moles rise and fall alongside.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhackAMoleFanOutBenchmark {
+    /** the number of rows and of columns */
+    @Param({"5", "50", "500"})
+    public int size;
+
+    /** the number of players in the game */
+    @Param({"2", "16", "128"})
+    public int players;
+
+    /** the wire format the players use */
+    @Param({"text", "binary"})
+    public String format;
+
+    private WhackAMoleGame game;
+    private WhackAMolePlayer[] seats;
+    private int moles;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        moles = size * size;
+        seats = new WhackAMolePlayer[players];
+        byte[] binary = "PROTOCOL BINARY".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < players; i++) {
+            seats[i] = new WhackAMolePlayer(new WhackAMoleMemoryConnection(), i);
+            if ("binary".equals(format)) {
+                seats[i].handle(binary, 0, binary.length);
+            }
+        }
+        game = new WhackAMoleGame(0, size, size, players, 3600, seats, WhackAMoleExecutors.shared());
+        for (WhackAMolePlayer seat : seats) {
+            seat.getGame(game);
+        }
+        game.run();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (WhackAMolePlayer seat : seats) {
+            seat.close();
+        }
+    }
+
+    @Benchmark
+    public int moleUpAndDown() {
+        int id = next;
+        next = next + 1 == moles ? 0 : next + 1;
+        game.setUp(id);
+        game.setDown(id);
+        return id;
+    }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import server.WhackAMoleConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link WhackAMoleConnection} that writes into memory instead of a
+ * socket. Every byte is really copied, into a buffer that wraps around, so
+ * the cost of sending is measured without any network in the way.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleMemoryConnection implements WhackAMoleConnection {
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuffer sink = ByteBuffer.allocate(1 << 16);
+    private final AtomicLong written = new AtomicLong();
+
+    @Override
+    public void send(String message) {
+        lock.lock();
+        try {
+            put(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+            put(ByteBuffer.wrap(NEW_LINE));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer frame) {
+        lock.lock();
+        try {
+            put(frame.duplicate());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies bytes into the sink. Called holding the lock.
+     */
+    private void put(ByteBuffer bytes) {
+        written.addAndGet(bytes.remaining());
+        while (bytes.hasRemaining()) {
+            if (!sink.hasRemaining()) {
+                sink.clear();
+            }
+            int length = Math.min(bytes.remaining(), sink.remaining());
+            ByteBuffer slice = bytes.slice();
+            slice.limit(length);
+            sink.put(slice);
+            bytes.position(bytes.position() + length);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return how many bytes have been sent
+     */
+    public long getWritten() {
+        return written.get();
+    }
+}
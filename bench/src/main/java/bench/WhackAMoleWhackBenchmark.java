@@ -0,0 +1,85 @@
+package bench;
+
+import server.WhackAMoleExecutors;
+import server.WhackAMoleGame;
+import server.WhackAMolePlayer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whacks racing each other for the same moles, as the readers of several
+ * players do. Every thread whacks random moles and raises the ones it
+ * missed, so about half the whacks hit and each one is fought over. Smaller
+ * boards mean more threads want the same mole at once. The game is running,
+ * since moles only come up then, so its own moles rise and fall alongside.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class WhackAMoleWhackBenchmark {
+    /** the number of rows and of columns */
+    @Param({"5", "50", "500"})
+    public int size;
+
+    /** the number of players each change is sent to */
+    @Param({"2", "16"})
+    public int players;
+
+    private WhackAMoleGame game;
+    private WhackAMolePlayer[] seats;
+    private int moles;
+
+    @Setup
+    public void setUp() {
+        moles = size * size;
+        seats = new WhackAMolePlayer[players];
+        for (int i = 0; i < players; i++) {
+            seats[i] = new WhackAMolePlayer(new WhackAMoleMemoryConnection(), i);
+        }
+        game = new WhackAMoleGame(0, size, size, players, 3600, seats, WhackAMoleExecutors.shared());
+        for (WhackAMolePlayer seat : seats) {
+            seat.getGame(game);
+        }
+        game.run();
+        for (int i = 0; i < moles; i += 2) {
+            game.setUp(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (WhackAMolePlayer seat : seats) {
+            seat.close();
+        }
+    }
+
+    @Benchmark
+    public boolean whack() {
+        int id = ThreadLocalRandom.current().nextInt(moles);
+        if (game.whack(id)) {
+            return true;
+        }
+        game.setUp(id);
+        return false;
+    }
+}
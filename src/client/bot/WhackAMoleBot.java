@@ -0,0 +1,394 @@
+package client.bot;
+
+import client.gui.WhackAMoleClockSync;
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One simulated player: a non-blocking connection to the server and the
+ * little it needs to play. It whacks every mole it sees rise after a
+ * reaction time, and now and then whacks the wrong hole instead. Everything
+ * it does happens on its {@link WhackAMoleBotLoop}'s thread, so it takes no
+ * locks.<br>
+ *
+ * A server run with {@code wam.clock.stamp} stamps its mole messages with
+ * its clock. The bot works out where that clock stands against its own from
+ * its pings, with a {@link WhackAMoleClockSync}, so it can tell how long
+ * each stamped message took to reach it. Unstamped messages are not timed.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleBot {
+    /** how many whacks or pings may be waiting for an answer */
+    private static final int IN_FLIGHT = 64;
+
+    private final WhackAMoleBotLoop loop;
+    private final SocketChannel channel;
+    private final WhackAMoleSwarmReport report;
+    private final WhackAMoleReaction reaction;
+    private final double missRate;
+    private final boolean wantBinary;
+    /** the rows and columns of the part of the board to watch, or null for all of it */
+    private final int[] viewport;
+    private final Random random;
+    private SelectionKey key;
+
+    /** the bytes read but not yet acted on; grows for long deltas */
+    private byte[] pending = new byte[1024];
+    private int pendingLength;
+    private final ByteBuffer out = ByteBuffer.allocate(64);
+    private final WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+    private boolean welcomed;
+    private boolean binaryIn;
+    private boolean binaryOut;
+    /** whether the server answers pings, and so numbers whack results */
+    private boolean acks;
+    private int moles;
+    private int playerId;
+    private boolean finished;
+    /** set once the server stops taking messages; its last ones may still be on the way */
+    private boolean shut;
+    private boolean closed;
+
+    /** when each whack still waiting for its score was sent, oldest first */
+    private final long[] whackSent = new long[IN_FLIGHT];
+    private int whackHead;
+    private int whackCount;
+    private int whackSeq;
+
+    private int pingSeq;
+    private final int[] pingSeqs = new int[IN_FLIGHT];
+    private final long[] pingSent = new long[IN_FLIGHT];
+    /** where the server's clock stands against ours */
+    private final WhackAMoleClockSync clock = new WhackAMoleClockSync();
+
+    /**
+     * @param loop the loop that runs the bot
+     * @param channel the bot's connection, already connected and non-blocking
+     * @param report where to record what the bot sees
+     * @param reaction how long the bot takes to whack a mole
+     * @param missRate how often the bot whacks the wrong hole, from 0 to 1
+     * @param wantBinary whether to take up the server's offer of binary
+     * @param viewport the rows and columns of the part of the board to
+     *                 watch, somewhere at random, or null for all of it
+     * @param seed seeds the bot's reactions and misses
+     */
+    WhackAMoleBot(WhackAMoleBotLoop loop, SocketChannel channel, WhackAMoleSwarmReport report,
+                  WhackAMoleReaction reaction, double missRate, boolean wantBinary, int[] viewport,
+                  long seed) {
+        this.loop = loop;
+        this.channel = channel;
+        this.report = report;
+        this.reaction = reaction;
+        this.missRate = missRate;
+        this.wantBinary = wantBinary;
+        this.viewport = viewport;
+        this.random = new Random(seed);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Reads whatever has arrived and acts on every complete message.
+     */
+    void read() {
+        if (pendingLength == pending.length) {
+            if (pending.length == WAMBinaryProtocol.MAX_FRAME) {
+                report.protocolErrors.increment();
+                close();
+                return;
+            }
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        }
+        int read;
+        try {
+            read = channel.read(ByteBuffer.wrap(pending, pendingLength, pending.length - pendingLength));
+        }
+        catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        pendingLength += read;
+        report.bytesIn.add(read);
+        int start = 0;
+        try {
+            while (start < pendingLength && !closed) {
+                int length;
+                if (binaryIn) {
+                    length = WAMBinaryProtocol.frameLength(pending, start, pendingLength - start);
+                    if (length < 0) {
+                        break;
+                    }
+                    WAMBinaryProtocol.decode(pending, start, length, frame);
+                    start += length;
+                }
+                else {
+                    int end = start;
+                    while (end < pendingLength && pending[end] != '\n') {
+                        end++;
+                    }
+                    if (end == pendingLength) {
+                        break;
+                    }
+                    WAMCodec.decodeText(pending, start, end - start, frame);
+                    start = end + 1;
+                }
+                report.messagesIn.increment();
+                dispatch();
+            }
+        }
+        catch (IOException e) {
+            report.protocolErrors.increment();
+            close();
+            return;
+        }
+        System.arraycopy(pending, start, pending, 0, pendingLength - start);
+        pendingLength -= start;
+    }
+
+    /**
+     * Acts on the message just decoded.
+     */
+    private void dispatch() {
+        long now = System.nanoTime();
+        switch (frame.opcode) {
+            case WAMBinaryProtocol.WELCOME:
+                welcome();
+                break;
+            case WAMBinaryProtocol.MOLE_UP:
+                visible(now);
+                moleUp(frame.args[0]);
+                break;
+            case WAMBinaryProtocol.BOARD_DELTA:
+                if (frame.args[0] > 0) {
+                    visible(now);
+                }
+                for (int i = 1; i <= frame.args[0]; i++) {
+                    moleUp(frame.args[i]);
+                }
+                break;
+            case WAMBinaryProtocol.SCORE:
+                report.scores.increment();
+                if (whackCount > 0) {
+                    report.whackToScore.record(now - whackSent[whackHead]);
+                    whackHead = (whackHead + 1) % IN_FLIGHT;
+                    whackCount--;
+                }
+                break;
+            case WAMBinaryProtocol.WHACK_RESULT:
+                (frame.args[1] == 1 ? report.hits : report.misses).increment();
+                break;
+            case WAMBinaryProtocol.PING:
+                write(WAMBinaryProtocol.PONG, frame.args[0]);
+                break;
+            case WAMBinaryProtocol.PONG:
+                pong(frame.args[0], now);
+                break;
+            case WAMBinaryProtocol.GAME_WON:
+                finish(report.won);
+                break;
+            case WAMBinaryProtocol.GAME_LOST:
+                finish(report.lost);
+                break;
+            case WAMBinaryProtocol.GAME_TIED:
+                finish(report.tied);
+                break;
+            case WAMBinaryProtocol.ERROR:
+                report.serverErrors.increment();
+                break;
+            case WAMCodec.PROTOCOL:
+                binaryIn = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Takes up the server's offer of binary, if the bot wants it, and asks
+     * for its viewport, if it has one.
+     */
+    private void welcome() {
+        if (welcomed || frame.argCount < 4) {
+            return;
+        }
+        welcomed = true;
+        moles = frame.args[0] * frame.args[1];
+        frame.boardSize = moles;
+        playerId = frame.args[3];
+        report.connected.increment();
+        if (frame.binary && wantBinary) {
+            out.clear();
+            WAMCodec.encode(out, false, WAMCodec.PROTOCOL);
+            flush();
+            binaryOut = true;
+        }
+        if (viewport != null) {
+            int rows = Math.min(viewport[0], frame.args[0]);
+            int cols = Math.min(viewport[1], frame.args[1]);
+            out.clear();
+            WAMCodec.encode(out, binaryOut, WAMBinaryProtocol.VIEWPORT, random.nextInt(frame.args[0] - rows + 1),
+                    random.nextInt(frame.args[1] - cols + 1), rows, cols);
+            flush();
+        }
+        ping();
+    }
+
+    /**
+     * Plans a whack for a mole that just rose.
+     */
+    private void moleUp(int mole) {
+        report.molesSeen.increment();
+        if (moles > 1 && random.nextDouble() < missRate) {
+            mole = (mole + 1 + random.nextInt(moles - 1)) % moles;
+        }
+        loop.schedule(this, mole, System.nanoTime() + reaction.sample(random));
+    }
+
+    /**
+     * Whacks a mole, as planned a reaction time ago.
+     *
+     * @param mole the mole to whack
+     */
+    void whack(int mole) {
+        if (closed || finished) {
+            return;
+        }
+        out.clear();
+        if (acks) {
+            whackSeq = (whackSeq + 1) & Integer.MAX_VALUE;
+            WAMCodec.encode(out, binaryOut, WAMBinaryProtocol.WHACK, mole, playerId, whackSeq);
+        }
+        else {
+            WAMCodec.encode(out, binaryOut, WAMBinaryProtocol.WHACK, mole, playerId);
+        }
+        if (whackCount == IN_FLIGHT) {
+            // so many scores are missing that the oldest is not coming
+            whackHead = (whackHead + 1) % IN_FLIGHT;
+            whackCount--;
+        }
+        whackSent[(whackHead + whackCount++) % IN_FLIGHT] = System.nanoTime();
+        report.whacks.increment();
+        flush();
+    }
+
+    /**
+     * Pings the server, to time the way back.
+     */
+    void ping() {
+        if (closed || !welcomed) {
+            return;
+        }
+        pingSeq = (pingSeq + 1) & Integer.MAX_VALUE;
+        int slot = pingSeq & (IN_FLIGHT - 1);
+        pingSeqs[slot] = pingSeq;
+        pingSent[slot] = System.nanoTime();
+        write(WAMBinaryProtocol.PING, pingSeq);
+    }
+
+    private void pong(int seq, long now) {
+        int slot = seq & (IN_FLIGHT - 1);
+        if (pingSeqs[slot] != seq || pingSent[slot] == 0) {
+            return;
+        }
+        acks = true;
+        if (frame.argCount > 1) {
+            clock.sample(pingSent[slot], now, frame.args[1]);
+        }
+        report.roundTrip.record(now - pingSent[slot]);
+        pingSent[slot] = 0;
+    }
+
+    /**
+     * Records how long the mole message just decoded took to arrive, if the
+     * server stamped it and the clocks have been compared.
+     */
+    private void visible(long now) {
+        if (WAMBinaryProtocol.isStamped(frame) && clock.getUncertainty() >= 0) {
+            long sent = clock.toLocal(frame.args[frame.argCount - 1]);
+            report.visible.record(Math.max(0, now - sent));
+        }
+    }
+
+    private void finish(LongAdder result) {
+        if (!finished) {
+            finished = true;
+            result.increment();
+        }
+    }
+
+    /**
+     * Sends a message with one argument.
+     */
+    private void write(byte opcode, int arg) {
+        out.clear();
+        WAMCodec.encode(out, binaryOut, opcode, arg);
+        flush();
+    }
+
+    /**
+     * Writes what has been encoded. A bot only ever sends a few bytes at a
+     * time, so a socket that will not take them means the server has stopped
+     * reading, and the bot gives up. A socket the server has closed is only
+     * shut for writing, so that the game's result sent just before can still
+     * be read.
+     */
+    private void flush() {
+        if (shut) {
+            return;
+        }
+        out.flip();
+        try {
+            channel.write(out);
+            if (out.hasRemaining()) {
+                report.protocolErrors.increment();
+                close();
+            }
+        }
+        catch (IOException e) {
+            shut = true;
+        }
+    }
+
+    /**
+     * Closes the connection, counting the bot as dropped if its game had not
+     * finished.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (welcomed && !finished) {
+            report.dropped.increment();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            // squash
+        }
+        loop.closed(this);
+    }
+}
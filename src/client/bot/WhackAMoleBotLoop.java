@@ -0,0 +1,173 @@
+package client.bot;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread serving many {@link WhackAMoleBot bots}: it reads their
+ * connections with a {@link Selector}, fires their whacks once each reaction
+ * time is up, and pings the server for each of them at a fixed interval.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleBotLoop implements Runnable {
+    /**
+     * A whack waiting for its bot's reaction time.
+     */
+    private static final class Whack implements Comparable<Whack> {
+        private final WhackAMoleBot bot;
+        private final int mole;
+        private final long at;
+
+        private Whack(WhackAMoleBot bot, int mole, long at) {
+            this.bot = bot;
+            this.mole = mole;
+            this.at = at;
+        }
+
+        @Override
+        public int compareTo(Whack other) {
+            return Long.compare(at, other.at);
+        }
+    }
+
+    private final Selector selector;
+    private final long pingNanos;
+    /** bots handed over by the swarm, waiting to be registered */
+    private final Queue<WhackAMoleBot> joining = new ConcurrentLinkedQueue<>();
+    /** only touched on the loop thread */
+    private final PriorityQueue<Whack> whacks = new PriorityQueue<>();
+    private final CountDownLatch done;
+    private int open;
+    private volatile boolean running = true;
+    private final Thread thread;
+
+    /**
+     * Creates and starts a loop.
+     *
+     * @param name the name of the loop thread
+     * @param pingMillis how often to ping for each bot, or 0 for never
+     * @param done counted down once for each bot whose connection closes
+     * @throws IOException If a selector cannot be opened.
+     */
+    public WhackAMoleBotLoop(String name, long pingMillis, CountDownLatch done) throws IOException {
+        this.selector = Selector.open();
+        this.pingNanos = TimeUnit.MILLISECONDS.toNanos(pingMillis);
+        this.done = done;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Hands a bot to the loop. Safe to call from any thread.
+     *
+     * @param bot the bot
+     */
+    public void add(WhackAMoleBot bot) {
+        joining.add(bot);
+        selector.wakeup();
+    }
+
+    /**
+     * Plans a whack. Called by a bot, on the loop thread.
+     */
+    void schedule(WhackAMoleBot bot, int mole, long at) {
+        whacks.add(new Whack(bot, mole, at));
+    }
+
+    /**
+     * Called by a bot, on the loop thread, once its connection has closed.
+     */
+    void closed(WhackAMoleBot bot) {
+        open--;
+        done.countDown();
+    }
+
+    /**
+     * Serves the bots until the loop is stopped.
+     */
+    @Override
+    public void run() {
+        long nextPing = System.nanoTime() + pingNanos;
+        while (running) {
+            register();
+            long now = System.nanoTime();
+            Whack whack;
+            while ((whack = whacks.peek()) != null && whack.at <= now) {
+                whacks.poll();
+                whack.bot.whack(whack.mole);
+            }
+            if (pingNanos > 0 && now >= nextPing) {
+                for (SelectionKey key : selector.keys()) {
+                    ((WhackAMoleBot) key.attachment()).ping();
+                }
+                nextPing = now + pingNanos;
+            }
+            long wait = pingNanos > 0 ? nextPing - now : Long.MAX_VALUE;
+            if (whack != null) {
+                wait = Math.min(wait, whack.at - now);
+            }
+            try {
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (key.isValid() && key.isReadable()) {
+                    ((WhackAMoleBot) key.attachment()).read();
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Registers the bots that have joined since the last pass.
+     */
+    private void register() {
+        WhackAMoleBot bot;
+        while ((bot = joining.poll()) != null) {
+            try {
+                bot.setKey(bot.getChannel().register(selector, SelectionKey.OP_READ, bot));
+                open++;
+            }
+            catch (ClosedChannelException e) {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Stops the loop and closes every bot still connected.
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((WhackAMoleBot) key.attachment()).close();
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            // squash
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package client.bot;
+
+import java.util.Random;
+
+/**
+ * How long a bot takes to react to a mole, drawn from a distribution. It is
+ * written as a name and its parameters in milliseconds, separated by
+ * colons:
+ * <ul>
+ *     <li>{@code fixed:250} - always 250 ms</li>
+ *     <li>{@code uniform:150:400} - anywhere from 150 to 400 ms</li>
+ *     <li>{@code normal:250:50} - mean 250 ms, standard deviation 50 ms</li>
+ *     <li>{@code lognormal:250:0.4} - median 250 ms, shape 0.4; the long
+ *     tail of real reaction times</li>
+ * </ul>
+ * Negative draws count as 0.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleReaction {
+    private enum Kind {
+        FIXED, UNIFORM, NORMAL, LOGNORMAL
+    }
+
+    private final Kind kind;
+    private final double first;
+    private final double second;
+    private final String text;
+
+    private WhackAMoleReaction(Kind kind, double first, double second, String text) {
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+        this.text = text;
+    }
+
+    /**
+     * @param text a distribution, as described above
+     * @return the distribution
+     * @throws IllegalArgumentException If the text is not a distribution.
+     */
+    public static WhackAMoleReaction parse(String text) {
+        String[] parts = text.trim().split(":");
+        try {
+            Kind kind = Kind.valueOf(parts[0].toUpperCase());
+            int wanted = kind == Kind.FIXED ? 2 : 3;
+            if (parts.length != wanted) {
+                throw new IllegalArgumentException("Expected " + (wanted - 1) + " parameters: " + text);
+            }
+            double first = Double.parseDouble(parts[1]);
+            double second = wanted == 3 ? Double.parseDouble(parts[2]) : 0;
+            return new WhackAMoleReaction(kind, first, second, text);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a reaction time: " + text, e);
+        }
+    }
+
+    /**
+     * @param random where to draw from
+     * @return a reaction time in nanoseconds
+     */
+    public long sample(Random random) {
+        double millis;
+        switch (kind) {
+            case UNIFORM:
+                millis = first + random.nextDouble() * (second - first);
+                break;
+            case NORMAL:
+                millis = first + random.nextGaussian() * second;
+                break;
+            case LOGNORMAL:
+                millis = first * Math.exp(random.nextGaussian() * second);
+                break;
+            default:
+                millis = first;
+                break;
+        }
+        return (long) (Math.max(0, millis) * 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,114 @@
+package client.bot;
+
+import client.gui.WhackAMoleNetworkClient;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless load generator. It opens any number of simulated players
+ * against a running server, spread over a few NIO {@link WhackAMoleBotLoop
+ * loops}, lets them play until their games end or time runs out, and prints
+ * a report of throughput, latency percentiles and errors.<br>
+ *
+ * The bots are tuned with system properties:
+ * <ul>
+ *     <li>{@value #REACTION_PROPERTY} - a {@link WhackAMoleReaction} (default
+ *     {@value #DEFAULT_REACTION})</li>
+ *     <li>{@value #MISS_PROPERTY} - how often a bot whacks the wrong hole
+ *     (default {@value #DEFAULT_MISS_RATE})</li>
+ *     <li>{@value #LOOPS_PROPERTY} - how many loop threads (default one per
+ *     core)</li>
+ *     <li>{@value #SLO_PROPERTY} - a p99 whack-to-score target in
+ *     milliseconds; the swarm exits with 1 if it is missed</li>
+ *     <li>{@value #VIEWPORT_PROPERTY} - {@code <rows>x<cols>}: each bot
+ *     only watches a region that size, somewhere on the board (default
+ *     the whole board)</li>
+ *     <li>{@value WhackAMoleNetworkClient#PROTOCOL_PROPERTY} and
+ *     {@value WhackAMoleNetworkClient#PING_PROPERTY}, as for the client</li>
+ * </ul>
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSwarm {
+    public static final String REACTION_PROPERTY = "wam.bot.reaction";
+    public static final String MISS_PROPERTY = "wam.bot.miss";
+    public static final String LOOPS_PROPERTY = "wam.bot.loops";
+    public static final String SLO_PROPERTY = "wam.bot.slo";
+    public static final String VIEWPORT_PROPERTY = "wam.bot.viewport";
+    public static final String DEFAULT_REACTION = "lognormal:300:0.35";
+    public static final double DEFAULT_MISS_RATE = 0.1;
+
+    /**
+     * @param args the server's host and port, how many bots to run, and the
+     *             most seconds to run them for
+     * @throws IOException If the loops cannot be started.
+     * @throws InterruptedException If interrupted while the bots play.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 4) {
+            System.out.println("Usage: java client.bot.WhackAMoleSwarm <host> <port> <bots> <seconds>");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int bots = Integer.parseInt(args[2]);
+        int seconds = Integer.parseInt(args[3]);
+        WhackAMoleReaction reaction = WhackAMoleReaction.parse(System.getProperty(REACTION_PROPERTY, DEFAULT_REACTION));
+        double missRate = Double.parseDouble(System.getProperty(MISS_PROPERTY, String.valueOf(DEFAULT_MISS_RATE)));
+        int loopCount = Integer.getInteger(LOOPS_PROPERTY, Runtime.getRuntime().availableProcessors());
+        long pingMillis = Long.getLong(WhackAMoleNetworkClient.PING_PROPERTY, 1000);
+        boolean binary = !"text".equalsIgnoreCase(System.getProperty(WhackAMoleNetworkClient.PROTOCOL_PROPERTY));
+        String size = System.getProperty(VIEWPORT_PROPERTY);
+        int[] viewport = null;
+        if (size != null) {
+            String[] parts = size.toLowerCase().split("x");
+            viewport = new int[] {Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())};
+        }
+
+        System.out.println("Swarming " + host + ":" + port + " with " + bots + " bots on " + loopCount
+                + " loops for up to " + seconds + " s (reaction " + reaction + ", miss rate " + missRate
+                + ", " + (binary ? "binary" : "text")
+                + (viewport == null ? "" : ", " + viewport[0] + "x" + viewport[1] + " viewports") + ")");
+        WhackAMoleSwarmReport report = new WhackAMoleSwarmReport(seconds);
+        CountDownLatch done = new CountDownLatch(bots);
+        WhackAMoleBotLoop[] loops = new WhackAMoleBotLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new WhackAMoleBotLoop("bot-loop-" + i, pingMillis, done);
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        for (int i = 0; i < bots && System.nanoTime() < deadline; i++) {
+            WhackAMoleBotLoop loop = loops[i % loopCount];
+            try {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                loop.add(new WhackAMoleBot(loop, channel, report, reaction, missRate, binary, viewport, i));
+            }
+            catch (IOException e) {
+                report.connectFailures.increment();
+                done.countDown();
+            }
+        }
+        done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        long elapsed = System.nanoTime() - start;
+        for (WhackAMoleBotLoop loop : loops) {
+            loop.stop();
+        }
+        report.print(System.out, elapsed);
+
+        Long slo = Long.getLong(SLO_PROPERTY);
+        if (slo != null) {
+            long p99 = TimeUnit.NANOSECONDS.toMillis(report.getWhackHistogram().getPercentile(99));
+            boolean met = p99 <= slo;
+            System.out.println("SLO:           whack-to-score p99 " + p99 + " ms, target " + slo + " ms: "
+                    + (met ? "met" : "MISSED"));
+            System.exit(met ? 0 : 1);
+        }
+        System.exit(0);
+    }
+}
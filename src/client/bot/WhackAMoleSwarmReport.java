@@ -0,0 +1,101 @@
+package client.bot;
+
+import common.WAMHistogram;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a swarm of bots saw, added up across all of them. Bots on different
+ * loops record into it at once, so the counters are
+ * {@link LongAdder LongAdders} and the latencies are {@link WAMHistogram
+ * WAMHistograms}.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSwarmReport {
+    final LongAdder connected = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder molesSeen = new LongAdder();
+    final LongAdder whacks = new LongAdder();
+    final LongAdder scores = new LongAdder();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder won = new LongAdder();
+    final LongAdder lost = new LongAdder();
+    final LongAdder tied = new LongAdder();
+    final LongAdder serverErrors = new LongAdder();
+    final LongAdder protocolErrors = new LongAdder();
+    /** connections that closed before their game's result arrived */
+    final LongAdder dropped = new LongAdder();
+
+    final WAMHistogram visible;
+    final WAMHistogram whackToScore;
+    final WAMHistogram roundTrip;
+
+    /**
+     * @param seconds how long the swarm runs, so every latency is kept
+     */
+    public WhackAMoleSwarmReport(long seconds) {
+        long window = Math.max(1, seconds);
+        visible = new WAMHistogram("mole-up-to-visible", window, TimeUnit.SECONDS);
+        whackToScore = new WAMHistogram("whack-to-score", window, TimeUnit.SECONDS);
+        roundTrip = new WAMHistogram("rtt", window, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return how many games reported a result to a bot
+     */
+    public long getResults() {
+        return won.sum() + lost.sum() + tied.sum();
+    }
+
+    /**
+     * @return every connection that went wrong: failed connects, server
+     * errors, messages that could not be read, and bots dropped before
+     * their result
+     */
+    public long getErrors() {
+        return connectFailures.sum() + serverErrors.sum() + protocolErrors.sum() + dropped.sum();
+    }
+
+    /**
+     * @return the time for a stamped mole message to reach a bot
+     */
+    public WAMHistogram getVisibleHistogram() {
+        return visible;
+    }
+
+    /**
+     * @return the time from sending a whack to reading its score
+     */
+    public WAMHistogram getWhackHistogram() {
+        return whackToScore;
+    }
+
+    /**
+     * Prints the report.
+     *
+     * @param out where to print it
+     * @param elapsedNanos how long the swarm ran
+     */
+    public void print(PrintStream out, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        out.printf("Duration:      %.1f s%n", seconds);
+        out.printf("Bots:          %d connected, %d failed%n", connected.sum(), connectFailures.sum());
+        out.printf("Results:       %d (won %d, lost %d, tied %d)%n", getResults(), won.sum(), lost.sum(), tied.sum());
+        out.printf("Messages in:   %d (%.0f/s), %.1f KiB%n", messagesIn.sum(), messagesIn.sum() / seconds,
+                bytesIn.sum() / 1024.0);
+        out.printf("Moles seen:    %d (%.0f/s)%n", molesSeen.sum(), molesSeen.sum() / seconds);
+        out.printf("Whacks:        %d sent (%.0f/s), %d scored, %d hit, %d missed%n", whacks.sum(),
+                whacks.sum() / seconds, scores.sum(), hits.sum(), misses.sum());
+        out.println("Latency:       " + visible);
+        out.println("               " + whackToScore);
+        out.println("               " + roundTrip);
+        out.printf("Errors:        %d (connect %d, server %d, protocol %d, dropped %d)%n", getErrors(),
+                connectFailures.sum(), serverErrors.sum(), protocolErrors.sum(), dropped.sum());
+    }
+}
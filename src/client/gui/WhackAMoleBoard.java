@@ -1,8 +1,11 @@
 package client.gui;
 
+import java.util.BitSet;
 import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The model for the whack a mole game.
@@ -32,7 +35,7 @@ public class WhackAMoleBoard {
      * Possible statuses of game
      */
     public enum Status {
-        NOT_OVER, I_WON, I_LOST, TIE, ERROR;
+        NOT_OVER, I_WON, I_LOST, TIE, GAME_OVER, ERROR;
 
         private String message = null;
 
@@ -48,9 +51,10 @@ public class WhackAMoleBoard {
     }
 
     /**
-     * How much time is left before end of game
+     * The {@link System#nanoTime()} the game ends at, once it has started
      */
-    private int timeLeft;
+    private long deadline;
+    private boolean started;
 
     /**
      * current game status
@@ -62,6 +66,26 @@ public class WhackAMoleBoard {
      */
     private Move[][] board;
 
+    /**
+     * the ids of the cells changed since the view last took them, in the
+     * order they first changed, and which ids are among them
+     */
+    private final int[] changed;
+    private int changedCount;
+    private final BitSet marked;
+
+    /**
+     * whether the observers have been told of changes they have not taken
+     * yet; while it is set, further changes are only collected
+     */
+    private boolean pending;
+
+    /**
+     * guards the board and the changed cells, which the network thread
+     * writes and the view reads
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
     /**
      * the observers of this model
      */
@@ -69,6 +93,9 @@ public class WhackAMoleBoard {
 
     /**
      * The view calls this method to add themselves as an observer of the model.
+     * Changes are coalesced: once the observers have been told, they are not
+     * told again until one of them calls {@link #takeChanged(int[])}, however
+     * many changes arrive in between.
      *
      * @param observer the observer
      */
@@ -85,13 +112,22 @@ public class WhackAMoleBoard {
         }
     }
 
-    public WhackAMoleBoard(int rows, int cols, int timeLeft) {
+    /**
+     * Makes an empty board. The game has not started until the server says
+     * so and {@link #setDeadline(long)} is called.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     */
+    public WhackAMoleBoard(int rows, int cols) {
         this.rows = rows;
         this.cols = cols;
-        this.timeLeft = timeLeft;
         this.observers = new LinkedList<>();
         this.status = Status.NOT_OVER;
 
+        this.changed = new int[rows * cols];
+        this.marked = new BitSet(rows * cols);
+
         this.board = new Move[cols][rows];
         for (int col = 0; col < cols; col++) {
             for (int row = 0; row < rows; row++) {
@@ -99,22 +135,6 @@ public class WhackAMoleBoard {
             }
         }
 
-        //Not sure if this is right
-        while (this.timeLeft != 0) {
-            try
-            {
-                for (int i = 0; i < timeLeft; i++) {
-                    Thread.sleep(1000);
-                    this.timeLeft--;
-                }
-            }
-            catch (InterruptedException e)
-            {
-                Thread.currentThread().interrupt(); // restore interrupted status
-            }
-        }
-
-
     }
 
     /**
@@ -122,8 +142,18 @@ public class WhackAMoleBoard {
      * @param id mole's id
      */
     public void setUp(int id){
-        board[id%cols][id/cols] = Move.UP;
-        alertObservers();
+        boolean notify;
+        lock.lock();
+        try {
+            set(id, Move.UP);
+            notify = changed();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (notify) {
+            alertObservers();
+        }
     }
 
     /**
@@ -131,8 +161,141 @@ public class WhackAMoleBoard {
      * @param id which mole to set to down
      */
     public void setDown(int id){
-        board[id%cols][id/cols] = Move.DOWN;
-        alertObservers();
+        boolean notify;
+        lock.lock();
+        try {
+            set(id, Move.DOWN);
+            notify = changed();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (notify) {
+            alertObservers();
+        }
+    }
+
+    /**
+     * applies a whole BOARD_DELTA at once, telling the observers only once
+     * @param moles holds the ids of the moles that changed
+     * @param upStart where the moles that rose start in moles
+     * @param upCount how many moles rose
+     * @param downStart where the moles that fell start in moles
+     * @param downCount how many moles fell
+     */
+    public void applyDelta(int[] moles, int upStart, int upCount, int downStart, int downCount){
+        boolean notify;
+        lock.lock();
+        try {
+            for (int i = upStart; i < upStart + upCount; i++) {
+                set(moles[i], Move.UP);
+            }
+            for (int i = downStart; i < downStart + downCount; i++) {
+                set(moles[i], Move.DOWN);
+            }
+            notify = changed();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (notify) {
+            alertObservers();
+        }
+    }
+
+    /**
+     * sets every mole at once from a bitmap, telling the observers only once
+     * @param bits which moles are up, mole i in bit i % 32 of bits[start + i / 32]
+     * @param start where the bitmap starts in bits
+     * @param moles how many moles the bitmap holds; any mole past them is set down
+     */
+    public void setAll(int[] bits, int start, int moles){
+        boolean notify;
+        lock.lock();
+        try {
+            for (int id = 0; id < rows * cols; id++) {
+                boolean up = id < moles && (bits[start + (id >>> 5)] & (1 << id)) != 0;
+                set(id, up ? Move.UP : Move.DOWN);
+            }
+            notify = changed();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (notify) {
+            alertObservers();
+        }
+    }
+
+    /**
+     * Sets a cell and remembers that it changed. The lock must be held.
+     */
+    private void set(int id, Move move) {
+        board[id%cols][id/cols] = move;
+        if (!marked.get(id)) {
+            marked.set(id);
+            changed[changedCount++] = id;
+        }
+    }
+
+    /**
+     * Notes that something changed. The lock must be held.
+     *
+     * @return whether the observers need telling, because they have taken
+     * every change before this one
+     */
+    private boolean changed() {
+        boolean first = !pending;
+        pending = true;
+        return first;
+    }
+
+    /**
+     * Sets the game's status and tells the observers if they need telling.
+     */
+    private void setStatus(Status status, String message) {
+        boolean notify;
+        lock.lock();
+        try {
+            this.status = status;
+            if (message != null) {
+                this.status.setMessage(message);
+            }
+            notify = changed();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (notify) {
+            alertObservers();
+        }
+    }
+
+    /**
+     * Hands over the cells that have changed since the last call, so a view
+     * only has to redraw those. Calling it also lets the observers be told
+     * of the next change. A cell that changed more than once is handed
+     * over once; read its contents for where it ended up.
+     *
+     * @param ids filled with the ids of the changed cells; must hold
+     *            rows * cols of them
+     * @return how many ids were filled in
+     */
+    public int takeChanged(int[] ids) {
+        lock.lock();
+        try {
+            int count = changedCount;
+            System.arraycopy(changed, 0, ids, 0, count);
+            for (int i = 0; i < count; i++) {
+                marked.clear(changed[i]);
+            }
+            changedCount = 0;
+            pending = false;
+            return count;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -140,18 +303,49 @@ public class WhackAMoleBoard {
      * @param arguments
      */
     public void error(String arguments) {
-        this.status = Status.ERROR;
-        this.status.setMessage(arguments);
-        alertObservers();
+        setStatus(Status.ERROR, arguments);
     }
 
     /**
-     * Information for the UI
+     * Sets when the game ends. The first call starts the countdown; later
+     * ones correct it as the client learns more about the server's clock.
      *
-     * @return the amount of time until the game ends.
+     * @param deadline the {@link System#nanoTime()} the game ends at
      */
-    public int getTimeLeft() {
-        return this.timeLeft;
+    public void setDeadline(long deadline) {
+        boolean notify;
+        lock.lock();
+        try {
+            this.deadline = deadline;
+            this.started = true;
+            notify = changed();
+        }
+        finally {
+            lock.unlock();
+        }
+        if (notify) {
+            alertObservers();
+        }
+    }
+
+    /**
+     * Information for the UI. Nothing ticks: the time left is worked out
+     * from the deadline whenever it is asked for.
+     *
+     * @return the milliseconds until the game ends, or -1 if it has not
+     * started yet
+     */
+    public long getTimeLeft() {
+        lock.lock();
+        try {
+            if (!started) {
+                return -1;
+            }
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -160,7 +354,13 @@ public class WhackAMoleBoard {
      * @return the Status object for the game
      */
     public Status getStatus() {
-        return this.status;
+        lock.lock();
+        try {
+            return this.status;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -171,35 +371,47 @@ public class WhackAMoleBoard {
      * @return the player at the given location
      */
     public Move getContents(int row, int col) {
-        return this.board[col][row];
+        lock.lock();
+        try {
+            return this.board[col][row];
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     public boolean gameOn() {
-        return this.status == Status.NOT_OVER;
+        return getStatus() == Status.NOT_OVER;
     }
 
     /**
      * Called when the game has been won by this player.
      */
     public void gameWon() {
-        this.status = Status.I_WON;
-        alertObservers();
+        setStatus(Status.I_WON, null);
     }
 
     /**
      * Called when the game has been won by the other player.
      */
     public void gameLost() {
-        this.status = Status.I_LOST;
-        alertObservers();
+        setStatus(Status.I_LOST, null);
     }
 
     /**
      * Called when the game has been tied.
      */
     public void gameTied() {
-        this.status = Status.TIE;
-        alertObservers();
+        setStatus(Status.TIE, null);
+    }
+
+    /**
+     * Called when the game being watched is over.
+     *
+     * @param places every player's final score, best first
+     */
+    public void gameOver(String places) {
+        setStatus(Status.GAME_OVER, places);
     }
 
     /**
@@ -0,0 +1,111 @@
+package client.gui;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.input.MouseButton;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws the whole board on a single {@link Canvas}, for boards too big for
+ * a {@link javafx.scene.control.Button} a hole. There is one node however
+ * many holes there are, so layout, CSS and memory stay flat; a hole is
+ * only redrawn when the board says it has changed, and a click is turned
+ * into a mole number by the {@link WhackAMoleLayout}'s arithmetic rather
+ * than by picking through the scene graph.<br>
+ *
+ * The cells shrink to fit the board in {@value #MAX_SIZE} pixels a side.
+ * Cells too small for the pictures to be made out are drawn as plain
+ * circles, as are all of them if the pictures did not load.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleBoardCanvas extends Canvas {
+    /** the most pixels the board takes up either way */
+    private static final int MAX_SIZE = 900;
+    /** the biggest a cell gets, the size of the pictures */
+    private static final int MAX_CELL = 64;
+    /** the smallest cell the pictures are drawn in */
+    private static final int MIN_PICTURE_CELL = 16;
+
+    private static final Color BACKGROUND = Color.rgb(86, 125, 70);
+    private static final Color HOLE = Color.rgb(59, 40, 26);
+    private static final Color MOLE = Color.rgb(160, 110, 70);
+
+    private final WhackAMoleBoard board;
+    private final WhackAMoleLayout layout;
+    private final int rows;
+    private final int cols;
+    private final double cell;
+    private final Image moleUp;
+    private final Image moleDown;
+    private final boolean pictures;
+
+    /**
+     * Sizes the canvas for the board and draws every hole.
+     *
+     * @param board the model
+     * @param layout where each hole goes
+     * @param moleUp the picture of a mole that is up
+     * @param moleDown the picture of an empty hole
+     * @param serverConn who to tell about clicks
+     */
+    public WhackAMoleBoardCanvas(WhackAMoleBoard board, WhackAMoleLayout layout, Image moleUp, Image moleDown,
+                                 WhackAMoleNetworkClient serverConn) {
+        this.board = board;
+        this.layout = layout;
+        this.rows = board.rows;
+        this.cols = board.cols;
+        this.cell = Math.max(1, Math.min(MAX_CELL, Math.floor(MAX_SIZE / (Math.max(rows, cols) + 0.5))));
+        this.moleUp = moleUp;
+        this.moleDown = moleDown;
+        this.pictures = cell >= MIN_PICTURE_CELL && !moleUp.isError() && !moleDown.isError();
+        setWidth(layout.width(cols, cell));
+        setHeight(layout.height(rows, cell));
+        setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.PRIMARY) {
+                int id = layout.holeAt(event.getX(), event.getY(), rows, cols, cell);
+                if (id >= 0) {
+                    serverConn.whack(id);
+                }
+            }
+        });
+        drawAll();
+    }
+
+    /**
+     * Draws every hole as the board has it now.
+     */
+    public void drawAll() {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.setFill(BACKGROUND);
+        gc.fillRect(0, 0, getWidth(), getHeight());
+        for (int id = 0; id < rows * cols; id++) {
+            draw(id);
+        }
+    }
+
+    /**
+     * Redraws one hole, and nothing around it.
+     *
+     * @param id the hole's mole number
+     */
+    public void draw(int id) {
+        int row = id / cols;
+        int col = id % cols;
+        double x = layout.x(row, col, cell);
+        double y = layout.y(row, cell);
+        boolean up = board.getContents(row, col) == WhackAMoleBoard.Move.UP;
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.setFill(BACKGROUND);
+        gc.fillRect(x, y, cell, cell);
+        if (pictures) {
+            gc.drawImage(up ? moleUp : moleDown, x, y, cell, cell);
+            return;
+        }
+        double inset = cell < 4 ? 0 : 1;
+        gc.setFill(up ? MOLE : HOLE);
+        gc.fillOval(x + inset, y + inset, cell - 2 * inset, cell - 2 * inset);
+    }
+}
@@ -0,0 +1,102 @@
+package client.gui;
+
+import common.WAMProtocol;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Works out where the server's clock stands against ours, the way NTP does:
+ * a {@link WAMProtocol#PING} sent at t0 and answered at server time T
+ * arrives back at t1, and T is taken to be the middle of t0 and t1. The
+ * probe with the quickest round trip leaves the least room for error, so
+ * only the best one seen is kept. Every client does the same, so they all
+ * count down to the same moment.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleClockSync {
+    private final ReentrantLock lock = new ReentrantLock();
+    /** a server time, and the {@link System#nanoTime()} it matched here */
+    private int serverMillis;
+    private long localNanos;
+    /** the round trip of the probe they came from; MAX_VALUE for a guess */
+    private long roundTrip = Long.MAX_VALUE;
+    private boolean known;
+
+    /**
+     * Offers a probe.
+     *
+     * @param sent when the ping was sent, from {@link System#nanoTime()}
+     * @param received when its answer arrived
+     * @param serverMillis the server's clock in the answer
+     * @return whether the probe beat the ones before it, and so moved the
+     * estimate
+     */
+    public boolean sample(long sent, long received, int serverMillis) {
+        lock.lock();
+        try {
+            long trip = received - sent;
+            if (known && trip >= roundTrip) {
+                return false;
+            }
+            this.serverMillis = serverMillis;
+            this.localNanos = sent + trip / 2;
+            this.roundTrip = trip;
+            this.known = true;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a server time read off a message as now, if no probe has come
+     * back yet. It is late by however long the message took.
+     *
+     * @param received when the message arrived, from {@link System#nanoTime()}
+     * @param serverMillis the server's clock in the message
+     */
+    public void guess(long received, int serverMillis) {
+        lock.lock();
+        try {
+            if (!known) {
+                this.serverMillis = serverMillis;
+                this.localNanos = received;
+                this.known = true;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param serverMillis a reading of the server's clock
+     * @return the {@link System#nanoTime()} that matches it here
+     */
+    public long toLocal(int serverMillis) {
+        lock.lock();
+        try {
+            return localNanos + TimeUnit.MILLISECONDS.toNanos(serverMillis - this.serverMillis);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the round trip of the best probe in milliseconds, or -1 if
+     * the estimate is only a guess
+     */
+    public long getUncertainty() {
+        lock.lock();
+        try {
+            return roundTrip == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(roundTrip);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
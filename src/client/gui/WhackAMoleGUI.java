@@ -1,5 +1,6 @@
 package client.gui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Pos;
@@ -10,6 +11,7 @@ import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextAlignment;
@@ -24,6 +26,17 @@ import java.util.List;
  */
 
 public class WhackAMoleGUI extends Application implements Observer<WhackAMoleBoard> {
+    /**
+     * The system property that picks how the board is drawn: {@code buttons}
+     * for a button a hole, or {@code canvas} for a single
+     * {@link WhackAMoleBoardCanvas}. By default boards of more than
+     * {@value #MAX_BUTTONS} holes, and any not laid out as a
+     * {@link WhackAMoleLayout#GRID}, are drawn on a canvas.
+     */
+    public static final String RENDERER_PROPERTY = "wam.gui.renderer";
+    /** the most holes drawn as buttons, when the property is not set */
+    public static final int MAX_BUTTONS = 400;
+
     /** the model */
     private WhackAMoleBoard board;
     /** connection to network interface to server */
@@ -44,8 +57,33 @@ public class WhackAMoleGUI extends Application implements Observer<WhackAMoleBoa
     private BorderPane borderPane = new BorderPane();
     /** creates the buttons so the user can press the mole down */
     private Button[][] buttons;
-    private String statuss;
+    /** the picture on each button, swapped between the two images below */
+    private ImageView[][] views;
+    /** loaded once and shared by every button */
+    private Image moleUp;
+    private Image moleDown;
+    /** where the holes go, and the canvas they are drawn on, or null for buttons */
+    private WhackAMoleLayout layout;
+    private WhackAMoleBoardCanvas canvas;
+    /** the cells the board reports changed, refilled on each refresh */
+    private int[] changed;
     private Label status;
+    /** the time left in the game, and the whole seconds it last showed */
+    private Label countdown;
+    private long shownSeconds = Long.MIN_VALUE;
+    /** set by the model from any thread; the next frame refreshes if it is set */
+    private volatile boolean dirty;
+    /** runs on every frame, so the board is redrawn at most once a frame */
+    private final AnimationTimer frames = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (dirty) {
+                dirty = false;
+                refresh();
+            }
+            tick();
+        }
+    };
 
     /**
      * sets the initial conditions of the game
@@ -74,11 +112,23 @@ public class WhackAMoleGUI extends Application implements Observer<WhackAMoleBoa
 
             this.scoring = new Label(Integer.toString(this.score));
 
-            this.buttons = new Button[cols][rows];
+            this.layout = WhackAMoleLayout.configured();
+            String renderer = System.getProperty(RENDERER_PROPERTY);
+            boolean useCanvas = renderer == null
+                    ? rows * cols > MAX_BUTTONS || layout != WhackAMoleLayout.GRID
+                    : "canvas".equalsIgnoreCase(renderer);
+            if (!useCanvas) {
+                this.buttons = new Button[cols][rows];
+                this.views = new ImageView[cols][rows];
+            }
+            this.changed = new int[rows * cols];
+
+            this.status = new Label();
+            this.countdown = new Label();
 
             this.message = new Text();
 
-        } catch ( WhackAMoleException | ArrayIndexOutOfBoundsException | NumberFormatException e ) {
+        } catch ( WhackAMoleException | ArrayIndexOutOfBoundsException | IllegalArgumentException e ) {
             System.err.println(e);
             throw new RuntimeException(e);
         }
@@ -92,26 +142,34 @@ public class WhackAMoleGUI extends Application implements Observer<WhackAMoleBoa
     @Override
     public synchronized void start(Stage stage) throws Exception {
         try {
-            for (int row = 0; row < this.rows; row++) {
+            this.moleUp = new Image("file:moleup.png");
+            this.moleDown = new Image("file:moledown.png");
+            if (buttons == null) {
+                canvas = new WhackAMoleBoardCanvas(board, layout, moleUp, moleDown, serverConn);
+            }
+            for (int row = 0; buttons != null && row < this.rows; row++) {
                 for (int col = 0; col < this.cols; col++) {
-                    Image initImage = new Image("file:moledown.png");
                     Button initButton = new Button();
-                    initButton.setGraphic(new ImageView(initImage));
+                    ImageView initView = new ImageView(moleDown);
+                    initButton.setGraphic(initView);
                     gridPane.add(initButton, col, row);
                     buttons[col][row] = initButton;
+                    views[col][row] = initView;
                     int id = row*cols + col;
                     initButton.setOnAction(actionEvent -> serverConn.whack(id));
                 }
             }
 
             scoring.setAlignment(Pos.CENTER);
-            borderPane.setCenter(gridPane);
-            borderPane.setTop(scoring);
+            borderPane.setCenter(canvas != null ? canvas : gridPane);
+            borderPane.setTop(new HBox(20, scoring, countdown));
+            borderPane.setBottom(status);
 
             Scene scene = new Scene(borderPane);
             stage.setTitle("Whack-A-Mole");
             stage.setScene(scene);
             stage.show();
+            frames.start();
         } catch (Exception e) {
             throw e;
         }
@@ -120,44 +178,54 @@ public class WhackAMoleGUI extends Application implements Observer<WhackAMoleBoa
     }
 
     /**
-     * GUI updates.
+     * GUI updates. Only the cells the board reports changed are redrawn, and
+     * the labels are only touched when their text changes.
      */
     private synchronized void refresh() {
-        for (int row = 0; row < this.rows; row++) {
-            for (int col = 0; col < this.cols; col++) {
-                if (board.getContents(row, col) == WhackAMoleBoard.Move.UP) {
-                    buttons[col][row].setGraphic(new ImageView(new Image("file:moleup.png")));
-                    this.score = serverConn.getScore();
-                    this.scoring = new Label(Integer.toString(serverConn.getScore()));
-            } else if (board.getContents(row, col) == WhackAMoleBoard.Move.DOWN) {
-                    buttons[col][row].setGraphic(new ImageView(new Image("file:moledown.png")));
-                    this.score = serverConn.getScore();
-                    this.scoring = new Label(Integer.toString(serverConn.getScore()));
-                }
-            }
+        int count = board.takeChanged(changed);
+        for (int i = 0; canvas != null && i < count; i++) {
+            canvas.draw(changed[i]);
+        }
+        for (int i = 0; canvas == null && i < count; i++) {
+            int row = changed[i] / cols;
+            int col = changed[i] % cols;
+            views[col][row].setImage(board.getContents(row, col) == WhackAMoleBoard.Move.UP ? moleUp : moleDown);
+        }
+        int newScore = serverConn.getScore();
+        if (newScore != this.score) {
+            this.score = newScore;
+            this.scoring.setText(Integer.toString(newScore));
+        }
+        String statuss = board.getStatus().toString();
+        if (!statuss.equals(this.status.getText())) {
+            this.status.setText(statuss);
         }
-        this.score = serverConn.getScore();
-        this.scoring = new Label(Integer.toString(serverConn.getScore()));
-        this.borderPane.setTop(this.scoring);
-        this.statuss = board.getStatus().toString();
-        this.status = new Label(statuss);
-        this.borderPane.setBottom(this.status);
     }
 
 
+    /**
+     * Shows the time left, changing the label only when the whole seconds
+     * change. Called every frame, so the countdown needs no thread of its
+     * own.
+     */
+    private void tick() {
+        long left = board.getTimeLeft();
+        long seconds = left < 0 ? -1 : (left + 999) / 1000;
+        if (seconds != shownSeconds) {
+            shownSeconds = seconds;
+            countdown.setText(seconds < 0 ? "Waiting for players" : seconds / 60 + ":" + String.format("%02d", seconds % 60));
+        }
+    }
+
     /**
      * Called by the model, client.WhackAMoleBoard, whenever there is a state change
-     * that needs to be updated by the GUI.
+     * that needs to be updated by the GUI. The change is only noted; the next
+     * frame applies it, along with any others that arrive before then.
      *
      * @param whackAMoleBoard
      */
-    public synchronized void update(WhackAMoleBoard whackAMoleBoard) {
-        if ( Platform.isFxApplicationThread() ) {
-            this.refresh();
-        }
-        else {
-            Platform.runLater( () -> this.refresh() );
-        }
+    public void update(WhackAMoleBoard whackAMoleBoard) {
+        this.dirty = true;
     }
 
     /**
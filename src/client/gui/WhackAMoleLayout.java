@@ -0,0 +1,105 @@
+package client.gui;
+
+/**
+ * Where a {@link WhackAMoleBoardCanvas} puts each hole. Moles are numbered
+ * in row-major order whatever the layout, as {@link common.WAMProtocol}
+ * has it, so a layout only changes where a hole is drawn and which hole a
+ * click lands on. Every hole gets a square cell of its own, and no two
+ * cells overlap, so a cell can be redrawn without touching its
+ * neighbours.<br>
+ *
+ * The layout is picked with {@value #LAYOUT_PROPERTY}.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public enum WhackAMoleLayout {
+    /** rows and columns, as the buttons have them */
+    GRID {
+        @Override
+        double offset(int row, double cell) {
+            return 0;
+        }
+
+        @Override
+        double width(int cols, double cell) {
+            return cols * cell;
+        }
+    },
+    /** every other row pushed half a hole to the right, like bricks */
+    STAGGERED {
+        @Override
+        double offset(int row, double cell) {
+            return (row & 1) == 0 ? 0 : cell / 2;
+        }
+
+        @Override
+        double width(int cols, double cell) {
+            return (cols + 0.5) * cell;
+        }
+    };
+
+    /** the system property that picks the layout: {@code grid} (the default) or {@code staggered} */
+    public static final String LAYOUT_PROPERTY = "wam.gui.layout";
+
+    /**
+     * @return the layout named by {@value #LAYOUT_PROPERTY}
+     */
+    public static WhackAMoleLayout configured() {
+        return valueOf(System.getProperty(LAYOUT_PROPERTY, "grid").trim().toUpperCase());
+    }
+
+    /**
+     * @return how far a row's first cell is from the left edge
+     */
+    abstract double offset(int row, double cell);
+
+    /**
+     * @return how wide the board is
+     */
+    abstract double width(int cols, double cell);
+
+    /**
+     * @return how tall the board is
+     */
+    double height(int rows, double cell) {
+        return rows * cell;
+    }
+
+    /**
+     * @return the left edge of a hole's cell
+     */
+    double x(int row, int col, double cell) {
+        return offset(row, cell) + col * cell;
+    }
+
+    /**
+     * @return the top edge of a hole's cell
+     */
+    double y(int row, double cell) {
+        return row * cell;
+    }
+
+    /**
+     * Finds the hole under a point by arithmetic alone.
+     *
+     * @param x how far the point is from the left edge
+     * @param y how far the point is from the top edge
+     * @param rows the rows on the board
+     * @param cols the columns on the board
+     * @param cell how big each hole's cell is
+     * @return the hole's mole number, or -1 if the point is on none
+     */
+    int holeAt(double x, double y, int rows, int cols, double cell) {
+        if (y < 0) {
+            return -1;
+        }
+        int row = (int) (y / cell);
+        double across = x - offset(row, cell);
+        if (row >= rows || across < 0) {
+            return -1;
+        }
+        int col = (int) (across / cell);
+        return col < cols ? row * cols + col : -1;
+    }
+}
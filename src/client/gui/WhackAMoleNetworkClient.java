@@ -1,12 +1,22 @@
 package client.gui;
 
 import client.gui.WhackAMoleException;
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import common.WAMHistogram;
 import common.WAMProtocol;
+import common.WAMThreads;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import static common.WAMProtocol.*;
 
 /**
@@ -23,6 +33,38 @@ public class WhackAMoleNetworkClient {
     /** Turn on if standard output debug messages are desired. */
     private static final boolean DEBUG = true;
 
+    /**
+     * The system property that picks the wire format: {@code binary} (the
+     * default, when the server offers it) or {@code text}.
+     */
+    public static final String PROTOCOL_PROPERTY = "wam.protocol";
+
+    /**
+     * The system property that sets how often to ping the server, in
+     * milliseconds; 0 turns pings off.
+     */
+    public static final String PING_PROPERTY = "wam.ping";
+
+    /**
+     * The system property that makes the client a spectator of the game
+     * with this number, or of the newest game if it is {@value WAMProtocol#FEATURED}.
+     * It must connect to the server's spectator port.
+     */
+    public static final String SPECTATE_PROPERTY = "wam.spectate";
+
+    /** how many pings or whacks may be awaiting an answer at once */
+    private static final int IN_FLIGHT = 64;
+
+    /** how many times to try taking the seat back after the connection drops */
+    private static final int RESUME_ATTEMPTS = 20;
+    /** the milliseconds between those tries */
+    private static final long RESUME_GAP_MILLIS = 250;
+
+    /** how many pings to send right away, to find the server's clock */
+    private static final int PROBES = 4;
+    /** the milliseconds between those pings */
+    private static final long PROBE_GAP_MILLIS = 50;
+
     /**
      * Print method that does something only if DEBUG is true
      *
@@ -36,14 +78,19 @@ public class WhackAMoleNetworkClient {
 
     /** client socket to communicate with server */
     private Socket clientSocket;
+    /** the server's host, to resume on */
+    private String host;
+    /** the session token from the WELCOME and the port to resume on, or 0 if the server holds no seats */
+    private int session;
+    private int resumePort;
     /** used to read requests from the server */
-    private Scanner networkIn;
+    private InputStream networkIn;
     /** Used to write responses to the server. */
     private PrintStream networkOut;
     /** the model which keeps track of the game */
     private WhackAMoleBoard board;
     /** sentinel loop used to control the main loop */
-    private boolean go;
+    private volatile boolean go;
     /** number of rows */
     private int numRow;
     /** number of columns */
@@ -51,22 +98,60 @@ public class WhackAMoleNetworkClient {
     /** the player that will connect to the server */
     private int playerId;
     /** the score of the player(based on their id) */
-    private int score;
+    private volatile int score;
+    /** the virtual threads the listener and the pinger run on, if they do */
+    private ExecutorService threads;
+    /** whether whacks are sent as binary frames */
+    private volatile boolean binaryOut;
+    /** whether the server has switched to sending binary frames */
+    private boolean binaryIn;
+    /** the last message read from the server */
+    private WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+    /** the bytes of the last message read from the server */
+    private byte[] in = new byte[WAMBinaryProtocol.MAX_FRAME];
+    /** whacks are encoded into this before they are sent */
+    private ByteBuffer out = ByteBuffer.allocate(32);
+    /** keeps whacks from different threads apart, and guards the sequence numbers below */
+    private final ReentrantLock outLock = new ReentrantLock();
+    /** whether the server has answered a ping, and so will answer whacks */
+    private volatile boolean acks;
+    /** the last ping and whack sent, and when each one in flight was sent */
+    private int pingSeq;
+    private final int[] pingSeqs = new int[IN_FLIGHT];
+    private final long[] pingSent = new long[IN_FLIGHT];
+    private int whackSeq;
+    private final int[] whackSeqs = new int[IN_FLIGHT];
+    private final long[] whackSent = new long[IN_FLIGHT];
+    /** round trips of our pings */
+    private final WAMHistogram rtt = new WAMHistogram("rtt", 60, TimeUnit.SECONDS);
+    /** from sending a whack to reading its result */
+    private final WAMHistogram whackToAck = new WAMHistogram("whack-to-ack", 60, TimeUnit.SECONDS);
+    /** where the server's clock stands against ours */
+    private final WhackAMoleClockSync clock = new WhackAMoleClockSync();
+    /** the last {@link WAMProtocol#LEADERBOARD} the server sent */
+    private volatile int[] leaderboard = new int[0];
+    /** whether this client only watches, and must not whack or ping */
+    private boolean spectator;
+    /** whether the game has started, and when it ends on the server's clock */
+    private boolean started;
+    private int end;
 
 
     /**
-     * Accessor that takes multithreaded access into account
+     * Accessor that takes multithreaded access into account. The flag is
+     * volatile rather than guarded by a monitor, so the listener never pins
+     * a carrier thread when it runs on a virtual thread.
      *
      * @return whether it ok to continue or not
      */
-    private synchronized boolean goodToGo() {
+    private boolean goodToGo() {
         return this.go;
     }
 
     /**
      * Multithread-safe mutator
      */
-    private synchronized void stop() {
+    private void stop() {
         this.go = false;
     }
 
@@ -97,21 +182,49 @@ public class WhackAMoleNetworkClient {
     public WhackAMoleNetworkClient(String host, int port)
             throws WhackAMoleException {
         try {
+            this.host = host;
             this.clientSocket = new Socket(host, port);
-            this.networkIn = new Scanner(clientSocket.getInputStream());
+            this.networkIn = new BufferedInputStream(clientSocket.getInputStream());
             this.networkOut = new PrintStream(clientSocket.getOutputStream());
             this.go = true;
-            String request = this.networkIn.next();
-            String[] arguments = this.networkIn.nextLine().strip().split(" ");
-            if (!request.equals(WAMProtocol.WELCOME )) {
+            Integer game = Integer.getInteger(SPECTATE_PROPERTY);
+            boolean text = "text".equalsIgnoreCase(System.getProperty(PROTOCOL_PROPERTY));
+            if (game != null) {
+                // the server picks the format for a spectator, from this line
+                this.spectator = true;
+                this.networkOut.print(SPECTATE + " " + game + (text ? "" : " " + BINARY) + "\n");
+                this.networkOut.flush();
+            }
+            int length = WAMCodec.readLine(this.networkIn, this.in);
+            if (length >= 0) {
+                WAMCodec.decodeText(this.in, 0, length, this.frame);
+            }
+            if (length >= 0 && this.frame.opcode == WAMBinaryProtocol.ERROR) {
+                throw new WhackAMoleException(this.frame.text);
+            }
+            if (length < 0 || this.frame.opcode != WAMBinaryProtocol.WELCOME || this.frame.argCount < 4) {
                 throw new WhackAMoleException("Expected WELCOME from server");
             }
+            int[] arguments = this.frame.args;
             WhackAMoleNetworkClient.dPrint("Connected to server " + this.clientSocket);
-            this.numRow = Integer.parseInt(arguments[0]);
-            this.numCol = Integer.parseInt(arguments[1]);
-            int timeLeft = Integer.parseInt(arguments[3]);
-            this.playerId = Integer.parseInt(arguments[2]);
-            this.board = new WhackAMoleBoard(numRow, numCol, timeLeft);
+            this.numRow = arguments[0];
+            this.numCol = arguments[1];
+            this.playerId = arguments[3];
+            this.frame.boardSize = numRow * numCol;
+            if (this.frame.argCount >= 6 && !this.spectator) {
+                this.session = arguments[4];
+                this.resumePort = arguments[5];
+            }
+            boolean offered = this.frame.binary;
+            if (offered && !text && !this.spectator) {
+                // everything we send after this line is binary
+                WAMCodec.encode(this.out, false, WAMCodec.PROTOCOL);
+                this.networkOut.write(this.out.array(), 0, this.out.position());
+                this.networkOut.flush();
+                this.out.clear();
+                this.binaryOut = true;
+            }
+            this.board = new WhackAMoleBoard(numRow, numCol);
         }
         catch(IOException e) {
             throw new WhackAMoleException(e);
@@ -120,10 +233,128 @@ public class WhackAMoleNetworkClient {
 
     /**
      * Called from the GUI when it is ready to start receiving messages
-     * from the server.
+     * from the server. The listener runs on a virtual thread when the
+     * {@value WAMThreads#PROPERTY} system property asks for one.
      */
     public void startListener() {
-        new Thread(() -> this.run()).start();
+        long interval = Long.getLong(PING_PROPERTY, 1000);
+        if (WAMThreads.useVirtualThreads()) {
+            this.threads = WAMThreads.newVirtualThreadPerTaskExecutor();
+            this.threads.execute(() -> this.run());
+            if (!this.spectator) {
+                this.threads.execute(() -> this.pingLoop(interval));
+            }
+        }
+        else {
+            new Thread(() -> this.run()).start();
+            if (!this.spectator) {
+                Thread pinger = new Thread(() -> this.pingLoop(interval));
+                pinger.setDaemon(true);
+                pinger.start();
+            }
+        }
+    }
+
+    /**
+     * Sends a few quick pings to find the server's clock, then pings at a
+     * fixed interval until the game ends.
+     *
+     * @param interval the milliseconds between pings, or 0 to stop after
+     *                 the first few
+     */
+    private void pingLoop(long interval) {
+        try {
+            for (int i = 0; i < PROBES && this.goodToGo(); i++) {
+                ping();
+                Thread.sleep(PROBE_GAP_MILLIS);
+            }
+            while (interval > 0 && this.goodToGo()) {
+                Thread.sleep(interval);
+                ping();
+            }
+        }
+        catch (InterruptedException e) {
+            // the game is over
+        }
+    }
+
+    /**
+     * Sends the server a {@link WAMProtocol#PING}.
+     */
+    public void ping() {
+        outLock.lock();
+        try {
+            int seq = ++pingSeq & Integer.MAX_VALUE;
+            int slot = seq & (IN_FLIGHT - 1);
+            pingSeqs[slot] = seq;
+            pingSent[slot] = System.nanoTime();
+            send(WAMBinaryProtocol.PING, seq);
+        }
+        finally {
+            outLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message with one argument. Called holding the out lock.
+     */
+    private void send(byte opcode, int arg) {
+        WAMCodec.encode(out, binaryOut, opcode, arg);
+        networkOut.write(out.array(), 0, out.position());
+        networkOut.flush();
+        out.clear();
+    }
+
+    /**
+     * Times the round trip of a ping, or of a whack, from the sequence
+     * number the server echoed.
+     *
+     * @return when the ping or whack was sent, or 0 if it is not known
+     */
+    private long answered(WAMHistogram histogram, int[] seqs, long[] sent, int seq, long now) {
+        outLock.lock();
+        try {
+            int slot = seq & (IN_FLIGHT - 1);
+            long at = sent[slot];
+            if (seqs[slot] != seq || at == 0) {
+                return 0;
+            }
+            histogram.record(now - at);
+            sent[slot] = 0;
+            return at;
+        }
+        finally {
+            outLock.unlock();
+        }
+    }
+
+    /**
+     * Marks the start of the game, and sets the board's countdown from the
+     * server's clock.
+     *
+     * @param now the server's clock when the game started
+     * @param end the server's clock when the game ends
+     */
+    private void gameStarted(int now, int end) {
+        WhackAMoleNetworkClient.dPrint( '!' + GAME_START + ',' + (end - now) + " ms" );
+        clock.guess(System.nanoTime(), now);
+        this.end = end;
+        this.started = true;
+        board.setDeadline(clock.toLocal(end));
+    }
+
+    /**
+     * @return the round trips of the pings sent to the server
+     */
+    public WAMHistogram getRttHistogram() {
+        return rtt;
+    }
+
+    /**
+     * @return the time from sending each whack to reading its result
+     */
+    public WAMHistogram getWhackHistogram() {
+        return whackToAck;
     }
 
     /**
@@ -141,12 +372,63 @@ public class WhackAMoleNetworkClient {
     }
 
     /**
-     * tells that a mole was whacked
+     * tells that a mole was whacked. Once the server has shown it answers
+     * pings, the whack carries a sequence number so its result can be timed.
+     * A spectator's whacks go nowhere.
      * @param id the id of the mole whacked
      */
     public void whack(int id){
-        networkOut.println(WHACK + " " + id + " " + playerId);
-        networkOut.flush();
+        if (this.spectator) {
+            return;
+        }
+        outLock.lock();
+        try {
+            if (acks) {
+                int seq = ++whackSeq & Integer.MAX_VALUE;
+                int slot = seq & (IN_FLIGHT - 1);
+                whackSeqs[slot] = seq;
+                whackSent[slot] = System.nanoTime();
+                WAMCodec.encode(out, binaryOut, WAMBinaryProtocol.WHACK, id, playerId, seq);
+            }
+            else {
+                WAMCodec.encode(out, binaryOut, WAMBinaryProtocol.WHACK, id, playerId);
+            }
+            networkOut.write(out.array(), 0, out.position());
+            networkOut.flush();
+            out.clear();
+        }
+        finally {
+            outLock.unlock();
+        }
+    }
+
+    /**
+     * Asks the server for the best scores across all its games. The answer
+     * arrives later; see {@link #getLeaderboard()}.
+     *
+     * @param count how many places to ask for
+     */
+    public void requestLeaderboard(int count){
+        outLock.lock();
+        try {
+            WAMCodec.encodeList(out, binaryOut, WAMBinaryProtocol.LEADERBOARD, new int[] {count}, 1);
+            networkOut.write(out.array(), 0, out.position());
+            networkOut.flush();
+            out.clear();
+        }
+        finally {
+            outLock.unlock();
+        }
+    }
+
+    /**
+     * @return the last leaderboard the server sent, as in a
+     * {@link WAMProtocol#LEADERBOARD}: this player's rank, the number of
+     * places, then the score, game and player of each; empty if none has
+     * arrived
+     */
+    public int[] getLeaderboard(){
+        return leaderboard;
     }
 
     /**
@@ -183,6 +465,25 @@ public class WhackAMoleNetworkClient {
         this.stop();
     }
 
+    /**
+     * Called when the server sends a spectator the final scores, best
+     * first. Ends the game.
+     *
+     * @param frame the decoded {@link WAMProtocol#GAME_OVER}
+     */
+    public void gameOver(WAMBinaryProtocol.Frame frame) {
+        StringBuilder places = new StringBuilder();
+        for (int i = 1; i + 1 < frame.argCount; i += 2) {
+            if (i > 1) {
+                places.append(", ");
+            }
+            places.append("player ").append(frame.args[i]).append(": ").append(frame.args[i + 1]);
+        }
+        dPrint( '!' + GAME_OVER + " " + places );
+        this.board.gameOver(places.toString());
+        this.stop();
+    }
+
     /**
      * @param score the score of a player to be updated
      */
@@ -203,9 +504,20 @@ public class WhackAMoleNetworkClient {
         catch( IOException ioe ) {
             // squash
         }
+        if (this.threads != null) {
+            this.threads.shutdown();
+        }
+        dPrint( rtt + ", " + whackToAck );
         this.board.close();
     }
 
+    /**
+     * @return whether this client is only watching
+     */
+    public boolean isSpectator() {
+        return spectator;
+    }
+
     /**
      * @return the board for outside use
      */
@@ -213,6 +525,177 @@ public class WhackAMoleNetworkClient {
         return board;
     }
 
+    /**
+     * Takes the seat back after the connection drops, if the server gave
+     * this player a session: connects to the resume port, sends
+     * {@link WAMProtocol#RESUME} and reads the {@link WAMProtocol#SNAPSHOT}
+     * it is answered with. The server may not have seen the old connection
+     * drop yet, so it tries a few times before giving up.
+     *
+     * @return whether the seat was taken back
+     */
+    private boolean resume() {
+        if (this.session == 0) {
+            return false;
+        }
+        for (int attempt = 0; attempt < RESUME_ATTEMPTS && this.goodToGo(); attempt++) {
+            Socket socket = null;
+            try {
+                if (attempt > 0) {
+                    Thread.sleep(RESUME_GAP_MILLIS);
+                }
+                socket = new Socket(this.host, this.resumePort);
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                PrintStream out = new PrintStream(socket.getOutputStream());
+                out.print(RESUME + " " + this.session + (this.binaryOut ? " " + BINARY : "") + "\n");
+                out.flush();
+                int length = WAMCodec.readLine(in, this.in);
+                if (length < 0) {
+                    throw new IOException("Resume port closed");
+                }
+                WAMCodec.decodeText(this.in, 0, length, this.frame);
+                if (this.frame.opcode == WAMCodec.PROTOCOL) {
+                    // the server echoes the switch, then sends binary
+                    length = WAMBinaryProtocol.readFrame(in, this.in);
+                    WAMBinaryProtocol.decode(this.in, 0, length, this.frame);
+                }
+                if (this.frame.opcode == WAMBinaryProtocol.ERROR) {
+                    dPrint( "Cannot resume: " + this.frame.text );
+                    socket.close();
+                    return false;
+                }
+                if (this.frame.opcode != WAMBinaryProtocol.SNAPSHOT) {
+                    throw new IOException("Expected SNAPSHOT from server");
+                }
+                outLock.lock();
+                try {
+                    this.clientSocket.close();
+                    this.clientSocket = socket;
+                    this.networkIn = in;
+                    this.networkOut = out;
+                }
+                finally {
+                    outLock.unlock();
+                }
+                this.binaryIn = this.binaryOut;
+                snapshot(this.frame);
+                return true;
+            }
+            catch (IOException e) {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    }
+                    catch (IOException ioe) {
+                        // squash
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the board, the score and the countdown from a
+     * {@link WAMProtocol#SNAPSHOT}.
+     *
+     * @param frame the decoded snapshot
+     */
+    private void snapshot(WAMBinaryProtocol.Frame frame) {
+        int players = frame.args[2];
+        if (this.playerId < players) {
+            setScore(frame.args[3 + this.playerId]);
+        }
+        board.setAll(frame.args, 4 + players, WAMBinaryProtocol.snapshotMoles(frame));
+        int remaining = frame.args[1];
+        if (remaining >= 0) {
+            board.setDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remaining));
+        }
+        WhackAMoleNetworkClient.dPrint( '!' + SNAPSHOT + ',' + remaining + " ms left" );
+    }
+
+    /**
+     * Acts on a single message from the server, in either format.
+     *
+     * @param frame the decoded message
+     */
+    private void dispatch(WAMBinaryProtocol.Frame frame) {
+        switch ( frame.opcode ) {
+            case WAMBinaryProtocol.MOLE_UP:
+                board.setUp(frame.args[0]);
+                break;
+            case WAMBinaryProtocol.MOLE_DOWN:
+                board.setDown(frame.args[0]);
+                break;
+            case WAMBinaryProtocol.BOARD_DELTA:
+                int ups = frame.args[0];
+                board.applyDelta(frame.args, 1, ups, ups + 2, frame.args[ups + 1]);
+                break;
+            case WAMBinaryProtocol.GAME_WON:
+                gameWon();
+                break;
+            case WAMBinaryProtocol.GAME_LOST:
+                gameLost();
+                break;
+            case WAMBinaryProtocol.GAME_TIED:
+                gameTied();
+                break;
+            case WAMBinaryProtocol.GAME_OVER:
+                gameOver(frame);
+                break;
+            case WAMBinaryProtocol.ERROR:
+                error( frame.text );
+                break;
+            case WAMBinaryProtocol.SCORE:
+                setScore(frame.args[1]);
+                break;
+            case WAMBinaryProtocol.PING:
+                outLock.lock();
+                try {
+                    send(WAMBinaryProtocol.PONG, frame.args[0]);
+                }
+                finally {
+                    outLock.unlock();
+                }
+                break;
+            case WAMBinaryProtocol.PONG:
+                this.acks = true;
+                long now = System.nanoTime();
+                long sent = answered(rtt, pingSeqs, pingSent, frame.args[0], now);
+                if (sent != 0 && frame.argCount > 1 && clock.sample(sent, now, frame.args[1]) && started) {
+                    // a closer estimate of the server's clock moves the end of the game
+                    board.setDeadline(clock.toLocal(end));
+                }
+                break;
+            case WAMBinaryProtocol.WHACK_RESULT:
+                answered(whackToAck, whackSeqs, whackSent, frame.args[0], System.nanoTime());
+                break;
+            case WAMBinaryProtocol.LEADERBOARD:
+                this.leaderboard = Arrays.copyOfRange(frame.args, 1, frame.argCount);
+                break;
+            case WAMBinaryProtocol.GAME_START:
+                gameStarted(frame.args[0], frame.args[1]);
+                break;
+            case WAMBinaryProtocol.SNAPSHOT:
+                snapshot(frame);
+                break;
+            case WAMCodec.PROTOCOL:
+                // the server has switched, everything after this is binary
+                this.binaryIn = true;
+                break;
+            case 0:
+                break;
+            default:
+                System.err.println("Unrecognized request: " + frame.opcode);
+                this.stop();
+                break;
+        }
+    }
+
     /**
      * Run the main client loop. Intended to be started as a separate
      * thread internally. This method is made private so that no one
@@ -221,43 +704,26 @@ public class WhackAMoleNetworkClient {
     private void run() {
         while (this.goodToGo()) {
             try {
-                String request = this.networkIn.next();
-                System.out.println(request);
-                String[] arguments = this.networkIn.nextLine().trim().split(" ");
-                WhackAMoleNetworkClient.dPrint( "Net message in = \"" + request + '"' + arguments[0] );
-
-                switch ( request ) {
-                    case MOLE_UP:
-                        board.setUp(Integer.parseInt(arguments[0]));
-                        break;
-                    case MOLE_DOWN:
-                        board.setDown(Integer.parseInt(arguments[0]));
-                        break;
-                    case GAME_WON:
-                        gameWon();
-                        break;
-                    case GAME_LOST:
-                        gameLost();
-                        break;
-                    case GAME_TIED:
-                        gameTied();
-                        break;
-                    case ERROR:
-                        error( arguments[0] );
-                        break;
-                    case SCORE:
-                        setScore(Integer.parseInt(arguments[0]));
-                        break;
-                    default:
-                        System.err.println("Unrecognized request: " + request);
-                        this.stop();
-                        break;
+                int length;
+                if (this.binaryIn) {
+                    length = WAMBinaryProtocol.readFrame(this.networkIn, this.in);
+                    WAMBinaryProtocol.decode(this.in, 0, length, this.frame);
+                }
+                else {
+                    length = WAMCodec.readLine(this.networkIn, this.in);
+                    if (length < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    WAMCodec.decodeText(this.in, 0, length, this.frame);
                 }
+                dispatch(this.frame);
             }
-            catch( NoSuchElementException nse ) {
-                // Looks like the connection shut down.
-                this.error( "Lost connection to server." );
-                this.stop();
+            catch( NoSuchElementException | IOException e ) {
+                // Looks like the connection shut down; take the seat back if the server is holding it.
+                if (!this.resume()) {
+                    this.error( "Lost connection to server." );
+                    this.stop();
+                }
             }
             catch( Exception e ) {
                 this.error( e.getMessage() + '?' );
@@ -0,0 +1,896 @@
+package common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary framing of the {@link WAMProtocol} messages. Each frame
+ * is a one byte opcode followed by its arguments as variable-length
+ * integers (seven bits per byte, low bits first). Scores may be negative,
+ * so they are zig-zag encoded first. The {@link #ERROR} text is sent as a
+ * length followed by that many UTF-8 bytes. The mole lists of a
+ * {@link #BOARD_DELTA} are sorted and sent as the gaps between neighbours,
+ * which keeps nearby moles to a byte each.<br>
+ *
+ * The server offers binary by adding {@link WAMProtocol#BINARY} to the end
+ * of its {@link WAMProtocol#WELCOME}. A client that wants it answers with
+ * the text line {@code PROTOCOL BINARY} and sends binary frames from then on.
+ * The server echoes {@code PROTOCOL BINARY} as its last text line, and sends
+ * binary frames after it.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public final class WAMBinaryProtocol {
+    /** Arguments: rows, columns, number of players, player number */
+    public static final byte WELCOME = 1;
+    /** Argument: the mole number */
+    public static final byte MOLE_UP = 2;
+    /** Argument: the mole number */
+    public static final byte MOLE_DOWN = 3;
+    /** Arguments: the mole number, the player number */
+    public static final byte WHACK = 4;
+    /** Arguments: the number of scores, then each zig-zag encoded score */
+    public static final byte SCORE = 5;
+    /** No arguments */
+    public static final byte GAME_WON = 6;
+    /** No arguments */
+    public static final byte GAME_LOST = 7;
+    /** No arguments */
+    public static final byte GAME_TIED = 8;
+    /** Argument: the length of the message, then its UTF-8 bytes */
+    public static final byte ERROR = 9;
+    /**
+     * Arguments: the number of moles that rose and their gaps, then the
+     * number of moles that fell and their gaps. Decoded into
+     * {@link Frame#args} as the count, the mole numbers, the count, the mole
+     * numbers.
+     */
+    public static final byte BOARD_DELTA = 10;
+    /* 11 is the text-only WAMCodec.PROTOCOL */
+    /** Argument: a sequence number to echo in the {@link #PONG} */
+    public static final byte PING = 12;
+    /** Argument: the sequence number of the {@link #PING} being answered */
+    public static final byte PONG = 13;
+    /**
+     * Arguments: the sequence number of the whack, 1 for a hit or 0 for a
+     * miss, and the milliseconds since the game started
+     */
+    public static final byte WHACK_RESULT = 14;
+    /**
+     * Arguments: the mole number, the player number, a sequence number. A
+     * {@link #WHACK} that wants a {@link #WHACK_RESULT}; it is decoded as a
+     * {@link #WHACK} with three arguments.
+     */
+    public static final byte WHACK_ACKED = 15;
+    /**
+     * Arguments: the sequence number of the {@link #PING} being answered, and
+     * the server's clock when it answered. The server's {@link #PONG}; it is
+     * decoded as a {@link #PONG} with two arguments.
+     */
+    public static final byte PONG_TIMED = 16;
+    /**
+     * Arguments: the server's clock when the game started, and when it ends
+     */
+    public static final byte GAME_START = 17;
+    /**
+     * Arguments: the number of values, then each zig-zag encoded, as in a
+     * {@link #SCORE}. From a client, one value: how many places it wants.
+     * From the server: the player's rank, the number of places, then the
+     * score, game and player of each.
+     */
+    public static final byte LEADERBOARD = 18;
+    /* 19 is the text-only WAMCodec.SPECTATE */
+    /**
+     * Arguments: the player number, the milliseconds left, a score list as
+     * in a {@link #SCORE}, the number of moles, then the board bitmap as
+     * raw bytes, one bit a mole. Decoded into {@link Frame#args} as the
+     * player number, the milliseconds left, the count, the scores, the
+     * number of moles, then the bitmap as ints, mole i in bit i % 32 of int
+     * i / 32.
+     */
+    public static final byte SNAPSHOT = 20;
+    /**
+     * Arguments: the first row, the first column, the number of rows and
+     * the number of columns of the part of the board the client wants
+     */
+    public static final byte VIEWPORT = 22;
+    /**
+     * Arguments: the mole number, and the server's clock when it rose. A
+     * stamped {@link #MOLE_UP}; it is decoded as a {@link #MOLE_UP} with two
+     * arguments.
+     */
+    public static final byte MOLE_UP_TIMED = 23;
+    /**
+     * Arguments: those of a {@link #BOARD_DELTA}, then the server's clock
+     * when it was sent. A stamped {@link #BOARD_DELTA}; it is decoded as a
+     * {@link #BOARD_DELTA} with the clock as its last argument.
+     */
+    public static final byte BOARD_DELTA_TIMED = 24;
+    /**
+     * Arguments: the number of values, then each zig-zag encoded, as in a
+     * {@link #SCORE}: the player number and final score of every player,
+     * best first. A spectator's result.
+     */
+    public static final byte GAME_OVER = 25;
+
+    /** the longest frame either side will accept */
+    public static final int MAX_FRAME = 65536;
+
+    private WAMBinaryProtocol() {
+    }
+
+    /**
+     * A decoded frame. One is kept per reader and filled in again for every
+     * frame, so decoding does not allocate.
+     */
+    public static final class Frame {
+        /** the opcode of the frame */
+        public byte opcode;
+        /** how many integer arguments were decoded into {@link #args} */
+        public int argCount;
+        /** the integer arguments, scores already zig-zag decoded */
+        public int[] args = new int[8];
+        /** the text of an {@link #ERROR} frame */
+        public String text;
+        /** whether a text message named the {@link WAMProtocol#BINARY} format */
+        public boolean binary;
+        /**
+         * how many moles are on the board, once the reader knows, so that
+         * moles past it are refused; 0 for no limit
+         */
+        public int boardSize;
+    }
+
+    /**
+     * Writes a variable-length unsigned integer.
+     *
+     * @param buffer where to write it
+     * @param value the value, treated as unsigned
+     */
+    public static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * @param value any int
+     * @return the value with its sign moved to the low bit
+     */
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * @param value a zig-zag encoded int
+     * @return the original value
+     */
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a frame with no arguments.
+     *
+     * @param buffer where to write it
+     * @param opcode the opcode
+     */
+    public static void put(ByteBuffer buffer, byte opcode) {
+        buffer.put(opcode);
+    }
+
+    /**
+     * Writes a frame with one argument.
+     *
+     * @param buffer where to write it
+     * @param opcode the opcode
+     * @param arg the argument
+     */
+    public static void put(ByteBuffer buffer, byte opcode, int arg) {
+        buffer.put(opcode);
+        if (opcode == SCORE) {
+            putVarint(buffer, 1);
+            putVarint(buffer, zigZag(arg));
+        }
+        else {
+            putVarint(buffer, arg);
+        }
+    }
+
+    /**
+     * Writes a frame with two arguments. A {@link #PONG} is written as a
+     * {@link #PONG_TIMED}, and a {@link #MOLE_UP} as a {@link #MOLE_UP_TIMED}.
+     *
+     * @param buffer where to write it
+     * @param opcode the opcode
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public static void put(ByteBuffer buffer, byte opcode, int first, int second) {
+        buffer.put(opcode == PONG ? PONG_TIMED : opcode == MOLE_UP ? MOLE_UP_TIMED : opcode);
+        putVarint(buffer, first);
+        putVarint(buffer, second);
+    }
+
+    /**
+     * Writes a frame with three arguments. A {@link #WHACK} is written as a
+     * {@link #WHACK_ACKED}.
+     *
+     * @param buffer where to write it
+     * @param opcode the opcode
+     * @param first the first argument
+     * @param second the second argument
+     * @param third the third argument
+     */
+    public static void put(ByteBuffer buffer, byte opcode, int first, int second, int third) {
+        buffer.put(opcode == WHACK ? WHACK_ACKED : opcode);
+        putVarint(buffer, first);
+        putVarint(buffer, second);
+        putVarint(buffer, third);
+    }
+
+    /**
+     * Writes a frame with four arguments.
+     *
+     * @param buffer where to write it
+     * @param opcode the opcode
+     * @param first the first argument
+     * @param second the second argument
+     * @param third the third argument
+     * @param fourth the fourth argument
+     */
+    public static void put(ByteBuffer buffer, byte opcode, int first, int second, int third, int fourth) {
+        buffer.put(opcode);
+        putVarint(buffer, first);
+        putVarint(buffer, second);
+        putVarint(buffer, third);
+        putVarint(buffer, fourth);
+    }
+
+    /**
+     * @param opcode a frame with no arguments
+     * @return the encoded frame, ready to read
+     */
+    public static ByteBuffer frame(byte opcode) {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        put(buffer, opcode);
+        return buffer.flip();
+    }
+
+    /**
+     * @param opcode a frame with one argument; a {@link #SCORE} is sent as a
+     *               single score
+     * @param arg the argument
+     * @return the encoded frame, ready to read
+     */
+    public static ByteBuffer frame(byte opcode, int arg) {
+        ByteBuffer buffer = ByteBuffer.allocate(7);
+        put(buffer, opcode, arg);
+        return buffer.flip();
+    }
+
+    /**
+     * @param opcode a frame with two arguments
+     * @param first the first argument
+     * @param second the second argument
+     * @return the encoded frame, ready to read
+     */
+    public static ByteBuffer frame(byte opcode, int first, int second) {
+        ByteBuffer buffer = ByteBuffer.allocate(11);
+        put(buffer, opcode, first, second);
+        return buffer.flip();
+    }
+
+    /**
+     * @param scores every player's score, in order of player number
+     * @return the encoded {@link #SCORE} frame, ready to read
+     */
+    public static ByteBuffer scoreFrame(int... scores) {
+        ByteBuffer buffer = ByteBuffer.allocate(6 + 5 * scores.length);
+        putList(buffer, SCORE, scores, scores.length);
+        return buffer.flip();
+    }
+
+    /**
+     * Writes a frame holding a list of values, like a {@link #SCORE} or a
+     * {@link #LEADERBOARD}.
+     *
+     * @param buffer where to write it; 6 + 5 * count bytes always fit
+     * @param opcode the opcode
+     * @param values the values
+     * @param count how many of them to write
+     */
+    public static void putList(ByteBuffer buffer, byte opcode, int[] values, int count) {
+        buffer.put(opcode);
+        putVarint(buffer, count);
+        for (int i = 0; i < count; i++) {
+            putVarint(buffer, zigZag(values[i]));
+        }
+    }
+
+    /**
+     * @param message the text to show
+     * @return the encoded {@link #ERROR} frame, ready to read
+     */
+    public static ByteBuffer errorFrame(String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(6 + text.length);
+        buffer.put(ERROR);
+        putVarint(buffer, text.length);
+        buffer.put(text);
+        return buffer.flip();
+    }
+
+    /**
+     * Writes a {@link #BOARD_DELTA}, or a {@link #BOARD_DELTA_TIMED} if it
+     * is stamped.
+     *
+     * @param buffer where to write it
+     * @param ups the moles that rose, sorted
+     * @param upCount how many moles rose
+     * @param downs the moles that fell, sorted
+     * @param downCount how many moles fell
+     * @param stamped whether to add the clock
+     * @param clock the server's clock as the delta is sent
+     */
+    public static void putDelta(ByteBuffer buffer, int[] ups, int upCount, int[] downs, int downCount,
+                                boolean stamped, int clock) {
+        buffer.put(stamped ? BOARD_DELTA_TIMED : BOARD_DELTA);
+        putMoles(buffer, ups, upCount);
+        putMoles(buffer, downs, downCount);
+        if (stamped) {
+            putVarint(buffer, clock);
+        }
+    }
+
+    /**
+     * @param frame a decoded {@link #MOLE_UP} or {@link #BOARD_DELTA}
+     * @return whether the server stamped it with its clock, which is then
+     * its last argument
+     */
+    public static boolean isStamped(Frame frame) {
+        if (frame.opcode == MOLE_UP) {
+            return frame.argCount > 1;
+        }
+        return frame.opcode == BOARD_DELTA && frame.argCount > 2 + frame.args[0] + frame.args[frame.args[0] + 1];
+    }
+
+    /**
+     * @param player the player number
+     * @param remaining the milliseconds left in the game, or -1
+     * @param scores every player's score
+     * @param board which moles are up, one bit a mole
+     * @param moles how many moles the bitmap holds
+     * @return the encoded {@link #SNAPSHOT} frame, ready to read
+     */
+    public static ByteBuffer snapshotFrame(int player, int remaining, int[] scores, byte[] board, int moles) {
+        int bytes = (moles + 7) >>> 3;
+        ByteBuffer buffer = ByteBuffer.allocate(21 + 5 * scores.length + bytes);
+        buffer.put(SNAPSHOT);
+        putVarint(buffer, player);
+        putVarint(buffer, remaining);
+        putVarint(buffer, scores.length);
+        for (int score : scores) {
+            putVarint(buffer, zigZag(score));
+        }
+        putVarint(buffer, moles);
+        buffer.put(board, 0, bytes);
+        return buffer.flip();
+    }
+
+    /**
+     * @param snapshot a decoded {@link #SNAPSHOT}
+     * @return how many moles its bitmap holds
+     */
+    public static int snapshotMoles(Frame snapshot) {
+        return snapshot.args[3 + snapshot.args[2]];
+    }
+
+    /**
+     * @param snapshot a decoded {@link #SNAPSHOT}
+     * @param mole a mole below {@link #snapshotMoles(Frame)}
+     * @return whether the snapshot has the mole up
+     */
+    public static boolean snapshotIsUp(Frame snapshot, int mole) {
+        int board = 4 + snapshot.args[2];
+        return (snapshot.args[board + (mole >>> 5)] & (1 << mole)) != 0;
+    }
+
+    /**
+     * Adds a bitmap of bytes to a frame's arguments as ints, four bytes to
+     * an int, low byte first.
+     *
+     * @param bytes the bitmap
+     * @param off where it starts
+     * @param len how many bytes it is
+     * @param into the frame
+     */
+    static void addBitmap(byte[] bytes, int off, int len, Frame into) {
+        int words = (len + 3) >>> 2;
+        if (into.argCount + words > into.args.length) {
+            int[] args = new int[Math.max(into.args.length * 2, into.argCount + words)];
+            System.arraycopy(into.args, 0, args, 0, into.argCount);
+            into.args = args;
+        }
+        for (int i = 0; i < words; i++) {
+            int word = 0;
+            for (int b = 0; b < 4 && 4 * i + b < len; b++) {
+                word |= (bytes[off + 4 * i + b] & 0xFF) << (8 * b);
+            }
+            into.args[into.argCount++] = word;
+        }
+    }
+
+    /**
+     * Writes a count and then the gaps between sorted mole numbers.
+     */
+    private static void putMoles(ByteBuffer buffer, int[] moles, int count) {
+        putVarint(buffer, count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            putVarint(buffer, moles[i] - previous);
+            previous = moles[i];
+        }
+    }
+
+    /**
+     * Finds where the first frame in some bytes ends.
+     *
+     * @param buf the bytes
+     * @param off where the frame starts
+     * @param len how many bytes there are
+     * @return the length of the frame, or -1 if it has not all arrived yet
+     * @throws IOException If the bytes are not a frame.
+     */
+    public static int frameLength(byte[] buf, int off, int len) throws IOException {
+        if (len < 1) {
+            return -1;
+        }
+        int end = off + len;
+        int pos = off + 1;
+        int varints;
+        switch (buf[off]) {
+            case GAME_WON:
+            case GAME_LOST:
+            case GAME_TIED:
+                return 1;
+            case MOLE_UP:
+            case MOLE_DOWN:
+            case PING:
+            case PONG:
+                varints = 1;
+                break;
+            case WHACK:
+            case PONG_TIMED:
+            case GAME_START:
+            case MOLE_UP_TIMED:
+                varints = 2;
+                break;
+            case WHACK_ACKED:
+            case WHACK_RESULT:
+                varints = 3;
+                break;
+            case WELCOME:
+            case VIEWPORT:
+                varints = 4;
+                break;
+            case BOARD_DELTA:
+            case BOARD_DELTA_TIMED:
+                for (int list = 0; list < 2; list++) {
+                    int count = 0;
+                    int shift = 0;
+                    while (true) {
+                        if (pos == end) {
+                            return -1;
+                        }
+                        byte b = buf[pos++];
+                        count |= (b & 0x7F) << shift;
+                        if (b >= 0) {
+                            break;
+                        }
+                        shift += 7;
+                    }
+                    if (count < 0 || count > MAX_FRAME) {
+                        throw new IOException("Frame too long");
+                    }
+                    for (int i = 0; i < count; i++) {
+                        do {
+                            if (pos == end) {
+                                return -1;
+                            }
+                        } while (buf[pos++] < 0);
+                    }
+                }
+                if (buf[off] == BOARD_DELTA_TIMED && (pos = varintEnd(buf, pos, end)) < 0) {
+                    return -1;
+                }
+                return pos - off;
+            case SNAPSHOT:
+                for (int i = 0; i < 2; i++) {
+                    if ((pos = varintEnd(buf, pos, end)) < 0) {
+                        return -1;
+                    }
+                }
+                long read = varintAt(buf, pos, end);
+                if (read < 0) {
+                    return -1;
+                }
+                int players = (int) read;
+                pos = (int) (read >>> 32);
+                if (players < 0 || players > MAX_FRAME) {
+                    throw new IOException("Frame too long");
+                }
+                for (int i = 0; i < players; i++) {
+                    if ((pos = varintEnd(buf, pos, end)) < 0) {
+                        return -1;
+                    }
+                }
+                if ((read = varintAt(buf, pos, end)) < 0) {
+                    return -1;
+                }
+                pos = (int) (read >>> 32);
+                long bitmap = ((read & 0xFFFFFFFFL) + 7) >>> 3;
+                if (bitmap > MAX_FRAME) {
+                    throw new IOException("Frame too long");
+                }
+                return pos + bitmap <= end ? (int) (pos + bitmap - off) : -1;
+            case SCORE:
+            case LEADERBOARD:
+            case GAME_OVER:
+            case ERROR:
+                int count = 0;
+                int shift = 0;
+                while (true) {
+                    if (pos == end) {
+                        return -1;
+                    }
+                    byte b = buf[pos++];
+                    count |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                    shift += 7;
+                }
+                if (count < 0 || count > MAX_FRAME) {
+                    throw new IOException("Frame too long");
+                }
+                if (buf[off] == ERROR) {
+                    return pos + count <= end ? pos + count - off : -1;
+                }
+                varints = count;
+                break;
+            default:
+                throw new IOException("Unknown opcode " + buf[off]);
+        }
+        for (int i = 0; i < varints; i++) {
+            do {
+                if (pos == end) {
+                    return -1;
+                }
+            } while (buf[pos++] < 0);
+        }
+        return pos - off;
+    }
+
+    /**
+     * Skips a varint that has arrived in full.
+     *
+     * @return where the varint ends, or -1 if it has not all arrived
+     */
+    private static int varintEnd(byte[] buf, int pos, int end) {
+        do {
+            if (pos == end) {
+                return -1;
+            }
+        } while (buf[pos++] < 0);
+        return pos;
+    }
+
+    /**
+     * Reads a varint that has arrived in full, without allocating.
+     *
+     * @return where the varint ends in the high 32 bits and its value in the
+     * low 32, or -1 if it has not all arrived
+     */
+    private static long varintAt(byte[] buf, int pos, int end) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (pos == end) {
+                return -1;
+            }
+            b = buf[pos++];
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (long) pos << 32 | (result & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decodes a complete frame.
+     *
+     * @param buf the bytes
+     * @param off where the frame starts
+     * @param len the length of the frame, as given by {@link #frameLength}
+     * @param into the frame to fill in
+     * @throws IOException If a count or length does not fit the frame or the board.
+     */
+    public static void decode(byte[] buf, int off, int len, Frame into) throws IOException {
+        int end = off + len;
+        int pos = off + 1;
+        into.opcode = opcodeOf(buf[off]);
+        into.argCount = 0;
+        into.text = null;
+        into.binary = false;
+        while (pos < end) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos == end) {
+                    throw new IOException("Frame cut short");
+                }
+                b = buf[pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (into.opcode == ERROR) {
+                if (value < 0 || value > end - pos) {
+                    throw new IOException("Frame cut short");
+                }
+                into.text = new String(buf, pos, value, StandardCharsets.UTF_8);
+                return;
+            }
+            if (into.opcode == SNAPSHOT && into.argCount > 2 && into.argCount == 3 + into.args[2]) {
+                into.args[into.argCount++] = value;
+                addBitmap(buf, pos, end - pos, into);
+                break;
+            }
+            if (into.argCount == into.args.length) {
+                int[] args = new int[into.args.length * 2];
+                System.arraycopy(into.args, 0, args, 0, into.argCount);
+                into.args = args;
+            }
+            into.args[into.argCount++] = value;
+        }
+        if (into.opcode == SCORE || into.opcode == LEADERBOARD || into.opcode == GAME_OVER) {
+            for (int i = 1; i < into.argCount; i++) {
+                into.args[i] = unZigZag(into.args[i]);
+            }
+        }
+        else if (into.opcode == SNAPSHOT) {
+            for (int i = 3; i < into.argCount && i < 3 + into.args[2]; i++) {
+                into.args[i] = unZigZag(into.args[i]);
+            }
+        }
+        else if (into.opcode == BOARD_DELTA) {
+            int i = 0;
+            for (int list = 0; list < 2 && i < into.argCount; list++) {
+                int count = into.args[i++];
+                for (int mole = 0; mole < count && i < into.argCount; mole++, i++) {
+                    if (mole > 0) {
+                        into.args[i] += into.args[i - 1];
+                    }
+                }
+            }
+        }
+        check(into);
+    }
+
+    /**
+     * Checks that a decoded frame's counts agree with how many arguments it
+     * has, and that the moles it names are on the board, so that a bad
+     * frame is refused here and not by whoever acts on it.
+     *
+     * @param frame the frame
+     * @throws IOException If they do not.
+     */
+    static void check(Frame frame) throws IOException {
+        int[] args = frame.args;
+        int count = frame.argCount;
+        int size = frame.boardSize > 0 ? frame.boardSize : Integer.MAX_VALUE;
+        switch (frame.opcode) {
+            case WELCOME:
+                if (count >= 2 && (args[0] <= 0 || args[1] <= 0 || (long) args[0] * args[1] > Integer.MAX_VALUE)) {
+                    throw new IOException("Bad board size");
+                }
+                break;
+            case MOLE_UP:
+            case MOLE_DOWN:
+                if (count < 1 || args[0] < 0 || args[0] >= size) {
+                    throw new IOException("Not a mole");
+                }
+                break;
+            case SCORE:
+            case LEADERBOARD:
+                if (count < 1 || args[0] != count - 1) {
+                    throw new IOException("Bad count");
+                }
+                break;
+            case GAME_OVER:
+                if (count < 1 || args[0] != count - 1 || (args[0] & 1) != 0) {
+                    throw new IOException("Bad count");
+                }
+                break;
+            case BOARD_DELTA:
+                if (count < 2 || args[0] < 0 || args[0] > count - 2) {
+                    throw new IOException("Bad count");
+                }
+                // anything after the two lists can only be the server's clock
+                int stamps = count - 2 - args[0] - args[args[0] + 1];
+                if (args[args[0] + 1] < 0 || stamps < 0 || stamps > 1) {
+                    throw new IOException("Bad count");
+                }
+                for (int i = 1; i < count - stamps; i++) {
+                    if (i != args[0] + 1 && (args[i] < 0 || args[i] >= size)) {
+                        throw new IOException("Not a mole");
+                    }
+                }
+                break;
+            case SNAPSHOT:
+                if (count < 4 || args[2] < 0 || args[2] > count - 4) {
+                    throw new IOException("Bad count");
+                }
+                int moles = args[3 + args[2]];
+                if (moles < 0 || moles > size || count - 4 - args[2] != (moles + 31) >>> 5) {
+                    throw new IOException("Bad bitmap");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the opcode a frame is decoded as
+     */
+    private static byte opcodeOf(byte opcode) {
+        switch (opcode) {
+            case WHACK_ACKED:
+                return WHACK;
+            case PONG_TIMED:
+                return PONG;
+            case MOLE_UP_TIMED:
+                return MOLE_UP;
+            case BOARD_DELTA_TIMED:
+                return BOARD_DELTA;
+            default:
+                return opcode;
+        }
+    }
+
+    /**
+     * Reads a single frame from a blocking stream.
+     *
+     * @param in the stream
+     * @param buf where to put the frame; at least {@link #MAX_FRAME} long
+     * @return the length of the frame
+     * @throws IOException If the stream ends or does not hold a frame.
+     */
+    public static int readFrame(InputStream in, byte[] buf) throws IOException {
+        int len = copy(in, buf, 0);
+        switch (buf[0]) {
+            case GAME_WON:
+            case GAME_LOST:
+            case GAME_TIED:
+                return len;
+            case MOLE_UP:
+            case MOLE_DOWN:
+            case PING:
+            case PONG:
+                return copyVarints(in, buf, len, 1);
+            case WHACK:
+            case PONG_TIMED:
+            case GAME_START:
+            case MOLE_UP_TIMED:
+                return copyVarints(in, buf, len, 2);
+            case WHACK_ACKED:
+            case WHACK_RESULT:
+                return copyVarints(in, buf, len, 3);
+            case WELCOME:
+            case VIEWPORT:
+                return copyVarints(in, buf, len, 4);
+            case SCORE:
+            case LEADERBOARD:
+            case GAME_OVER:
+                return copyList(in, buf, len);
+            case BOARD_DELTA:
+                return copyList(in, buf, copyList(in, buf, len));
+            case BOARD_DELTA_TIMED:
+                return copyVarints(in, buf, copyList(in, buf, copyList(in, buf, len)), 1);
+            case SNAPSHOT:
+                len = copyList(in, buf, copyVarints(in, buf, len, 2));
+                int moles = len;
+                len = copyVarints(in, buf, len, 1);
+                long bitmap = ((varintAt(buf, moles) & 0xFFFFFFFFL) + 7) >>> 3;
+                if (len + bitmap > buf.length) {
+                    throw new IOException("Frame too long");
+                }
+                for (long i = 0; i < bitmap; i++) {
+                    len = copy(in, buf, len);
+                }
+                return len;
+            case ERROR:
+                int start = len;
+                len = copyVarints(in, buf, len, 1);
+                int count = varintAt(buf, start);
+                if (count < 0 || count > MAX_FRAME) {
+                    throw new IOException("Frame too long");
+                }
+                for (int i = 0; i < count; i++) {
+                    len = copy(in, buf, len);
+                }
+                return len;
+            default:
+                throw new IOException("Unknown opcode " + buf[0]);
+        }
+    }
+
+    /**
+     * Copies one byte from the stream into the frame.
+     *
+     * @return the new length of the frame
+     */
+    private static int copy(InputStream in, byte[] buf, int len) throws IOException {
+        if (len == buf.length) {
+            throw new IOException("Frame too long");
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        buf[len] = (byte) b;
+        return len + 1;
+    }
+
+    /**
+     * Copies whole varints from the stream into the frame.
+     *
+     * @return the new length of the frame
+     */
+    private static int copyVarints(InputStream in, byte[] buf, int len, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            do {
+                len = copy(in, buf, len);
+            } while (buf[len - 1] < 0);
+        }
+        return len;
+    }
+
+    /**
+     * Copies a count, and then that many varints, from the stream.
+     *
+     * @return the new length of the frame
+     */
+    private static int copyList(InputStream in, byte[] buf, int len) throws IOException {
+        int start = len;
+        len = copyVarints(in, buf, len, 1);
+        int count = varintAt(buf, start);
+        if (count < 0 || count > MAX_FRAME) {
+            throw new IOException("Frame too long");
+        }
+        return copyVarints(in, buf, len, count);
+    }
+
+    /**
+     * @return the varint that starts at the given place in the frame
+     */
+    private static int varintAt(byte[] buf, int pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,544 @@
+package common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes {@link WAMProtocol} messages in either wire format
+ * straight from and into bytes. Text lines are decoded into the same
+ * {@link WAMBinaryProtocol.Frame} as binary frames, with the same opcodes and
+ * argument layout, so a reader dispatches on the opcode alone. Integers are
+ * parsed and printed in place, and nothing is allocated per message except
+ * the text of an {@link WAMProtocol#ERROR}.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public final class WAMCodec {
+    /**
+     * The opcode of a text {@link WAMProtocol#PROTOCOL} line. It is never
+     * sent as a binary frame.
+     */
+    public static final byte PROTOCOL = 11;
+
+    /**
+     * The opcode of a text {@link WAMProtocol#SPECTATE} line. It is never
+     * sent as a binary frame.
+     */
+    public static final byte SPECTATE = 19;
+
+    /**
+     * The opcode of a text {@link WAMProtocol#RESUME} line. It is never
+     * sent as a binary frame.
+     */
+    public static final byte RESUME = 21;
+
+    /** the longest text line either side will accept */
+    public static final int MAX_LINE = WAMBinaryProtocol.MAX_FRAME;
+
+    /** the name of each message, as ASCII, indexed by opcode */
+    private static final byte[][] NAMES = new byte[WAMBinaryProtocol.GAME_OVER + 1][];
+    private static final byte[] BINARY = ascii(WAMProtocol.BINARY);
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    static {
+        NAMES[WAMBinaryProtocol.WELCOME] = ascii(WAMProtocol.WELCOME);
+        NAMES[WAMBinaryProtocol.MOLE_UP] = ascii(WAMProtocol.MOLE_UP);
+        NAMES[WAMBinaryProtocol.MOLE_DOWN] = ascii(WAMProtocol.MOLE_DOWN);
+        NAMES[WAMBinaryProtocol.WHACK] = ascii(WAMProtocol.WHACK);
+        NAMES[WAMBinaryProtocol.SCORE] = ascii(WAMProtocol.SCORE);
+        NAMES[WAMBinaryProtocol.GAME_WON] = ascii(WAMProtocol.GAME_WON);
+        NAMES[WAMBinaryProtocol.GAME_LOST] = ascii(WAMProtocol.GAME_LOST);
+        NAMES[WAMBinaryProtocol.GAME_TIED] = ascii(WAMProtocol.GAME_TIED);
+        NAMES[WAMBinaryProtocol.ERROR] = ascii(WAMProtocol.ERROR);
+        NAMES[WAMBinaryProtocol.BOARD_DELTA] = ascii(WAMProtocol.BOARD_DELTA);
+        NAMES[PROTOCOL] = ascii(WAMProtocol.PROTOCOL);
+        NAMES[WAMBinaryProtocol.PING] = ascii(WAMProtocol.PING);
+        NAMES[WAMBinaryProtocol.PONG] = ascii(WAMProtocol.PONG);
+        NAMES[WAMBinaryProtocol.WHACK_RESULT] = ascii(WAMProtocol.WHACK_RESULT);
+        NAMES[WAMBinaryProtocol.GAME_START] = ascii(WAMProtocol.GAME_START);
+        NAMES[WAMBinaryProtocol.LEADERBOARD] = ascii(WAMProtocol.LEADERBOARD);
+        NAMES[SPECTATE] = ascii(WAMProtocol.SPECTATE);
+        NAMES[WAMBinaryProtocol.SNAPSHOT] = ascii(WAMProtocol.SNAPSHOT);
+        NAMES[RESUME] = ascii(WAMProtocol.RESUME);
+        NAMES[WAMBinaryProtocol.VIEWPORT] = ascii(WAMProtocol.VIEWPORT);
+        NAMES[WAMBinaryProtocol.GAME_OVER] = ascii(WAMProtocol.GAME_OVER);
+    }
+
+    private WAMCodec() {
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param opcode an opcode
+     * @return the name of the message, or null if there is no such opcode
+     */
+    public static String name(byte opcode) {
+        return opcode > 0 && opcode < NAMES.length && NAMES[opcode] != null
+                ? new String(NAMES[opcode], StandardCharsets.US_ASCII) : null;
+    }
+
+    /**
+     * Decodes a text line into a frame. A {@link WAMProtocol#SCORE},
+     * {@link WAMProtocol#LEADERBOARD} or {@link WAMProtocol#GAME_OVER} gets
+     * its count of values first, a {@link WAMProtocol#SNAPSHOT} gets its
+     * bitmap as ints, and a trailing {@link WAMProtocol#BINARY} sets
+     * {@link WAMBinaryProtocol.Frame#binary}, so the frame looks just like
+     * its binary form.
+     *
+     * @param buf the bytes
+     * @param off where the line starts
+     * @param len the length of the line, without its line end
+     * @param into the frame to fill in; a blank line leaves its opcode 0
+     * @throws IOException If the line is not a message.
+     */
+    public static void decodeText(byte[] buf, int off, int len, WAMBinaryProtocol.Frame into)
+            throws IOException {
+        int end = off + len;
+        while (end > off && buf[end - 1] <= ' ') {
+            end--;
+        }
+        int pos = off;
+        while (pos < end && buf[pos] == ' ') {
+            pos++;
+        }
+        int nameStart = pos;
+        while (pos < end && buf[pos] != ' ') {
+            pos++;
+        }
+        into.opcode = opcode(buf, nameStart, pos - nameStart);
+        into.argCount = 0;
+        into.text = null;
+        into.binary = false;
+        if (pos == nameStart) {
+            return;
+        }
+        if (into.opcode == 0) {
+            throw new IOException("Unknown message "
+                    + new String(buf, nameStart, pos - nameStart, StandardCharsets.US_ASCII));
+        }
+        if (into.opcode == WAMBinaryProtocol.ERROR) {
+            int start = Math.min(pos + 1, end);
+            into.text = new String(buf, start, end - start, StandardCharsets.UTF_8);
+            return;
+        }
+        boolean list = into.opcode == WAMBinaryProtocol.SCORE || into.opcode == WAMBinaryProtocol.LEADERBOARD
+                || into.opcode == WAMBinaryProtocol.GAME_OVER;
+        if (list) {
+            add(into, 0);
+        }
+        while (pos < end) {
+            pos++;
+            int start = pos;
+            while (pos < end && buf[pos] != ' ') {
+                pos++;
+            }
+            if (pos == start) {
+                continue;
+            }
+            if (matches(buf, start, pos - start, BINARY)) {
+                into.binary = true;
+            }
+            else if (into.opcode == WAMBinaryProtocol.SNAPSHOT && into.argCount > 3
+                    && into.argCount == 4 + into.args[2]) {
+                addHex(buf, start, pos - start, into);
+            }
+            else {
+                add(into, parseInt(buf, start, pos - start));
+            }
+        }
+        if (list) {
+            into.args[0] = into.argCount - 1;
+        }
+        WAMBinaryProtocol.check(into);
+    }
+
+    /**
+     * Adds a bitmap written in hex to a frame's arguments, as
+     * {@link WAMBinaryProtocol#SNAPSHOT} decodes it.
+     *
+     * @throws IOException If the bytes are not hex.
+     */
+    private static void addHex(byte[] buf, int off, int len, WAMBinaryProtocol.Frame into) throws IOException {
+        if ((len & 1) != 0) {
+            throw new IOException("Not a bitmap");
+        }
+        byte[] bytes = new byte[len >>> 1];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (hex(buf[off + 2 * i]) << 4 | hex(buf[off + 2 * i + 1]));
+        }
+        WAMBinaryProtocol.addBitmap(bytes, 0, bytes.length, into);
+    }
+
+    private static int hex(byte digit) throws IOException {
+        int value = Character.digit(digit, 16);
+        if (value < 0) {
+            throw new IOException("Not a bitmap");
+        }
+        return value;
+    }
+
+    /**
+     * @return the opcode named by some bytes, or 0 if none is
+     */
+    private static byte opcode(byte[] buf, int off, int len) {
+        for (byte opcode = 1; opcode < NAMES.length; opcode++) {
+            if (NAMES[opcode] != null && matches(buf, off, len, NAMES[opcode])) {
+                return opcode;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return whether some bytes are exactly the given name
+     */
+    private static boolean matches(byte[] buf, int off, int len, byte[] name) {
+        if (len != name.length) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (buf[off + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds an argument to a frame, growing it if it is full.
+     */
+    private static void add(WAMBinaryProtocol.Frame into, int value) {
+        if (into.argCount == into.args.length) {
+            int[] args = new int[into.args.length * 2];
+            System.arraycopy(into.args, 0, args, 0, into.argCount);
+            into.args = args;
+        }
+        into.args[into.argCount++] = value;
+    }
+
+    /**
+     * Parses a decimal integer in place.
+     *
+     * @throws IOException If the bytes are not a number.
+     */
+    private static int parseInt(byte[] buf, int off, int len) throws IOException {
+        boolean negative = buf[off] == '-';
+        int pos = negative ? off + 1 : off;
+        int end = off + len;
+        if (pos == end || end - pos > 10) {
+            throw new IOException("Not a number");
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = buf[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Not a number");
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value != (int) value) {
+            throw new IOException("Not a number");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Writes a message with no arguments.
+     *
+     * @param buffer where to write it
+     * @param binary whether to write a binary frame or a text line
+     * @param opcode the message
+     */
+    public static void encode(ByteBuffer buffer, boolean binary, byte opcode) {
+        if (binary) {
+            WAMBinaryProtocol.put(buffer, opcode);
+            return;
+        }
+        buffer.put(NAMES[opcode]);
+        if (opcode == PROTOCOL) {
+            buffer.put((byte) ' ').put(BINARY);
+        }
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes a message with one argument. A {@link WAMProtocol#SCORE} is
+     * written as a single score.
+     *
+     * @param buffer where to write it
+     * @param binary whether to write a binary frame or a text line
+     * @param opcode the message
+     * @param arg the argument
+     */
+    public static void encode(ByteBuffer buffer, boolean binary, byte opcode, int arg) {
+        if (binary) {
+            WAMBinaryProtocol.put(buffer, opcode, arg);
+            return;
+        }
+        buffer.put(NAMES[opcode]);
+        buffer.put((byte) ' ');
+        putInt(buffer, arg);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes a message with two arguments.
+     *
+     * @param buffer where to write it
+     * @param binary whether to write a binary frame or a text line
+     * @param opcode the message
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public static void encode(ByteBuffer buffer, boolean binary, byte opcode, int first, int second) {
+        if (binary) {
+            WAMBinaryProtocol.put(buffer, opcode, first, second);
+            return;
+        }
+        buffer.put(NAMES[opcode]);
+        buffer.put((byte) ' ');
+        putInt(buffer, first);
+        buffer.put((byte) ' ');
+        putInt(buffer, second);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes a message with three arguments.
+     *
+     * @param buffer where to write it
+     * @param binary whether to write a binary frame or a text line
+     * @param opcode the message
+     * @param first the first argument
+     * @param second the second argument
+     * @param third the third argument
+     */
+    public static void encode(ByteBuffer buffer, boolean binary, byte opcode, int first, int second, int third) {
+        if (binary) {
+            WAMBinaryProtocol.put(buffer, opcode, first, second, third);
+            return;
+        }
+        buffer.put(NAMES[opcode]);
+        buffer.put((byte) ' ');
+        putInt(buffer, first);
+        buffer.put((byte) ' ');
+        putInt(buffer, second);
+        buffer.put((byte) ' ');
+        putInt(buffer, third);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes a message with four arguments, like a
+     * {@link WAMProtocol#VIEWPORT}.
+     *
+     * @param buffer where to write it
+     * @param binary whether to write a binary frame or a text line
+     * @param opcode the message
+     * @param first the first argument
+     * @param second the second argument
+     * @param third the third argument
+     * @param fourth the fourth argument
+     */
+    public static void encode(ByteBuffer buffer, boolean binary, byte opcode, int first, int second, int third,
+                              int fourth) {
+        if (binary) {
+            WAMBinaryProtocol.put(buffer, opcode, first, second, third, fourth);
+            return;
+        }
+        buffer.put(NAMES[opcode]);
+        buffer.put((byte) ' ');
+        putInt(buffer, first);
+        buffer.put((byte) ' ');
+        putInt(buffer, second);
+        buffer.put((byte) ' ');
+        putInt(buffer, third);
+        buffer.put((byte) ' ');
+        putInt(buffer, fourth);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes a message holding a list of values, like a
+     * {@link WAMProtocol#LEADERBOARD}.
+     *
+     * @param buffer where to write it; 32 + 12 * count bytes always fit
+     * @param binary whether to write a binary frame or a text line
+     * @param opcode the message
+     * @param values the values
+     * @param count how many of them to write
+     */
+    public static void encodeList(ByteBuffer buffer, boolean binary, byte opcode, int[] values, int count) {
+        if (binary) {
+            WAMBinaryProtocol.putList(buffer, opcode, values, count);
+            return;
+        }
+        buffer.put(NAMES[opcode]);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) ' ');
+            putInt(buffer, values[i]);
+        }
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes a {@link WAMProtocol#BOARD_DELTA}, with the server's clock as
+     * its last argument if it is stamped.
+     *
+     * @param buffer where to write it; {@link #deltaSize} bytes always fit
+     * @param binary whether to write a binary frame or a text line
+     * @param ups the moles that rose, sorted
+     * @param upCount how many moles rose
+     * @param downs the moles that fell, sorted
+     * @param downCount how many moles fell
+     * @param stamped whether to add the clock
+     * @param clock the server's clock as the delta is sent
+     */
+    public static void encodeDelta(ByteBuffer buffer, boolean binary, int[] ups, int upCount, int[] downs,
+                                   int downCount, boolean stamped, int clock) {
+        if (binary) {
+            WAMBinaryProtocol.putDelta(buffer, ups, upCount, downs, downCount, stamped, clock);
+            return;
+        }
+        buffer.put(NAMES[WAMBinaryProtocol.BOARD_DELTA]);
+        buffer.put((byte) ' ');
+        putInt(buffer, upCount);
+        for (int i = 0; i < upCount; i++) {
+            buffer.put((byte) ' ');
+            putInt(buffer, ups[i]);
+        }
+        buffer.put((byte) ' ');
+        putInt(buffer, downCount);
+        for (int i = 0; i < downCount; i++) {
+            buffer.put((byte) ' ');
+            putInt(buffer, downs[i]);
+        }
+        if (stamped) {
+            buffer.put((byte) ' ');
+            putInt(buffer, clock);
+        }
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * @return the most bytes a {@link WAMProtocol#BOARD_DELTA} of this many
+     * moles takes in either format
+     */
+    public static int deltaSize(int upCount, int downCount) {
+        return 32 + 12 * (upCount + downCount);
+    }
+
+    /**
+     * Writes a {@link WAMProtocol#SNAPSHOT}.
+     *
+     * @param buffer where to write it; {@link #snapshotSize} bytes always fit
+     * @param binary whether to write a binary frame or a text line
+     * @param player the player number
+     * @param remaining the milliseconds left in the game, or -1
+     * @param scores every player's score
+     * @param board which moles are up, one bit a mole
+     * @param moles how many moles the bitmap holds
+     */
+    public static void encodeSnapshot(ByteBuffer buffer, boolean binary, int player, int remaining, int[] scores,
+                                      byte[] board, int moles) {
+        if (binary) {
+            buffer.put(WAMBinaryProtocol.snapshotFrame(player, remaining, scores, board, moles));
+            return;
+        }
+        buffer.put(NAMES[WAMBinaryProtocol.SNAPSHOT]);
+        buffer.put((byte) ' ');
+        putInt(buffer, player);
+        buffer.put((byte) ' ');
+        putInt(buffer, remaining);
+        buffer.put((byte) ' ');
+        putInt(buffer, scores.length);
+        for (int score : scores) {
+            buffer.put((byte) ' ');
+            putInt(buffer, score);
+        }
+        buffer.put((byte) ' ');
+        putInt(buffer, moles);
+        if (moles > 0) {
+            buffer.put((byte) ' ');
+            for (int i = 0; i < (moles + 7) >>> 3; i++) {
+                buffer.put(HEX[(board[i] >>> 4) & 0xF]).put(HEX[board[i] & 0xF]);
+            }
+        }
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * @return the most bytes a {@link WAMProtocol#SNAPSHOT} of this size
+     * takes in either format
+     */
+    public static int snapshotSize(int players, int moles) {
+        return 64 + 12 * players + 2 * ((moles + 7) >>> 3);
+    }
+
+    /**
+     * Writes an integer as decimal ASCII digits.
+     *
+     * @param buffer where to write it
+     * @param value the integer
+     */
+    public static void putInt(ByteBuffer buffer, int value) {
+        long rest = value;
+        if (rest < 0) {
+            buffer.put((byte) '-');
+            rest = -rest;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= rest) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + rest / divisor % 10));
+        }
+    }
+
+    /**
+     * Writes a string as ASCII, followed by a line end.
+     *
+     * @param buffer where to write it
+     * @param line the line
+     */
+    public static void putLine(ByteBuffer buffer, String line) {
+        for (int i = 0; i < line.length(); i++) {
+            buffer.put((byte) line.charAt(i));
+        }
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Reads a single text line from a blocking stream, without its line end.
+     *
+     * @param in the stream
+     * @param buf where to put the line; at least {@link #MAX_LINE} long
+     * @return the length of the line, or -1 if the stream has ended
+     * @throws IOException If the stream cannot be read, or the line is too
+     * long.
+     */
+    public static int readLine(InputStream in, byte[] buf) throws IOException {
+        int len = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return len == 0 ? -1 : len;
+            }
+            if (b != '\r') {
+                if (len == buf.length) {
+                    throw new IOException("Line too long");
+                }
+                buf[len++] = (byte) b;
+            }
+        }
+        return len;
+    }
+}
@@ -0,0 +1,245 @@
+package common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A rolling histogram of latencies. Values are counted in log-linear
+ * buckets, eight to every power of two, so any percentile is within about
+ * 12% of the truth. Only the last two windows are kept: once a window has
+ * passed, the one before it is thrown away and counting starts over in its
+ * place. Recording takes no locks and does not allocate.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public final class WAMHistogram {
+    /** how many buckets each power of two is split into, as a power of two */
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    /** enough buckets for any positive long */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+    private final String name;
+    private final long windowNanos;
+    private final AtomicLongArray[] windows = {new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS)};
+    /** which of the windows is being counted into, flipped every window */
+    private volatile int current;
+    private final AtomicLong windowEnd;
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param name what is being measured
+     * @param window how long each window lasts
+     * @param unit the unit of the window
+     */
+    public WAMHistogram(String name, long window, TimeUnit unit) {
+        this.name = name;
+        this.windowNanos = unit.toNanos(window);
+        this.windowEnd = new AtomicLong(System.nanoTime() + windowNanos);
+    }
+
+    /**
+     * @return what is being measured
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Counts one latency.
+     *
+     * @param nanos the latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        roll(System.nanoTime());
+        long value = Math.max(0, nanos);
+        windows[current].incrementAndGet(bucket(value));
+        long seen;
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) {
+            // someone else raised it, try again
+        }
+    }
+
+    /**
+     * Starts a new window if the current one has passed.
+     */
+    private void roll(long now) {
+        long end = windowEnd.get();
+        if (now - end < 0 || !windowEnd.compareAndSet(end, now + windowNanos)) {
+            return;
+        }
+        int next = 1 - current;
+        AtomicLongArray stale = windows[next];
+        for (int i = 0; i < BUCKETS; i++) {
+            stale.set(i, 0);
+        }
+        current = next;
+        if (now - end > windowNanos) {
+            // nothing at all was recorded in the last window
+            AtomicLongArray old = windows[1 - next];
+            for (int i = 0; i < BUCKETS; i++) {
+                old.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * @return the bucket a value is counted in
+     */
+    private static int bucket(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> exponent) & (SUB - 1);
+        return (exponent + 1) * SUB + sub;
+    }
+
+    /**
+     * @return the smallest value counted in a bucket
+     */
+    private static long lowest(int bucket) {
+        if (bucket < SUB) {
+            return bucket;
+        }
+        int exponent = bucket / SUB - 1;
+        return ((long) (SUB + bucket % SUB)) << exponent;
+    }
+
+    /**
+     * @return how many values are in the last two windows
+     */
+    public long getCount() {
+        roll(System.nanoTime());
+        long count = 0;
+        for (AtomicLongArray window : windows) {
+            for (int i = 0; i < BUCKETS; i++) {
+                count += window.get(i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value in nanoseconds that the given percentage of the
+     * last two windows' values are at or below, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        return percentile(counts, total(counts), percentile);
+    }
+
+    /**
+     * Adds up the last two windows.
+     *
+     * @param counts filled in with the count in each bucket
+     * @return the total count
+     */
+    private long total(long[] counts) {
+        roll(System.nanoTime());
+        long total = 0;
+        for (AtomicLongArray window : windows) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long count = window.get(i);
+                counts[i] += count;
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the value in nanoseconds that the given percentage of the
+     * counts are at or below
+     */
+    private long percentile(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i + 1 < BUCKETS ? Math.min(lowest(i + 1) - 1, max.get()) : max.get();
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the count and main percentiles of the last two windows, all
+     * taken at once
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = total(counts);
+        return new Snapshot(total, percentile(counts, total, 50), percentile(counts, total, 90),
+                percentile(counts, total, 99), max.get());
+    }
+
+    /**
+     * The count and main percentiles of a histogram at one moment. Its
+     * getters make it an open type, so it can be read over JMX.
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+
+        private Snapshot(long count, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        /** @return how many values were counted */
+        public long getCount() {
+            return count;
+        }
+
+        /** @return the median, in nanoseconds */
+        public long getP50() {
+            return p50;
+        }
+
+        /** @return the 90th percentile, in nanoseconds */
+        public long getP90() {
+            return p90;
+        }
+
+        /** @return the 99th percentile, in nanoseconds */
+        public long getP99() {
+            return p99;
+        }
+
+        /** @return the largest value ever recorded, in nanoseconds */
+        public long getMax() {
+            return max;
+        }
+    }
+
+    /**
+     * @return the largest value ever recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the count and the main percentiles, in milliseconds
+     */
+    @Override
+    public String toString() {
+        Snapshot snapshot = snapshot();
+        return String.format("%s: n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", name, snapshot.count,
+                snapshot.p50 / 1e6, snapshot.p90 / 1e6, snapshot.p99 / 1e6, snapshot.max / 1e6);
+    }
+}
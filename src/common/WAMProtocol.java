@@ -31,13 +31,33 @@ public interface WAMProtocol {
      * upward consecutively starting with 0 based on the time of connection.
      *
      *  For example if there are 6 rows and 7 columns and this
-     *  is the second player of 3: "WELCOME 6 7 3 1"
+     *  is the second player of 3: "WELCOME 6 7 3 1"<br>
+     *
+     * A server that can speak {@link WAMBinaryProtocol} adds {@link #BINARY}
+     * as a fifth argument: "WELCOME 6 7 3 1 BINARY"<br>
+     *
+     * A server that keeps seats for players whose connection drops then
+     * adds the player's session token and the port to {@link #RESUME} on:
+     * "WELCOME 6 7 3 1 BINARY 1804289383 5100"
      */
     public static final String WELCOME = "WELCOME";
 
+    /**
+     * From client: ask to switch to another wire format. From server: the
+     * switch is done, and this is the last message in the old format.<br>
+     *     One argument: the format, for now only {@link #BINARY}
+     */
+    public static final String PROTOCOL = "PROTOCOL";
+
+    /**
+     * The name of the {@link WAMBinaryProtocol} wire format.
+     */
+    public static final String BINARY = "BINARY";
+
     /**
      * From server: inform client that a mole has popped up.<br>
-     *     One argument: the mole number
+     *     One argument: the mole number. A server asked to stamp its mole
+     *     messages adds a second, its clock when the mole rose.
      */
     public static final String MOLE_UP = "MOLE_UP";
 
@@ -49,15 +69,145 @@ public interface WAMProtocol {
      */
     public static final String MOLE_DOWN = "MOLE_DOWN";
 
+    /**
+     * From server: every mole that has risen or fallen since the last
+     * delta, sent once per broadcast tick instead of one {@link #MOLE_UP} or
+     * {@link #MOLE_DOWN} per transition. Only sent by servers running with a
+     * broadcast tick.<br>
+     *     Arguments: the number of moles that rose, their numbers, then the
+     *     number of moles that fell and their numbers. A server asked to
+     *     stamp its mole messages adds its clock when it sent the delta.
+     *
+     *  For example if moles 4 and 9 rose and mole 2 fell: "BOARD_DELTA 2 4 9 1 2"
+     */
+    public static final String BOARD_DELTA = "BOARD_DELTA";
+
     /**
      * From client: inform server that it has whacked a mole.
      * (Game server must then decide if a mole was really up at that
      * location. Only then would points be awarded. If it is a miss,
      * points may be subtracted.<br>
-     *     Arguments: the mole number, the player number
+     *     Arguments: the mole number, the player number, and optionally a
+     *     sequence number. A whack with a sequence number is answered with a
+     *     {@link #WHACK_RESULT}.
      */
     public static final String WHACK = "WHACK";
 
+    /**
+     * From server: the outcome of a {@link #WHACK} that carried a sequence
+     * number.<br>
+     *     Arguments: the sequence number, 1 for a hit or 0 for a miss, and
+     *     the milliseconds since the game started when the server scored it
+     *
+     *  For example a hit on the client's seventh whack: "WHACK_RESULT 7 1 5230"
+     */
+    public static final String WHACK_RESULT = "WHACK_RESULT";
+
+    /**
+     * From either side: asks the other side to answer with a {@link #PONG}
+     * right away, to time the round trip. The server only pings clients
+     * that have pinged it.<br>
+     *     One argument: a sequence number
+     */
+    public static final String PING = "PING";
+
+    /**
+     * From either side: the answer to a {@link #PING}.<br>
+     *     One argument: the sequence number of the ping. The server adds a
+     *     second, its clock when it answered, so the client can work out
+     *     how far its own clock is from the server's.
+     *
+     *  For example: "PONG 3 815042"
+     */
+    public static final String PONG = "PONG";
+    /**
+     * From server: the game has started.<br>
+     *     Two arguments: the server's clock when the game started, and when
+     *     the game ends. The server's clock counts milliseconds and wraps
+     *     around, so only the difference between two readings means anything.
+     *
+     *  For example a 30 second game: "GAME_START 815000 845000"
+     */
+    public static final String GAME_START = "GAME_START";
+    /**
+     * From client: asks for the best scores across every game on the
+     * server, live or finished.<br>
+     *     One argument: how many places to send, at most 100.<br>
+     * From server: the answer.<br>
+     *     Arguments: the asking player's rank (1 is first), the number of
+     *     places sent, then the score, game number and player number of each
+     *     place, best first.
+     *
+     *  For example: "LEADERBOARD 5" and then "LEADERBOARD 3 2 40 7 1 36 2 0"
+     */
+    public static final String LEADERBOARD = "LEADERBOARD";
+
+    /**
+     * From client: watch a game instead of playing in one. Only accepted on
+     * the server's spectator port, as the client's first line.<br>
+     *     Optional arguments: the game number, or {@link #FEATURED} for the
+     *     newest game being played, and {@link #BINARY} to be sent binary
+     *     frames.<br>
+     * The server answers with a {@link #WELCOME} whose player number is -1,
+     * then {@link #PROTOCOL} {@link #BINARY} if asked for, a
+     * {@link #GAME_START}, a {@link #BOARD_DELTA} with every mole that is up
+     * and the {@link #SCORE} of every player. After that the spectator is
+     * sent every mole and every player's score as they change and, once the
+     * game is over, a {@link #GAME_OVER}. Anything it sends is ignored.
+     *
+     *  For example: "SPECTATE 12 BINARY"
+     */
+    public static final String SPECTATE = "SPECTATE";
+
+    /**
+     * The game number that asks to {@link #SPECTATE} the newest game.
+     */
+    public static final int FEATURED = -1;
+
+    /**
+     * From client: take back a seat after the connection dropped. Only
+     * accepted on the port named in the {@link #WELCOME}, as the client's
+     * first line, while the server is still holding the seat.<br>
+     *     Arguments: the session token from the {@link #WELCOME}, and
+     *     optionally {@link #BINARY} to carry on in binary frames.<br>
+     * The server answers with {@link #PROTOCOL} {@link #BINARY} if asked
+     * for, then a single {@link #SNAPSHOT}, and the player carries on as
+     * before. Nothing sent while it was away is sent again.
+     *
+     *  For example: "RESUME 1804289383 BINARY"
+     */
+    public static final String RESUME = "RESUME";
+
+    /**
+     * From client: only be sent the moles in part of the board, for boards
+     * too big to send every mole to every player.<br>
+     *     Arguments: the first row, the first column, the number of rows and
+     *     the number of columns. A region with no rows or no columns goes
+     *     back to the whole board.<br>
+     * The server answers with a {@link #BOARD_DELTA} of every mole up in the
+     * region, and from then on only sends the {@link #MOLE_UP},
+     * {@link #MOLE_DOWN} and {@link #BOARD_DELTA} changes inside it. Moles
+     * outside it are no longer sent, so the client should forget them.
+     *
+     *  For example: "VIEWPORT 480 300 40 64"
+     */
+    public static final String VIEWPORT = "VIEWPORT";
+
+    /**
+     * From server: everything a resuming player needs to carry on.<br>
+     *     Arguments: the player number, the milliseconds left in the game
+     *     (-1 if it has not started), the number of players and each
+     *     player's score, the number of moles, then which moles are up as a
+     *     bitmap written in hex, two digits a byte, the first mole in the
+     *     lowest bit of the first byte. A board too big for one message has
+     *     0 moles, and its moles that are up follow as
+     *     {@link #BOARD_DELTA BOARD_DELTAs}. Either way, every mole not
+     *     said to be up is down.
+     *
+     *  For example a 2x3 board with moles 0 and 4 up: "SNAPSHOT 1 41250 2 8 -1 6 11"
+     */
+    public static final String SNAPSHOT = "SNAPSHOT";
+
     /**
      * From server: client is informed of every player's score.<br>
      *     As many integer arguments as there are players.
@@ -85,6 +235,16 @@ public interface WAMProtocol {
      */
     public static final String GAME_TIED = "GAME_TIED";
 
+    /**
+     * From server: the game a spectator is watching is over.<br>
+     *     Arguments: the player number and final score of every player,
+     *     best first. Players with the same score are in the order of their
+     *     numbers.
+     *
+     *  For example if player 1 won with 40 and player 0 had 36: "GAME_OVER 1 40 0 36"
+     */
+    public static final String GAME_OVER = "GAME_OVER";
+
     /**
      * Request sent from the server to the client when any kind of error has
      * resulted from a bad client response. No response is expected from the
@@ -0,0 +1,67 @@
+package common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Picks the kind of threads the client and server block on. Setting the
+ * system property {@value #PROPERTY} to {@code virtual} runs players, moles
+ * and client listeners on virtual threads, when the JDK has them.<br>
+ *
+ * The virtual thread factory is looked up reflectively, so the game still
+ * builds and runs on JDKs older than 21, where it simply falls back to
+ * platform threads.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public final class WAMThreads {
+    /**
+     * The system property that chooses the thread mode: {@code platform}
+     * (the default) or {@code virtual}.
+     */
+    public static final String PROPERTY = "wam.threads";
+
+    private WAMThreads() {
+    }
+
+    /**
+     * @return whether virtual threads were asked for and this JDK has them
+     */
+    public static boolean useVirtualThreads() {
+        if (!"virtual".equalsIgnoreCase(System.getProperty(PROPERTY, "platform"))) {
+            return false;
+        }
+        if (!virtualThreadsSupported()) {
+            System.err.println("Virtual threads need JDK 21 or later, using platform threads");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether this JDK can create virtual threads
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        }
+        catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return an executor that starts a new virtual thread for every task
+     * @throws UnsupportedOperationException If this JDK has no virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported", e);
+        }
+    }
+}
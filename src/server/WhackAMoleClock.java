@@ -0,0 +1,49 @@
+package server;
+
+import common.WAMProtocol;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server's clock, as sent in {@link WAMProtocol#PONG} and
+ * {@link WAMProtocol#GAME_START}: milliseconds since the server started, cut
+ * to an int. It wraps around after about 24 days, which is harmless because
+ * clients only ever subtract one reading from another. With
+ * {@value #STAMP_PROPERTY} set, {@link WAMProtocol#MOLE_UP} and
+ * {@link WAMProtocol#BOARD_DELTA} carry it too, so load tests can tell how
+ * long a mole took to reach them.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public final class WhackAMoleClock {
+    /** the system property that has mole messages stamped with the clock */
+    public static final String STAMP_PROPERTY = "wam.clock.stamp";
+
+    private static final long EPOCH = System.nanoTime();
+    private static final boolean STAMPS = Boolean.getBoolean(STAMP_PROPERTY);
+
+    private WhackAMoleClock() {
+    }
+
+    /**
+     * @return whether mole messages are stamped with the clock
+     */
+    public static boolean stamps() {
+        return STAMPS;
+    }
+
+    /**
+     * @return the clock now
+     */
+    public static int now() {
+        return at(System.nanoTime());
+    }
+
+    /**
+     * @param nanoTime a reading of {@link System#nanoTime()}
+     * @return the clock at that moment
+     */
+    public static int at(long nanoTime) {
+        return (int) TimeUnit.NANOSECONDS.toMillis(nanoTime - EPOCH);
+    }
+}
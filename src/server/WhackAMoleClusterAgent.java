@@ -0,0 +1,108 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps a {@link WhackAMoleServer} registered with a {@link WhackAMoleRouter}.
+ * It sends a {@value WhackAMoleRouter#REGISTER} line and then a
+ * {@value WhackAMoleRouter#LOAD} line every so often on its own daemon
+ * thread, and connects again if the router goes away, so the router and
+ * its game servers can be started in any order.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleClusterAgent implements Runnable {
+    /** the system property that names the router's control port, as {@code host:port} */
+    public static final String ROUTER_PROPERTY = "wam.cluster.router";
+    /** the system property that sets how many milliseconds apart loads are reported */
+    public static final String REPORT_PROPERTY = "wam.cluster.report";
+
+    private final InetSocketAddress router;
+    private final WhackAMoleServer server;
+    private final int port;
+    private final int players;
+    private final long interval = Long.getLong(REPORT_PROPERTY, 500);
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    /**
+     * @param router the router's control address, as {@code host:port}
+     * @param server the server whose load is reported
+     * @param port the port the server takes players on
+     * @param players how many players each of its games needs
+     */
+    public WhackAMoleClusterAgent(String router, WhackAMoleServer server, int port, int players) {
+        int colon = router.lastIndexOf(':');
+        this.router = new InetSocketAddress(router.substring(0, colon), Integer.parseInt(router.substring(colon + 1)));
+        this.server = server;
+        this.port = port;
+        this.players = players;
+    }
+
+    /**
+     * Starts reporting on a daemon thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "cluster-agent");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the share of the CPU this JVM is using, in percent, or 0 if
+     * the JVM cannot tell
+     */
+    private int cpu() {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+            return load < 0 ? 0 : (int) Math.round(load * 100);
+        }
+        return 0;
+    }
+
+    /**
+     * Registers and reports for as long as the server runs, trying the
+     * router again a second after it goes away.
+     */
+    @Override
+    public void run() {
+        boolean warned = false;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(router);
+                Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                out.write(WhackAMoleRouter.REGISTER + " " + port + " " + players + "\n");
+                System.out.println("Registered with the router at " + router);
+                warned = false;
+                while (true) {
+                    out.write(WhackAMoleRouter.LOAD + " " + server.getLiveGames() + " "
+                            + server.getConnections() + " " + cpu() + "\n");
+                    out.flush();
+                    Thread.sleep(interval);
+                }
+            }
+            catch (IOException e) {
+                if (!warned) {
+                    System.err.println("Cannot reach the router at " + router + "; retrying");
+                    warned = true;
+                }
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Thread.sleep(1000);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
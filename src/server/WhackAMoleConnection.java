@@ -0,0 +1,54 @@
+package server;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * The transport a {@link WhackAMolePlayer} uses to send messages to its
+ * client, so the player does not care whether it is talking over a blocking
+ * {@link java.net.Socket} or a non-blocking channel.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public interface WhackAMoleConnection extends Closeable {
+    /**
+     * Queues a single message for the client. A new line is added to the
+     * end. It may not be written until {@link #flush()} is called.
+     *
+     * @param message the message to send
+     */
+    void send(String message);
+
+    /**
+     * Queues the remaining bytes of a binary frame for the client, as they
+     * are. The frame's position is not changed. It may not be written until
+     * {@link #flush()} is called.
+     *
+     * @param frame the frame to send
+     */
+    void send(ByteBuffer frame);
+
+    /**
+     * Writes out everything sent so far, in as few writes as possible.
+     */
+    void flush();
+
+    /**
+     * Asks to be told once the client has caught up, if it has fallen
+     * behind. A connection that blocks its sender until there is room is
+     * always ready.
+     *
+     * @param ready run once the connection can take more, if it cannot now
+     * @return true if it can take more now, and ready will not be run
+     */
+    default boolean whenWritable(Runnable ready) {
+        return true;
+    }
+
+    /**
+     * Closes the connection to the client.
+     */
+    @Override
+    void close();
+}
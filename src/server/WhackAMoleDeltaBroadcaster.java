@@ -0,0 +1,150 @@
+package server;
+
+import common.WAMProtocol;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects a game's mole transitions for one broadcast tick, and then sends
+ * every player a single {@link WAMProtocol#BOARD_DELTA} holding all of
+ * them, or only those in its {@link WhackAMoleViewports viewport}. A mole
+ * that rises and falls again inside one tick is not sent at all. The delta
+ * for the whole board is encoded once per wire format and shared by every
+ * player and spectator that gets it. Between ticks it keeps two bits at
+ * most for each hole, and lists only the moles that moved. A tick that moves
+ * more than {@value #CHUNK} moles, like the one that pulls every mole down
+ * at the end of a game, is sent as several deltas.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleDeltaBroadcaster extends WhackAMoleTimerWheel.Timeout {
+    /** the most moles in one delta, so that a tick that moves more still fits in a frame */
+    private static final int CHUNK = 4096;
+
+    private WhackAMoleGame game;
+    private WhackAMoleViewports viewports;
+    private WhackAMoleTimerWheel wheel;
+    private long tickMillis;
+
+    /** guards everything below, which the moles, players and tick all touch */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** the moles changed since the last delta */
+    private int[] dirty = new int[64];
+    private int dirtyCount;
+    /** whether each mole is already in {@link #dirty} */
+    private final BitSet isDirty = new BitSet();
+    /** whether each mole was up in the last delta sent */
+    private final BitSet sentUp = new BitSet();
+    private int[] ups = new int[64];
+    private int[] downs = new int[64];
+
+    /**
+     * @param game the game whose moles are being broadcast
+     * @param viewports who to send the deltas to
+     * @param wheel the wheel that times the ticks
+     * @param tickMillis how long to collect transitions for
+     */
+    public WhackAMoleDeltaBroadcaster(WhackAMoleGame game, WhackAMoleViewports viewports,
+                                      WhackAMoleTimerWheel wheel, long tickMillis) {
+        this.game = game;
+        this.viewports = viewports;
+        this.wheel = wheel;
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * Starts ticking.
+     */
+    public void start() {
+        wheel.schedule(this, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Notes that a mole has changed, to be sent with the next delta.
+     *
+     * @param id the mole
+     */
+    public void mark(int id) {
+        lock.lock();
+        try {
+            if (!isDirty.get(id)) {
+                isDirty.set(id);
+                if (dirtyCount == dirty.length) {
+                    dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+                }
+                dirty[dirtyCount++] = id;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the changes since the last delta to every player, if there are
+     * any.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            int upCount = 0;
+            int downCount = 0;
+            if (ups.length < dirtyCount) {
+                ups = new int[dirty.length];
+                downs = new int[dirty.length];
+            }
+            for (int i = 0; i < dirtyCount; i++) {
+                int id = dirty[i];
+                isDirty.clear(id);
+                boolean up = game.getIsUp(id);
+                if (up != sentUp.get(id)) {
+                    sentUp.set(id, up);
+                    if (up) {
+                        ups[upCount++] = id;
+                    }
+                    else {
+                        downs[downCount++] = id;
+                    }
+                }
+            }
+            dirtyCount = 0;
+            if (upCount == 0 && downCount == 0) {
+                return;
+            }
+            Arrays.sort(ups, 0, upCount);
+            Arrays.sort(downs, 0, downCount);
+            long start = System.nanoTime();
+            // still holding the lock, so deltas reach every player in order
+            for (int up = 0, down = 0; up < upCount || down < downCount; ) {
+                int chunkUps = Math.min(CHUNK, upCount - up);
+                int chunkDowns = Math.min(CHUNK - chunkUps, downCount - down);
+                int[] someUps = up == 0 && chunkUps == upCount ? ups : Arrays.copyOfRange(ups, up, up + chunkUps);
+                int[] someDowns = down == 0 && chunkDowns == downCount
+                        ? downs : Arrays.copyOfRange(downs, down, down + chunkDowns);
+                WhackAMoleMessage delta = WhackAMoleMessage.delta(someUps, chunkUps, someDowns, chunkDowns);
+                viewports.publish(delta, someUps, chunkUps, someDowns, chunkDowns);
+                game.getSpectators().publish(delta);
+                up += chunkUps;
+                down += chunkDowns;
+            }
+            WhackAMoleMetrics.shared().fanOut().record(System.nanoTime() - start);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends this tick's delta and waits for the next one.
+     */
+    @Override
+    protected void expire() {
+        flush();
+        if (!game.isOver()) {
+            wheel.schedule(this, tickMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
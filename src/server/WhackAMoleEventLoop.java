@@ -0,0 +1,251 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single thread that owns a {@link Selector} and does all of the reading
+ * and writing for the {@link WhackAMoleNioConnection connections} registered
+ * with it.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleEventLoop implements Runnable, Closeable {
+    /** how long a closed connection waits for the client to close its side */
+    public static final long LINGER_MILLIS = 30000;
+    /** how long a client that has fallen behind gets to catch up before it is dropped */
+    public static final long CATCH_UP_MILLIS = 10000;
+
+    private final Selector selector;
+    private final Thread thread;
+    /** connections waiting to be registered with the selector */
+    private final Queue<WhackAMoleNioConnection> registrations = new ConcurrentLinkedQueue<>();
+    /** connections that have queued output since the last select */
+    private final Queue<WhackAMoleNioConnection> flushes = new ConcurrentLinkedQueue<>();
+    /** connections that have been closed, whose handlers are still to be told */
+    private final Queue<WhackAMoleNioConnection> disconnects = new ConcurrentLinkedQueue<>();
+    /**
+     * connections that have to catch up or be closed by a deadline, soonest
+     * first; only touched on the loop thread
+     */
+    private final PriorityQueue<Watch> watched = new PriorityQueue<>(Comparator.comparingLong(watch -> watch.deadline));
+    /** whether the selector has already been woken for this select */
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a new event loop.
+     *
+     * @param name the name of the loop's thread
+     * @throws IOException If the selector cannot be opened.
+     */
+    public WhackAMoleEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Hands a connection to this loop. Its channel is registered on the loop
+     * thread.
+     *
+     * @param connection the new connection
+     */
+    public void register(WhackAMoleNioConnection connection) {
+        registrations.add(connection);
+        wakeup();
+    }
+
+    /**
+     * Asks the loop to write out whatever the connection has queued.
+     *
+     * @param connection the connection with output waiting
+     */
+    void flushLater(WhackAMoleNioConnection connection) {
+        flushes.add(connection);
+        wakeup();
+    }
+
+    /**
+     * Tells a closed connection's handler that it has gone, on the loop
+     * thread and outside the connection's locks, whichever thread closed it.
+     *
+     * @param connection the connection that was closed
+     */
+    void disconnected(WhackAMoleNioConnection connection) {
+        disconnects.add(connection);
+        wakeup();
+    }
+
+    /**
+     * Closes a connection unless its client catches up, or closes its side,
+     * within the time given. The connection calls off the deadline by
+     * setting it back to 0, and a later deadline replaces this one. Called
+     * on the loop thread.
+     *
+     * @param connection the connection to watch
+     * @param millis how long it has
+     */
+    void watch(WhackAMoleNioConnection connection, long millis) {
+        connection.deadline = System.currentTimeMillis() + millis;
+        watched.add(new Watch(connection, connection.deadline));
+    }
+
+    /**
+     * Closes the connections that have missed their deadlines, and forgets
+     * deadlines that were called off or replaced.
+     *
+     * @return how long until the next one is due, or 0 if none are waiting
+     */
+    private long expire() {
+        long now = System.currentTimeMillis();
+        Watch watch;
+        while ((watch = watched.peek()) != null) {
+            if (watch.deadline > now) {
+                return watch.deadline - now;
+            }
+            watched.poll();
+            WhackAMoleNioConnection connection = watch.connection;
+            if (!connection.isClosed() && connection.deadline == watch.deadline) {
+                WhackAMoleMetrics.shared().timedOut();
+                connection.abort();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Wakes the selector, at most once per select.
+     */
+    private void wakeup() {
+        if (wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers new channels and writes out queued output.
+     */
+    private void runTasks() {
+        WhackAMoleNioConnection connection;
+        while ((connection = registrations.poll()) != null) {
+            try {
+                SocketChannel channel = connection.getChannel();
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+                connection.write();
+            }
+            catch (IOException | RuntimeException e) {
+                connection.abort();
+            }
+        }
+        while ((connection = flushes.poll()) != null) {
+            try {
+                connection.write();
+            }
+            catch (RuntimeException e) {
+                fail(connection, e);
+            }
+        }
+        while ((connection = disconnects.poll()) != null) {
+            try {
+                connection.disconnected();
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Drops a connection that threw while being serviced, leaving the rest
+     * of the loop's connections alone.
+     */
+    private static void fail(WhackAMoleNioConnection connection, RuntimeException e) {
+        if (!(e instanceof CancelledKeyException)) {
+            System.err.println("Dropping " + connection.getChannel() + " after an error!");
+            e.printStackTrace();
+        }
+        connection.abort();
+    }
+
+    /**
+     * Selects and services ready connections until the loop is closed. A
+     * connection that throws is closed on its own.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                runTasks();
+                long timeout = expire();
+                wakenUp.set(false);
+                if (registrations.isEmpty() && flushes.isEmpty()) {
+                    selector.select(timeout);
+                }
+                else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    WhackAMoleNioConnection connection = (WhackAMoleNioConnection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    }
+                    catch (RuntimeException e) {
+                        fail(connection, e);
+                    }
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                System.err.println("Event loop failed!");
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+    }
+
+    /**
+     * A deadline a connection had when it was watched.
+     */
+    private static final class Watch {
+        final WhackAMoleNioConnection connection;
+        final long deadline;
+
+        Watch(WhackAMoleNioConnection connection, long deadline) {
+            this.connection = connection;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Stops the loop.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,163 @@
+package server;
+
+import common.WAMThreads;
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads shared by every game a server is hosting. Games never create
+ * threads of their own; they borrow from these pools instead.<br>
+ *
+ * In {@link Mode#PLATFORM} mode the moles are timed by the
+ * {@link WhackAMoleScheduler}, blocking players are read on a bounded
+ * pool of platform threads, and the outboxes are drained by a fixed pool
+ * with a thread per core. In {@link Mode#VIRTUAL} mode every player reader,
+ * writer and mole gets a virtual thread of its own and simply blocks.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleExecutors implements Closeable {
+    /** the most blocking players that may be reading at once */
+    public static final int MAX_READERS = 4096;
+
+    /**
+     * The kinds of threads the players and moles run on.
+     */
+    public enum Mode {
+        PLATFORM, VIRTUAL
+    }
+
+    private static WhackAMoleExecutors shared;
+
+    private final Mode mode;
+    private final WhackAMoleScheduler scheduler;
+    private final ExecutorService readers;
+    private final ExecutorService writers;
+    private final ExecutorService moles;
+    private final ExecutorService games;
+
+    /**
+     * @param mode the kinds of threads the players and moles run on
+     * @param scheduler the scheduler that times the moles and game clocks
+     * @param maxReaders the most blocking players that may be reading at
+     *                   once, in {@link Mode#PLATFORM} mode
+     * @param writerThreads how many threads drain the outboxes, in
+     *                      {@link Mode#PLATFORM} mode
+     * @param gameThreads how many threads settle finished games
+     */
+    public WhackAMoleExecutors(Mode mode, WhackAMoleScheduler scheduler, int maxReaders, int writerThreads,
+                               int gameThreads) {
+        this.mode = mode;
+        this.scheduler = scheduler;
+        if (mode == Mode.VIRTUAL) {
+            this.readers = WAMThreads.newVirtualThreadPerTaskExecutor();
+            this.writers = WAMThreads.newVirtualThreadPerTaskExecutor();
+            this.moles = WAMThreads.newVirtualThreadPerTaskExecutor();
+        } else {
+            this.readers = new ThreadPoolExecutor(0, maxReaders, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), daemonThreads("player-reader-"));
+            // an outbox queues at most one drain at a time, so the queue never holds more than the outboxes
+            this.writers = new ThreadPoolExecutor(writerThreads, writerThreads, 0, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), daemonThreads("player-writer-"));
+            this.moles = null;
+        }
+        this.games = Executors.newFixedThreadPool(gameThreads, daemonThreads("game-"));
+    }
+
+    /**
+     * @return the executors shared by every game in this JVM, in the mode
+     * chosen by the {@value WAMThreads#PROPERTY} system property
+     */
+    public static synchronized WhackAMoleExecutors shared() {
+        if (shared == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            Mode mode = WAMThreads.useVirtualThreads() ? Mode.VIRTUAL : Mode.PLATFORM;
+            shared = new WhackAMoleExecutors(mode, WhackAMoleScheduler.shared(), MAX_READERS, cores, cores);
+        }
+        return shared;
+    }
+
+    /**
+     * @return the kinds of threads the players and moles run on
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param prefix the name of each thread, before its number
+     * @return a factory for numbered daemon threads
+     */
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return the scheduler that times the moles and game clocks
+     */
+    public WhackAMoleScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the pool that runs the readers of blocking players. In
+     * {@link Mode#PLATFORM} mode it rejects work once its limit of players
+     * are reading.
+     */
+    public ExecutorService getReaders() {
+        return readers;
+    }
+
+    /**
+     * @return the pool that drains each player's {@link WhackAMoleOutbox}.
+     * A writer only holds a thread while it has something to write, and
+     * outboxes with something to write wait their turn for one. It only
+     * rejects work once it has been shut down.
+     */
+    public ExecutorService getWriters() {
+        return writers;
+    }
+
+    /**
+     * @return the pool that runs a {@link WhackAMole_MoleThread} for every
+     * mole, or null in {@link Mode#PLATFORM} mode, where the scheduler times
+     * the moles instead
+     */
+    public ExecutorService getMoles() {
+        return moles;
+    }
+
+    /**
+     * @return the pool that settles games once their clocks run out
+     */
+    public ExecutorService getGames() {
+        return games;
+    }
+
+    /**
+     * Shuts every pool down.
+     */
+    @Override
+    public void close() {
+        readers.shutdownNow();
+        writers.shutdownNow();
+        if (moles != null) {
+            moles.shutdownNow();
+        }
+        games.shutdownNow();
+        scheduler.close();
+    }
+}
@@ -1,7 +1,17 @@
 package server;
 
+import client.gui.Observer;
 import client.gui.WhackAMoleException;
-import java.util.ArrayList;
+import common.WAMBinaryProtocol;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Gabe Megna <gnm1714@rit.edu>
@@ -9,73 +19,301 @@ import java.util.ArrayList;
  */
 
 public class WhackAMoleGame implements Runnable {
+    /** how many locks the moles' messages are spread over */
+    private static final int STRIPES = 16;
+
+    private int id;
     private WhackAMolePlayer[] players;
     //private WhackAMole game;
     private int row;
     private int col;
     private int numPlayers;
     private int time;
-    private WhackAMole_MoleThread[] mole_moleThreads;
-    private boolean isUp;
-    private Thread[] MoleThread;
-    private Thread[] PlayerThread;
+    private WhackAMoleMole[] moles;
+    /** picks the moles that come up instead, on a sparse board */
+    private WhackAMoleMoles picker;
+    /** the mole threads, when the moles block threads of their own */
+    private Future<?>[] moleThreads;
+    private WhackAMoleExecutors executors;
+    /** how long to collect mole transitions before sending them, or 0 to send each one */
+    private long broadcastTick;
+    /** collects transitions when there is a broadcast tick */
+    private WhackAMoleDeltaBroadcaster delta;
     private long startTime;
-    private Move[][] board;
+    private long deadline;
+    private AtomicReference<State> state = new AtomicReference<>(State.LOBBY);
+    /** which moles are up */
+    private WhackAMoleHoleSet holes;
+    /** which players want which moles */
+    private WhackAMoleViewports viewports;
+    /** which moles the players were last sent as up, when they are not sent in deltas */
+    private WhackAMoleHoleSet sent;
+    /** keep each mole's messages in order when it is not sent in deltas */
+    private ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    private WhackAMoleMetrics metrics = WhackAMoleMetrics.shared();
+    /** everyone watching the game without playing in it */
+    private WhackAMoleSpectators spectators;
+    /** where everything that happens in the game is recorded */
+    private WhackAMoleJournal journal = WhackAMoleJournal.shared();
+    /** the observers told when the game has finished */
+    private List<Observer<WhackAMoleGame>> observers = new CopyOnWriteArrayList<>();
 
     /**
      * Initialize the game.
      */
     public WhackAMoleGame(int row, int col, int numPlayers, int time, WhackAMolePlayer[] players) {
+        this(0, row, col, numPlayers, time, players, WhackAMoleExecutors.shared());
+    }
+
+    /**
+     * Initialize the game with the shared threads it will run on.
+     *
+     * @param id the number the server knows the game by
+     * @param executors the pools that run the game's players, moles and clock
+     */
+    public WhackAMoleGame(int id, int row, int col, int numPlayers, int time, WhackAMolePlayer[] players,
+                          WhackAMoleExecutors executors) {
+        this.id = id;
         this.players = players;
+        this.executors = executors;
         //game = new WhackAMole();
         this.row = row;
         this.col = col;
         this.numPlayers = numPlayers;
         this.time = time;
-        board = new Move[row][col];
-        for (int r = 0; r < row; r++){
-            for (int c = 0; c < col; c++){
-                board[r][c] = Move.DOWN;
-            }
+        holes = WhackAMoleHoleSet.create(row*col);
+        sent = WhackAMoleHoleSet.create(row*col);
+        viewports = new WhackAMoleViewports(row, col, players);
+        spectators = new WhackAMoleSpectators(this, players, executors.getWriters());
+        for (int i = 0; i < STRIPES; i++){
+            stripes[i] = new ReentrantLock();
         }
     }
 
     /**
-     * sets the enum so UP and DOWN can be accessed
+     * The stages a game goes through. A game waits in LOBBY until it is run,
+     * is RUNNING until its clock runs out, is SETTLING while the moles are
+     * pulled down and the results sent out, and is then FINISHED.
      */
-    public enum Move {
-        UP, DOWN
+    public enum State {
+        LOBBY, RUNNING, SETTLING, FINISHED
     }
 
     /**
-     *
-     * @param id
-     * @return
+     * Fires once when the game clock runs out.
+     */
+    private class GameClock extends WhackAMoleTimerWheel.Timeout {
+        @Override
+        protected void expire() {
+            executors.getGames().execute(WhackAMoleGame.this::settle);
+        }
+    }
+
+    /**
+     * @param id the mole
+     * @return whether the mole is up
      */
     public boolean getIsUp(int id){
-        return board[id/col][id%col] == Move.UP;
+        return holes.isUp(id);
     }
 
     /**
-     * sets the mole up for all the players
+     * sets the mole up for all the players, if it was down and the game is
+     * still running. A mole that comes up while the game settles is put
+     * straight back down, so none is left up once the results are out.
      * @param id the mole being put up
      */
     public void setUp(int id) {
-        board[id/col][id%col]=Move.UP;
-        for(int i = 0; i<numPlayers; i++){
-            players[i].moleUp(id);
+        if (isOver() || !holes.raise(id)){
+            return;
+        }
+        if (isOver()){
+            holes.lower(id);
+            return;
         }
+        journal.record(this.id, WhackAMoleJournal.MOLE_UP, id, 0, 0);
+        publish(id);
     }
 
     /**
-     * sets the mole down for all players
+     * sets the mole down for all players, if it was up
      * @param id the id of the mole being put down
      */
     public void setDown(int id){
-        board[id/col][id%col]=Move.DOWN;
-        for(int i = 0; i<numPlayers; i++){
-            players[i].moleDown(id);
+        lower(id);
+    }
+
+    /**
+     * Knocks a mole down for a player. When several players whack the same
+     * mole at once, only one of them gets it.
+     *
+     * @param id the mole being whacked
+     * @return whether the mole was up and this whack put it down
+     */
+    public boolean whack(int id){
+        return lower(id);
+    }
+
+    /**
+     * puts a mole down and tells all the players, if it was up
+     * @param id the mole being put down
+     * @return whether this call is the one that put it down
+     */
+    private boolean lower(int id){
+        if (!holes.lower(id)){
+            return false;
+        }
+        journal.record(this.id, WhackAMoleJournal.MOLE_DOWN, id, 0, 0);
+        publish(id);
+        return true;
+    }
+
+    /**
+     * Tells the players a mole has moved. In deltas, it is only marked for
+     * the next one. Otherwise the mole's current state is sent, if it is not
+     * what the players were last sent. The board has already changed by
+     * then, without a lock, so only the sending is kept in order: when a
+     * raise and a whack race, whichever sends second finds the state the
+     * other left and the players end up seeing that.
+     *
+     * @param id the mole that moved
+     */
+    private void publish(int id){
+        if (delta != null){
+            delta.mark(id);
+            return;
+        }
+        ReentrantLock stripe = stripeFor(id);
+        stripe.lock();
+        try {
+            boolean up = holes.isUp(id) && !isOver();
+            if (up == sent.isUp(id)){
+                return;
+            }
+            long start = System.nanoTime();
+            WhackAMoleMessage message;
+            if (up){
+                sent.raise(id);
+                message = WhackAMoleClock.stamps()
+                        ? WhackAMoleMessage.of(WAMBinaryProtocol.MOLE_UP, id, WhackAMoleClock.now())
+                        : WhackAMoleMessage.of(WAMBinaryProtocol.MOLE_UP, id);
+            }
+            else {
+                sent.lower(id);
+                message = WhackAMoleMessage.of(WAMBinaryProtocol.MOLE_DOWN, id);
+            }
+            viewports.publish(id, message);
+            spectators.publish(message);
+            metrics.fanOut().record(System.nanoTime() - start);
+        }
+        finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * @return the lock that keeps a mole's MOLE_UP and MOLE_DOWN messages
+     * in order. The board itself never needs it.
+     */
+    private ReentrantLock stripeFor(int id){
+        return stripes[id & (STRIPES - 1)];
+    }
+
+    /**
+     * Sends a player only the moles in a region from now on, or the whole
+     * board again.
+     *
+     * @param player the player
+     * @param region its first row, first column, last row and last column,
+     *               or null for the whole board
+     */
+    public void subscribe(WhackAMolePlayer player, int[] region){
+        viewports.subscribe(player, region);
+    }
+
+    /**
+     * @return which players want which moles
+     */
+    public WhackAMoleViewports getViewports(){
+        return viewports;
+    }
+
+    /**
+     * @param region the first row, first column, last row and last column
+     *               to look in, or null for the whole board
+     * @return the moles up in it, in order
+     */
+    public int[] getUp(int[] region){
+        int[] up = holes.up();
+        if (region == null){
+            return up;
+        }
+        int count = 0;
+        for (int id : up){
+            int r = id / col;
+            int c = id % col;
+            if (r >= region[0] && r <= region[2] && c >= region[1] && c <= region[3]){
+                up[count++] = id;
+            }
         }
+        return Arrays.copyOf(up, count);
+    }
+
+    /**
+     * Lets a spectator watch the game, if it is still being played.
+     *
+     * @param spectator the spectator
+     * @return false if the game is not running
+     */
+    public boolean watch(WhackAMoleSpectator spectator){
+        if (state.get() != State.RUNNING){
+            return false;
+        }
+        spectators.add(spectator);
+        return true;
+    }
+
+    /**
+     * Called by a player whose score has changed, to tell the spectators.
+     */
+    public void scored(){
+        spectators.scored();
+    }
+
+    /**
+     * @return everyone watching the game without playing in it
+     */
+    public WhackAMoleSpectators getSpectators(){
+        return spectators;
+    }
+
+    /**
+     * The server calls this method to hear about the game finishing.
+     *
+     * @param observer the observer
+     */
+    public void addObserver(Observer<WhackAMoleGame> observer){
+        observers.add(observer);
+    }
+
+    /**
+     * Sends the players one {@link common.WAMProtocol#BOARD_DELTA} per tick
+     * instead of a message for every mole transition. Must be called before
+     * the game is run.
+     *
+     * @param millis how long to collect transitions for, or 0 to send each
+     *               one right away
+     */
+    public void setBroadcastTick(long millis){
+        this.broadcastTick = millis;
+    }
+
+    /**
+     * @return the number the server knows the game by
+     */
+    public int getId(){
+        return id;
     }
 
     /**
@@ -107,54 +345,206 @@ public class WhackAMoleGame implements Runnable {
     }
 
     /**
-     * @return the time the game was started
+     * @return the {@link System#nanoTime()} the game was started at
      */
     public long getStartTime(){
         return startTime;
     }
 
     /**
-     * @return the current time of the computer
+     * @return the {@link System#nanoTime()} the game ends at
+     */
+    public long getDeadline(){
+        return deadline;
+    }
+
+    /**
+     * @return every player's score as it stands, by player number
+     */
+    public int[] getScores(){
+        int[] scores = new int[numPlayers];
+        for (int i = 0; i < numPlayers; i++){
+            scores[i] = players[i].getScore();
+        }
+        return scores;
+    }
+
+    /**
+     * Copies which moles are up into a bitmap, one bit a mole.
+     *
+     * @param bitmap where to copy them; at least (rows * cols + 7) / 8 bytes
+     */
+    public void copyBoard(byte[] bitmap){
+        holes.copyTo(bitmap);
+    }
+
+    /**
+     * @return how many milliseconds are left before the game ends
+     */
+    public long getTimeLeft(){
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * @return the stage the game is in
+     */
+    public State getState(){
+        return state.get();
+    }
+
+    /**
+     * @return whether the game is no longer running
+     */
+    public boolean isOver(){
+        return state.get() != State.RUNNING;
+    }
+
+    /**
+     * Moves the game from one stage to the next.
+     *
+     * @param from the stage the game has to be in
+     * @param to the stage to move to
+     * @return whether the game was in the expected stage
+     */
+    private boolean transition(State from, State to){
+        return state.compareAndSet(from, to);
+    }
+
+    /**
+     * @return the number of the player with the highest score
      */
-    public long getCurrentTime(){
-        return System.currentTimeMillis();
+    public int winnerNum(){
+        int winnerNumber = 0;
+        for(int i = 1; i < numPlayers; i++){
+            if(players[i].getScore() > players[winnerNumber].getScore()){
+                winnerNumber = i;
+            }
+        }
+        return winnerNumber;
     }
 
     /**
-     * runs the threads, players and moles, so that the game can be played
+     * tells every player whether they won, lost or tied
+     */
+    private void winner(){
+        int highScore = players[winnerNum()].getScore();
+        int leaders = 0;
+        for(int i = 0; i < numPlayers; i++){
+            if(players[i].getScore() == highScore){
+                leaders++;
+            }
+        }
+        for(int i = 0; i < numPlayers; i++){
+            if(players[i].getScore() != highScore){
+                players[i].gameLost();
+            }else if(leaders > 1){
+                players[i].gameTied();
+            }else{
+                players[i].gameWon();
+            }
+        }
+    }
+
+    /**
+     * Ends the game: pulls every mole down, sends out the results and closes
+     * the players. Called by the game clock once the deadline has passed.
+     */
+    private void settle(){
+        if (!transition(State.RUNNING, State.SETTLING)){
+            return;
+        }
+        if (picker != null){
+            picker.stop();
+        }
+        else {
+            for (int i = 0; i < row*col; i++){
+                if (moleThreads != null){
+                    moleThreads[i].cancel(true);
+                }
+                else {
+                    moles[i].cancel();
+                }
+                setDown(i);
+            }
+        }
+        if (delta != null){
+            delta.flush();
+        }
+        winner();
+        for (int i = 0; i < numPlayers; i++){
+            journal.record(id, WhackAMoleJournal.FINAL_SCORE, 0, i, players[i].getScore());
+        }
+        journal.record(id, WhackAMoleJournal.GAME_OVER, 0, 0, 0);
+        spectators.gameOver();
+        for (WhackAMolePlayer player : players){
+            player.gameOver();
+            player.close();
+        }
+        transition(State.SETTLING, State.FINISHED);
+        System.out.println("Game " + id + " over! Player " + winnerNum() + " had the high score.");
+        for (Observer<WhackAMoleGame> observer : observers){
+            observer.update(this);
+        }
+    }
+
+    /**
+     * hands the player readers to the shared pool, puts the moles on the
+     * scheduler (or on threads of their own, in virtual thread mode) and sets
+     * the game clock. Returns right away; the game settles
+     * itself once its time is up.
      */
     @Override
     public void run() {
-        MoleThread = new Thread[row*col];
-        PlayerThread = new Thread[numPlayers];
+        if (!transition(State.LOBBY, State.RUNNING)){
+            return;
+        }
         for (int i = 0; i < numPlayers; i++){
-            Thread thread = new Thread(players[i]);
-            PlayerThread[i] = thread;
-            thread.start();
-        }
-        startTime = System.currentTimeMillis();
-        mole_moleThreads = new WhackAMole_MoleThread[row*col];
-        for (int i = 0; i < row*col; i++){
-            WhackAMole_MoleThread mole = new WhackAMole_MoleThread(i, this);
-            Thread thread = new Thread(mole);
-            MoleThread[i] = thread;
-            thread.start();
-        }
-        while(getCurrentTime() - startTime  < time*1000){ }
-        for (Thread m: MoleThread){
-            try {
-                m.interrupt();
-                m.join();
-            }
-            catch (Exception e){
+            if (players[i].isBlocking()){
+                try {
+                    executors.getReaders().execute(players[i]);
+                }
+                catch (RejectedExecutionException e){
+                    players[i].error("The server is full");
+                    players[i].close();
+                }
             }
         }
-        for (Thread t: PlayerThread){
-            try {
-                t.join();
+        WhackAMoleScheduler scheduler = executors.getScheduler();
+        if (broadcastTick > 0){
+            delta = new WhackAMoleDeltaBroadcaster(this, viewports, scheduler.nextWheel(), broadcastTick);
+            delta.start();
+        }
+        long pingInterval = Long.getLong(WhackAMolePinger.PING_PROPERTY, WhackAMolePinger.DEFAULT_INTERVAL_MILLIS);
+        if (pingInterval > 0){
+            new WhackAMolePinger(this, players, scheduler.nextWheel(), pingInterval).start();
+        }
+        journal.record(id, WhackAMoleJournal.GAME_START, row, col, time);
+        for (int i = 0; i < numPlayers; i++){
+            journal.record(id, WhackAMoleJournal.JOIN, 0, i, 0);
+        }
+        startTime = System.nanoTime();
+        deadline = startTime + TimeUnit.SECONDS.toNanos(time);
+        for (int i = 0; i < numPlayers; i++){
+            players[i].gameStarted(startTime, deadline);
+        }
+        ExecutorService moleExecutor = executors.getMoles();
+        if (moleExecutor != null){
+            moleThreads = new Future<?>[row*col];
+            for (int i = 0; i < row*col; i++){
+                moleThreads[i] = moleExecutor.submit(new WhackAMole_MoleThread(i, this));
             }
-            catch (Exception e){
+        }
+        else if (WhackAMoleHoleSet.isSparse(row*col)){
+            picker = new WhackAMoleMoles(this, row*col, scheduler);
+            picker.start();
+        }
+        else {
+            moles = new WhackAMoleMole[row*col];
+            for (int i = 0; i < row*col; i++){
+                moles[i] = new WhackAMoleMole(i, this, scheduler.nextWheel());
+                moles[i].start();
             }
         }
+        scheduler.nextWheel().schedule(new GameClock(), deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
     }
 }
\ No newline at end of file
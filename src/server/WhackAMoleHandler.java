@@ -0,0 +1,36 @@
+package server;
+
+/**
+ * Something that acts on the messages a client sends. The transport reading
+ * from the client asks it which wire format to expect next.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public interface WhackAMoleHandler {
+    /**
+     * @return whether the client is now sending
+     * {@link common.WAMBinaryProtocol binary frames} rather than text lines
+     */
+    boolean isBinary();
+
+    /**
+     * Acts on a single message from the client: a text line, without its
+     * line end, or a binary frame, as {@link #isBinary()} said when it was
+     * read. The bytes are only good until this returns.
+     *
+     * @param message the bytes holding the message
+     * @param offset where the message starts
+     * @param length how long the message is
+     */
+    void handle(byte[] message, int offset, int length);
+
+    /**
+     * Called once the connection it was reading from has closed, for
+     * whatever reason.
+     *
+     * @param connection the connection that closed
+     */
+    default void disconnected(WhackAMoleConnection connection) {
+    }
+}
@@ -0,0 +1,82 @@
+package server;
+
+/**
+ * Which of a game's moles are up. Changes must be atomic, so that when
+ * several players whack the same mole exactly one of them knocks it down.
+ * Small boards keep a bit for every hole in {@link WhackAMoleHoles}; boards
+ * of at least {@value #SPARSE_PROPERTY} holes only keep the moles that are
+ * up, in {@link WhackAMoleSparseHoles}.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public interface WhackAMoleHoleSet {
+    /** the system property that sets how many holes a board needs to be kept sparse */
+    String SPARSE_PROPERTY = "wam.board.sparse";
+    /** how many holes a board needs to be kept sparse, when the property is not set */
+    int DEFAULT_SPARSE_HOLES = 1 << 18;
+
+    /**
+     * Creates the holes for a board with every mole down, sparse if the
+     * board is big enough.
+     *
+     * @param size the number of holes
+     * @return the holes
+     */
+    static WhackAMoleHoleSet create(int size) {
+        if (isSparse(size)) {
+            return new WhackAMoleSparseHoles(size);
+        }
+        return new WhackAMoleHoles(size);
+    }
+
+    /**
+     * @param size the number of holes
+     * @return whether a board that big is kept sparse
+     */
+    static boolean isSparse(int size) {
+        return size >= Integer.getInteger(SPARSE_PROPERTY, DEFAULT_SPARSE_HOLES);
+    }
+
+    /**
+     * @return the number of holes
+     */
+    int size();
+
+    /**
+     * @param id the hole
+     * @return whether its mole is up
+     */
+    boolean isUp(int id);
+
+    /**
+     * Puts a mole up.
+     *
+     * @param id the hole
+     * @return whether the mole was down before
+     */
+    boolean raise(int id);
+
+    /**
+     * Puts a mole down. This is how a whack lands: only the caller that gets
+     * true back actually hit the mole.
+     *
+     * @param id the hole
+     * @return whether the mole was up before
+     */
+    boolean lower(int id);
+
+    /**
+     * @return the moles that are up, in order. A mole that moves while they
+     * are gathered may be either way.
+     */
+    int[] up();
+
+    /**
+     * Copies which moles are up into a bitmap, mole i in bit i % 8 of byte
+     * i / 8. A mole that moves while the copy is made may be either way.
+     *
+     * @param bitmap where to copy them; at least (size + 7) / 8 bytes
+     */
+    void copyTo(byte[] bitmap);
+}
@@ -0,0 +1,130 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Which of a game's moles are up, packed one bit per hole into an
+ * {@link AtomicLongArray}; the {@link WhackAMoleHoleSet} for boards that
+ * are not too big to keep a bit for every hole. Reads take no locks, and every change is a single
+ * compare-and-set, so when several players whack the same mole exactly one
+ * of them knocks it down.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleHoles implements WhackAMoleHoleSet {
+    /** 64 holes to a word */
+    private static final int SHIFT = 6;
+
+    private final int size;
+    private final AtomicLongArray words;
+
+    /**
+     * Creates the holes with every mole down.
+     *
+     * @param size the number of holes
+     */
+    public WhackAMoleHoles(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> SHIFT);
+    }
+
+    /**
+     * @return the number of holes
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id the hole
+     * @return whether its mole is up
+     */
+    @Override
+    public boolean isUp(int id) {
+        return (words.get(id >>> SHIFT) & (1L << id)) != 0;
+    }
+
+    /**
+     * Puts a mole up.
+     *
+     * @param id the hole
+     * @return whether the mole was down before
+     */
+    @Override
+    public boolean raise(int id) {
+        int index = id >>> SHIFT;
+        long bit = 1L << id;
+        while (true) {
+            long word = words.get(index);
+            if ((word & bit) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(index, word, word | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts a mole down. This is how a whack lands: only the caller that gets
+     * true back actually hit the mole.
+     *
+     * @param id the hole
+     * @return whether the mole was up before
+     */
+    @Override
+    public boolean lower(int id) {
+        int index = id >>> SHIFT;
+        long bit = 1L << id;
+        while (true) {
+            long word = words.get(index);
+            if ((word & bit) == 0) {
+                return false;
+            }
+            if (words.compareAndSet(index, word, word & ~bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads each word once, and skips the holes in it that are down.
+     */
+    @Override
+    public int[] up() {
+        int[] up = new int[64];
+        int count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.get(i);
+            while (word != 0) {
+                if (count == up.length) {
+                    up = Arrays.copyOf(up, count * 2);
+                }
+                up[count++] = (i << SHIFT) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return Arrays.copyOf(up, count);
+    }
+
+    /**
+     * Copies which moles are up into a bitmap, mole i in bit i % 8 of byte
+     * i / 8. Each word is read once, so a mole that moves while the copy
+     * is made may be either way.
+     *
+     * @param bitmap where to copy them; at least (size + 7) / 8 bytes
+     */
+    @Override
+    public void copyTo(byte[] bitmap) {
+        int bytes = (size + 7) >>> 3;
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.get(i);
+            for (int b = 0; b < 8 && 8 * i + b < bytes; b++) {
+                bitmap[8 * i + b] = (byte) (word >>> (8 * b));
+            }
+        }
+    }
+}
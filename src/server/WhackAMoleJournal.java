@@ -0,0 +1,311 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An append-only record of everything that happens in the server's games,
+ * for audits and for {@link WhackAMoleReplay replaying} a game to find a
+ * bug. It is off unless {@value #DIR_PROPERTY} names a directory.<br>
+ *
+ * Every event is a {@value #RECORD} byte record: the {@link System#nanoTime()}
+ * it happened at, the game, the {@link #GAME_START type} of event, a mole, a
+ * player and a score change, as little-endian numbers. Game threads never
+ * touch the disk. They claim a slot in a ring buffer, fill it in and
+ * publish it, and a single writer thread copies the published records into
+ * memory-mapped segment files of {@value #SEGMENT_PROPERTY} bytes each
+ * (default {@value #DEFAULT_SEGMENT}). If the writer falls a whole ring
+ * ({@value #RING_PROPERTY} records, default {@value #DEFAULT_RING}) behind,
+ * new events are dropped and counted rather than waited for.<br>
+ *
+ * A segment is sized in full when it is opened, so the records end at the
+ * first one whose type is 0. Each run of the server starts a new segment.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleJournal implements Closeable {
+    /** the system property that names the directory to keep the journal in */
+    public static final String DIR_PROPERTY = "wam.journal.dir";
+    /** the system property that sets the size of each segment file in bytes */
+    public static final String SEGMENT_PROPERTY = "wam.journal.segment";
+    /** the system property that sets how many records the ring holds */
+    public static final String RING_PROPERTY = "wam.journal.ring";
+    /** the segment size, when the property is not set */
+    public static final int DEFAULT_SEGMENT = 64 << 20;
+    /** the ring size, when the property is not set */
+    public static final int DEFAULT_RING = 1 << 16;
+    /** the length of every record in bytes */
+    public static final int RECORD = 32;
+
+    /** mole: rows, player: columns, delta: seconds; the game's players follow as JOIN events */
+    public static final int GAME_START = 1;
+    /** player: the player's number */
+    public static final int JOIN = 2;
+    /** mole: the mole that rose */
+    public static final int MOLE_UP = 3;
+    /** mole: the mole that fell, whether whacked or not */
+    public static final int MOLE_DOWN = 4;
+    /** mole: the mole whacked, player: who whacked it, delta: the points it earned */
+    public static final int WHACK = 5;
+    /** player: the player, delta: the player's final score */
+    public static final int FINAL_SCORE = 6;
+    /** the game's results are all in */
+    public static final int GAME_OVER = 7;
+
+    /** the name of segment files, which are numbered from 0 */
+    static final String PREFIX = "journal-";
+    static final String SUFFIX = ".wam";
+    /** how many longs each ring slot takes */
+    private static final int SLOT = 4;
+    /** how long the writer sleeps when there is nothing to write */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final WhackAMoleJournal SHARED = open();
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentSize;
+    private final int mask;
+    /** each slot packed as time; game and type; mole and player; delta */
+    private final long[] ring;
+    /** the sequence number published in each slot, once its record is in */
+    private final AtomicLongArray published;
+    /** the next sequence number to claim, and the next one the writer wants */
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private volatile boolean running = true;
+    private Thread writer;
+    /** only touched by the writer */
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentNumber;
+
+    private WhackAMoleJournal(Path dir, int segmentSize, int ringSize) {
+        this.enabled = dir != null;
+        this.dir = dir;
+        this.segmentSize = segmentSize - segmentSize % RECORD;
+        int capacity = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.mask = capacity - 1;
+        this.ring = enabled ? new long[capacity * SLOT] : null;
+        this.published = enabled ? new AtomicLongArray(capacity) : null;
+        for (int i = 0; enabled && i < capacity; i++) {
+            // nothing is published yet, not even sequence number 0
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * @return the journal the whole server shares; it records nothing unless
+     * {@value #DIR_PROPERTY} is set
+     */
+    public static WhackAMoleJournal shared() {
+        return SHARED;
+    }
+
+    /**
+     * Makes the shared journal and starts its writer, if it is turned on.
+     */
+    private static WhackAMoleJournal open() {
+        String dir = System.getProperty(DIR_PROPERTY);
+        WhackAMoleJournal journal = new WhackAMoleJournal(dir == null ? null : Paths.get(dir),
+                Integer.getInteger(SEGMENT_PROPERTY, DEFAULT_SEGMENT), Integer.getInteger(RING_PROPERTY, DEFAULT_RING));
+        if (journal.enabled) {
+            try {
+                journal.start();
+            }
+            catch (IOException e) {
+                System.err.println("Could not open the journal in " + dir + ": " + e);
+                return new WhackAMoleJournal(null, DEFAULT_SEGMENT, 2);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "journal-close"));
+        }
+        return journal;
+    }
+
+    private void start() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> existing = segments(dir);
+        segmentNumber = existing.isEmpty() ? 0 : number(existing.get(existing.size() - 1)) + 1;
+        nextSegment();
+        writer = new Thread(this::write, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return whether events are being recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records an event, without waiting. Safe to call from any thread.
+     *
+     * @param game the game's number
+     * @param type what happened, such as {@link #MOLE_UP}
+     * @param mole the mole, or 0
+     * @param player the player, or 0
+     * @param delta the change in score, or 0
+     */
+    public void record(int game, int type, int mole, int player, int delta) {
+        if (!enabled) {
+            return;
+        }
+        long time = System.nanoTime();
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        int slot = (int) (seq & mask);
+        int at = slot * SLOT;
+        ring[at] = time;
+        ring[at + 1] = (long) game << 32 | type & 0xFFFFFFFFL;
+        ring[at + 2] = (long) mole << 32 | player & 0xFFFFFFFFL;
+        ring[at + 3] = delta;
+        // the volatile write publishes the plain ones before it
+        published.set(slot, seq);
+    }
+
+    /**
+     * The writer's loop: copies published records into the segment in
+     * order, waiting for any slot that has been claimed but not yet filled.
+     */
+    private void write() {
+        long next = 0;
+        while (true) {
+            int slot = (int) (next & mask);
+            if (next < head.get() && published.get(slot) == next) {
+                append(slot);
+                next++;
+                tail = next;
+            }
+            else if (!running && next >= head.get()) {
+                return;
+            }
+            else {
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Copies one slot into the segment, starting a new segment when this
+     * one is full.
+     */
+    private void append(int slot) {
+        try {
+            if (segment.remaining() < RECORD) {
+                nextSegment();
+            }
+            int at = slot * SLOT;
+            segment.putLong(ring[at]);
+            segment.putInt((int) (ring[at + 1] >>> 32));
+            segment.putInt((int) ring[at + 1]);
+            segment.putInt((int) (ring[at + 2] >>> 32));
+            segment.putInt((int) ring[at + 2]);
+            segment.putInt((int) ring[at + 3]);
+            segment.putInt(0);
+            written.increment();
+        }
+        catch (IOException e) {
+            dropped.increment();
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+            channel.close();
+        }
+        Path path = dir.resolve(String.format("%s%06d%s", PREFIX, segmentNumber++, SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return how many events have been written to the segments
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return how many events were lost because the writer fell behind
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes out whatever is still in the ring and flushes the segment to
+     * disk.
+     */
+    @Override
+    public void close() {
+        if (!enabled || !running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+            segment.force();
+            channel.close();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            System.err.println("Could not close the journal: " + e);
+        }
+        if (getDropped() > 0) {
+            System.err.println("The journal dropped " + getDropped() + " events");
+        }
+    }
+
+    /**
+     * @param dir a journal directory
+     * @return its segment files, oldest first
+     * @throws IOException If the directory cannot be read.
+     */
+    static List<Path> segments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static int number(Path segment) {
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
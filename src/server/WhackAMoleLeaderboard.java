@@ -0,0 +1,329 @@
+package server;
+
+import common.WAMProtocol;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The best scores across every game on the server, live and finished, for
+ * the {@link WAMProtocol#LEADERBOARD} request. One is shared by the whole
+ * server.<br>
+ *
+ * Places are kept in a skip list ordered by score, so a score change is a
+ * remove and an insert, each O(log n), and the top places are the head of
+ * the list. A player's rank is one more than the number of places with a
+ * higher score; a second skip list counts places by score, so that costs
+ * one step per distinct higher score rather than one per place.<br>
+ *
+ * Finished places beyond {@value #SIZE_PROPERTY} (default
+ * {@value #DEFAULT_SIZE}) are dropped from the bottom. When
+ * {@value #FILE_PROPERTY} names a file, the finished places are read from it
+ * at start up and written back when the server exits.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleLeaderboard {
+    /** the system property that sets how many finished places are kept */
+    public static final String SIZE_PROPERTY = "wam.leaderboard.size";
+    /** the system property that names the file the places are kept in */
+    public static final String FILE_PROPERTY = "wam.leaderboard.file";
+    /** how many finished places are kept, when the property is not set */
+    public static final int DEFAULT_SIZE = 10000;
+    /** the most places one request can ask for */
+    public static final int MAX_PLACES = 100;
+
+    private static final WhackAMoleLeaderboard SHARED = load();
+
+    /**
+     * One player's score in one game. Places are never changed, only
+     * replaced, so the skip list can order them by score.
+     */
+    public static final class Place implements Comparable<Place> {
+        private final long id;
+        private final int game;
+        private final int player;
+        private final int score;
+        private final boolean finished;
+
+        private Place(long id, int game, int player, int score, boolean finished) {
+            this.id = id;
+            this.game = game;
+            this.player = player;
+            this.score = score;
+            this.finished = finished;
+        }
+
+        /** @return the number of the game */
+        public int getGame() {
+            return game;
+        }
+
+        /** @return the number of the player in the game */
+        public int getPlayer() {
+            return player;
+        }
+
+        /** @return the score */
+        public int getScore() {
+            return score;
+        }
+
+        /** @return whether the game is over */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * Best score first; ties go to whoever got there first.
+         */
+        @Override
+        public int compareTo(Place other) {
+            if (score != other.score) {
+                return Integer.compare(other.score, score);
+            }
+            return Long.compare(id, other.id);
+        }
+    }
+
+    private final ConcurrentSkipListSet<Place> ranking = new ConcurrentSkipListSet<>();
+    /** each place by its id, so a player's place can be found to replace */
+    private final Map<Long, Place> places = new ConcurrentHashMap<>();
+    /** how many places have each score, highest first */
+    private final ConcurrentSkipListMap<Integer, AtomicInteger> scores =
+            new ConcurrentSkipListMap<>((a, b) -> Integer.compare(b, a));
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicInteger finished = new AtomicInteger();
+    private final int size;
+    /** lets one thread at a time drop finished places from the bottom */
+    private final ReentrantLock trimLock = new ReentrantLock();
+    /** one more than the highest game number read from the file */
+    private int nextGame;
+
+    /**
+     * @param size how many finished places to keep
+     */
+    public WhackAMoleLeaderboard(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return the leaderboard the whole server shares
+     */
+    public static WhackAMoleLeaderboard shared() {
+        return SHARED;
+    }
+
+    /**
+     * Adds a player to the board with no points.
+     *
+     * @param game the number of the player's game
+     * @param player the number of the player in the game
+     * @return the id to update the player's place with
+     */
+    public long join(int game, int player) {
+        long id = nextId.getAndIncrement();
+        Place place = new Place(id, game, player, 0, false);
+        places.put(id, place);
+        add(place);
+        return id;
+    }
+
+    /**
+     * Moves a player's place to a new score.
+     *
+     * @param id the player's id
+     * @param score the new score
+     */
+    public void update(long id, int score) {
+        places.computeIfPresent(id, (key, old) -> old.finished || old.score == score
+                ? old : replace(old, new Place(id, old.game, old.player, score, false)));
+    }
+
+    /**
+     * Marks a player's game as over. Its place stays until it falls off the
+     * bottom of the finished places.
+     *
+     * @param id the player's id
+     */
+    public void finish(long id) {
+        places.computeIfPresent(id, (key, old) -> old.finished
+                ? old : replace(old, new Place(id, old.game, old.player, old.score, true)));
+        if (finished.get() > size) {
+            trim();
+        }
+    }
+
+    /**
+     * Swaps one place in the ranking for another. Called while the map holds
+     * the place's id, so a game finishing and a last whack cannot both
+     * replace the same place.
+     */
+    private Place replace(Place old, Place place) {
+        // the two may compare equal, so the old one has to go first
+        remove(old);
+        add(place);
+        if (place.finished) {
+            finished.incrementAndGet();
+        }
+        return place;
+    }
+
+    private void add(Place place) {
+        scores.computeIfAbsent(place.score, score -> new AtomicInteger()).incrementAndGet();
+        ranking.add(place);
+    }
+
+    private void remove(Place place) {
+        if (ranking.remove(place)) {
+            scores.get(place.score).decrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the lowest finished places until no more than the size are
+     * left. Live places are never dropped.
+     */
+    private void trim() {
+        if (!trimLock.tryLock()) {
+            return;
+        }
+        try {
+            Iterator<Place> lowest = ranking.descendingIterator();
+            while (finished.get() > size && lowest.hasNext()) {
+                Place place = lowest.next();
+                if (place.finished && places.remove(place.id, place)) {
+                    remove(place);
+                    finished.decrementAndGet();
+                }
+            }
+        }
+        finally {
+            trimLock.unlock();
+        }
+    }
+
+    /**
+     * @param count how many places to give
+     * @return the best places, best first; fewer if there are not that many
+     */
+    public Place[] top(int count) {
+        Place[] top = new Place[Math.max(0, Math.min(count, MAX_PLACES))];
+        int found = 0;
+        for (Iterator<Place> best = ranking.iterator(); found < top.length && best.hasNext(); ) {
+            top[found++] = best.next();
+        }
+        return found == top.length ? top : Arrays.copyOf(top, found);
+    }
+
+    /**
+     * @param id a player's id
+     * @return the player's rank, 1 being first, or 0 if the player has no
+     * place
+     */
+    public int rankOf(long id) {
+        Place place = places.get(id);
+        if (place == null) {
+            return 0;
+        }
+        int rank = 1;
+        for (AtomicInteger higher : scores.headMap(place.score).values()) {
+            rank += higher.get();
+        }
+        return rank;
+    }
+
+    /**
+     * @return how many places there are, live and finished
+     */
+    public int size() {
+        return ranking.size();
+    }
+
+    /**
+     * @return one more than the highest game number read from the file, so
+     * new games do not reuse old numbers
+     */
+    public int getNextGame() {
+        return nextGame;
+    }
+
+    /**
+     * Makes the shared leaderboard, filled from the file if one is named,
+     * and arranges for it to be written back when the server exits.
+     */
+    private static WhackAMoleLeaderboard load() {
+        WhackAMoleLeaderboard leaderboard = new WhackAMoleLeaderboard(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+        String file = System.getProperty(FILE_PROPERTY);
+        if (file == null) {
+            return leaderboard;
+        }
+        Path path = Paths.get(file);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 3) {
+                    continue;
+                }
+                int score = Integer.parseInt(fields[0]);
+                int game = Integer.parseInt(fields[1]);
+                int player = Integer.parseInt(fields[2]);
+                Place place = new Place(leaderboard.nextId.getAndIncrement(), game, player, score, true);
+                leaderboard.places.put(place.id, place);
+                leaderboard.add(place);
+                leaderboard.finished.incrementAndGet();
+                leaderboard.nextGame = Math.max(leaderboard.nextGame, game + 1);
+            }
+        }
+        catch (NoSuchFileException e) {
+            // nothing kept yet
+        }
+        catch (IOException | NumberFormatException e) {
+            System.err.println("Could not read the leaderboard from " + file + ": " + e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> leaderboard.save(path), "leaderboard-save"));
+        return leaderboard;
+    }
+
+    /**
+     * Writes the finished places to a file, one "score game player" line
+     * each, best first. The file is replaced in one step, so a crash while
+     * writing leaves the old one.
+     *
+     * @param path the file
+     */
+    public void save(Path path) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Place place : ranking) {
+                    if (place.finished) {
+                        writer.write(place.score + " " + place.game + " " + place.player);
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.err.println("Could not save the leaderboard to " + path + ": " + e);
+        }
+    }
+}
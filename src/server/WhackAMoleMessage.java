@@ -0,0 +1,123 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import java.nio.ByteBuffer;
+
+/**
+ * One message for everyone watching a game, encoded once in each wire
+ * format and never changed after. Every player and spectator is handed its
+ * own {@link ByteBuffer#duplicate() duplicate} of the encoding it reads, so
+ * they all share the same bytes and none of them can move another's
+ * position.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public final class WhackAMoleMessage {
+    /** the moles whose MOLE_UP and MOLE_DOWN are only encoded once */
+    private static final int CACHED = 1 << 12;
+    private static final WhackAMoleMessage[] UPS = new WhackAMoleMessage[CACHED];
+    private static final WhackAMoleMessage[] DOWNS = new WhackAMoleMessage[CACHED];
+
+    private final ByteBuffer text;
+    private final ByteBuffer binary;
+
+    private WhackAMoleMessage(ByteBuffer text, ByteBuffer binary) {
+        this.text = text.asReadOnlyBuffer();
+        this.binary = binary.asReadOnlyBuffer();
+    }
+
+    /**
+     * The MOLE_UP and MOLE_DOWN of the first {@value #CACHED} moles never
+     * change, so they are encoded the first time they are needed and handed
+     * out again after that. Two threads that both find one missing only
+     * encode the same bytes twice.
+     *
+     * @param opcode the message, such as {@link WAMBinaryProtocol#MOLE_UP}
+     * @param arg its argument
+     * @return the message in both formats
+     */
+    public static WhackAMoleMessage of(byte opcode, int arg) {
+        WhackAMoleMessage[] cache = opcode == WAMBinaryProtocol.MOLE_UP ? UPS
+                : opcode == WAMBinaryProtocol.MOLE_DOWN ? DOWNS : null;
+        if (cache == null || arg < 0 || arg >= CACHED) {
+            return encode(opcode, arg);
+        }
+        WhackAMoleMessage message = cache[arg];
+        if (message == null) {
+            message = encode(opcode, arg);
+            cache[arg] = message;
+        }
+        return message;
+    }
+
+    private static WhackAMoleMessage encode(byte opcode, int arg) {
+        ByteBuffer both = ByteBuffer.allocate(64);
+        WAMCodec.encode(both, false, opcode, arg);
+        int split = both.position();
+        WAMCodec.encode(both, true, opcode, arg);
+        return split(both, split);
+    }
+
+    /**
+     * @param opcode the message, such as a stamped {@link WAMBinaryProtocol#MOLE_UP}
+     * @param first its first argument
+     * @param second its second argument
+     * @return the message in both formats
+     */
+    public static WhackAMoleMessage of(byte opcode, int first, int second) {
+        ByteBuffer both = ByteBuffer.allocate(64);
+        WAMCodec.encode(both, false, opcode, first, second);
+        int split = both.position();
+        WAMCodec.encode(both, true, opcode, first, second);
+        return split(both, split);
+    }
+
+    /**
+     * @param opcode the message, such as {@link WAMBinaryProtocol#SCORE}
+     * @param values the values in it
+     * @param count how many of them there are
+     * @return the message in both formats
+     */
+    public static WhackAMoleMessage list(byte opcode, int[] values, int count) {
+        ByteBuffer both = ByteBuffer.allocate(2 * (32 + 12 * count));
+        WAMCodec.encodeList(both, false, opcode, values, count);
+        int split = both.position();
+        WAMCodec.encodeList(both, true, opcode, values, count);
+        return split(both, split);
+    }
+
+    /**
+     * @return a {@link common.WAMProtocol#BOARD_DELTA} in both formats,
+     * stamped with the clock if {@link WhackAMoleClock#stamps()}
+     */
+    public static WhackAMoleMessage delta(int[] ups, int upCount, int[] downs, int downCount) {
+        boolean stamped = WhackAMoleClock.stamps();
+        int clock = stamped ? WhackAMoleClock.now() : 0;
+        ByteBuffer both = ByteBuffer.allocate(2 * WAMCodec.deltaSize(upCount, downCount));
+        WAMCodec.encodeDelta(both, false, ups, upCount, downs, downCount, stamped, clock);
+        int split = both.position();
+        WAMCodec.encodeDelta(both, true, ups, upCount, downs, downCount, stamped, clock);
+        return split(both, split);
+    }
+
+    /**
+     * Splits one buffer holding the text line and then the binary frame.
+     */
+    private static WhackAMoleMessage split(ByteBuffer both, int split) {
+        ByteBuffer text = both.duplicate();
+        text.position(0).limit(split);
+        ByteBuffer binary = both.duplicate();
+        binary.position(split).limit(both.position());
+        return new WhackAMoleMessage(text.slice(), binary.slice());
+    }
+
+    /**
+     * @param binary whether the reader wants the binary frame
+     * @return the reader's own view of the encoded message
+     */
+    public ByteBuffer get(boolean binary) {
+        return (binary ? this.binary : this.text).duplicate();
+    }
+}
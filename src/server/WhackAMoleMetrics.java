@@ -0,0 +1,317 @@
+package server;
+
+import common.WAMHistogram;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters, latency histograms and gauges for everything a server is doing.
+ * One set is shared by every game in the JVM. Counters are
+ * {@link LongAdder LongAdders} and latencies go into {@link WAMHistogram
+ * WAMHistograms}, so recording never takes a lock or allocates; only
+ * reading them does.<br>
+ *
+ * They are published as the {@value #OBJECT_NAME} MXBean, and as text by
+ * the {@link WhackAMoleMetricsEndpoint}.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleMetrics implements WhackAMoleMetricsMXBean {
+    /** the name the metrics are registered under */
+    public static final String OBJECT_NAME = "whackamole:type=Metrics";
+
+    private static final WhackAMoleMetrics SHARED = new WhackAMoleMetrics();
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder whacks = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder protocolErrors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    private final WAMHistogram whackLatency = new WAMHistogram("whack", 60, TimeUnit.SECONDS);
+    private final WAMHistogram whackToAck = new WAMHistogram("whack-to-ack", 60, TimeUnit.SECONDS);
+    private final WAMHistogram roundTrip = new WAMHistogram("rtt", 60, TimeUnit.SECONDS);
+    private final WAMHistogram fanOut = new WAMHistogram("fan-out", 60, TimeUnit.SECONDS);
+    private final WAMHistogram moleDrift = new WAMHistogram("mole-drift", 60, TimeUnit.SECONDS);
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    /** counts the live games, once a server has said how */
+    private volatile IntSupplier liveGames = () -> 0;
+    private boolean registered;
+
+    /**
+     * @return the metrics shared by every game in this JVM
+     */
+    public static WhackAMoleMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, once.
+     */
+    public synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            registered = true;
+        }
+        catch (JMException e) {
+            System.err.println("Could not register metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param liveGames how to count the games being played right now
+     */
+    public void setLiveGames(IntSupplier liveGames) {
+        this.liveGames = liveGames;
+    }
+
+    /**
+     * Counts a player connecting.
+     */
+    public void connected() {
+        connections.increment();
+    }
+
+    /**
+     * Counts a scored whack.
+     *
+     * @param hit whether it hit a mole
+     * @param nanos how long it took from reading the whack to queueing the
+     *              score
+     */
+    public void whacked(boolean hit, long nanos) {
+        whacks.increment();
+        (hit ? hits : misses).increment();
+        whackLatency.record(nanos);
+    }
+
+    /**
+     * Counts a message from a client that could not be understood.
+     */
+    public void protocolError() {
+        protocolErrors.increment();
+    }
+
+    /**
+     * Counts a client dropped for not catching up, or not closing its side,
+     * in time.
+     */
+    public void timedOut() {
+        timeouts.increment();
+    }
+
+    /**
+     * Counts a message read from a client.
+     *
+     * @param bytes how long it was
+     */
+    public void messageIn(int bytes) {
+        messagesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Counts messages written to a client.
+     *
+     * @param messages how many there were
+     */
+    public void messagesOut(int messages) {
+        messagesOut.add(messages);
+    }
+
+    /**
+     * Counts bytes handed to a client's connection.
+     *
+     * @param bytes how many there were
+     */
+    public void bytesOut(int bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * @return from reading an acknowledged whack to writing its result
+     */
+    public WAMHistogram whackToAck() {
+        return whackToAck;
+    }
+
+    /**
+     * @return round trips of the server's pings
+     */
+    public WAMHistogram roundTrip() {
+        return roundTrip;
+    }
+
+    /**
+     * @return how long it takes to queue a mole change for every player
+     */
+    public WAMHistogram fanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @return how late moles rise and fall
+     */
+    public WAMHistogram moleDrift() {
+        return moleDrift;
+    }
+
+    @Override
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    @Override
+    public long getWhacks() {
+        return whacks.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getProtocolErrors() {
+        return protocolErrors.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public int getLiveGames() {
+        return liveGames.getAsInt();
+    }
+
+    @Override
+    public int getThreads() {
+        return threads.getThreadCount();
+    }
+
+    @Override
+    public WAMHistogram.Snapshot getWhackLatency() {
+        return whackLatency.snapshot();
+    }
+
+    @Override
+    public WAMHistogram.Snapshot getWhackToAck() {
+        return whackToAck.snapshot();
+    }
+
+    @Override
+    public WAMHistogram.Snapshot getRoundTrip() {
+        return roundTrip.snapshot();
+    }
+
+    @Override
+    public WAMHistogram.Snapshot getFanOut() {
+        return fanOut.snapshot();
+    }
+
+    @Override
+    public WAMHistogram.Snapshot getMoleDrift() {
+        return moleDrift.snapshot();
+    }
+
+    /**
+     * @return every metric as text, one sample per line, in the format
+     * Prometheus scrapes
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder();
+        counter(text, "wam_connections_total", "Players that have connected", getConnections());
+        counter(text, "wam_whacks_total", "Whacks scored", getWhacks());
+        counter(text, "wam_hits_total", "Whacks that hit a mole", getHits());
+        counter(text, "wam_misses_total", "Whacks that missed", getMisses());
+        counter(text, "wam_protocol_errors_total", "Client messages not understood", getProtocolErrors());
+        counter(text, "wam_timeouts_total", "Clients dropped for not keeping up in time", getTimeouts());
+        counter(text, "wam_messages_in_total", "Messages read from clients", getMessagesIn());
+        counter(text, "wam_messages_out_total", "Messages written to clients", getMessagesOut());
+        counter(text, "wam_bytes_in_total", "Bytes read from clients", getBytesIn());
+        counter(text, "wam_bytes_out_total", "Bytes written to clients", getBytesOut());
+        gauge(text, "wam_live_games", "Games being played", getLiveGames());
+        gauge(text, "wam_threads", "Threads in the JVM", getThreads());
+        summary(text, "wam_whack_latency_seconds", "Reading a whack to queueing its score", whackLatency);
+        summary(text, "wam_whack_to_ack_seconds", "Reading a whack to writing its result", whackToAck);
+        summary(text, "wam_round_trip_seconds", "Round trips of server pings", roundTrip);
+        summary(text, "wam_fan_out_seconds", "Queueing a mole change for every player", fanOut);
+        summary(text, "wam_mole_drift_seconds", "How late moles rise and fall", moleDrift);
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        header(text, name, help, "counter");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, long value) {
+        header(text, name, help, "gauge");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, String help, WAMHistogram histogram) {
+        WAMHistogram.Snapshot snapshot = histogram.snapshot();
+        header(text, name, help, "summary");
+        quantile(text, name, "0.5", snapshot.getP50());
+        quantile(text, name, "0.9", snapshot.getP90());
+        quantile(text, name, "0.99", snapshot.getP99());
+        text.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+        String max = name.replace("_seconds", "_max_seconds");
+        header(text, max, "Largest ever: " + help, "gauge");
+        text.append(max).append(' ').append(snapshot.getMax() / 1e9).append('\n');
+    }
+
+    private static void quantile(StringBuilder text, String name, String quantile, long nanos) {
+        text.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(nanos / 1e9).append('\n');
+    }
+
+    private static void header(StringBuilder text, String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the {@link WhackAMoleMetrics} as plain text at {@code /metrics},
+ * for Prometheus or curl to scrape. It listens on the loopback address only,
+ * answers on the HTTP server's own thread, and does no work between scrapes.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleMetricsEndpoint implements Closeable {
+    /** the system property that sets the port to listen on; unset turns it off */
+    public static final String PORT_PROPERTY = "wam.metrics.port";
+    /** where the metrics are served */
+    public static final String PATH = "/metrics";
+
+    private final WhackAMoleMetrics metrics;
+    private final HttpServer server;
+
+    /**
+     * Starts serving.
+     *
+     * @param metrics the metrics to serve
+     * @param port the port to listen on, or 0 for any free one
+     * @throws IOException If the port cannot be bound.
+     */
+    public WhackAMoleMetricsEndpoint(WhackAMoleMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(PATH, this::scrape);
+        this.server.start();
+    }
+
+    /**
+     * @return the port being listened on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Answers one scrape.
+     */
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stops serving.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
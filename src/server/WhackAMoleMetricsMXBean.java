@@ -0,0 +1,65 @@
+package server;
+
+import common.WAMHistogram;
+
+/**
+ * The server's {@link WhackAMoleMetrics} as seen over JMX. Counters run
+ * from when the server started. Latencies are
+ * {@link WAMHistogram.Snapshot snapshots} of the last minute or two, in
+ * nanoseconds.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public interface WhackAMoleMetricsMXBean {
+    /** @return how many players have connected */
+    long getConnections();
+
+    /** @return how many whacks have been scored */
+    long getWhacks();
+
+    /** @return how many whacks hit a mole */
+    long getHits();
+
+    /** @return how many whacks missed */
+    long getMisses();
+
+    /** @return how many messages from clients could not be understood */
+    long getProtocolErrors();
+
+    /** @return how many clients were dropped for not catching up or closing in time */
+    long getTimeouts();
+
+    /** @return how many messages have been read from clients */
+    long getMessagesIn();
+
+    /** @return how many messages have been written to clients */
+    long getMessagesOut();
+
+    /** @return how many bytes of messages have been read from clients */
+    long getBytesIn();
+
+    /** @return how many bytes have been written to clients */
+    long getBytesOut();
+
+    /** @return how many games are being played right now */
+    int getLiveGames();
+
+    /** @return how many threads the JVM is running */
+    int getThreads();
+
+    /** @return from reading a whack to queueing its score */
+    WAMHistogram.Snapshot getWhackLatency();
+
+    /** @return from reading an acknowledged whack to writing its result */
+    WAMHistogram.Snapshot getWhackToAck();
+
+    /** @return round trips of the server's pings */
+    WAMHistogram.Snapshot getRoundTrip();
+
+    /** @return how long it takes to queue a mole change for every player */
+    WAMHistogram.Snapshot getFanOut();
+
+    /** @return how late moles rise and fall */
+    WAMHistogram.Snapshot getMoleDrift();
+}
@@ -0,0 +1,76 @@
+package server;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single mole hole driven by a {@link WhackAMoleTimerWheel}. It keeps the
+ * same timing as {@link WhackAMole_MoleThread}: down for 3 to 7 seconds, then
+ * up for 2 to 4 seconds, until the game is over.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleMole extends WhackAMoleTimerWheel.Timeout {
+    static final int MIN_UP = 2;
+    static final int MAX_UP = 5;
+    static final int MIN_DOWN = 3;
+    static final int MAX_DOWN = 8;
+
+    private int mole;
+    private WhackAMoleGame game;
+    private WhackAMoleTimerWheel wheel;
+    private boolean up;
+
+    /**
+     * @param id the mole in use's id
+     * @param game the game being run
+     * @param wheel the wheel that times this mole
+     */
+    public WhackAMoleMole(int id, WhackAMoleGame game, WhackAMoleTimerWheel wheel) {
+        this.mole = id;
+        this.game = game;
+        this.wheel = wheel;
+    }
+
+    /**
+     * puts the mole down and starts its first down time
+     */
+    public void start() {
+        game.setDown(mole);
+        wheel.schedule(this, downTime(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * flips the mole and waits for its next transition
+     */
+    @Override
+    protected void expire() {
+        WhackAMoleMetrics.shared().moleDrift().record(getLateness());
+        if (up) {
+            up = false;
+            game.setDown(mole);
+            if (!game.isOver()) {
+                wheel.schedule(this, downTime(), TimeUnit.SECONDS);
+            }
+        } else if (!game.isOver()) {
+            up = true;
+            game.setUp(mole);
+            wheel.schedule(this, upTime(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return how many seconds the mole should stay up
+     */
+    private static int upTime() {
+        return ThreadLocalRandom.current().nextInt(MAX_UP - MIN_UP) + MIN_UP;
+    }
+
+    /**
+     * @return how many seconds the mole should stay down
+     */
+    private static int downTime() {
+        return ThreadLocalRandom.current().nextInt(MAX_DOWN - MIN_DOWN) + MIN_DOWN;
+    }
+}
@@ -0,0 +1,202 @@
+package server;
+
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Picks which of a sparse board's moles come up. Rather than a
+ * {@link WhackAMoleMole} for every hole, every {@value #RISE_MILLIS} ms it
+ * picks holes at random from those that are free, as many as would come up
+ * on their own, and starts a {@link Visit} for each. A visit comes up, stays
+ * up for 2 to 4 seconds, and then keeps its hole down for
+ * {@value WhackAMoleMole#MIN_DOWN} seconds before letting it go, so a hole
+ * is never picked again straight after going down. Only the holes with a
+ * visit have a timer, and there are never more than {@value #LIVE_PROPERTY}
+ * of them, so a very big board costs no more than the moles on it. Rises
+ * that cannot be placed are carried over to the next round.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleMoles extends WhackAMoleTimerWheel.Timeout {
+    /** the system property that sets the most holes with a visit at once */
+    public static final String LIVE_PROPERTY = "wam.moles.live";
+    /** the most holes with a visit at once, when the property is not set */
+    public static final int DEFAULT_LIVE = 1 << 16;
+    /** how often moles are picked */
+    static final long RISE_MILLIS = 100;
+    /**
+     * how long a free hole waits to be picked on average, so that with the
+     * rest after a visit a hole is down for 3 to 7 seconds on average
+     */
+    private static final long MEAN_WAIT_MILLIS =
+            (WhackAMoleMole.MIN_DOWN + WhackAMoleMole.MAX_DOWN - 1) * 500L - WhackAMoleMole.MIN_DOWN * 1000L;
+    /** how many holes are tried for each mole on a crowded board */
+    private static final int TRIES = 8;
+
+    private final WhackAMoleGame game;
+    private final WhackAMoleScheduler scheduler;
+    private final WhackAMoleTimerWheel wheel;
+    private final int size;
+    private final int most;
+
+    /** guards everything below */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** the holes with a visit, by hole */
+    private final HashMap<Integer, Visit> live = new HashMap<>();
+    /** the moles owed from earlier picks that have not come up yet */
+    private double owed;
+
+    /**
+     * @param game the game being run
+     * @param size the number of holes
+     * @param scheduler the wheels the moles are timed on
+     */
+    public WhackAMoleMoles(WhackAMoleGame game, int size, WhackAMoleScheduler scheduler) {
+        this.game = game;
+        this.size = size;
+        this.scheduler = scheduler;
+        this.wheel = scheduler.nextWheel();
+        this.most = Math.max(1, Integer.getInteger(LIVE_PROPERTY, DEFAULT_LIVE));
+    }
+
+    /**
+     * starts picking moles
+     */
+    public void start() {
+        wheel.schedule(this, RISE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * picks this round's moles and waits for the next round
+     */
+    @Override
+    protected void expire() {
+        if (game.isOver()) {
+            return;
+        }
+        pick();
+        wheel.schedule(this, RISE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the moles due this round, each at a random time within it so
+     * they do not all come up together. What is not placed, because too many
+     * holes have a visit or every hole tried had one, is owed to the next
+     * round, though never more than a full board of visits.
+     */
+    private void pick() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        lock.lock();
+        try {
+            owed = Math.min(owed + (double) (size - live.size()) * RISE_MILLIS / MEAN_WAIT_MILLIS, most);
+            int rises = (int) Math.min(owed, most - live.size());
+            int placed = 0;
+            for (int i = 0; i < rises; i++) {
+                for (int tries = 0; tries < TRIES; tries++) {
+                    int id = random.nextInt(size);
+                    if (!live.containsKey(id)) {
+                        Visit visit = new Visit(id, scheduler.nextWheel());
+                        live.put(id, visit);
+                        visit.start(random.nextLong(RISE_MILLIS));
+                        placed++;
+                        break;
+                    }
+                }
+            }
+            owed -= placed;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a hole once its visit is over.
+     *
+     * @param visit the visit
+     */
+    private void remove(Visit visit) {
+        lock.lock();
+        try {
+            live.remove(visit.mole, visit);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops picking moles and puts every one that is up back down.
+     */
+    public void stop() {
+        cancel();
+        Visit[] visits;
+        lock.lock();
+        try {
+            visits = live.values().toArray(new Visit[0]);
+            live.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+        for (Visit visit : visits) {
+            visit.cancel();
+            game.setDown(visit.mole);
+        }
+    }
+
+    /**
+     * One mole coming up in a hole, going back down and resting there.
+     */
+    private final class Visit extends WhackAMoleTimerWheel.Timeout {
+        private final int mole;
+        private final WhackAMoleTimerWheel wheel;
+        private boolean up;
+        private boolean rested;
+
+        /**
+         * @param mole the hole
+         * @param wheel the wheel that times this visit
+         */
+        Visit(int mole, WhackAMoleTimerWheel wheel) {
+            this.mole = mole;
+            this.wheel = wheel;
+        }
+
+        /**
+         * puts the mole up once the delay has passed
+         *
+         * @param delayMillis how long to wait first
+         */
+        void start(long delayMillis) {
+            wheel.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * puts the mole up, back down, or frees its hole after the rest
+         */
+        @Override
+        protected void expire() {
+            WhackAMoleMetrics.shared().moleDrift().record(getLateness());
+            if (up) {
+                up = false;
+                rested = true;
+                game.setDown(mole);
+                if (!game.isOver()) {
+                    wheel.schedule(this, WhackAMoleMole.MIN_DOWN, TimeUnit.SECONDS);
+                    return;
+                }
+            } else if (!rested && !game.isOver()) {
+                up = true;
+                game.setUp(mole);
+                wheel.schedule(this, ThreadLocalRandom.current().nextInt(
+                        WhackAMoleMole.MAX_UP - WhackAMoleMole.MIN_UP) + WhackAMoleMole.MIN_UP, TimeUnit.SECONDS);
+                return;
+            }
+            remove(this);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link WhackAMoleConnection} over a non-blocking {@link SocketChannel}.
+ * Each connection keeps one direct buffer for reading and one for writing,
+ * and reuses them for its whole life. Partial reads are held until the rest
+ * of the line (or binary frame) arrives, and partial writes are finished
+ * when the channel is writable again.<br>
+ *
+ * Sending never waits, as the sender may be the event loop itself. Output
+ * that does not fit in the write buffer waits in a heap buffer that grows
+ * while the client is slow to read, up to {@value #MAX_WRITE_BUFFER} bytes
+ * in all, and is let go once the client catches up. A client that falls
+ * further behind than that is dropped at once, as is one that has not caught
+ * up within {@link WhackAMoleEventLoop#CATCH_UP_MILLIS}. Senders that ask
+ * are told when a client that had fallen behind has caught up, so they can
+ * hold their messages back until then. The handler is told a connection has
+ * gone on the event loop thread, never by a sender that dropped it.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleNioConnection implements WhackAMoleConnection {
+    /** the longest line or frame a client may send */
+    public static final int MAX_MESSAGE = 256;
+    /** the most output queued for a client before it is dropped */
+    public static final int MAX_WRITE_BUFFER = 1 << 20;
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final SocketChannel channel;
+    private final WhackAMoleEventLoop loop;
+    private final ByteBuffer readBuffer;
+    private final int writeSize;
+    private final ByteBuffer writeBuffer;
+    /** the output that did not fit in the write buffer, or null for none */
+    private ByteBuffer overflow;
+    /** guards the write buffers, which any thread may send into */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /** the bytes read but not yet handled */
+    private final byte[] pending = new byte[MAX_MESSAGE];
+    private int pendingLength;
+    private SelectionKey key;
+    /** who the complete messages are handed to */
+    private volatile WhackAMoleHandler handler;
+    /** run once the write buffer is back to its usual size; null for none */
+    private Runnable ready;
+    /** whether the loop has already been asked to flush */
+    private boolean flushScheduled;
+    /** whether to close once the queued output is written */
+    private volatile boolean closing;
+    /**
+     * whether the output has been shut down, and the client is being given
+     * the chance to close its side first
+     */
+    private boolean shut;
+    /**
+     * when the event loop gives up on the client catching up or closing its
+     * side, or 0 if it is doing neither; only touched on the loop thread
+     */
+    long deadline;
+    private volatile boolean closed;
+
+    /**
+     * @param channel the client's channel, already non-blocking
+     * @param loop the event loop that will service the channel
+     * @param readSize the size of the read buffer
+     * @param writeSize the size of the write buffer
+     */
+    public WhackAMoleNioConnection(SocketChannel channel, WhackAMoleEventLoop loop, int readSize, int writeSize) {
+        this.channel = channel;
+        this.loop = loop;
+        this.readBuffer = ByteBuffer.allocateDirect(readSize);
+        this.writeSize = writeSize;
+        this.writeBuffer = ByteBuffer.allocateDirect(writeSize);
+    }
+
+    /**
+     * @param handler who each message from the client is handed to
+     */
+    public void setHandler(WhackAMoleHandler handler) {
+        this.handler = handler;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Queues a message for the event loop to write once it is flushed.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void send(String message) {
+        if (closed) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            if (put(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)))) {
+                put(ByteBuffer.wrap(NEW_LINE));
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Queues a binary frame for the event loop to write once it is flushed.
+     *
+     * @param frame the frame to send
+     */
+    @Override
+    public void send(ByteBuffer frame) {
+        if (closed) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            put(frame);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Asks the event loop to write out everything queued. Messages sent
+     * before the loop gets around to it go out in a single write.
+     */
+    @Override
+    public void flush() {
+        boolean schedule;
+        writeLock.lock();
+        try {
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+        if (schedule) {
+            loop.flushLater(this);
+        }
+    }
+
+    /**
+     * Copies bytes into the write buffer, or behind it into the overflow
+     * when they do not fit, and then asks the event loop to write them out.
+     * The bytes' position is not changed. A client with more than
+     * {@link #MAX_WRITE_BUFFER} bytes waiting is dropped rather than waited
+     * for. Called holding the write lock.
+     *
+     * @param bytes the bytes to copy
+     * @return whether they were all copied
+     */
+    private boolean put(ByteBuffer bytes) {
+        if (closed) {
+            return false;
+        }
+        int length = bytes.remaining();
+        if (overflow == null && length <= writeBuffer.remaining()) {
+            writeBuffer.put(bytes.duplicate());
+            return true;
+        }
+        int needed = (overflow == null ? 0 : overflow.position()) + length;
+        if (writeBuffer.position() + needed > MAX_WRITE_BUFFER) {
+            System.out.println("Client cannot keep up, closing " + channel);
+            abort();
+            return false;
+        }
+        if (overflow == null || needed > overflow.capacity()) {
+            int capacity = overflow == null ? writeSize : overflow.capacity() * 2;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(MAX_WRITE_BUFFER, Math.max(needed, capacity)));
+            if (overflow != null) {
+                bigger.put(overflow.flip());
+            }
+            overflow = bigger;
+        }
+        overflow.put(bytes.duplicate());
+        if (!flushScheduled) {
+            flushScheduled = true;
+            loop.flushLater(this);
+        }
+        return true;
+    }
+
+    /**
+     * @return how many bytes are waiting to be written. Called holding the
+     * write lock.
+     */
+    private int queued() {
+        return writeBuffer.position() + (overflow == null ? 0 : overflow.position());
+    }
+
+    /**
+     * The client has fallen behind once more is waiting than the write
+     * buffer usually holds.
+     */
+    @Override
+    public boolean whenWritable(Runnable ready) {
+        writeLock.lock();
+        try {
+            if (closed || queued() < writeSize) {
+                return true;
+            }
+            this.ready = ready;
+            return false;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes as much queued output as the channel will take, and lets a
+     * sender waiting for the client to catch up know once it has. Called on
+     * the event loop thread.
+     */
+    void write() {
+        Runnable caughtUp = null;
+        writeLock.lock();
+        try {
+            flushScheduled = false;
+            if (closed || key == null || shut) {
+                return;
+            }
+            writeBuffer.flip();
+            try {
+                channel.write(writeBuffer);
+            }
+            catch (IOException e) {
+                abort();
+                return;
+            }
+            finally {
+                writeBuffer.compact();
+            }
+            if (overflow != null) {
+                overflow.flip();
+                int length = Math.min(overflow.remaining(), writeBuffer.remaining());
+                writeBuffer.put(overflow.slice().limit(length));
+                overflow.position(overflow.position() + length);
+                overflow.compact();
+                if (overflow.position() == 0) {
+                    overflow = null;
+                }
+            }
+            if (queued() < writeSize) {
+                caughtUp = ready;
+                ready = null;
+                deadline = 0;
+            }
+            else if (deadline == 0) {
+                loop.watch(this, WhackAMoleEventLoop.CATCH_UP_MILLIS);
+            }
+            if (queued() > 0) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            else if (closing) {
+                shutdown();
+            }
+            else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+        if (caughtUp != null) {
+            caughtUp.run();
+        }
+    }
+
+    /**
+     * Shuts down the output once everything queued has been written, but
+     * leaves the channel open until the client closes its side. Closing
+     * with whacks still unread would reset the connection, and the client
+     * could lose the last messages, its result among them. Called on the
+     * event loop thread, holding the write lock.
+     */
+    private void shutdown() {
+        shut = true;
+        try {
+            channel.shutdownOutput();
+        }
+        catch (IOException e) {
+            abort();
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        loop.watch(this, WhackAMoleEventLoop.LINGER_MILLIS);
+    }
+
+    /**
+     * Reads whatever has arrived and hands each complete message to the
+     * handler. Anything read once the output is shut down is thrown away.
+     * Called on the event loop thread.
+     */
+    void read() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        }
+        catch (IOException e) {
+            abort();
+            return;
+        }
+        if (read < 0) {
+            abort();
+            return;
+        }
+        if (shut) {
+            readBuffer.clear();
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            if (pendingLength == pending.length) {
+                System.out.println("Message too long, closing " + channel);
+                abort();
+                return;
+            }
+            int length = Math.min(readBuffer.remaining(), pending.length - pendingLength);
+            readBuffer.get(pending, pendingLength, length);
+            pendingLength += length;
+            if (!dispatch()) {
+                return;
+            }
+        }
+        readBuffer.clear();
+    }
+
+    /**
+     * Hands every complete message in the pending bytes to the handler, and
+     * keeps whatever is left over for the next read. The handler may switch
+     * wire formats part way through, so it is asked before every message.
+     *
+     * @return false if the connection was closed for sending garbage
+     */
+    private boolean dispatch() {
+        WhackAMoleHandler handler = this.handler;
+        int start = 0;
+        while (start < pendingLength) {
+            try {
+                if (handler != null && handler.isBinary()) {
+                    int length = WAMBinaryProtocol.frameLength(pending, start, pendingLength - start);
+                    if (length < 0) {
+                        break;
+                    }
+                    int frame = start;
+                    start += length;
+                    handler.handle(pending, frame, length);
+                }
+                else {
+                    int end = start;
+                    while (end < pendingLength && pending[end] != '\n') {
+                        end++;
+                    }
+                    if (end == pendingLength) {
+                        break;
+                    }
+                    int line = start;
+                    start = end + 1;
+                    if (handler != null) {
+                        handler.handle(pending, line, end - line);
+                    }
+                }
+            }
+            catch (IOException e) {
+                System.out.println(e.getMessage() + ", closing " + channel);
+                abort();
+                return false;
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        System.arraycopy(pending, start, pending, 0, pendingLength - start);
+        pendingLength -= start;
+        return true;
+    }
+
+    /**
+     * @return whether the connection has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the connection once everything already sent has been written
+     * and the client has closed its side, or
+     * {@link WhackAMoleEventLoop#LINGER_MILLIS} after that at the latest.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        loop.flushLater(this);
+    }
+
+    /**
+     * Closes the connection right away, dropping any queued output. The
+     * handler is told later, on the event loop thread.
+     */
+    void abort() {
+        boolean wasClosed = closed;
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+        if (!wasClosed) {
+            loop.disconnected(this);
+        }
+    }
+
+    /**
+     * Tells the handler the connection has gone. Called on the event loop
+     * thread once the connection has been closed.
+     */
+    void disconnected() {
+        WhackAMoleHandler handler = this.handler;
+        if (handler != null) {
+            handler.disconnected(this);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import client.gui.WhackAMoleException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+/**
+ * Accepts clients on a {@link ServerSocketChannel} and spreads them over a
+ * fixed set of {@link WhackAMoleEventLoop event loops}, so the number of
+ * threads does not grow with the number of connections.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleNioServer implements Runnable, Closeable {
+    /** the size of each connection's read buffer */
+    public static final int READ_BUFFER_SIZE = 256;
+    /** the size of each connection's write buffer */
+    public static final int WRITE_BUFFER_SIZE = 4096;
+
+    private ServerSocketChannel server;
+    private WhackAMoleEventLoop[] loops;
+    private Consumer<WhackAMoleNioConnection> acceptor;
+    private volatile boolean running = true;
+
+    /**
+     * Binds the port and starts the event loops.
+     *
+     * @param port The port on which the server should listen for incoming connections.
+     * @param numLoops how many event loop threads to run
+     * @param acceptor who each new connection is handed to
+     * @throws WhackAMoleException If the port cannot be bound.
+     */
+    public WhackAMoleNioServer(int port, int numLoops, Consumer<WhackAMoleNioConnection> acceptor)
+            throws WhackAMoleException {
+        this.acceptor = acceptor;
+        try {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port), 1024);
+            loops = new WhackAMoleEventLoop[numLoops];
+            for (int i = 0; i < numLoops; i++) {
+                loops[i] = new WhackAMoleEventLoop("event-loop-" + i);
+            }
+        } catch (IOException e) {
+            throw new WhackAMoleException(e);
+        }
+    }
+
+    /**
+     * Accepts connections until the server is closed. The server channel is
+     * left blocking, so this thread sleeps in accept.
+     */
+    @Override
+    public void run() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                WhackAMoleEventLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                WhackAMoleNioConnection connection =
+                        new WhackAMoleNioConnection(channel, loop, READ_BUFFER_SIZE, WRITE_BUFFER_SIZE);
+                // the handler is set before the loop can read anything
+                acceptor.accept(connection);
+                loop.register(connection);
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Failed to accept a player!");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting and shuts the event loops down.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException ioe) {
+            // squash
+        }
+        for (WhackAMoleEventLoop loop : loops) {
+            loop.close();
+        }
+    }
+}
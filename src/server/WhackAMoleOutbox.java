@@ -0,0 +1,719 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of the messages waiting to go out to one player. Anyone
+ * may send into it without blocking, and a writer borrowed from a shared
+ * pool drains it, writing everything queued in a single batch. A client that
+ * reads too slowly only ever stalls its own writer, never the game, and a
+ * connection that does not block its writer is left alone until it has
+ * caught up, so the messages wait here instead.<br>
+ *
+ * Most messages are queued as a few ints, an opcode and its arguments,
+ * and only encoded by the writer, into a buffer it reuses. Messages that
+ * are already encoded, such as a {@link WhackAMoleMessage} shared by every
+ * player and spectator of a game, are queued as they are. Sending a message
+ * does not allocate.<br>
+ *
+ * Once a player has as many messages waiting as the outbox holds, the
+ * {@link Policy} decides what happens to the rest. A player that is not
+ * dropped has its mole messages resent or coalesced, a new score replaces
+ * the one still waiting, and pings, pongs, whack results and leaderboards
+ * are thrown away. Results and errors are always queued.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleOutbox {
+    /** the system property that picks the {@link Policy} */
+    public static final String POLICY_PROPERTY = "wam.slow";
+    /** the system property that sets how many messages may wait */
+    public static final String CAPACITY_PROPERTY = "wam.outbox";
+    /** how many messages may wait, when the property is not set */
+    public static final int DEFAULT_CAPACITY = 256;
+    /** the size of the buffer the writer encodes into */
+    private static final int BATCH_SIZE = 8192;
+    /** room left for any one encoded message */
+    private static final int MAX_ENCODED = 32;
+
+    /**
+     * What to do with messages once a player has fallen behind.
+     */
+    public enum Policy {
+        /**
+         * Throw away every mole message still waiting, and send the whole
+         * board again once the player catches up.
+         */
+        RESYNC,
+        /**
+         * Remember only which moles changed, and send where they are now
+         * once the player catches up.
+         */
+        COALESCE,
+        /**
+         * Drop the player, whatever the message.
+         */
+        DISCONNECT;
+
+        /**
+         * @return the policy named by the {@value #POLICY_PROPERTY} system
+         * property, or {@link #COALESCE} if it is not set or names no policy
+         */
+        public static Policy configured() {
+            String name = System.getProperty(POLICY_PROPERTY);
+            if (name == null) {
+                return COALESCE;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                System.err.println("Unknown " + POLICY_PROPERTY + " policy " + name + ", using " + COALESCE);
+                return COALESCE;
+            }
+        }
+    }
+
+    /*
+     * Each queued message is four ints: the opcode and these flags, then up
+     * to three arguments.
+     */
+    private static final int RECORD = 4;
+    private static final int OPCODE = 0xFF;
+    /** encode as a binary frame rather than a text line */
+    private static final int BINARY = 1 << 8;
+    /** how many arguments the message has, shifted */
+    private static final int ARGS_SHIFT = 9;
+    private static final int ARGS = 3 << ARGS_SHIFT;
+    /** the message only says where moles are, and may be dropped */
+    private static final int MOLE = 1 << 11;
+    /** the message is the next of the already encoded payloads */
+    private static final int PAYLOAD = 1 << 12;
+    /** close the connection here */
+    private static final int CLOSE = 1 << 13;
+    /** the message may be thrown away once the player has fallen behind */
+    private static final int SPARE = 1 << 14;
+
+    private final WhackAMoleConnection connection;
+    private final WhackAMolePlayer player;
+    private final Executor writers;
+    private final Policy policy;
+    private final int capacity;
+
+    /** guards everything below */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** the queued messages, {@value #RECORD} ints each */
+    private int[] queue = new int[32];
+    /** how many ints of the queue are in use */
+    private int queued;
+    /** the already encoded messages, in order */
+    private ArrayList<Object> payloads = new ArrayList<>();
+    /** how many messages are queued */
+    private int count;
+    /** where the last {@link WAMBinaryProtocol#SCORE} queued is, or -1 */
+    private int scoreAt = -1;
+    /** the moles to send again once the player catches up */
+    private final BitSet stale = new BitSet();
+    /** whether a writer is draining the queue */
+    private boolean writing;
+    private boolean closed;
+    private long dropped;
+    private long coalesced;
+
+    /** the writer's side of the queue, swapped with the senders' side */
+    private int[] batch = new int[32];
+    private ArrayList<Object> batchPayloads = new ArrayList<>();
+    /** the writer encodes into this */
+    private final ByteBuffer out = ByteBuffer.allocate(BATCH_SIZE);
+    private final Runnable drainer = this::drain;
+    private final Runnable resumer = this::schedule;
+    private final WhackAMoleMetrics metrics = WhackAMoleMetrics.shared();
+
+    /**
+     * @param connection the connection the messages are written to
+     * @param player who to ask for the board when it has to be sent again;
+     *               may be null for a spectator, which is always
+     *               {@link Policy#DISCONNECT disconnected} instead
+     * @param writers the pool that drains the queue
+     * @param policy what to do with a player that falls behind
+     * @param capacity how many messages may wait
+     */
+    public WhackAMoleOutbox(WhackAMoleConnection connection, WhackAMolePlayer player, Executor writers,
+                            Policy policy, int capacity) {
+        this.connection = connection;
+        this.player = player;
+        this.writers = writers;
+        this.policy = policy;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return {@link #SPARE} for the messages that may be thrown away once
+     * the player has fallen behind
+     */
+    private static int spare(byte opcode) {
+        switch (opcode) {
+            case WAMBinaryProtocol.PING:
+            case WAMBinaryProtocol.PONG:
+            case WAMBinaryProtocol.WHACK_RESULT:
+                return SPARE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Queues a message with no argument.
+     *
+     * @param binary whether to send it as a binary frame
+     * @param opcode the message
+     */
+    public void send(boolean binary, byte opcode) {
+        offer(opcode | (binary ? BINARY : 0) | spare(opcode), 0, 0, 0, null);
+    }
+
+    /**
+     * Queues a message with one argument.
+     *
+     * @param binary whether to send it as a binary frame
+     * @param opcode the message
+     * @param arg its argument
+     */
+    public void send(boolean binary, byte opcode, int arg) {
+        offer(opcode | 1 << ARGS_SHIFT | (binary ? BINARY : 0) | spare(opcode), arg, 0, 0, null);
+    }
+
+    /**
+     * Queues a message with two arguments.
+     *
+     * @param binary whether to send it as a binary frame
+     * @param opcode the message
+     * @param first its first argument
+     * @param second its second argument
+     */
+    public void send(boolean binary, byte opcode, int first, int second) {
+        offer(opcode | 2 << ARGS_SHIFT | (binary ? BINARY : 0) | spare(opcode), first, second, 0, null);
+    }
+
+    /**
+     * Queues a message with three arguments.
+     *
+     * @param binary whether to send it as a binary frame
+     * @param opcode the message
+     * @param first its first argument
+     * @param second its second argument
+     * @param third its third argument
+     */
+    public void send(boolean binary, byte opcode, int first, int second, int third) {
+        offer(opcode | 3 << ARGS_SHIFT | (binary ? BINARY : 0) | spare(opcode), first, second, third, null);
+    }
+
+    /**
+     * Queues an encoded message that must be delivered.
+     *
+     * @param message a {@link String} line or {@link ByteBuffer} frame
+     */
+    public void send(Object message) {
+        offer(PAYLOAD, 0, 0, 0, message);
+    }
+
+    /**
+     * Queues an encoded answer to something the client asked for, which is
+     * thrown away instead if the player has fallen behind.
+     *
+     * @param message a {@link String} line or {@link ByteBuffer} frame
+     */
+    public void sendReply(Object message) {
+        offer(PAYLOAD | SPARE, 0, 0, 0, message);
+    }
+
+    /**
+     * Queues a message about a mole, or deals with it according to the
+     * {@link Policy} if the player has fallen behind.
+     *
+     * @param binary whether to send it as a binary frame
+     * @param opcode the message
+     * @param mole the mole it is about
+     */
+    public void sendMole(boolean binary, byte opcode, int mole) {
+        offerMole(opcode | 1 << ARGS_SHIFT | MOLE | (binary ? BINARY : 0), mole, null, mole);
+    }
+
+    /**
+     * Queues an encoded message about one mole, or deals with it according
+     * to the {@link Policy} if the player has fallen behind.
+     *
+     * @param message this player's own duplicate of a {@link WhackAMoleMessage}
+     * @param mole the mole it is about
+     */
+    public void sendMole(ByteBuffer message, int mole) {
+        offerMole(PAYLOAD | MOLE, 0, message, mole);
+    }
+
+    /**
+     * Queues an encoded message about any number of moles, or deals with it
+     * according to the {@link Policy} if the player has fallen behind.
+     *
+     * @param message a {@link String} line or {@link ByteBuffer} frame
+     */
+    public void sendMole(Object message) {
+        offerMole(PAYLOAD | MOLE, 0, message, -1);
+    }
+
+    /**
+     * @param mole the mole the message is about, or -1 if it could be about
+     *             any number of them
+     */
+    private void offerMole(int head, int arg, Object payload, int mole) {
+        boolean disconnect = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (count < capacity && stale.isEmpty()) {
+                add(head, arg, 0, 0, payload);
+            }
+            else if (policy == Policy.DISCONNECT) {
+                dropAll();
+                disconnect = true;
+            }
+            else if (policy == Policy.RESYNC || mole < 0) {
+                resync();
+            }
+            else {
+                stale.set(mole);
+                coalesced++;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        if (disconnect) {
+            System.out.println("Player cannot keep up, disconnecting");
+            connection.close();
+        }
+        else {
+            schedule();
+        }
+    }
+
+    /**
+     * Throws away everything queued and marks the outbox closed, for a
+     * player being dropped. Called holding the lock.
+     */
+    private void dropAll() {
+        dropped += count + 1;
+        queued = 0;
+        payloads.clear();
+        count = 0;
+        scoreAt = -1;
+        closed = true;
+    }
+
+    /**
+     * Throws away the queued mole messages and marks the moles the player
+     * wants, its viewport or the whole board, to be sent again. Called
+     * holding the lock.
+     */
+    private void resync() {
+        int kept = 0;
+        int keptPayloads = 0;
+        int payload = 0;
+        for (int i = 0; i < queued; i += RECORD) {
+            int head = queue[i];
+            Object message = (head & PAYLOAD) != 0 ? payloads.get(payload++) : null;
+            if ((head & MOLE) != 0) {
+                continue;
+            }
+            if (i == scoreAt) {
+                scoreAt = kept;
+            }
+            System.arraycopy(queue, i, queue, kept, RECORD);
+            kept += RECORD;
+            if (message != null) {
+                payloads.set(keptPayloads++, message);
+            }
+        }
+        dropped += count - kept / RECORD + 1;
+        queued = kept;
+        payloads.subList(keptPayloads, payloads.size()).clear();
+        count = kept / RECORD;
+        player.markBoard(stale);
+    }
+
+    /**
+     * Adds a message to the end of the queue, and counts it. Called holding
+     * the lock.
+     */
+    private void add(int head, int first, int second, int third, Object payload) {
+        if (queued == queue.length) {
+            int[] grown = new int[queue.length * 2];
+            System.arraycopy(queue, 0, grown, 0, queued);
+            queue = grown;
+        }
+        if ((head & (PAYLOAD | OPCODE)) == WAMBinaryProtocol.SCORE) {
+            scoreAt = queued;
+        }
+        queue[queued++] = head;
+        queue[queued++] = first;
+        queue[queued++] = second;
+        queue[queued++] = third;
+        if (payload != null) {
+            payloads.add(payload);
+        }
+        count++;
+    }
+
+    /**
+     * Queues the message and makes sure a writer is on its way, or deals
+     * with it according to the {@link Policy} if the player has fallen
+     * behind.
+     */
+    private void offer(int head, int first, int second, int third, Object payload) {
+        boolean disconnect = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (count < capacity || head == CLOSE) {
+                add(head, first, second, third, payload);
+                closed = head == CLOSE;
+            }
+            else if (policy == Policy.DISCONNECT) {
+                dropAll();
+                disconnect = true;
+            }
+            else if ((head & SPARE) != 0) {
+                dropped++;
+                return;
+            }
+            else if ((head & (PAYLOAD | OPCODE)) == WAMBinaryProtocol.SCORE && scoreAt >= 0) {
+                // a writer is already on its way for the score waiting
+                queue[scoreAt + 1] = first;
+                coalesced++;
+                return;
+            }
+            else {
+                add(head, first, second, third, payload);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        if (disconnect) {
+            System.out.println("Player cannot keep up, disconnecting");
+            connection.close();
+        }
+        else {
+            schedule();
+        }
+    }
+
+    /**
+     * Hands the queue to a writer, unless one already has it.
+     */
+    private void schedule() {
+        lock.lock();
+        try {
+            if (writing) {
+                return;
+            }
+            writing = true;
+        }
+        finally {
+            lock.unlock();
+        }
+        try {
+            writers.execute(drainer);
+        }
+        catch (RejectedExecutionException e) {
+            // the writers are shutting down along with the server; leave the messages where they are
+            lock.lock();
+            try {
+                writing = false;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out everything queued, a batch at a time, until the queue is
+     * empty or the client has fallen behind. Moles that went stale are sent
+     * again once the rest are out.
+     */
+    private void drain() {
+        while (true) {
+            if (!connection.whenWritable(resumer)) {
+                lock.lock();
+                try {
+                    writing = false;
+                }
+                finally {
+                    lock.unlock();
+                }
+                // the client may have caught up before the writer was marked gone
+                if (connection.whenWritable(resumer)) {
+                    schedule();
+                }
+                return;
+            }
+            BitSet resend = null;
+            int batched = 0;
+            lock.lock();
+            try {
+                if (queued == 0) {
+                    if (stale.isEmpty() || closed) {
+                        writing = false;
+                        return;
+                    }
+                    resend = (BitSet) stale.clone();
+                    stale.clear();
+                }
+                else {
+                    int[] swap = batch;
+                    batch = queue;
+                    queue = swap;
+                    batched = queued;
+                    queued = 0;
+                    ArrayList<Object> swapPayloads = batchPayloads;
+                    batchPayloads = payloads;
+                    payloads = swapPayloads;
+                    count = 0;
+                    scoreAt = -1;
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+            if (resend != null) {
+                player.resend(resend);
+                continue;
+            }
+            if (!write(batched)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encodes and writes one batch, then flushes the connection.
+     *
+     * @param count how many ints of the batch are in use
+     * @return false if the batch closed the connection
+     */
+    private boolean write(int count) {
+        int payload = 0;
+        try {
+            for (int i = 0; i < count; i += RECORD) {
+                int head = batch[i];
+                if (head == CLOSE) {
+                    metrics.messagesOut(i / RECORD);
+                    flushOut();
+                    connection.flush();
+                    connection.close();
+                    return false;
+                }
+                if ((head & PAYLOAD) != 0) {
+                    writePayload(batchPayloads.get(payload++));
+                    continue;
+                }
+                if (out.remaining() < MAX_ENCODED) {
+                    flushOut();
+                }
+                byte opcode = (byte) (head & OPCODE);
+                boolean binary = (head & BINARY) != 0;
+                switch ((head & ARGS) >> ARGS_SHIFT) {
+                    case 0:
+                        WAMCodec.encode(out, binary, opcode);
+                        break;
+                    case 1:
+                        WAMCodec.encode(out, binary, opcode, batch[i + 1]);
+                        break;
+                    case 2:
+                        WAMCodec.encode(out, binary, opcode, batch[i + 1], batch[i + 2]);
+                        break;
+                    default:
+                        WAMCodec.encode(out, binary, opcode, batch[i + 1], batch[i + 2], batch[i + 3]);
+                        break;
+                }
+                if (opcode == WAMBinaryProtocol.WHACK_RESULT) {
+                    player.whackAnswered(batch[i + 1]);
+                }
+            }
+            metrics.messagesOut(count / RECORD);
+            flushOut();
+            connection.flush();
+            return true;
+        }
+        finally {
+            batchPayloads.clear();
+        }
+    }
+
+    /**
+     * Copies an encoded message into the batch, or sends it on its own if
+     * it does not fit.
+     */
+    private void writePayload(Object message) {
+        if (message instanceof String) {
+            String line = (String) message;
+            if (line.length() >= out.remaining()) {
+                flushOut();
+            }
+            if (line.length() < out.remaining()) {
+                WAMCodec.putLine(out, line);
+            }
+            else {
+                metrics.bytesOut(line.length() + 1);
+                connection.send(line);
+            }
+        }
+        else {
+            ByteBuffer frame = (ByteBuffer) message;
+            if (frame.remaining() > out.remaining()) {
+                flushOut();
+            }
+            if (frame.remaining() <= out.remaining()) {
+                // shared messages are read only, so copy through the buffer and put its position back
+                int position = frame.position();
+                out.put(frame);
+                frame.position(position);
+            }
+            else {
+                metrics.bytesOut(frame.remaining());
+                connection.send(frame);
+            }
+        }
+    }
+
+    /**
+     * Hands whatever has been encoded to the connection.
+     */
+    private void flushOut() {
+        if (out.position() > 0) {
+            metrics.bytesOut(out.position());
+            out.flip();
+            connection.send(out);
+            out.clear();
+        }
+    }
+
+    /**
+     * Queues the moles' current state in the message that follows, whatever
+     * the capacity, since it replaces messages that were dropped. Called by
+     * the player from {@link WhackAMolePlayer#resend(BitSet)}.
+     *
+     * @param message a {@link String} line or {@link ByteBuffer} frame
+     */
+    void sendResync(Object message) {
+        lock.lock();
+        try {
+            if (!closed) {
+                add(PAYLOAD | MOLE, 0, 0, 0, message);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Throws away everything queued and closes the connection right away,
+     * for a player whose connection has already gone, or a spectator being
+     * dropped.
+     */
+    void abandon() {
+        lock.lock();
+        try {
+            dropped += count;
+            queued = 0;
+            payloads.clear();
+            count = 0;
+            scoreAt = -1;
+            stale.clear();
+            closed = true;
+        }
+        finally {
+            lock.unlock();
+        }
+        connection.close();
+    }
+
+    /**
+     * Closes the connection once everything already queued has been written.
+     */
+    public void close() {
+        offer(CLOSE, 0, 0, 0, null);
+    }
+
+    /**
+     * @return whether the outbox has been closed, or has dropped its player
+     */
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many messages are waiting to be written
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return queued / RECORD;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many messages have been thrown away
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many messages were folded into a later one
+     */
+    public long getCoalesced() {
+        lock.lock();
+        try {
+            return coalesced;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return what happens to this player's messages when it falls behind
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,59 @@
+package server;
+
+import common.WAMProtocol;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends every player in a game a {@link WAMProtocol#PING} at a fixed
+ * interval, so the server keeps a running measure of its clients' round
+ * trips. Only clients that have pinged the server are pinged back.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMolePinger extends WhackAMoleTimerWheel.Timeout {
+    /** the system property that sets the interval in milliseconds; 0 turns pings off */
+    public static final String PING_PROPERTY = "wam.ping";
+    /** the interval, when the property is not set */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private WhackAMoleGame game;
+    private WhackAMolePlayer[] players;
+    private WhackAMoleTimerWheel wheel;
+    private long intervalMillis;
+
+    /**
+     * @param game the game whose players are pinged
+     * @param players who to ping
+     * @param wheel the wheel that times the pings
+     * @param intervalMillis how long to wait between pings
+     */
+    public WhackAMolePinger(WhackAMoleGame game, WhackAMolePlayer[] players, WhackAMoleTimerWheel wheel,
+                            long intervalMillis) {
+        this.game = game;
+        this.players = players;
+        this.wheel = wheel;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts pinging.
+     */
+    public void start() {
+        wheel.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pings every player and waits for the next interval.
+     */
+    @Override
+    protected void expire() {
+        if (game.isOver()) {
+            return;
+        }
+        for (WhackAMolePlayer player : players) {
+            player.ping();
+        }
+        wheel.schedule(this, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
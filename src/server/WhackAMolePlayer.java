@@ -1,12 +1,19 @@
 package server;
 
 import client.gui.WhackAMoleException;
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
 import common.WAMProtocol;
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
 import java.net.Socket;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Gabe Megna <gnm1714@rit.edu>
@@ -16,28 +23,112 @@ import java.util.Scanner;
 /**
  * A class that manages the requests and responses to a single client.
  */
-public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
+public class WhackAMolePlayer implements WAMProtocol, WhackAMoleHandler, Closeable, Runnable{
+    /** the most moles sent again in one delta */
+    private static final int RESEND_CHUNK = 4096;
+    /** how many pings or acknowledged whacks may be in flight at once */
+    private static final int IN_FLIGHT = 64;
+    /** the points for whacking a mole that is up */
+    public static final int HIT_POINTS = 2;
+    /** the points for whacking a hole with no mole up */
+    public static final int MISS_POINTS = -1;
+
+    private final WhackAMoleMetrics metrics = WhackAMoleMetrics.shared();
+    private final WhackAMoleJournal journal = WhackAMoleJournal.shared();
+
+    /**
+     * The stream used to read responses from the client, or null if the
+     * responses are handed to {@link #handle(byte[], int, int)} by an event
+     * loop.
+     */
+    private InputStream in;
+
     /**
-     * The {@link Socket} used to communicate with the client.
+     * Queues the requests for the client, so sending never waits on the
+     * client's {@link WhackAMoleConnection}. Replaced when the player
+     * resumes on a new connection.
      */
-    private Socket sock;
+    private volatile WhackAMoleOutbox outbox;
 
     /**
-     * The {@link Scanner} used to read responses from the client.
+     * The connection the player is on now.
      */
-    private Scanner scanner;
+    private volatile WhackAMoleConnection connection;
 
     /**
-     * The {@link PrintStream} used to send requests to the client.
+     * The seats held for players whose connection drops, or null if the
+     * server holds none, and this player's token. The token is 0 once the
+     * seat has been given up. Guarded by {@link #sendLock}.
      */
-    private PrintStream printer;
+    private WhackAMoleSessions sessions;
+    private int token;
 
+    /**
+     * Whether the connection has dropped and the player has not resumed,
+     * and what gives the seat up if it does not. Guarded by
+     * {@link #sendLock}.
+     */
+    private volatile boolean away;
+    private WhackAMoleTimerWheel.Timeout hold;
+
+    /**
+     * Whether the client has switched to {@link WAMBinaryProtocol}.
+     */
+    private volatile boolean binary;
 
-    private WhackAMoleGame game;
+    /**
+     * Held while sending, so no message can slip out in the wrong format
+     * while the client is switching formats.
+     */
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    /**
+     * The last binary frame read from the client.
+     */
+    private final WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+
+    private volatile WhackAMoleGame game;
+
+    /**
+     * The size of the board, and the part of it the client has asked for
+     * with a {@link #VIEWPORT} as its first row, first column, last row and
+     * last column, or null for all of it. Guarded by {@link #sendLock}.
+     */
+    private int rows;
+    private int cols;
+    private volatile int[] region;
+
+    /**
+     * Whether the client has pinged, and so will answer pings.
+     */
+    private volatile boolean pings;
+
+    /**
+     * The last ping sent, and when each ping in flight was sent. Guarded by
+     * {@link #sendLock}.
+     */
+    private int pingSeq;
+    private final int[] pingSeqs = new int[IN_FLIGHT];
+    private final long[] pingSent = new long[IN_FLIGHT];
+
+    /**
+     * When each acknowledged whack in flight was read. Filled in before its
+     * result is queued, and read by the outbox's writer after.
+     */
+    private final int[] whackSeqs = new int[IN_FLIGHT];
+    private final long[] whackRead = new long[IN_FLIGHT];
 
     private int playerId;
 
-    private int score;
+    /**
+     * Only changed by the thread reading this player's whacks, but read by
+     * the game and the spectators from threads of their own.
+     */
+    private volatile int score;
+
+    /** the best scores on the server, and this player's place among them */
+    private final WhackAMoleLeaderboard leaderboard = WhackAMoleLeaderboard.shared();
+    private volatile long place = -1;
 
     /**
      * Creates a new {@link WhackAMolePlayer} that will use the specified
@@ -49,11 +140,10 @@ public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
      * communication with the client.
      */
     public WhackAMolePlayer(Socket sock, int id) throws WhackAMoleException {
-        this.sock = sock;
         this.playerId = id;
+        this.outbox = newOutbox(new WhackAMoleSocketConnection(sock));
         try {
-            scanner = new Scanner(sock.getInputStream());
-            printer = new PrintStream(sock.getOutputStream());
+            in = new BufferedInputStream(sock.getInputStream());
         }
         catch (IOException e) {
             throw new WhackAMoleException(e);
@@ -61,10 +151,60 @@ public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
     }
 
     /**
-     * Sends the initial {@link #WELCOME} request to the client.
+     * Creates a new {@link WhackAMolePlayer} whose responses are read by
+     * someone else and passed to {@link #handle(byte[], int, int)}.
+     *
+     * @param connection The {@link WhackAMoleConnection} used to send
+     *                   requests to the client.
+     */
+    public WhackAMolePlayer(WhackAMoleConnection connection, int id) {
+        this.playerId = id;
+        this.outbox = newOutbox(connection);
+    }
+
+    /**
+     * @return an outbox for the connection, drained by the shared writers and
+     * set up by the {@value WhackAMoleOutbox#POLICY_PROPERTY} and
+     * {@value WhackAMoleOutbox#CAPACITY_PROPERTY} system properties
+     */
+    private WhackAMoleOutbox newOutbox(WhackAMoleConnection connection) {
+        this.connection = connection;
+        return new WhackAMoleOutbox(connection, this, WhackAMoleExecutors.shared().getWriters(),
+                WhackAMoleOutbox.Policy.configured(),
+                Integer.getInteger(WhackAMoleOutbox.CAPACITY_PROPERTY, WhackAMoleOutbox.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Sends the initial {@link #WELCOME} request to the client, offering to
+     * switch to {@link #BINARY}.
      */
     public void connect(int row, int col, int NumPlayers) {
-        printer.println(WELCOME + " " + row + " " + col + " " + NumPlayers + " " + playerId);
+        connect(row, col, NumPlayers, null);
+    }
+
+    /**
+     * Sends the initial {@link #WELCOME} request to the client, offering to
+     * switch to {@link #BINARY}, with a session token to {@link #RESUME} with
+     * if the server holds seats.
+     *
+     * @param sessions the seats the server holds, or null
+     */
+    public void connect(int row, int col, int NumPlayers, WhackAMoleSessions sessions) {
+        String welcome = WELCOME + " " + row + " " + col + " " + NumPlayers + " " + playerId + " " + BINARY;
+        sendLock.lock();
+        try {
+            this.rows = row;
+            this.cols = col;
+            if (sessions != null) {
+                this.sessions = sessions;
+                this.token = sessions.open(this);
+                welcome += " " + token + " " + sessions.getPort();
+            }
+        }
+        finally {
+            sendLock.unlock();
+        }
+        outbox.send(welcome);
     }
 
 
@@ -72,39 +212,507 @@ public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
         score = score + amount;
     }
 
+    /**
+     * @return whether this player needs a thread of its own running
+     * {@link #run()} to read from the client
+     */
+    public boolean isBlocking(){
+        return in != null;
+    }
+
+    /**
+     * @return whether the client has switched to {@link WAMBinaryProtocol}
+     */
+    @Override
+    public boolean isBinary(){
+        return binary;
+    }
 
+    /**
+     * Reads whacks from the client until the connection is closed.
+     */
     @Override
     public void run(){
-        while (true) {
-            String response = scanner.next();
-            if(response.startsWith(WHACK)) {
-                String[] tokens = response.strip().split(" "); // moleid playerid
-                if (tokens.length == 3) {
-                    if(game.getIsUp(Integer.parseInt(tokens[1]))==true){
-                        game.setDown(Integer.parseInt(tokens[1]));
-                        setScore(2);
+        if (in == null) {
+            return;
+        }
+        WhackAMoleConnection reading = connection;
+        byte[] buf = new byte[WAMBinaryProtocol.MAX_FRAME];
+        try {
+            while (true) {
+                int length = binary ? WAMBinaryProtocol.readFrame(in, buf) : WAMCodec.readLine(in, buf);
+                if (length < 0) {
+                    break;
+                }
+                handle(buf, 0, length);
+            }
+        }
+        catch (IOException e) {
+            // the connection has closed
+        }
+        catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        disconnected(reading);
+    }
+
+    /**
+     * Holds the player's seat if its connection dropped while it had a game
+     * to play and the server holds seats. Nothing is queued for it until it
+     * resumes.
+     */
+    @Override
+    public void disconnected(WhackAMoleConnection connection){
+        WhackAMoleOutbox dropped;
+        long grace;
+        sendLock.lock();
+        try {
+            WhackAMoleGame game = this.game;
+            if (connection != this.connection || token == 0 || away || (game != null && game.isOver())) {
+                return;
+            }
+            away = true;
+            dropped = outbox;
+            hold = sessions.hold(this);
+            grace = sessions.getGrace();
+        }
+        finally {
+            sendLock.unlock();
+        }
+        dropped.abandon();
+        System.out.println("Player " + playerId + " dropped, holding the seat for " + grace + " ms");
+    }
+
+    /**
+     * Gives up the player's seat, if it is still away when its grace period
+     * ends.
+     *
+     * @param expiry the timeout that ended the grace period
+     * @return whether the seat was given up
+     */
+    boolean giveUp(WhackAMoleTimerWheel.Timeout expiry){
+        sendLock.lock();
+        try {
+            if (!away || hold != expiry || token == 0) {
+                return false;
+            }
+            sessions.close(token);
+            token = 0;
+            hold = null;
+            return true;
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Puts the player back in its seat on a new connection, and sends it a
+     * {@link #SNAPSHOT} of the game as it stands. Whatever was sent while it
+     * was away is not sent again. A connection the server still thought was
+     * open is dropped.
+     *
+     * @param connection the new connection
+     * @param binary whether the client carries on in binary frames
+     * @return false if the seat is no longer held
+     */
+    boolean resume(WhackAMoleConnection connection, boolean binary){
+        WhackAMoleOutbox old;
+        sendLock.lock();
+        try {
+            WhackAMoleGame game = this.game;
+            if (token == 0 || (game != null && game.isOver())) {
+                return false;
+            }
+            if (hold != null) {
+                hold.cancel();
+                hold = null;
+            }
+            old = outbox;
+            outbox = newOutbox(connection);
+            this.binary = binary;
+            away = false;
+            if (binary) {
+                outbox.send(false, WAMCodec.PROTOCOL);
+            }
+            sendSnapshot(game);
+        }
+        finally {
+            sendLock.unlock();
+        }
+        old.abandon();
+        System.out.println("Player " + playerId + " resumed");
+        return true;
+    }
+
+    /**
+     * Sends the board, every score and the time left in one
+     * {@link #SNAPSHOT}, or the board as {@link #BOARD_DELTA deltas} after
+     * it if it is too big for one message. Called holding
+     * {@link #sendLock}.
+     *
+     * @param game the player's game, or null if it has not started
+     */
+    private void sendSnapshot(WhackAMoleGame game){
+        int moles = game == null ? 0 : game.getRow()*game.getCol();
+        int[] scores = game == null ? new int[0] : game.getScores();
+        int remaining = game == null ? -1 : (int) game.getTimeLeft();
+        boolean fits = WAMCodec.snapshotSize(scores.length, moles) <= WAMCodec.MAX_LINE;
+        byte[] board = new byte[fits ? (moles + 7) >>> 3 : 0];
+        if (fits && game != null) {
+            game.copyBoard(board);
+        }
+        ByteBuffer snapshot = ByteBuffer.allocate(WAMCodec.snapshotSize(scores.length, fits ? moles : 0));
+        WAMCodec.encodeSnapshot(snapshot, binary, playerId, remaining, scores, board, fits ? moles : 0);
+        outbox.send(snapshot.flip());
+        if (!fits) {
+            sendUp(game.getUp(region));
+        }
+    }
+
+    /**
+     * Sends moles that are up as {@link #BOARD_DELTA deltas} of at most
+     * {@value #RESEND_CHUNK} moles, and always at least one. Called holding
+     * {@link #sendLock}.
+     *
+     * @param up the moles, in order
+     */
+    private void sendUp(int[] up){
+        int start = 0;
+        do {
+            int count = Math.min(RESEND_CHUNK, up.length - start);
+            int[] chunk = Arrays.copyOfRange(up, start, start + count);
+            outbox.sendMole(delta(chunk, count, chunk, 0, false, 0));
+            start += count;
+        } while (start < up.length);
+    }
+
+    /**
+     * Sends the client only the moles in part of the board from now on,
+     * starting with a {@link #BOARD_DELTA} of those up in it. The region is
+     * cut off at the edges of the board; one with no rows or no columns
+     * goes back to the whole board. The delta is sent holding
+     * {@link #sendLock}, so no mole message about the region can be queued
+     * ahead of it, and the player is subscribed first, so none after it is
+     * missed.
+     *
+     * @param top the first row
+     * @param left the first column
+     * @param height the number of rows
+     * @param width the number of columns
+     */
+    private void viewport(int top, int left, int height, int width){
+        sendLock.lock();
+        try {
+            int[] region = null;
+            if (height > 0 && width > 0) {
+                if (top < 0 || left < 0 || top >= rows || left >= cols) {
+                    metrics.protocolError();
+                    error("Viewport is off the board");
+                    return;
+                }
+                region = new int[] {top, left, (int) Math.min((long) top + height, rows) - 1,
+                        (int) Math.min((long) left + width, cols) - 1};
+            }
+            this.region = region;
+            WhackAMoleGame game = this.game;
+            if (game != null) {
+                game.subscribe(this, region);
+            }
+            sendUp(game == null ? new int[0] : game.getUp(region));
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Marks the moles the client wants to be sent again: those in its
+     * {@link #VIEWPORT}, or the whole board.
+     *
+     * @param moles where to mark them
+     */
+    void markBoard(BitSet moles){
+        int[] region = this.region;
+        WhackAMoleGame game = this.game;
+        if (game == null) {
+            return;
+        }
+        if (region == null) {
+            moles.set(0, game.getRow()*game.getCol());
+            return;
+        }
+        for (int row = region[0]; row <= region[2]; row++) {
+            moles.set(row*game.getCol() + region[1], row*game.getCol() + region[3] + 1);
+        }
+    }
+
+    /**
+     * @return whether the player's connection has dropped and it has not
+     * resumed
+     */
+    public boolean isAway(){
+        return away;
+    }
+
+    /**
+     * @return the player's number in its game
+     */
+    public int getPlayerId(){
+        return playerId;
+    }
+
+    /**
+     * Acts on a single response from the client, a text line or a binary
+     * frame depending on {@link #isBinary()}.
+     */
+    @Override
+    public void handle(byte[] buf, int offset, int length){
+        metrics.messageIn(binary ? length : length + 1);
+        try {
+            if (binary) {
+                WAMBinaryProtocol.decode(buf, offset, length, frame);
+            }
+            else {
+                WAMCodec.decodeText(buf, offset, length, frame); // WHACK moleid playerid
+            }
+        }
+        catch (IOException e) {
+            reject(e.getMessage());
+            return;
+        }
+        switch (frame.opcode) {
+            case 0:
+                break;
+            case WAMBinaryProtocol.WHACK:
+                if (frame.argCount != 2 && frame.argCount != 3) {
+                    reject("Expected " + WHACK + " mole player [seq]");
+                }
+                else if (frame.args[1] != playerId) {
+                    reject("Not player " + frame.args[1]);
+                }
+                else if (frame.argCount == 2) {
+                    whack(frame.args[0], false, 0);
+                }
+                else {
+                    whack(frame.args[0], true, frame.args[2]);
+                }
+                break;
+            case WAMBinaryProtocol.PING:
+                if (frame.argCount == 1) {
+                    pings = true;
+                    sendLock.lock();
+                    try {
+                        outbox.send(binary, WAMBinaryProtocol.PONG, frame.args[0], WhackAMoleClock.now());
                     }
-                    else{
-                        setScore(-1);
+                    finally {
+                        sendLock.unlock();
                     }
-                    sendScore();
+                }
+                break;
+            case WAMBinaryProtocol.LEADERBOARD:
+                if (frame.argCount == 2) {
+                    sendLeaderboard(frame.args[1]);
                 }
                 else {
-                    System.out.println("not enough information");
+                    reject("Expected " + LEADERBOARD + " count");
+                }
+                break;
+            case WAMBinaryProtocol.PONG:
+                if (frame.argCount == 1) {
+                    pong(frame.args[0]);
+                }
+                break;
+            case WAMBinaryProtocol.VIEWPORT:
+                if (frame.argCount == 4) {
+                    viewport(frame.args[0], frame.args[1], frame.args[2], frame.args[3]);
                 }
+                else {
+                    reject("Expected " + VIEWPORT + " row col rows cols");
+                }
+                break;
+            case WAMCodec.PROTOCOL:
+                if (frame.binary && !binary) {
+                    sendLock.lock();
+                    try {
+                        outbox.send(false, WAMCodec.PROTOCOL);
+                        binary = true;
+                    }
+                    finally {
+                        sendLock.unlock();
+                    }
+                }
+                break;
+            default:
+                reject("Unexpected message");
+                break;
+        }
+    }
+
+    /**
+     * Counts a response the server cannot act on and tells the client why
+     * with an {@link #ERROR}.
+     *
+     * @param message what was wrong with it
+     */
+    private void reject(String message) {
+        metrics.protocolError();
+        error(message);
+    }
+
+    /**
+     * Scores a whack: {@value #HIT_POINTS} points for a mole that is up,
+     * {@value #MISS_POINTS} for a miss.
+     *
+     * @param id the mole that was whacked
+     * @param acked whether the client wants a {@link #WHACK_RESULT}
+     * @param seq the whack's sequence number
+     */
+    private void whack(int id, boolean acked, int seq){
+        long read = System.nanoTime();
+        WhackAMoleGame game = this.game;
+        if (game == null || game.isOver()) {
+            return;
+        }
+        if (id < 0 || id >= game.getRow()*game.getCol()) {
+            reject("Not a mole: " + id);
+            return;
+        }
+        boolean hit = game.whack(id);
+        if(hit){
+            setScore(HIT_POINTS);
+        }
+        else{
+            setScore(MISS_POINTS);
+        }
+        leaderboard.update(place, score);
+        journal.record(game.getId(), WhackAMoleJournal.WHACK, id, playerId, hit ? HIT_POINTS : MISS_POINTS);
+        if (acked) {
+            int slot = seq & (IN_FLIGHT - 1);
+            whackSeqs[slot] = seq;
+            whackRead[slot] = read;
+            int millis = (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - game.getStartTime());
+            sendLock.lock();
+            try {
+                outbox.send(binary, WAMBinaryProtocol.WHACK_RESULT, seq, hit ? 1 : 0, millis);
             }
-            else {
-                System.out.println("Error");
+            finally {
+                sendLock.unlock();
             }
         }
+        sendScore();
+        game.scored();
+        metrics.whacked(hit, System.nanoTime() - read);
+    }
+
+    /**
+     * Times an acknowledged whack, now that its result has been written.
+     * Called by the outbox's writer.
+     *
+     * @param seq the whack's sequence number
+     */
+    void whackAnswered(int seq){
+        int slot = seq & (IN_FLIGHT - 1);
+        if (whackSeqs[slot] == seq) {
+            metrics.whackToAck().record(System.nanoTime() - whackRead[slot]);
+        }
+    }
+
+    /**
+     * Sends the client a {@link #PING}, if it has shown it will answer one.
+     */
+    public void ping(){
+        if (!pings) {
+            return;
+        }
+        sendLock.lock();
+        try {
+            int seq = ++pingSeq & Integer.MAX_VALUE;
+            int slot = seq & (IN_FLIGHT - 1);
+            pingSeqs[slot] = seq;
+            pingSent[slot] = System.nanoTime();
+            outbox.send(binary, WAMBinaryProtocol.PING, seq);
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Times the round trip of one of our pings.
+     *
+     * @param seq the sequence number the client echoed
+     */
+    private void pong(int seq){
+        long now = System.nanoTime();
+        sendLock.lock();
+        try {
+            int slot = seq & (IN_FLIGHT - 1);
+            if (pingSeqs[slot] == seq && pingSent[slot] != 0) {
+                metrics.roundTrip().record(now - pingSent[slot]);
+                pingSent[slot] = 0;
+            }
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+
+    /**
+     * Sends a message with no arguments in whichever format the client uses.
+     */
+    private void send(byte opcode){
+        sendLock.lock();
+        try {
+            outbox.send(binary, opcode);
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a {@link #MOLE_UP} or {@link #MOLE_DOWN} that has been encoded
+     * once for everyone in the game, in whichever format the client uses.
+     *
+     * @param message the message
+     * @param id the mole it is about
+     */
+    public void sendMole(WhackAMoleMessage message, int id){
+        sendLock.lock();
+        try {
+            outbox.sendMole(message.get(binary), id);
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Tells the client the game has started, and when it ends, on the
+     * {@link WhackAMoleClock server's clock}.
+     *
+     * @param start the {@link System#nanoTime()} the game started at
+     * @param deadline the {@link System#nanoTime()} the game ends at
+     */
+    public void gameStarted(long start, long deadline) {
+        sendLock.lock();
+        try {
+            outbox.send(binary, WAMBinaryProtocol.GAME_START, WhackAMoleClock.at(start), WhackAMoleClock.at(deadline));
+        }
+        finally {
+            sendLock.unlock();
+        }
     }
+
     /**
      * Called to send a {@link #GAME_WON} request to the client because the
      * player's most recent move won the game.
      *
      */
     public void gameWon() {
-        printer.println(GAME_WON);
+        send(WAMBinaryProtocol.GAME_WON);
 
     }
 
@@ -114,7 +722,7 @@ public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
      *
      */
     public void gameLost()  {
-        printer.println(GAME_LOST);
+        send(WAMBinaryProtocol.GAME_LOST);
     }
 
     /**
@@ -122,7 +730,7 @@ public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
      * game tied.
      */
     public void gameTied()  {
-        printer.println(GAME_TIED);
+        send(WAMBinaryProtocol.GAME_TIED);
     }
 
     /**
@@ -132,7 +740,18 @@ public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
      * @param message The error message.
      */
     public void error(String message) {
-        printer.println(ERROR + " " + message);
+        sendLock.lock();
+        try {
+            if (binary) {
+                outbox.send(WAMBinaryProtocol.errorFrame(message));
+            }
+            else {
+                outbox.send(ERROR + " " + message);
+            }
+        }
+        finally {
+            sendLock.unlock();
+        }
     }
 
     /**
@@ -140,29 +759,169 @@ public class WhackAMolePlayer implements WAMProtocol, Closeable, Runnable{
      */
     @Override
     public void close() {
-        try {
-            sock.close();
-        }
-        catch(IOException ioe) {
-            // squash
-        }
+        outbox.close();
     }
 
     public void sendScore(){
-        printer.println(WAMProtocol.SCORE + " " + score);
+        sendLock.lock();
+        try {
+            outbox.send(binary, WAMBinaryProtocol.SCORE, score);
+        }
+        finally {
+            sendLock.unlock();
+        }
     }
 
     public int getScore() {return score;}
 
     public void getGame(WhackAMoleGame WAMGame){
-        this.game = WAMGame;
+        this.place = leaderboard.join(WAMGame.getId(), playerId);
+        sendLock.lock();
+        try {
+            this.game = WAMGame;
+            if (region != null) {
+                WAMGame.subscribe(this, region);
+            }
+        }
+        finally {
+            sendLock.unlock();
+        }
     }
 
-    public void moleUp(int id){
-        printer.println(WAMProtocol.MOLE_UP + " " + id);
+    /**
+     * Called by the game once it is over, to keep the player's final score
+     * on the leaderboard.
+     */
+    public void gameOver(){
+        leaderboard.finish(place);
+        sendLock.lock();
+        try {
+            if (token != 0) {
+                sessions.close(token);
+                token = 0;
+            }
+            if (hold != null) {
+                hold.cancel();
+                hold = null;
+            }
+        }
+        finally {
+            sendLock.unlock();
+        }
     }
 
-    public void moleDown(int id){
-        printer.println(WAMProtocol.MOLE_DOWN + " " + id);
+    /**
+     * Answers a {@link #LEADERBOARD} request with the best places on the
+     * server and this player's rank.
+     *
+     * @param count how many places the client asked for
+     */
+    private void sendLeaderboard(int count){
+        WhackAMoleLeaderboard.Place[] top = leaderboard.top(count);
+        int[] values = new int[2 + 3 * top.length];
+        values[0] = leaderboard.rankOf(place);
+        values[1] = top.length;
+        for (int i = 0; i < top.length; i++) {
+            values[2 + 3 * i] = top[i].getScore();
+            values[3 + 3 * i] = top[i].getGame();
+            values[4 + 3 * i] = top[i].getPlayer();
+        }
+        ByteBuffer reply = ByteBuffer.allocate(32 + 12 * values.length);
+        sendLock.lock();
+        try {
+            WAMCodec.encodeList(reply, binary, WAMBinaryProtocol.LEADERBOARD, values, values.length);
+            outbox.sendReply(reply.flip());
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a {@link #BOARD_DELTA} that has already been encoded in both
+     * formats, so it is built once for every player in the game.
+     *
+     * @param delta the delta
+     */
+    public void boardDelta(WhackAMoleMessage delta){
+        sendLock.lock();
+        try {
+            outbox.sendMole(delta.get(binary));
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a {@link #BOARD_DELTA} of the moles in the client's
+     * {@link #VIEWPORT}, encoded for this player alone, and stamped if
+     * {@link WhackAMoleClock#stamps()}.
+     */
+    void boardDelta(int[] ups, int upCount, int[] downs, int downCount){
+        sendLock.lock();
+        try {
+            boolean stamped = WhackAMoleClock.stamps();
+            int clock = stamped ? WhackAMoleClock.now() : 0;
+            outbox.sendMole(delta(ups, upCount, downs, downCount, stamped, clock));
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Encodes a {@link #BOARD_DELTA} for this player, straight into the
+     * buffer it is sent from.
+     *
+     * @return the delta, ready to read
+     */
+    private ByteBuffer delta(int[] ups, int upCount, int[] downs, int downCount, boolean stamped, int clock){
+        ByteBuffer buffer = ByteBuffer.allocate(WAMCodec.deltaSize(upCount, downCount));
+        WAMCodec.encodeDelta(buffer, binary, ups, upCount, downs, downCount, stamped, clock);
+        return buffer.flip();
+    }
+
+    /**
+     * Sends where the given moles are now, as {@link #BOARD_DELTA deltas},
+     * in place of mole messages the outbox had to drop.
+     *
+     * @param moles the moles to send
+     */
+    void resend(BitSet moles){
+        WhackAMoleGame game = this.game;
+        if (game == null) {
+            return;
+        }
+        int[] ups = new int[RESEND_CHUNK];
+        int[] downs = new int[RESEND_CHUNK];
+        int id = moles.nextSetBit(0);
+        sendLock.lock();
+        try {
+            while (id >= 0) {
+                int upCount = 0;
+                int downCount = 0;
+                while (id >= 0 && upCount + downCount < RESEND_CHUNK) {
+                    if (game.getIsUp(id)) {
+                        ups[upCount++] = id;
+                    }
+                    else {
+                        downs[downCount++] = id;
+                    }
+                    id = moles.nextSetBit(id + 1);
+                }
+                outbox.sendResync(delta(ups, upCount, downs, downCount, false, 0));
+            }
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * @return the queue of requests waiting to go out to the client
+     */
+    public WhackAMoleOutbox getOutbox(){
+        return outbox;
     }
 }
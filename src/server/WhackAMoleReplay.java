@@ -0,0 +1,328 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import common.WAMProtocol;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a game from the {@link WhackAMoleJournal} back to a client, as if it
+ * were happening again. Given only a journal directory it lists the games in
+ * it; given a game and a port it waits for one client, such as the GUI, and
+ * sends it the game's moles, scores and result at the speed asked for
+ * (1 for as it happened, 0 for as fast as possible).<br>
+ *
+ * The whole game is encoded up front, in whichever format the client picks,
+ * into a temporary file, with a note of where each moment's messages end.
+ * Each moment is then sent straight from the file to the socket with
+ * {@link FileChannel#transferTo}, so playback copies nothing through the
+ * heap, and a game played as fast as possible is sent in one call.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleReplay {
+    /** events closer together than this are sent together */
+    private static final long MOMENT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * One record read back from the journal.
+     */
+    static final class Event {
+        final long time;
+        final int game;
+        final int type;
+        final int mole;
+        final int player;
+        final int delta;
+
+        Event(ByteBuffer record) {
+            time = record.getLong();
+            game = record.getInt();
+            type = record.getInt();
+            mole = record.getInt();
+            player = record.getInt();
+            delta = record.getInt();
+            record.getInt();
+        }
+    }
+
+    /**
+     * Reads every game in a journal. A game number seen again, from a later
+     * run of the server, replaces the earlier game.
+     *
+     * @param dir the journal directory
+     * @return each game's events in order, by game number
+     * @throws IOException If the journal cannot be read.
+     */
+    static Map<Integer, List<Event>> read(Path dir) throws IOException {
+        Map<Integer, List<Event>> games = new LinkedHashMap<>();
+        for (Path segment : WhackAMoleJournal.segments(dir)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                records.order(ByteOrder.LITTLE_ENDIAN);
+                while (records.remaining() >= WhackAMoleJournal.RECORD) {
+                    Event event = new Event(records);
+                    if (event.type == 0) {
+                        break;
+                    }
+                    if (event.type == WhackAMoleJournal.GAME_START) {
+                        games.remove(event.game);
+                        games.put(event.game, new ArrayList<>());
+                    }
+                    List<Event> events = games.get(event.game);
+                    if (events != null) {
+                        events.add(event);
+                    }
+                }
+            }
+        }
+        return games;
+    }
+
+    /**
+     * @param args the journal directory; then, to play a game, its number,
+     *             the port to wait on and optionally the speed
+     * @throws IOException If the journal cannot be read or the client cannot
+     * be served.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 3 && args.length != 4) {
+            System.out.println("Usage: java server.WhackAMoleReplay <journal dir> [<game> <port> [speed]]");
+            System.exit(1);
+        }
+        Map<Integer, List<Event>> games = read(Paths.get(args[0]));
+        if (args.length == 1) {
+            list(games);
+            return;
+        }
+        int game = Integer.parseInt(args[1]);
+        int port = Integer.parseInt(args[2]);
+        double speed = args.length == 4 ? Double.parseDouble(args[3]) : 1;
+        List<Event> events = games.get(game);
+        if (events == null) {
+            System.out.println("No game " + game + " in " + args[0]);
+            System.exit(1);
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            System.out.println("Waiting for a client to replay game " + game + " to...");
+            try (SocketChannel client = server.accept()) {
+                play(events, client, speed);
+            }
+        }
+    }
+
+    /**
+     * Prints a line for each game: its size, how long it lasted, and how
+     * each player finished.
+     */
+    private static void list(Map<Integer, List<Event>> games) {
+        for (Map.Entry<Integer, List<Event>> entry : games.entrySet()) {
+            List<Event> events = entry.getValue();
+            Event start = events.get(0);
+            Event last = events.get(events.size() - 1);
+            StringBuilder line = new StringBuilder("Game " + entry.getKey() + ": " + start.mole + "x" + start.player
+                    + ", " + start.delta + " s, " + events.size() + " events");
+            boolean over = false;
+            for (Event event : events) {
+                if (event.type == WhackAMoleJournal.FINAL_SCORE) {
+                    line.append(", player ").append(event.player).append(" scored ").append(event.delta);
+                }
+                over |= event.type == WhackAMoleJournal.GAME_OVER;
+            }
+            if (!over) {
+                line.append(", unfinished after ")
+                        .append(TimeUnit.NANOSECONDS.toMillis(last.time - start.time)).append(" ms");
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Greets the client, encodes the game in the format it picks and plays
+     * it back.
+     */
+    private static void play(List<Event> events, SocketChannel client, double speed) throws IOException {
+        Event start = events.get(0);
+        int players = 0;
+        for (Event event : events) {
+            if (event.type == WhackAMoleJournal.JOIN) {
+                players = Math.max(players, event.player + 1);
+            }
+        }
+        send(client, WAMProtocol.WELCOME + " " + start.mole + " " + start.player + " " + players + " 0 "
+                + WAMProtocol.BINARY + "\n");
+        // the client either switches to binary or, in text, starts pinging
+        InputStream in = Channels.newInputStream(client);
+        byte[] line = new byte[WAMCodec.MAX_LINE];
+        WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+        int length = WAMCodec.readLine(in, line);
+        if (length >= 0) {
+            WAMCodec.decodeText(line, 0, length, frame);
+        }
+        boolean binary = length >= 0 && frame.opcode == WAMCodec.PROTOCOL && frame.binary;
+        if (binary) {
+            send(client, WAMProtocol.PROTOCOL + " " + WAMProtocol.BINARY + "\n");
+        }
+        Thread drain = new Thread(() -> {
+            // nothing the client sends matters, but it must not back up
+            try {
+                while (in.read(line) >= 0) {
+                }
+            }
+            catch (IOException e) {
+                // the replay is over
+            }
+        }, "replay-drain");
+        drain.setDaemon(true);
+        drain.start();
+
+        Path file = Files.createTempFile("wam-replay", ".bin");
+        try (FileChannel encoded = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            List<long[]> moments = encode(events, players, binary, speed, encoded);
+            System.out.println("Replaying " + events.size() + " events, " + encoded.size() + " bytes, in "
+                    + (binary ? "binary" : "text") + (speed > 0 ? " at " + speed + "x" : " as fast as possible"));
+            if (speed <= 0) {
+                transfer(encoded, 0, encoded.size(), client);
+                return;
+            }
+            long began = System.nanoTime();
+            long sent = 0;
+            for (long[] moment : moments) {
+                long wait = began + (long) (moment[0] / speed) - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                transfer(encoded, sent, moment[1], client);
+                sent = moment[1];
+            }
+        }
+    }
+
+    /**
+     * Writes the game's messages to a file.
+     *
+     * @return for each moment, the nanoseconds into the game it comes at and
+     * where its messages end in the file
+     */
+    private static List<long[]> encode(List<Event> events, int players, boolean binary, double speed,
+                                       FileChannel file) throws IOException {
+        List<long[]> moments = new ArrayList<>();
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+        int[] scores = new int[Math.max(1, players)];
+        long begin = events.get(0).time;
+        long moment = 0;
+        for (Event event : events) {
+            long at = event.time - begin;
+            if (out.position() > 0 && (at - moment >= MOMENT_NANOS || out.remaining() < 32 + 12 * scores.length)) {
+                write(out, file);
+                moments.add(new long[] {moment, file.size()});
+            }
+            if (out.position() == 0) {
+                moment = at;
+            }
+            switch (event.type) {
+                case WhackAMoleJournal.GAME_START:
+                    long millis = TimeUnit.SECONDS.toMillis(event.delta);
+                    WAMCodec.encode(out, binary, WAMBinaryProtocol.GAME_START, 0,
+                            (int) (speed > 0 ? millis / speed : 0));
+                    break;
+                case WhackAMoleJournal.MOLE_UP:
+                    WAMCodec.encode(out, binary, WAMBinaryProtocol.MOLE_UP, event.mole);
+                    break;
+                case WhackAMoleJournal.MOLE_DOWN:
+                    WAMCodec.encode(out, binary, WAMBinaryProtocol.MOLE_DOWN, event.mole);
+                    break;
+                case WhackAMoleJournal.WHACK:
+                    if (event.player >= 0 && event.player < scores.length) {
+                        scores[event.player] += event.delta;
+                        WAMCodec.encodeList(out, binary, WAMBinaryProtocol.SCORE, scores, scores.length);
+                    }
+                    break;
+                case WhackAMoleJournal.GAME_OVER:
+                    WAMCodec.encode(out, binary, result(scores));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (out.position() > 0) {
+            write(out, file);
+            moments.add(new long[] {moment, file.size()});
+        }
+        return moments;
+    }
+
+    /**
+     * @return how the game ended for player 0, whose seat the client takes
+     */
+    private static byte result(int[] scores) {
+        int best = Integer.MIN_VALUE;
+        int leaders = 0;
+        for (int score : scores) {
+            if (score > best) {
+                best = score;
+                leaders = 1;
+            }
+            else if (score == best) {
+                leaders++;
+            }
+        }
+        if (scores[0] != best) {
+            return WAMBinaryProtocol.GAME_LOST;
+        }
+        return leaders > 1 ? WAMBinaryProtocol.GAME_TIED : WAMBinaryProtocol.GAME_WON;
+    }
+
+    /**
+     * Sends part of a file to the client without copying it through the
+     * heap.
+     */
+    private static void transfer(FileChannel file, long from, long to, SocketChannel client) throws IOException {
+        while (from < to) {
+            from += file.transferTo(from, to - from, client);
+        }
+    }
+
+    private static void write(ByteBuffer out, FileChannel file) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            file.write(out, file.size());
+        }
+        out.clear();
+    }
+
+    private static void send(SocketChannel client, String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            client.write(buffer);
+        }
+    }
+}
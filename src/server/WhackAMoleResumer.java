@@ -0,0 +1,97 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import common.WAMProtocol;
+import java.io.IOException;
+
+/**
+ * The first reader of a connection to the resume port. The client says
+ * which seat it is taking back with a single {@link WAMProtocol#RESUME}
+ * line; once the {@link WhackAMolePlayer} has taken the connection, every
+ * message after it goes to the player, as it would have on the old one.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleResumer implements WhackAMoleHandler {
+    private final WhackAMoleNioConnection connection;
+    private final WhackAMoleSessions sessions;
+    private final WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+    /** the player that took the connection, or null before it has */
+    private volatile WhackAMolePlayer player;
+    /** whether the client has said which seat; only read on the event loop */
+    private boolean asked;
+
+    /**
+     * @param connection the new connection
+     * @param sessions the seats being held
+     */
+    public WhackAMoleResumer(WhackAMoleNioConnection connection, WhackAMoleSessions sessions) {
+        this.connection = connection;
+        this.sessions = sessions;
+    }
+
+    @Override
+    public boolean isBinary() {
+        WhackAMolePlayer player = this.player;
+        return player != null && player.isBinary();
+    }
+
+    /**
+     * Reads the {@link WAMProtocol#RESUME} line and hands the connection to
+     * the player holding the token, or turns it away.
+     */
+    @Override
+    public void handle(byte[] message, int offset, int length) {
+        WhackAMolePlayer player = this.player;
+        if (player != null) {
+            player.handle(message, offset, length);
+            return;
+        }
+        if (asked) {
+            return;
+        }
+        try {
+            WAMCodec.decodeText(message, offset, length, frame);
+            if (frame.opcode == 0) {
+                // a blank line
+                return;
+            }
+        }
+        catch (IOException e) {
+            frame.opcode = 0;
+        }
+        asked = true;
+        if (frame.opcode != WAMCodec.RESUME || frame.argCount != 1) {
+            refuse("Expected " + WAMProtocol.RESUME + " and a session");
+            return;
+        }
+        player = sessions.find(frame.args[0]);
+        if (player == null || !player.resume(connection, frame.binary)) {
+            refuse("No seat is being held for that session");
+            return;
+        }
+        this.player = player;
+        connection.setHandler(player);
+    }
+
+    /**
+     * Passes the close on to the player, if it has the connection.
+     */
+    @Override
+    public void disconnected(WhackAMoleConnection connection) {
+        WhackAMolePlayer player = this.player;
+        if (player != null) {
+            player.disconnected(connection);
+        }
+    }
+
+    /**
+     * Sends an {@link WAMProtocol#ERROR} and closes the connection.
+     */
+    private void refuse(String message) {
+        connection.send(WAMProtocol.ERROR + " " + message);
+        connection.close();
+    }
+}
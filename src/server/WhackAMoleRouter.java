@@ -0,0 +1,323 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The front of a cluster of {@link WhackAMoleServer game servers}, each in a
+ * JVM of its own. Clients connect to the router as they would to a single
+ * server; the router picks a game server for each new game and then
+ * {@link WhackAMoleSplice splices} every client in that game through to it,
+ * copying bytes without reading them.<br>
+ *
+ * Game servers started with {@value WhackAMoleClusterAgent#ROUTER_PROPERTY}
+ * connect to the router's control port on the loopback address, say which
+ * port they take players on and how many a game needs, and then report
+ * their load. A new game goes to the server with the fewest games, counting
+ * those sent to it since it last reported; then the one using the least
+ * CPU; then the one with the fewest connections. A server whose control
+ * connection drops, or that stops reporting, is sent no more games; the
+ * games it was playing end with it.<br>
+ *
+ * Each game server seats players in the order they connect, so the router
+ * sends every player of a game to the same one, one after another, before
+ * picking again.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleRouter implements Runnable {
+    /** the first line a game server sends: {@code REGISTER <port> <players>} */
+    public static final String REGISTER = "REGISTER";
+    /** what a game server reports: {@code LOAD <games> <connections> <cpu percent>} */
+    public static final String LOAD = "LOAD";
+    /**
+     * The system property that sets how many milliseconds a game server may
+     * go without reporting before it is sent no more games.
+     */
+    public static final String TIMEOUT_PROPERTY = "wam.cluster.timeout";
+    /** how long the router waits for a game server to take a connection */
+    private static final int CONNECT_TIMEOUT = 2000;
+    /** what a client is sent when there is nowhere to play */
+    private static final String NO_SERVERS = "ERROR No game servers are running\n";
+
+    /**
+     * A game server, as the router sees it.
+     */
+    private static final class Backend {
+        final InetSocketAddress address;
+        final int players;
+        /** what it last reported */
+        int games;
+        int connections;
+        int cpu;
+        /** the games sent to it since it last reported */
+        int placed;
+        boolean alive = true;
+
+        Backend(InetSocketAddress address, int players) {
+            this.address = address;
+            this.players = players;
+        }
+
+        /**
+         * @return whether this server should get the next game before the other
+         */
+        boolean before(Backend other) {
+            if (games + placed != other.games + other.placed) {
+                return games + placed < other.games + other.placed;
+            }
+            if (cpu != other.cpu) {
+                return cpu < other.cpu;
+            }
+            return connections < other.connections;
+        }
+
+        @Override
+        public String toString() {
+            return address.getHostString() + ":" + address.getPort();
+        }
+    }
+
+    private final ServerSocketChannel server;
+    private final ServerSocket control;
+    private final WhackAMoleSpliceLoop[] loops;
+    private final int timeout = Integer.getInteger(TIMEOUT_PROPERTY, 3000);
+
+    /** guards the game servers and the game being filled */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Backend> backends = new ArrayList<>();
+    /** the server getting the game being filled, or null */
+    private Backend filling;
+    /** how many more players that game needs */
+    private int seats;
+    /** the splice loop the next client goes to; only used on the accept thread */
+    private int next;
+
+    /**
+     * Binds both ports and starts the splice loops.
+     *
+     * @param port the port clients connect to
+     * @param controlPort the loopback port game servers connect to
+     * @param numLoops how many splice loop threads to run
+     * @throws IOException If either port cannot be bound.
+     */
+    public WhackAMoleRouter(int port, int controlPort, int numLoops) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        control = new ServerSocket(controlPort, 50, InetAddress.getLoopbackAddress());
+        loops = new WhackAMoleSpliceLoop[numLoops];
+        for (int i = 0; i < numLoops; i++) {
+            loops[i] = new WhackAMoleSpliceLoop("splice-loop-" + i);
+        }
+    }
+
+    /**
+     * @param args the client port, the control port, and optionally how
+     *             many splice loops to run
+     * @throws IOException If either port cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: java server.WhackAMoleRouter <port> <control port> [splice loops]");
+            System.exit(1);
+        }
+        int loops = args.length == 3 ? Integer.parseInt(args[2]) : 1;
+        new WhackAMoleRouter(Integer.parseInt(args[0]), Integer.parseInt(args[1]), loops).run();
+    }
+
+    /**
+     * Takes game servers on the control port, with a thread for each.
+     */
+    private void acceptBackends() {
+        while (!control.isClosed()) {
+            try {
+                Socket socket = control.accept();
+                Thread thread = new Thread(() -> listen(socket), "cluster-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch (IOException e) {
+                if (!control.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one game server's registration and reports until it goes away,
+     * and then sends it no more games.
+     */
+    private void listen(Socket socket) {
+        Backend backend = null;
+        try (socket; BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            socket.setSoTimeout(timeout);
+            String[] register = in.readLine().trim().split("\\s+");
+            if (!REGISTER.equals(register[0])) {
+                return;
+            }
+            backend = new Backend(new InetSocketAddress(socket.getInetAddress(), Integer.parseInt(register[1])),
+                    Integer.parseInt(register[2]));
+            add(backend);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] load = line.trim().split("\\s+");
+                if (LOAD.equals(load[0])) {
+                    report(backend, Integer.parseInt(load[1]), Integer.parseInt(load[2]),
+                            Integer.parseInt(load[3]));
+                }
+            }
+        }
+        catch (SocketTimeoutException e) {
+            System.err.println("Game server " + backend + " stopped reporting");
+        }
+        catch (IOException | RuntimeException e) {
+            // a bad line or a broken connection; either way it is gone
+        }
+        if (backend != null) {
+            remove(backend);
+        }
+    }
+
+    private void add(Backend backend) {
+        lock.lock();
+        try {
+            backends.add(backend);
+        }
+        finally {
+            lock.unlock();
+        }
+        System.out.println("Game server " + backend + " joined (" + backend.players + " players a game)");
+    }
+
+    private void report(Backend backend, int games, int connections, int cpu) {
+        lock.lock();
+        try {
+            backend.games = games;
+            backend.connections = connections;
+            backend.cpu = cpu;
+            backend.placed = 0;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Backend backend) {
+        int left;
+        lock.lock();
+        try {
+            if (!backend.alive) {
+                return;
+            }
+            backend.alive = false;
+            backends.remove(backend);
+            if (filling == backend) {
+                filling = null;
+            }
+            left = backends.size();
+        }
+        finally {
+            lock.unlock();
+        }
+        System.out.println("Game server " + backend + " left (" + left + " left)");
+    }
+
+    /**
+     * Takes the next seat in the game being filled, picking a server for a
+     * new game if there is none.
+     *
+     * @return the server to send the next player to, or null if there is none
+     */
+    private Backend seat() {
+        lock.lock();
+        try {
+            if (filling == null || seats == 0) {
+                filling = null;
+                for (Backend backend : backends) {
+                    if (filling == null || backend.before(filling)) {
+                        filling = backend;
+                    }
+                }
+                if (filling == null) {
+                    return null;
+                }
+                filling.placed++;
+                seats = filling.players;
+            }
+            seats--;
+            return filling;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Connects a client to the game server for its game. A server that
+     * refuses it is sent no more games, and the client starts a game on
+     * another.
+     */
+    private void route(SocketChannel client) throws IOException {
+        Backend backend;
+        while ((backend = seat()) != null) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().connect(backend.address, CONNECT_TIMEOUT);
+            }
+            catch (IOException e) {
+                channel.close();
+                remove(backend);
+                continue;
+            }
+            WhackAMoleSplice splice = new WhackAMoleSplice(client, channel);
+            loops[next].register(splice);
+            next = (next + 1) % loops.length;
+            return;
+        }
+        client.write(ByteBuffer.wrap(NO_SERVERS.getBytes(StandardCharsets.UTF_8)));
+        client.close();
+    }
+
+    /**
+     * Takes clients until the router is closed. Clients are routed one at a
+     * time on this thread, so each game server gets a game's players in
+     * order.
+     */
+    @Override
+    public void run() {
+        Thread backends = new Thread(this::acceptBackends, "cluster-accept");
+        backends.setDaemon(true);
+        backends.start();
+        System.out.println("Routing players from port " + server.socket().getLocalPort()
+                + "; game servers register on port " + control.getLocalPort());
+        while (server.isOpen()) {
+            try {
+                SocketChannel client = server.accept();
+                client.socket().setTcpNoDelay(true);
+                route(client);
+            }
+            catch (IOException e) {
+                if (server.isOpen()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the moles of every game from a small, fixed pool of
+ * {@link WhackAMoleTimerWheel timer wheels}, instead of giving every hole a
+ * thread of its own.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleScheduler implements Closeable {
+    /** how often the wheels advance */
+    public static final long TICK_MILLIS = 10;
+    /** the number of buckets in each wheel */
+    public static final int TICKS_PER_WHEEL = 512;
+
+    private static WhackAMoleScheduler shared;
+
+    private final WhackAMoleTimerWheel[] wheels;
+    private final AtomicInteger nextWheel = new AtomicInteger();
+
+    /**
+     * Creates a scheduler with the given number of wheels.
+     *
+     * @param numWheels how many wheel threads to run
+     */
+    public WhackAMoleScheduler(int numWheels) {
+        wheels = new WhackAMoleTimerWheel[numWheels];
+        for (int i = 0; i < numWheels; i++) {
+            wheels[i] = new WhackAMoleTimerWheel("mole-wheel-" + i, TICK_MILLIS, TICKS_PER_WHEEL);
+        }
+    }
+
+    /**
+     * @return the scheduler shared by every game in this JVM
+     */
+    public static synchronized WhackAMoleScheduler shared() {
+        if (shared == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            shared = new WhackAMoleScheduler(Math.max(1, Math.min(4, cores / 2)));
+        }
+        return shared;
+    }
+
+    /**
+     * Hands out the wheels round-robin so holes spread evenly over them.
+     *
+     * @return the wheel a new mole should live on
+     */
+    public WhackAMoleTimerWheel nextWheel() {
+        return wheels[Math.floorMod(nextWheel.getAndIncrement(), wheels.length)];
+    }
+
+    /**
+     * Stops every wheel.
+     */
+    @Override
+    public void close() {
+        for (WhackAMoleTimerWheel wheel : wheels) {
+            wheel.close();
+        }
+    }
+}
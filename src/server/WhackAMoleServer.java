@@ -1,26 +1,72 @@
 package server;
 
+import client.gui.Observer;
 import client.gui.WhackAMoleException;
 import common.WAMProtocol;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Gabe Megna <gnm1714@rit.edu>
  * @author Nick Piwko <nap2828@rit.edu>
  * The {@link WhackAMoleServer} waits for incoming client connections and
- * pairs them off to play {@link WhackAMoleGame games}.
+ * groups them off to play {@link WhackAMoleGame games}. It keeps accepting
+ * for as long as it runs, and hosts any number of games at once.
  */
 
-public class WhackAMoleServer implements WAMProtocol, Runnable {
+public class WhackAMoleServer implements WAMProtocol, Runnable, Observer<WhackAMoleGame> {
+    /**
+     * The system property that sets the broadcast tick in milliseconds.
+     * When it is set, players get one {@link #BOARD_DELTA} per tick instead
+     * of a message for every mole transition.
+     */
+    public static final String TICK_PROPERTY = "wam.tick";
+    /**
+     * The system property that sets the port spectators connect to. There
+     * is no spectator port unless it is set.
+     */
+    public static final String SPECTATE_PORT_PROPERTY = "wam.spectate.port";
+
     private ServerSocket server;
     private int row;
     private int col;
     private int numPlayers;
     private int time;
+    /** the players waiting for the next game to fill up */
     private WhackAMolePlayer[] players;
+    /** the non-blocking server, or null when each player has its own socket thread */
+    private WhackAMoleNioServer nioServer;
+    /** how many players are waiting for the next game */
+    private int connected;
+    /** the number of the next game to start, after any kept on the leaderboard */
+    private int nextGameId = WhackAMoleLeaderboard.shared().getNextGame();
+    /** the games that have started and not yet finished */
+    private Map<Integer, WhackAMoleGame> games = new ConcurrentHashMap<>();
+    /** how long games collect mole transitions before sending them, or 0 */
+    private long broadcastTick = Long.getLong(TICK_PROPERTY, 0);
+    /** the threads the games share */
+    private WhackAMoleExecutors executors = WhackAMoleExecutors.shared();
+    /** what the server has been doing */
+    private WhackAMoleMetrics metrics = WhackAMoleMetrics.shared();
+    /** accepts spectators, or null if no port was given */
+    private WhackAMoleNioServer spectateServer;
+    /** the newest game, which spectators that name no game are sent to */
+    private volatile WhackAMoleGame featured;
+    /** spectators waiting for the next game, when none is being played */
+    private List<WhackAMoleSpectator> waiting = new ArrayList<>();
+    /** serves the metrics as text, or null if no port was given */
+    private WhackAMoleMetricsEndpoint metricsEndpoint;
+    /** the seats held for players whose connection drops, or null if none are */
+    private WhackAMoleSessions sessions;
+    /** takes resuming players, or null if no seats are held */
+    private WhackAMoleNioServer resumeServer;
+    /** reports to the cluster's router, or null if there is none */
+    private WhackAMoleClusterAgent clusterAgent;
 
     /**
      * Creates a new {@link WhackAMoleServer} that listens for incoming
@@ -29,16 +75,61 @@ public class WhackAMoleServer implements WAMProtocol, Runnable {
      * @throws WhackAMoleException If there is an error creating the {@link ServerSocket}
      */
     public WhackAMoleServer(int port, int row, int col, int numPlayers, int time) throws WhackAMoleException {
-        try {
-            server = new ServerSocket(port);
-        } catch (IOException e) {
-            throw new WhackAMoleException(e);
+        this(port, row, col, numPlayers, time, 0);
+    }
+
+    /**
+     * Creates a new {@link WhackAMoleServer} that listens for incoming
+     * connections on the specified port.
+     * @param port The port on which the server should listen for incoming connections.
+     * @param eventLoops how many {@link WhackAMoleEventLoop event loops} to
+     *                   serve the players with, or 0 to give each player a
+     *                   blocking socket and a thread of its own
+     * @throws WhackAMoleException If there is an error creating the {@link ServerSocket}
+     */
+    public WhackAMoleServer(int port, int row, int col, int numPlayers, int time, int eventLoops)
+            throws WhackAMoleException {
+        if (eventLoops > 0) {
+            nioServer = new WhackAMoleNioServer(port, eventLoops, this::accepted);
+        } else {
+            try {
+                server = new ServerSocket(port);
+            } catch (IOException e) {
+                throw new WhackAMoleException(e);
+            }
         }
         this.row = row;
         this.col = col;
         this.numPlayers = numPlayers;
         this.time = time;
         players = new WhackAMolePlayer[numPlayers];
+        metrics.setLiveGames(this::getLiveGames);
+        metrics.register();
+        Integer spectatePort = Integer.getInteger(SPECTATE_PORT_PROPERTY);
+        if (spectatePort != null) {
+            spectateServer = new WhackAMoleNioServer(spectatePort, 1,
+                    connection -> connection.setHandler(new WhackAMoleSpectator(connection, this)));
+        }
+        Integer resumePort = Integer.getInteger(WhackAMoleSessions.PORT_PROPERTY);
+        if (resumePort != null) {
+            sessions = new WhackAMoleSessions(resumePort, executors.getScheduler());
+            resumeServer = new WhackAMoleNioServer(resumePort, Math.max(1, eventLoops),
+                    connection -> connection.setHandler(new WhackAMoleResumer(connection, sessions)));
+        }
+        Integer metricsPort = Integer.getInteger(WhackAMoleMetricsEndpoint.PORT_PROPERTY);
+        if (metricsPort != null) {
+            try {
+                metricsEndpoint = new WhackAMoleMetricsEndpoint(metrics, metricsPort);
+                System.out.println("Metrics at http://localhost:" + metricsEndpoint.getPort()
+                        + WhackAMoleMetricsEndpoint.PATH);
+            } catch (IOException e) {
+                throw new WhackAMoleException(e);
+            }
+        }
+        String router = System.getProperty(WhackAMoleClusterAgent.ROUTER_PROPERTY);
+        if (router != null) {
+            clusterAgent = new WhackAMoleClusterAgent(router, this, port, numPlayers);
+        }
     }
 
     /**
@@ -48,8 +139,8 @@ public class WhackAMoleServer implements WAMProtocol, Runnable {
      * @throws WhackAMoleException If there is an error starting the server.
      */
     public static void main(String[] args) throws WhackAMoleException {
-        if (args.length != 5) {
-            System.out.println("Usage: java WhackAMoleServer <port>");
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java WhackAMoleServer <port> <rows> <cols> <players> <seconds> [event loops]");
             System.exit(1);
         }
         int port = Integer.parseInt(args[0]);
@@ -57,65 +148,145 @@ public class WhackAMoleServer implements WAMProtocol, Runnable {
         int col = Integer.parseInt(args[2]);
         int numPlayers = Integer.parseInt(args[3]);
         int time = Integer.parseInt(args[4]);
-        WhackAMoleServer server = new WhackAMoleServer(port, row, col, numPlayers, time);
+        int eventLoops = args.length == 6 ? Integer.parseInt(args[5]) : 0;
+        WhackAMoleServer server = new WhackAMoleServer(port, row, col, numPlayers, time, eventLoops);
         server.run();
 
     }
 
-    public int winnerNum(){
-        int highScore = 0;
-        int winnerNumber = 0;
-        for(int i = 0; i < numPlayers; i++){
-            int[] temp = new int[numPlayers];
-            temp[i] = players[i].getScore();
-            if(temp[i] > highScore){
-                highScore = temp[i];
-                winnerNumber = i;
-            }
+    /**
+     * Called by the {@link WhackAMoleNioServer} for each new connection.
+     * Creates a {@link WhackAMolePlayer} for it and seats it in the next game.
+     *
+     * @param connection the new connection
+     */
+    private synchronized void accepted(WhackAMoleNioConnection connection) {
+        WhackAMolePlayer player = new WhackAMolePlayer(connection, connected);
+        connection.setHandler(player);
+        join(player);
+    }
+
+    /**
+     * Seats a player in the next game, and starts that game once it is full.
+     *
+     * @param player the player, numbered with the next free seat
+     */
+    private synchronized void join(WhackAMolePlayer player) {
+        players[connected++] = player;
+        metrics.connected();
+        player.connect(row, col, numPlayers, sessions);
+        System.out.println("Player connected!");
+        if (connected == numPlayers) {
+            startGame();
         }
-        return winnerNumber;
     }
 
-    public void winner(){
-        for(int i = 0; i < numPlayers; i++){
-            if(players[i]==players[winnerNum()]){
-                players[winnerNum()].gameWon();
-            }else{
-                players[i].gameLost();
-            }
+    /**
+     * Puts the waiting players in a new {@link WhackAMoleGame}, starts it and
+     * clears the seats for the next one.
+     */
+    private synchronized void startGame() {
+        int id = nextGameId++;
+        WhackAMoleGame game = new WhackAMoleGame(id, row, col, numPlayers, time, players, executors);
+        for(int j = 0; j < numPlayers; j++){
+            players[j].getGame(game);
+        }
+        game.setBroadcastTick(broadcastTick);
+        game.addObserver(this);
+        games.put(id, game);
+        featured = game;
+        System.out.println("Starting game " + id + "! (" + games.size() + " live)");
+        players = new WhackAMolePlayer[numPlayers];
+        connected = 0;
+        game.run();
+        for (WhackAMoleSpectator spectator : waiting) {
+            game.watch(spectator);
         }
+        waiting.clear();
+    }
 
+    /**
+     * Lets a spectator watch a game. One that names no game is sent to the
+     * newest, or waits for the next to start if none is being played.
+     *
+     * @param spectator the spectator
+     * @param id the number of the game, or {@link #FEATURED}
+     */
+    synchronized void watch(WhackAMoleSpectator spectator, int id) {
+        WhackAMoleGame game = id == FEATURED ? featured : games.get(id);
+        if (game != null && game.watch(spectator)) {
+            return;
+        }
+        if (id == FEATURED) {
+            waiting.add(spectator);
+            return;
+        }
+        spectator.error("No game " + id + " is being played");
+        spectator.close();
     }
 
     /**
-     * Waits for multiple clients to connect. Creates a {@link WhackAMolePlayer}
-     * for each and then pairs them off in a {@link WhackAMoleGame}.<P>
+     * Called by a game once it has finished.
+     *
+     * @param game the game that finished
+     */
+    @Override
+    public void update(WhackAMoleGame game) {
+        games.remove(game.getId());
+    }
+
+    /**
+     * @return how many games are being played right now
+     */
+    public int getLiveGames() {
+        return games.size();
+    }
+
+    /**
+     * @return how many players are connected, in games or waiting for one
+     */
+    public synchronized int getConnections() {
+        return games.size() * numPlayers + connected;
+    }
+
+    /**
+     * Waits for clients to connect, forever. Creates a {@link WhackAMolePlayer}
+     * for each and then groups them off in {@link WhackAMoleGame games}.<P>
      */
     @Override
     public void run() {
-        try {
-            for(int i = 0; i < numPlayers; i ++){
-                System.out.println("Waiting for player...");
-                Socket playerOneSocket = server.accept();
-                WhackAMolePlayer playerOne =
-                        new WhackAMolePlayer(playerOneSocket, i);
-                players[i] = playerOne;
-                playerOne.connect(row, col, numPlayers);
-                System.out.println("Player connected!");
-            }
-            System.out.println("Starting game!");
-            WhackAMoleGame game = new WhackAMoleGame(row, col, numPlayers, time, players);
-            for(int j = 0; j < numPlayers; j++){
-                players[j].getGame(game);
+        if (spectateServer != null) {
+            Thread spectators = new Thread(spectateServer, "spectate-accept");
+            spectators.setDaemon(true);
+            spectators.start();
+        }
+        if (resumeServer != null) {
+            Thread resumes = new Thread(resumeServer, "resume-accept");
+            resumes.setDaemon(true);
+            resumes.start();
+        }
+        if (clusterAgent != null) {
+            clusterAgent.start();
+        }
+        if (nioServer != null) {
+            System.out.println("Waiting for players...");
+            nioServer.run();
+            return;
+        }
+        System.out.println("Waiting for players...");
+        while (!server.isClosed()) {
+            try {
+                Socket playerSocket = server.accept();
+                synchronized (this) {
+                    join(new WhackAMolePlayer(playerSocket, connected));
+                }
+            } catch (IOException e) {
+                System.err.println("Something has gone horribly wrong!");
+                e.printStackTrace();
+            } catch (WhackAMoleException e) {
+                System.err.println("Failed to create players!");
+                e.printStackTrace();
             }
-            new Thread(game).start();
-        } catch (IOException e) {
-            System.err.println("Something has gone horribly wrong!");
-            e.printStackTrace();
-        } catch (WhackAMoleException e) {
-            System.err.println("Failed to create players!");
-            e.printStackTrace();
-        }
-        System.out.println(winnerNum());
+        }
     }
 }
@@ -0,0 +1,122 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The seats a server is holding for players, by session token. Every player
+ * is given a token in its {@link common.WAMProtocol#WELCOME}; if its
+ * connection drops while its game is on, its seat and score are kept for
+ * {@value #GRACE_PROPERTY} milliseconds, and a client that sends the token
+ * back on the resume port in that time takes the seat again. Nothing is
+ * queued for a player while it is away, so one that never comes back costs
+ * nothing but its seat.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSessions {
+    /**
+     * The system property that sets the port players resume on. Sessions
+     * are only handed out when it is set.
+     */
+    public static final String PORT_PROPERTY = "wam.resume.port";
+    /** the system property that sets how many milliseconds a seat is held */
+    public static final String GRACE_PROPERTY = "wam.resume.grace";
+    /** how long a seat is held, when the property is not set */
+    public static final long DEFAULT_GRACE_MILLIS = 10000;
+
+    private final Map<Integer, WhackAMolePlayer> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final WhackAMoleScheduler scheduler;
+    private final int port;
+    private final long grace = Long.getLong(GRACE_PROPERTY, DEFAULT_GRACE_MILLIS);
+
+    /**
+     * Gives up a player's seat once the grace period is over, unless it has
+     * come back.
+     */
+    private class Expiry extends WhackAMoleTimerWheel.Timeout {
+        private final WhackAMolePlayer player;
+
+        Expiry(WhackAMolePlayer player) {
+            this.player = player;
+        }
+
+        @Override
+        protected void expire() {
+            if (player.giveUp(this)) {
+                System.out.println("Gave up player " + player.getPlayerId() + "'s seat");
+            }
+        }
+    }
+
+    /**
+     * @param port the port players resume on
+     * @param scheduler whose wheels time the grace periods
+     */
+    public WhackAMoleSessions(int port, WhackAMoleScheduler scheduler) {
+        this.port = port;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the port players resume on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Hands a player a token no other player holds.
+     *
+     * @param player the player
+     * @return its token, a positive int
+     */
+    public int open(WhackAMolePlayer player) {
+        while (true) {
+            int token = random.nextInt(Integer.MAX_VALUE - 1) + 1;
+            if (sessions.putIfAbsent(token, player) == null) {
+                return token;
+            }
+        }
+    }
+
+    /**
+     * @param token a token sent back by a client
+     * @return the player holding it, or null if there is none
+     */
+    public WhackAMolePlayer find(int token) {
+        return sessions.get(token);
+    }
+
+    /**
+     * Starts holding a player's seat for the grace period.
+     *
+     * @param player the player whose connection dropped
+     * @return the timeout to cancel if the player comes back
+     */
+    WhackAMoleTimerWheel.Timeout hold(WhackAMolePlayer player) {
+        Expiry expiry = new Expiry(player);
+        scheduler.nextWheel().schedule(expiry, grace, TimeUnit.MILLISECONDS);
+        return expiry;
+    }
+
+    /**
+     * Forgets a player's token, once its game is over.
+     *
+     * @param token the token
+     */
+    public void close(int token) {
+        sessions.remove(token);
+    }
+
+    /**
+     * @return how long a seat is held, in milliseconds
+     */
+    public long getGrace() {
+        return grace;
+    }
+}
@@ -0,0 +1,314 @@
+package server;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * One game played out on a virtual clock, with no threads, sockets or
+ * sleeping. Moles follow the same rules as {@link WhackAMoleMole}, whacks
+ * score as in {@link WhackAMolePlayer}, and the players are stubs that
+ * notice a mole rising and whack it after a reaction time, so a minute's
+ * game takes microseconds.<br>
+ *
+ * Everything random comes from {@link SplittableRandom} streams split off
+ * the game's seed, one per mole and one per player, and events due at the
+ * same millisecond happen in the order they were scheduled. A game played
+ * twice on the same seed and {@link Settings} plays out the same, event for
+ * event. A simulation is reused game after game, but only by one thread at
+ * a time.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSimulation {
+    /** a mole rises or falls */
+    private static final int MOLE = 1;
+    /** a player's whack lands */
+    private static final int WHACK = 2;
+
+    /**
+     * How the moles and player stubs behave. The mole times are whole
+     * seconds, drawn from the ranges as the server's moles draw them; the
+     * player times are milliseconds.
+     */
+    public static final class Settings {
+        /** how long a mole stays up: at least this many seconds */
+        public int minUp = WhackAMoleMole.MIN_UP;
+        /** and fewer than this many */
+        public int maxUp = WhackAMoleMole.MAX_UP;
+        /** how long a mole stays down: at least this many seconds */
+        public int minDown = WhackAMoleMole.MIN_DOWN;
+        /** and fewer than this many */
+        public int maxDown = WhackAMoleMole.MAX_DOWN;
+        /** how long a player takes to whack a mole it saw rise: at least this many milliseconds */
+        public int minReaction = 250;
+        /** and fewer than this many */
+        public int maxReaction = 900;
+        /** the chance that a player notices a mole rising at all */
+        public double attention = 0.8;
+    }
+
+    private final int moles;
+    private final int players;
+    private final long millis;
+    private final Settings settings;
+
+    private final WhackAMoleHoles holes;
+    /** whether each mole is in its up time, whether or not it was whacked */
+    private final boolean[] up;
+    private final SplittableRandom[] moleRandom;
+    private final SplittableRandom[] playerRandom;
+    private final int[] scores;
+    private final int[] hits;
+    private final int[] misses;
+    private int raised;
+    private long events;
+
+    /*
+     * The events still to come, as a binary heap. Each key is the virtual
+     * millisecond the event is due in its high half and the order it was
+     * scheduled in its low half; each value is its kind, then the player,
+     * then the mole.
+     */
+    private long[] keys = new long[64];
+    private long[] values = new long[64];
+    private int size;
+    private int scheduled;
+
+    /** where each event is printed as it happens, or null */
+    private PrintStream trace;
+
+    /**
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param players the number of players
+     * @param seconds how long each game lasts
+     * @param settings how the moles and players behave
+     */
+    public WhackAMoleSimulation(int rows, int cols, int players, int seconds, Settings settings) {
+        this.moles = rows * cols;
+        this.players = players;
+        this.millis = seconds * 1000L;
+        this.settings = settings;
+        this.holes = new WhackAMoleHoles(moles);
+        this.up = new boolean[moles];
+        this.moleRandom = new SplittableRandom[moles];
+        this.playerRandom = new SplittableRandom[players];
+        this.scores = new int[players];
+        this.hits = new int[players];
+        this.misses = new int[players];
+    }
+
+    /**
+     * Prints every event of the games played from now on.
+     *
+     * @param trace where to print them, or null to stop
+     */
+    public void setTrace(PrintStream trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Plays one game from start to finish.
+     *
+     * @param seed the seed every random choice in the game comes from
+     */
+    public void play(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < moles; i++) {
+            moleRandom[i] = random.split();
+            up[i] = false;
+            holes.lower(i);
+        }
+        for (int i = 0; i < players; i++) {
+            playerRandom[i] = random.split();
+            scores[i] = 0;
+            hits[i] = 0;
+            misses[i] = 0;
+        }
+        raised = 0;
+        events = 0;
+        size = 0;
+        scheduled = 0;
+        for (int i = 0; i < moles; i++) {
+            schedule(downTime(moleRandom[i]), MOLE, 0, i);
+        }
+        while (size > 0 && keys[0] >>> 32 < millis) {
+            long now = keys[0] >>> 32;
+            long value = values[0];
+            pop();
+            events++;
+            int mole = (int) value;
+            if ((int) (value >>> 56) == MOLE) {
+                flip(now, mole);
+            }
+            else {
+                whack(now, (int) (value >>> 32) & 0xFFFFFF, mole);
+            }
+        }
+    }
+
+    /**
+     * Raises a mole at the end of its down time, or lowers it at the end of
+     * its up time, and schedules its next turn. A mole that was whacked down
+     * waits out its up time before its down time starts, as the server's
+     * moles do.
+     */
+    private void flip(long now, int mole) {
+        SplittableRandom random = moleRandom[mole];
+        up[mole] = !up[mole];
+        if (up[mole]) {
+            holes.raise(mole);
+            raised++;
+            if (trace != null) {
+                trace.println(now + " MOLE_UP " + mole);
+            }
+            schedule(now + upTime(random), MOLE, 0, mole);
+            for (int i = 0; i < players; i++) {
+                SplittableRandom player = playerRandom[i];
+                if (player.nextDouble() < settings.attention) {
+                    schedule(now + player.nextInt(settings.minReaction, settings.maxReaction), WHACK, i, mole);
+                }
+            }
+            return;
+        }
+        if (holes.lower(mole) && trace != null) {
+            trace.println(now + " MOLE_DOWN " + mole);
+        }
+        schedule(now + downTime(random), MOLE, 0, mole);
+    }
+
+    /**
+     * Knocks a mole down if it is still up, and scores the whack.
+     */
+    private void whack(long now, int player, int mole) {
+        boolean hit = holes.lower(mole);
+        if (hit) {
+            hits[player]++;
+            scores[player] += WhackAMolePlayer.HIT_POINTS;
+        }
+        else {
+            misses[player]++;
+            scores[player] += WhackAMolePlayer.MISS_POINTS;
+        }
+        if (trace != null) {
+            trace.println(now + " WHACK " + mole + " " + player + (hit ? " hit " : " miss ") + scores[player]);
+        }
+    }
+
+    private long upTime(SplittableRandom random) {
+        return random.nextInt(settings.minUp, settings.maxUp) * 1000L;
+    }
+
+    private long downTime(SplittableRandom random) {
+        return random.nextInt(settings.minDown, settings.maxDown) * 1000L;
+    }
+
+    /**
+     * Adds an event to the heap.
+     */
+    private void schedule(long at, int kind, int player, int mole) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        long key = at << 32 | (scheduled++ & 0xFFFFFFFFL);
+        long value = (long) kind << 56 | (long) player << 32 | mole & 0xFFFFFFFFL;
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            keys[i] = keys[parent];
+            values[i] = values[parent];
+            i = parent;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * Removes the earliest event from the heap.
+     */
+    private void pop() {
+        long key = keys[--size];
+        long value = values[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            keys[i] = keys[child];
+            values[i] = values[child];
+            i = child;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * @return each player's final score in the last game, by player number;
+     * not to be changed
+     */
+    public int[] getScores() {
+        return scores;
+    }
+
+    /**
+     * @param player a player's number
+     * @return how many moles the player hit in the last game
+     */
+    public int getHits(int player) {
+        return hits[player];
+    }
+
+    /**
+     * @param player a player's number
+     * @return how many times the player missed in the last game
+     */
+    public int getMisses(int player) {
+        return misses[player];
+    }
+
+    /**
+     * @return how many times a mole rose in the last game
+     */
+    public int getRaised() {
+        return raised;
+    }
+
+    /**
+     * @return how many events the last game took
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the number of the player who won the last game outright, or
+     * -1 if it was tied
+     */
+    public int getWinner() {
+        int winner = 0;
+        boolean tied = false;
+        for (int i = 1; i < players; i++) {
+            if (scores[i] > scores[winner]) {
+                winner = i;
+                tied = false;
+            }
+            else if (scores[i] == scores[winner]) {
+                tied = true;
+            }
+        }
+        return tied ? -1 : winner;
+    }
+}
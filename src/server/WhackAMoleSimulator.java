@@ -0,0 +1,249 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays any number of {@link WhackAMoleSimulation simulated games} across
+ * every core with a {@link ForkJoinPool}, to tune the moles' timing and
+ * check the scoring rules without waiting out real games. Game i is played
+ * on a seed worked out from the base seed and i alone, so a run gives the
+ * same totals however many threads share it, and any one game can be
+ * played again with {@value #TRACE_PROPERTY} to see every event in it.<br>
+ *
+ * The moles and player stubs are set with the {@code wam.sim.*} system
+ * properties; ranges are given as {@code min:max}, the maximum left out.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSimulator {
+    /** the system property that sets how many seconds a mole stays up */
+    public static final String UP_PROPERTY = "wam.sim.up";
+    /** the system property that sets how many seconds a mole stays down */
+    public static final String DOWN_PROPERTY = "wam.sim.down";
+    /** the system property that sets how many milliseconds a player takes to whack */
+    public static final String REACTION_PROPERTY = "wam.sim.reaction";
+    /** the system property that sets the chance a player notices a mole */
+    public static final String ATTENTION_PROPERTY = "wam.sim.attention";
+    /** the system property that sets how many threads play the games */
+    public static final String THREADS_PROPERTY = "wam.sim.threads";
+    /** the system property that names one game to play alone and print */
+    public static final String TRACE_PROPERTY = "wam.sim.trace";
+
+    /** the fewest games one task plays without splitting */
+    private static final int LEAF = 256;
+    /** spreads the game numbers over the seeds */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * What a run of games added up to. Every total is a sum, so tasks can be
+     * merged in any order.
+     */
+    static final class Totals {
+        long games;
+        long ties;
+        long[] wins;
+        long[] points;
+        long[] hits;
+        long[] misses;
+        long raised;
+        long events;
+        /** a sum of every game's final scores, hashed with its number */
+        long fingerprint;
+
+        Totals(int players) {
+            wins = new long[players];
+            points = new long[players];
+            hits = new long[players];
+            misses = new long[players];
+        }
+
+        void add(Totals other) {
+            games += other.games;
+            ties += other.ties;
+            for (int i = 0; i < wins.length; i++) {
+                wins[i] += other.wins[i];
+                points[i] += other.points[i];
+                hits[i] += other.hits[i];
+                misses[i] += other.misses[i];
+            }
+            raised += other.raised;
+            events += other.events;
+            fingerprint += other.fingerprint;
+        }
+    }
+
+    /**
+     * Plays a range of games, splitting it in half until each half is
+     * small enough to play on one thread.
+     */
+    private static final class Games extends RecursiveTask<Totals> {
+        private static final long serialVersionUID = 1L;
+
+        private final int rows;
+        private final int cols;
+        private final int players;
+        private final int seconds;
+        private final WhackAMoleSimulation.Settings settings;
+        private final long seed;
+        private final long from;
+        private final long to;
+
+        Games(int rows, int cols, int players, int seconds, WhackAMoleSimulation.Settings settings, long seed,
+              long from, long to) {
+            this.rows = rows;
+            this.cols = cols;
+            this.players = players;
+            this.seconds = seconds;
+            this.settings = settings;
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Totals compute() {
+            if (to - from > LEAF) {
+                long middle = (from + to) >>> 1;
+                Games left = new Games(rows, cols, players, seconds, settings, seed, from, middle);
+                Games right = new Games(rows, cols, players, seconds, settings, seed, middle, to);
+                left.fork();
+                Totals totals = right.compute();
+                totals.add(left.join());
+                return totals;
+            }
+            Totals totals = new Totals(players);
+            WhackAMoleSimulation game = new WhackAMoleSimulation(rows, cols, players, seconds, settings);
+            for (long i = from; i < to; i++) {
+                game.play(seedOf(seed, i));
+                int[] scores = game.getScores();
+                int winner = game.getWinner();
+                if (winner < 0) {
+                    totals.ties++;
+                }
+                else {
+                    totals.wins[winner]++;
+                }
+                long hash = i;
+                for (int p = 0; p < players; p++) {
+                    totals.points[p] += scores[p];
+                    totals.hits[p] += game.getHits(p);
+                    totals.misses[p] += game.getMisses(p);
+                    hash = hash * 31 + scores[p];
+                }
+                totals.raised += game.getRaised();
+                totals.events += game.getEvents();
+                totals.fingerprint += mix(hash);
+                totals.games++;
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * @return the seed game i is played on
+     */
+    static long seedOf(long seed, long game) {
+        return mix(seed + game * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Stafford's 64-bit mix, as {@link java.util.SplittableRandom} uses.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the settings named by the {@code wam.sim.*} properties
+     */
+    static WhackAMoleSimulation.Settings configured() {
+        WhackAMoleSimulation.Settings settings = new WhackAMoleSimulation.Settings();
+        int[] range = range(UP_PROPERTY, settings.minUp, settings.maxUp);
+        settings.minUp = range[0];
+        settings.maxUp = range[1];
+        range = range(DOWN_PROPERTY, settings.minDown, settings.maxDown);
+        settings.minDown = range[0];
+        settings.maxDown = range[1];
+        range = range(REACTION_PROPERTY, settings.minReaction, settings.maxReaction);
+        settings.minReaction = range[0];
+        settings.maxReaction = range[1];
+        String attention = System.getProperty(ATTENTION_PROPERTY);
+        if (attention != null) {
+            settings.attention = Double.parseDouble(attention);
+        }
+        return settings;
+    }
+
+    /**
+     * @return a {@code min:max} range from a property, or the defaults
+     */
+    private static int[] range(String property, int min, int max) {
+        String value = System.getProperty(property);
+        if (value != null) {
+            String[] bounds = value.split(":");
+            min = Integer.parseInt(bounds[0].trim());
+            max = Integer.parseInt(bounds[1].trim());
+        }
+        if (min >= max) {
+            throw new IllegalArgumentException(property + " must be min:max with min below max");
+        }
+        return new int[] {min, max};
+    }
+
+    /**
+     * @param args the number of games, the base seed, then optionally the
+     *             rows, columns, players and seconds of each game
+     */
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 6) {
+            System.out.println("Usage: java server.WhackAMoleSimulator <games> <seed> [<rows> <cols> <players> <seconds>]");
+            System.exit(1);
+        }
+        long games = Long.parseLong(args[0]);
+        long seed = Long.parseLong(args[1]);
+        int rows = args.length == 6 ? Integer.parseInt(args[2]) : 5;
+        int cols = args.length == 6 ? Integer.parseInt(args[3]) : 5;
+        int players = args.length == 6 ? Integer.parseInt(args[4]) : 2;
+        int seconds = args.length == 6 ? Integer.parseInt(args[5]) : 60;
+        WhackAMoleSimulation.Settings settings = configured();
+
+        Long trace = Long.getLong(TRACE_PROPERTY);
+        if (trace != null) {
+            WhackAMoleSimulation game = new WhackAMoleSimulation(rows, cols, players, seconds, settings);
+            game.setTrace(System.out);
+            game.play(seedOf(seed, trace));
+            int winner = game.getWinner();
+            System.out.println("Game " + trace + ": " + Arrays.toString(game.getScores())
+                    + (winner < 0 ? ", tied" : ", player " + winner + " won"));
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Integer.getInteger(THREADS_PROPERTY,
+                Runtime.getRuntime().availableProcessors()));
+        long start = System.nanoTime();
+        Totals totals = pool.invoke(new Games(rows, cols, players, seconds, settings, seed, 0, games));
+        long nanos = System.nanoTime() - start;
+        pool.shutdown();
+
+        System.out.printf("%d games of %dx%d, %d players, %d s on %d threads in %.2f s (%.0f games/s, %.1f M events/s)%n",
+                totals.games, rows, cols, players, seconds, pool.getParallelism(), nanos / 1e9,
+                totals.games / (nanos / 1e9), totals.events / (nanos / 1e3));
+        System.out.printf("moles up %d:%d s, down %d:%d s; players react in %d:%d ms, notice %.0f%%%n",
+                settings.minUp, settings.maxUp, settings.minDown, settings.maxDown,
+                settings.minReaction, settings.maxReaction, settings.attention * 100);
+        System.out.printf("moles raised per game: %.1f, ties: %.2f%%%n",
+                (double) totals.raised / totals.games, 100.0 * totals.ties / totals.games);
+        for (int i = 0; i < players; i++) {
+            long whacks = totals.hits[i] + totals.misses[i];
+            System.out.printf("player %d: won %.2f%%, mean score %.2f, hit %.1f%% of %.1f whacks%n", i,
+                    100.0 * totals.wins[i] / totals.games, (double) totals.points[i] / totals.games,
+                    whacks == 0 ? 0 : 100.0 * totals.hits[i] / whacks, (double) whacks / totals.games);
+        }
+        System.out.printf("fingerprint %016x%n", totals.fingerprint);
+    }
+}
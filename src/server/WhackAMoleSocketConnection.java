@@ -0,0 +1,141 @@
+package server;
+
+import client.gui.WhackAMoleException;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link WhackAMoleConnection} that writes to a blocking {@link Socket}.
+ * Messages are buffered until they are flushed.
+ * Writers take a {@link ReentrantLock} rather than a monitor, so a virtual
+ * thread blocked on a slow socket does not pin its carrier thread.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSocketConnection implements WhackAMoleConnection {
+    /**
+     * The {@link Socket} used to communicate with the client.
+     */
+    private Socket sock;
+
+    /**
+     * The stream used to send requests to the client.
+     */
+    private OutputStream out;
+
+    /**
+     * Keeps messages from different threads from interleaving.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** whether the output has been shut down */
+    private boolean shut;
+
+    /**
+     * @param sock The {@link Socket} used to communicate with the client.
+     * @throws WhackAMoleException If the socket cannot be written to.
+     */
+    public WhackAMoleSocketConnection(Socket sock) throws WhackAMoleException {
+        this.sock = sock;
+        try {
+            out = new BufferedOutputStream(sock.getOutputStream());
+        }
+        catch (IOException e) {
+            throw new WhackAMoleException(e);
+        }
+    }
+
+    @Override
+    public void send(String message) {
+        lock.lock();
+        try {
+            out.write(message.getBytes(StandardCharsets.US_ASCII));
+            out.write('\n');
+        }
+        catch (IOException ioe) {
+            // squash, the reader will see the connection drop
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (frame.hasArray()) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            }
+            else {
+                ByteBuffer bytes = frame.duplicate();
+                while (bytes.hasRemaining()) {
+                    out.write(bytes.get());
+                }
+            }
+        }
+        catch (IOException ioe) {
+            // squash, the reader will see the connection drop
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            out.flush();
+        }
+        catch (IOException ioe) {
+            // squash, the reader will see the connection drop
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes and shuts down the output, and closes the socket
+     * {@link WhackAMoleEventLoop#LINGER_MILLIS} later. Closing right away
+     * with whacks still unread would reset the connection, and the client
+     * could lose the last messages, its result among them.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (shut) {
+                return;
+            }
+            shut = true;
+            out.flush();
+            sock.shutdownOutput();
+        }
+        catch (IOException ioe) {
+            // squash, the socket is closed below all the same
+        }
+        finally {
+            lock.unlock();
+        }
+        WhackAMoleScheduler.shared().nextWheel().schedule(new WhackAMoleTimerWheel.Timeout() {
+            @Override
+            protected void expire() {
+                try {
+                    sock.close();
+                }
+                catch (IOException ioe) {
+                    // squash
+                }
+            }
+        }, WhackAMoleEventLoop.LINGER_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,197 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Which of a game's moles are up, keeping only the moles that are. On a
+ * very big board only a few moles are up at once, so this takes memory for
+ * those and not for every hole. The moles are spread over striped
+ * open-addressed hash sets, each behind its own lock, so changes to
+ * different moles rarely wait on each other, and every change is made
+ * holding its stripe's lock, so exactly one whack knocks a mole down.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSparseHoles implements WhackAMoleHoleSet {
+    /** how many sets the moles are spread over */
+    private static final int STRIPES = 64;
+    /** a hole's stripe is its low bits, and the set holds the rest, shifted down by this */
+    private static final int STRIPE_SHIFT = 6;
+    /** how many slots a stripe's set starts with */
+    private static final int INITIAL_SLOTS = 16;
+
+    /**
+     * The moles up in one stripe, as an open-addressed set of the mole
+     * numbers plus one, so that 0 marks an empty slot.
+     */
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        int[] slots = new int[INITIAL_SLOTS];
+        int count;
+
+        /**
+         * @return the slot a key is looked for from
+         */
+        static int home(int key, int mask) {
+            int hash = key * 0x9E3779B9;
+            return (hash ^ hash >>> 16) & mask;
+        }
+
+        /**
+         * @return the slot holding a key, or the empty slot it would go in
+         */
+        int find(int key) {
+            int mask = slots.length - 1;
+            int slot = home(key, mask);
+            while (slots[slot] != 0 && slots[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Empties a slot, moving back the keys after it that would no longer
+         * be found, so no slot is ever left marked as deleted.
+         */
+        void remove(int slot) {
+            int mask = slots.length - 1;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                int key = slots[next];
+                if (key == 0) {
+                    break;
+                }
+                int home = home(key, mask);
+                // the key can fill the gap unless its home is between the gap and it
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    slots[slot] = key;
+                    slot = next;
+                }
+            }
+            slots[slot] = 0;
+            count--;
+        }
+
+        void grow() {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            for (int key : old) {
+                if (key != 0) {
+                    slots[find(key)] = key;
+                }
+            }
+        }
+    }
+
+    private final int size;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Creates the holes with every mole down.
+     *
+     * @param size the number of holes
+     */
+    public WhackAMoleSparseHoles(int size) {
+        this.size = size;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isUp(int id) {
+        Stripe stripe = stripes[id & (STRIPES - 1)];
+        int key = (id >>> STRIPE_SHIFT) + 1;
+        stripe.lock.lock();
+        try {
+            return stripe.slots[stripe.find(key)] != 0;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean raise(int id) {
+        Stripe stripe = stripes[id & (STRIPES - 1)];
+        int key = (id >>> STRIPE_SHIFT) + 1;
+        stripe.lock.lock();
+        try {
+            int slot = stripe.find(key);
+            if (stripe.slots[slot] != 0) {
+                return false;
+            }
+            stripe.slots[slot] = key;
+            if (++stripe.count * 2 > stripe.slots.length) {
+                stripe.grow();
+            }
+            return true;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean lower(int id) {
+        Stripe stripe = stripes[id & (STRIPES - 1)];
+        int key = (id >>> STRIPE_SHIFT) + 1;
+        stripe.lock.lock();
+        try {
+            int slot = stripe.find(key);
+            if (stripe.slots[slot] == 0) {
+                return false;
+            }
+            stripe.remove(slot);
+            return true;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Gathers each stripe's moles in turn, holding only that stripe's lock.
+     */
+    @Override
+    public int[] up() {
+        int[] up = new int[64];
+        int count = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = stripes[i];
+            stripe.lock.lock();
+            try {
+                if (count + stripe.count > up.length) {
+                    up = Arrays.copyOf(up, Math.max(up.length * 2, count + stripe.count));
+                }
+                for (int key : stripe.slots) {
+                    if (key != 0) {
+                        up[count++] = ((key - 1) << STRIPE_SHIFT) | i;
+                    }
+                }
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+        up = Arrays.copyOf(up, count);
+        Arrays.sort(up);
+        return up;
+    }
+
+    @Override
+    public void copyTo(byte[] bitmap) {
+        Arrays.fill(bitmap, 0, (size + 7) >>> 3, (byte) 0);
+        for (int id : up()) {
+            bitmap[id >>> 3] |= (byte) (1 << (id & 7));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import common.WAMProtocol;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A client watching a game without playing in it. It says which game with a
+ * single {@link WAMProtocol#SPECTATE} line, and everything it sends after
+ * that is ignored. It is sent what a player would be, except that its own
+ * score and result are never asked about.<br>
+ *
+ * Its outbox always {@link WhackAMoleOutbox.Policy#DISCONNECT disconnects}
+ * a spectator that falls behind, so a slow one is dropped rather than
+ * resent to. Once the game is over it is sent a
+ * {@link WAMProtocol#GAME_OVER} with the final scores instead of a player's
+ * result.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSpectator implements WhackAMoleHandler, Closeable {
+    /** the player number a spectator is welcomed with */
+    public static final int NOT_A_PLAYER = -1;
+
+    private final WhackAMoleServer server;
+    private final WhackAMoleOutbox outbox;
+    private final WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+    /** whether it has said which game to watch; only read on the event loop */
+    private boolean asked;
+    /** whether it wants to be sent binary frames */
+    private volatile boolean binary;
+
+    /**
+     * @param connection the connection to the spectator
+     * @param server who to ask for the game it wants to watch
+     */
+    public WhackAMoleSpectator(WhackAMoleConnection connection, WhackAMoleServer server) {
+        this.server = server;
+        this.outbox = new WhackAMoleOutbox(connection, null, WhackAMoleExecutors.shared().getWriters(),
+                WhackAMoleOutbox.Policy.DISCONNECT,
+                Integer.getInteger(WhackAMoleOutbox.CAPACITY_PROPERTY, WhackAMoleOutbox.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * @return false; a spectator only ever sends text lines
+     */
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    /**
+     * Reads the {@link WAMProtocol#SPECTATE} line and asks the server for the
+     * game. Anything after it is ignored.
+     */
+    @Override
+    public void handle(byte[] message, int offset, int length) {
+        if (asked) {
+            return;
+        }
+        try {
+            WAMCodec.decodeText(message, offset, length, frame);
+            if (frame.opcode == 0) {
+                // a blank line
+                return;
+            }
+        }
+        catch (IOException e) {
+            frame.opcode = 0;
+        }
+        asked = true;
+        if (frame.opcode != WAMCodec.SPECTATE) {
+            error("Expected " + WAMProtocol.SPECTATE);
+            close();
+            return;
+        }
+        binary = frame.binary;
+        server.watch(this, frame.argCount > 0 ? frame.args[0] : WAMProtocol.FEATURED);
+    }
+
+    /**
+     * Welcomes the spectator to a game, and switches to binary if it asked
+     * for it.
+     */
+    void welcome(int rows, int cols, int players) {
+        outbox.send(WAMProtocol.WELCOME + " " + rows + " " + cols + " " + players + " " + NOT_A_PLAYER);
+        if (binary) {
+            outbox.send(false, WAMCodec.PROTOCOL);
+        }
+    }
+
+    /**
+     * Tells the spectator when the game started and ends, on the
+     * {@link WhackAMoleClock server's clock}.
+     */
+    void gameStarted(long start, long deadline) {
+        outbox.send(binary, WAMBinaryProtocol.GAME_START, WhackAMoleClock.at(start), WhackAMoleClock.at(deadline));
+    }
+
+    /**
+     * Sends a message that has to arrive, such as the board or the scores.
+     */
+    void send(WhackAMoleMessage message) {
+        outbox.send(message.get(binary));
+    }
+
+    /**
+     * Sends a message about the moles, dropping the spectator if it has
+     * fallen too far behind.
+     */
+    void sendMole(WhackAMoleMessage message) {
+        outbox.sendMole(message.get(binary));
+    }
+
+    /**
+     * Drops the spectator at once, throwing away whatever is still queued,
+     * as its outbox does when it falls too far behind.
+     */
+    void drop() {
+        System.out.println("Spectator cannot keep up, disconnecting");
+        outbox.abandon();
+    }
+
+    /**
+     * Sends an {@link WAMProtocol#ERROR}, before the spectator has been
+     * welcomed.
+     */
+    void error(String message) {
+        outbox.send(WAMProtocol.ERROR + " " + message);
+    }
+
+    /**
+     * @return whether the spectator has been dropped or sent off
+     */
+    boolean isClosed() {
+        return outbox.isClosed();
+    }
+
+    /**
+     * Closes the connection once everything already queued has been written.
+     */
+    @Override
+    public void close() {
+        outbox.close();
+    }
+}
@@ -0,0 +1,325 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Everyone watching one game without playing in it. The game hands over
+ * each event once, already encoded, and goes straight back to its moles; a
+ * writer borrowed from the shared pool passes the event on to every
+ * spectator's outbox. However many are watching, the game does the same
+ * work, and a spectator that falls behind is dropped by its own outbox
+ * without holding anyone else up.<br>
+ *
+ * A spectator is seated in the same queue as the events, so it is sent the
+ * board as it stands when the writer reaches it and then every event after.
+ * Events already on their way when the board was read may be sent again;
+ * each one says where a mole is now, so the spectator still ends up with
+ * the right board.<br>
+ *
+ * The queue holds as many messages as an outbox, set by the
+ * {@value WhackAMoleOutbox#CAPACITY_PROPERTY} system property, and follows
+ * the {@link WhackAMoleOutbox.Policy#DISCONNECT} policy: if the writers fall
+ * that far behind, the messages waiting are thrown away and every spectator
+ * already watching is dropped. Spectators still waiting for their seat are
+ * sent the board as it stands, so they keep watching.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSpectators {
+    /** the most moles sent in one delta of the starting board */
+    private static final int SNAPSHOT_CHUNK = 4096;
+
+    private final WhackAMoleGame game;
+    private final WhackAMolePlayer[] players;
+    private final Executor writers;
+    private final int capacity;
+    private final Runnable drainer = this::drain;
+
+    /** guards everything below, down to the writer's side */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** {@link WhackAMoleMessage messages} and spectators to seat, in order */
+    private ArrayList<Object> queue = new ArrayList<>();
+    /** how many of the queued events are messages */
+    private int messages;
+    /** whether the queue has overflowed, and the spectators watching are to be dropped */
+    private boolean overflowed;
+    /** whether a player's score has changed since the scores were last sent */
+    private boolean scored;
+    /** whether the game is over, and the spectators should be sent off */
+    private boolean over;
+    /** whether a writer is draining the queue */
+    private boolean writing;
+    /** whether anyone has asked to watch; until then nothing is queued */
+    private volatile boolean watched;
+
+    /** the writer's side of the queue, and the spectators it sends to */
+    private ArrayList<Object> batch = new ArrayList<>();
+    private final ArrayList<WhackAMoleSpectator> watching = new ArrayList<>();
+    private boolean finished;
+    private final int[] scores;
+    /** how many are watching, for anyone to read */
+    private volatile int count;
+
+    /**
+     * @param game the game being watched
+     * @param players its players, whose scores are sent
+     * @param writers the pool that passes events on
+     */
+    public WhackAMoleSpectators(WhackAMoleGame game, WhackAMolePlayer[] players, Executor writers) {
+        this.game = game;
+        this.players = players;
+        this.writers = writers;
+        this.capacity = Integer.getInteger(WhackAMoleOutbox.CAPACITY_PROPERTY, WhackAMoleOutbox.DEFAULT_CAPACITY);
+        this.scores = new int[players.length];
+    }
+
+    /**
+     * Seats a spectator once the events already queued have gone out.
+     *
+     * @param spectator the spectator
+     */
+    public void add(WhackAMoleSpectator spectator) {
+        lock.lock();
+        try {
+            watched = true;
+            queue.add(spectator);
+        }
+        finally {
+            lock.unlock();
+        }
+        schedule();
+    }
+
+    /**
+     * Passes a message about the moles on to every spectator. Does nothing
+     * if no one has asked to watch. If the queue is full, the messages in it
+     * are thrown away and the spectators watching are dropped.
+     *
+     * @param message the message, as encoded for the players
+     */
+    public void publish(WhackAMoleMessage message) {
+        if (!watched) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (messages >= capacity) {
+                queue.removeIf(event -> event instanceof WhackAMoleMessage);
+                messages = 0;
+                overflowed = true;
+            }
+            queue.add(message);
+            messages++;
+        }
+        finally {
+            lock.unlock();
+        }
+        schedule();
+    }
+
+    /**
+     * Notes that a player's score has changed. Every change noted before
+     * the writer gets to it is sent as one {@link WAMBinaryProtocol#SCORE}.
+     */
+    public void scored() {
+        if (!watched) {
+            return;
+        }
+        lock.lock();
+        try {
+            scored = true;
+        }
+        finally {
+            lock.unlock();
+        }
+        schedule();
+    }
+
+    /**
+     * Sends the final scores and the result once everything queued has gone
+     * out, and then sends the spectators off.
+     */
+    public void gameOver() {
+        lock.lock();
+        try {
+            over = true;
+        }
+        finally {
+            lock.unlock();
+        }
+        schedule();
+    }
+
+    /**
+     * Hands the queue to a writer, unless one already has it.
+     */
+    private void schedule() {
+        lock.lock();
+        try {
+            if (writing) {
+                return;
+            }
+            writing = true;
+        }
+        finally {
+            lock.unlock();
+        }
+        try {
+            writers.execute(drainer);
+        }
+        catch (RejectedExecutionException e) {
+            lock.lock();
+            try {
+                writing = false;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Passes everything queued on, a batch at a time, until the queue is
+     * empty.
+     */
+    private void drain() {
+        while (true) {
+            boolean sendScores;
+            boolean end;
+            boolean drop;
+            lock.lock();
+            try {
+                if (queue.isEmpty() && !scored && (!over || finished)) {
+                    writing = false;
+                    return;
+                }
+                ArrayList<Object> swap = batch;
+                batch = queue;
+                queue = swap;
+                messages = 0;
+                drop = overflowed;
+                overflowed = false;
+                sendScores = scored;
+                scored = false;
+                end = over && !finished;
+            }
+            finally {
+                lock.unlock();
+            }
+            if (drop) {
+                for (WhackAMoleSpectator spectator : watching) {
+                    spectator.drop();
+                }
+                watching.clear();
+            }
+            for (Object event : batch) {
+                if (event instanceof WhackAMoleSpectator) {
+                    seat((WhackAMoleSpectator) event);
+                }
+                else {
+                    send((WhackAMoleMessage) event);
+                }
+            }
+            batch.clear();
+            if (sendScores || end) {
+                WhackAMoleMessage message = scores();
+                for (WhackAMoleSpectator spectator : watching) {
+                    spectator.send(message);
+                }
+            }
+            if (end) {
+                finish();
+            }
+            count = watching.size();
+        }
+    }
+
+    /**
+     * Passes a mole message on, and forgets the spectators that have been
+     * dropped.
+     */
+    private void send(WhackAMoleMessage message) {
+        int kept = 0;
+        for (int i = 0; i < watching.size(); i++) {
+            WhackAMoleSpectator spectator = watching.get(i);
+            if (!spectator.isClosed()) {
+                spectator.sendMole(message);
+                watching.set(kept++, spectator);
+            }
+        }
+        watching.subList(kept, watching.size()).clear();
+    }
+
+    /**
+     * Sends a new spectator the game so far and starts sending it events.
+     */
+    private void seat(WhackAMoleSpectator spectator) {
+        if (finished) {
+            spectator.error("Game " + game.getId() + " is over");
+            spectator.close();
+            return;
+        }
+        spectator.welcome(game.getRow(), game.getCol(), players.length);
+        spectator.gameStarted(game.getStartTime(), game.getDeadline());
+        int[] up = game.getUp(null);
+        for (int start = 0; start < up.length; start += SNAPSHOT_CHUNK) {
+            int[] ups = Arrays.copyOfRange(up, start, Math.min(up.length, start + SNAPSHOT_CHUNK));
+            spectator.send(WhackAMoleMessage.delta(ups, ups.length, ups, 0));
+        }
+        spectator.send(scores());
+        watching.add(spectator);
+    }
+
+    /**
+     * @return every player's score as it stands
+     */
+    private WhackAMoleMessage scores() {
+        for (int i = 0; i < players.length; i++) {
+            scores[i] = players[i].getScore();
+        }
+        return WhackAMoleMessage.list(WAMBinaryProtocol.SCORE, scores, scores.length);
+    }
+
+    /**
+     * Sends every spectator a {@link WAMBinaryProtocol#GAME_OVER} with the
+     * final scores, best first, and closes them.
+     */
+    private void finish() {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(scores[b], scores[a]));
+        int[] places = new int[2 * order.length];
+        for (int i = 0; i < order.length; i++) {
+            places[2 * i] = order[i];
+            places[2 * i + 1] = scores[order[i]];
+        }
+        WhackAMoleMessage result = WhackAMoleMessage.list(WAMBinaryProtocol.GAME_OVER, places, places.length);
+        for (WhackAMoleSpectator spectator : watching) {
+            spectator.send(result);
+            spectator.close();
+        }
+        watching.clear();
+        lock.lock();
+        try {
+            finished = true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many spectators are watching, as of the last batch
+     */
+    public int size() {
+        return count;
+    }
+}
@@ -0,0 +1,135 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One client joined to one game server by the {@link WhackAMoleRouter}.
+ * Bytes are copied across as they come, in both directions, without being
+ * read as messages, so the router works the same for text and binary
+ * players and never has to change when the protocol does.<br>
+ *
+ * Each direction has one buffer. While a buffer is full the splice stops
+ * reading the side that fills it, so a slow client backs up to the game
+ * server, whose outbox deals with it as it would a direct connection. When
+ * the game server hangs up, whatever it sent last is passed on and then
+ * both are closed; when the client hangs up, the game server is told with
+ * a half-close and left to hang up in turn.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSplice {
+    /** the size of each direction's buffer */
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private final SocketChannel client;
+    private final SocketChannel backend;
+    /** from the client to the game server, left ready to be filled */
+    private final ByteBuffer up = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /** from the game server to the client, left ready to be filled */
+    private final ByteBuffer down = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private SelectionKey clientKey;
+    private SelectionKey backendKey;
+    /** whether the client has hung up */
+    private boolean clientDone;
+    /** whether the game server has hung up */
+    private boolean backendDone;
+    /** whether the game server has been told the client hung up */
+    private boolean shutdown;
+
+    /**
+     * @param client the client's connection
+     * @param backend the connection to its game server
+     */
+    public WhackAMoleSplice(SocketChannel client, SocketChannel backend) {
+        this.client = client;
+        this.backend = backend;
+    }
+
+    /**
+     * Registers both channels, on the loop's thread.
+     */
+    void register(Selector selector) throws IOException {
+        client.configureBlocking(false);
+        backend.configureBlocking(false);
+        clientKey = client.register(selector, SelectionKey.OP_READ, this);
+        backendKey = backend.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Copies whatever one side has ready.
+     *
+     * @param key the side that is ready
+     */
+    void ready(SelectionKey key) {
+        try {
+            if (key == clientKey) {
+                if (key.isReadable()) {
+                    clientDone = client.read(up) < 0;
+                }
+                if (key.isWritable() || down.position() > 0) {
+                    flush(down, client);
+                }
+                flush(up, backend);
+            }
+            else {
+                if (key.isReadable()) {
+                    backendDone = backend.read(down) < 0;
+                }
+                if (key.isWritable() || up.position() > 0) {
+                    flush(up, backend);
+                }
+                flush(down, client);
+            }
+            if (backendDone && down.position() == 0) {
+                close();
+                return;
+            }
+            if (clientDone && up.position() == 0 && !shutdown) {
+                shutdown = true;
+                backend.shutdownOutput();
+            }
+            clientKey.interestOps((!clientDone && up.hasRemaining() ? SelectionKey.OP_READ : 0)
+                    | (down.position() > 0 ? SelectionKey.OP_WRITE : 0));
+            backendKey.interestOps((!backendDone && down.hasRemaining() ? SelectionKey.OP_READ : 0)
+                    | (up.position() > 0 && !shutdown ? SelectionKey.OP_WRITE : 0));
+        }
+        catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Writes as much of a buffer as the channel takes, keeping the rest.
+     */
+    private static void flush(ByteBuffer buffer, SocketChannel to) throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        to.write(buffer);
+        buffer.compact();
+    }
+
+    /**
+     * Closes both sides.
+     */
+    void close() {
+        try {
+            client.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+        try {
+            backend.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread that owns a {@link Selector} and copies the bytes for
+ * every {@link WhackAMoleSplice splice} registered with it, as
+ * {@link WhackAMoleEventLoop} does for players.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleSpliceLoop implements Runnable, Closeable {
+    private final Selector selector;
+    private final Thread thread;
+    /** splices waiting to be registered with the selector */
+    private final Queue<WhackAMoleSplice> registrations = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a new splice loop.
+     *
+     * @param name the name of the loop's thread
+     * @throws IOException If the selector cannot be opened.
+     */
+    public WhackAMoleSpliceLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Hands a splice to this loop. Its channels are registered on the loop
+     * thread.
+     *
+     * @param splice the new splice
+     */
+    public void register(WhackAMoleSplice splice) {
+        registrations.add(splice);
+        selector.wakeup();
+    }
+
+    /**
+     * Selects and copies for ready splices until the loop is closed.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                WhackAMoleSplice splice;
+                while ((splice = registrations.poll()) != null) {
+                    try {
+                        splice.register(selector);
+                    }
+                    catch (IOException e) {
+                        splice.close();
+                    }
+                }
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    splice = (WhackAMoleSplice) key.attachment();
+                    try {
+                        splice.ready(key);
+                    }
+                    catch (CancelledKeyException e) {
+                        splice.close();
+                    }
+                }
+            }
+            catch (IOException e) {
+                System.err.println("Splice loop failed!");
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+    }
+
+    /**
+     * Stops the loop.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,90 @@
+package server;
+
+import common.WAMThreads;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+/**
+ * Starts a batch of games with players that discard everything sent to them,
+ * and reports how many threads and how much heap the games cost. Run it once
+ * per thread mode to compare them:
+ * <pre>
+ *   java server.WhackAMoleThreadReport 1000 5 5 2
+ *   java -Dwam.threads=virtual server.WhackAMoleThreadReport 1000 5 5 2
+ * </pre>
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleThreadReport {
+
+    /**
+     * A connection to nowhere.
+     */
+    private static class NullConnection implements WhackAMoleConnection {
+        @Override
+        public void send(String message) {
+        }
+
+        @Override
+        public void send(ByteBuffer frame) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * @param args the number of games, rows, columns and players per game
+     * @throws InterruptedException If interrupted while the games settle in.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 4) {
+            System.out.println("Usage: java WhackAMoleThreadReport <games> <rows> <cols> <players>");
+            System.exit(1);
+        }
+        int numGames = Integer.parseInt(args[0]);
+        int row = Integer.parseInt(args[1]);
+        int col = Integer.parseInt(args[2]);
+        int numPlayers = Integer.parseInt(args[3]);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        int threadsBefore = threads.getThreadCount();
+
+        WhackAMoleExecutors executors = WhackAMoleExecutors.shared();
+        for (int g = 0; g < numGames; g++) {
+            WhackAMolePlayer[] players = new WhackAMolePlayer[numPlayers];
+            for (int i = 0; i < numPlayers; i++) {
+                players[i] = new WhackAMolePlayer(new NullConnection(), i);
+            }
+            WhackAMoleGame game = new WhackAMoleGame(g, row, col, numPlayers, 60, players, executors);
+            for (WhackAMolePlayer player : players) {
+                player.getGame(game);
+            }
+            game.run();
+        }
+        Thread.sleep(5000);
+        System.gc();
+
+        System.out.println("Mode:             " + executors.getMode()
+                + " (" + WAMThreads.PROPERTY + "=" + System.getProperty(WAMThreads.PROPERTY, "platform") + ")");
+        System.out.println("Games:            " + numGames + " of " + row + "x" + col
+                + " with " + numPlayers + " players");
+        System.out.println("Moles:            " + (long) numGames * row * col);
+        System.out.println("Platform threads: " + (threads.getThreadCount() - threadsBefore)
+                + " new, " + threads.getPeakThreadCount() + " peak");
+        System.out.println("Heap used:        "
+                + (memory.getHeapMemoryUsage().getUsed() - heapBefore) / 1024 + " KiB");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,224 @@
+package server;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel that fires {@link Timeout timeouts} from a single
+ * thread. Timeouts are hashed into a ring of buckets by their deadline, so
+ * scheduling and expiring are constant time no matter how many moles are
+ * waiting on the wheel.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleTimerWheel implements Runnable, Closeable {
+
+    /**
+     * Something that can be put on the wheel. A timeout may be scheduled
+     * again once it has expired, which lets a mole reuse the same object for
+     * every one of its up/down transitions.
+     */
+    public static abstract class Timeout {
+        /** when the timeout is due, in nanos since the wheel started */
+        private long deadline;
+        /** how many more turns of the wheel before it is due */
+        private long remainingRounds;
+        /** the bucket the timeout currently sits in */
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+        private volatile boolean cancelled;
+        /** how late the timeout fired, in nanos */
+        private long lateness;
+
+        /**
+         * Called from the wheel thread when the timeout is due.
+         */
+        protected abstract void expire();
+
+        /**
+         * Stops the timeout from ever firing again.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return whether the timeout has been cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return how long after its deadline the timeout last fired, in
+         * nanos; only meaningful inside {@link #expire()}
+         */
+        protected long getLateness() {
+            return lateness;
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts hashed to one slot of the wheel.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+
+        private void expire(long deadline, long now) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if (timeout.cancelled) {
+                    timeout = remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    Timeout next = remove(timeout);
+                    if (timeout.deadline <= deadline) {
+                        timeout.lateness = now - timeout.deadline;
+                        try {
+                            timeout.expire();
+                        } catch (Throwable t) {
+                            t.printStackTrace();
+                        }
+                    }
+                    timeout = next;
+                } else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long startTime;
+    private long tick;
+
+    /**
+     * Creates and starts a new wheel.
+     *
+     * @param name the name of the wheel thread
+     * @param tickMillis how often the wheel advances
+     * @param ticksPerWheel the number of buckets, rounded up to a power of two
+     */
+    public WhackAMoleTimerWheel(String name, long tickMillis, int ticksPerWheel) {
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Puts a timeout on the wheel. The timeout must not already be waiting on
+     * a wheel.
+     *
+     * @param timeout the timeout to fire
+     * @param delay how long from now it should fire
+     * @param unit the unit of the delay
+     */
+    public void schedule(Timeout timeout, long delay, TimeUnit unit) {
+        timeout.deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+        pending.add(timeout);
+    }
+
+    /**
+     * Moves newly scheduled timeouts into their buckets.
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long calculated = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (calculated - tick) / wheel.length;
+            wheel[(int) (Math.max(calculated, tick) & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Sleeps until the current tick is due.
+     *
+     * @return the deadline of the current tick, in nanos since the wheel started
+     */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        long sleep;
+        while (running && (sleep = deadline - (System.nanoTime() - startTime)) > 0) {
+            LockSupport.parkNanos(this, sleep);
+        }
+        return deadline;
+    }
+
+    /**
+     * Advances the wheel one bucket per tick until it is closed.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (!running) {
+                break;
+            }
+            transferPending();
+            wheel[(int) (tick & mask)].expire(deadline, System.nanoTime() - startTime);
+            tick++;
+        }
+    }
+
+    /**
+     * Stops the wheel. Timeouts still waiting will never fire.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+}
@@ -0,0 +1,311 @@
+package server;
+
+import common.WAMProtocol;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Which of a game's players want which moles. A player that has sent a
+ * {@link WAMProtocol#VIEWPORT} is only sent the moles in its region; the
+ * rest are sent the whole board. The board is cut into square tiles of
+ * {@value #TILE_PROPERTY} holes a side, and each tile keeps the players
+ * whose regions overlap it, so sending a mole only costs as much as the
+ * players who can see it, however many are in the game.<br>
+ *
+ * The lists are copied on write, as players change region far less often
+ * than moles move, so sending takes no locks.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleViewports {
+    /** the system property that sets how many holes a side the tiles are */
+    public static final String TILE_PROPERTY = "wam.viewport.tile";
+    /** how many holes a side the tiles are, when the property is not set */
+    public static final int DEFAULT_TILE = 32;
+
+    private static final WhackAMolePlayer[] NONE = new WhackAMolePlayer[0];
+
+    private final int cols;
+    private final int tile;
+    private final int tileCols;
+
+    /** guards changes to everything below */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** the players sent the whole board */
+    private volatile WhackAMolePlayer[] everyone;
+    /** the players whose regions overlap each tile; null for none */
+    private final AtomicReferenceArray<WhackAMolePlayer[]> tiles;
+    /**
+     * Each player's region as its first row, first column, last row and last
+     * column, by player number; null for the whole board
+     */
+    private final AtomicReferenceArray<int[]> regions;
+
+    /*
+     * Kept between deltas, which come one at a time from the game's
+     * broadcaster.
+     */
+    private int stamp;
+    /** the delta each tile and player was last touched in */
+    private final int[] tileStamps;
+    private final int[] playerStamps;
+    /** where each touched tile's moles start in {@link #byTile}, and how many */
+    private final int[] tileStarts;
+    private final int[] tileCounts;
+    private int[] touched = new int[16];
+    /** the moles of a delta grouped by tile, a fallen mole as its complement */
+    private int[] byTile = new int[64];
+    private WhackAMolePlayer[] viewers = new WhackAMolePlayer[16];
+    private int[] ups = new int[64];
+    private int[] downs = new int[64];
+
+    /**
+     * Starts with every player sent the whole board.
+     *
+     * @param rows the rows on the board
+     * @param cols the columns on the board
+     * @param players the players, by player number
+     */
+    public WhackAMoleViewports(int rows, int cols, WhackAMolePlayer[] players) {
+        this.cols = cols;
+        this.tile = Math.max(1, Integer.getInteger(TILE_PROPERTY, DEFAULT_TILE));
+        this.tileCols = (cols + tile - 1) / tile;
+        int tileCount = tileCols * ((rows + tile - 1) / tile);
+        this.everyone = players.clone();
+        this.tiles = new AtomicReferenceArray<>(tileCount);
+        this.regions = new AtomicReferenceArray<>(players.length);
+        this.tileStamps = new int[tileCount];
+        this.tileStarts = new int[tileCount];
+        this.tileCounts = new int[tileCount];
+        this.playerStamps = new int[players.length];
+    }
+
+    /**
+     * Sends a player only the moles in a region from now on, or the whole
+     * board again.
+     *
+     * @param player the player
+     * @param region its first row, first column, last row and last column,
+     *               already clipped to the board, or null for the whole board
+     */
+    public void subscribe(WhackAMolePlayer player, int[] region) {
+        lock.lock();
+        try {
+            int[] old = regions.get(player.getPlayerId());
+            if (old == null) {
+                everyone = without(everyone, player);
+            }
+            else {
+                forEachTile(old, t -> tiles.set(t, without(tiles.get(t), player)));
+            }
+            regions.set(player.getPlayerId(), region);
+            if (region == null) {
+                everyone = with(everyone, player);
+            }
+            else {
+                forEachTile(region, t -> tiles.set(t, with(tiles.get(t), player)));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void forEachTile(int[] region, IntConsumer action) {
+        for (int row = region[0] / tile; row <= region[2] / tile; row++) {
+            for (int col = region[1] / tile; col <= region[3] / tile; col++) {
+                action.accept(row * tileCols + col);
+            }
+        }
+    }
+
+    private static WhackAMolePlayer[] with(WhackAMolePlayer[] players, WhackAMolePlayer player) {
+        WhackAMolePlayer[] more = players == null
+                ? new WhackAMolePlayer[1] : Arrays.copyOf(players, players.length + 1);
+        more[more.length - 1] = player;
+        return more;
+    }
+
+    private static WhackAMolePlayer[] without(WhackAMolePlayer[] players, WhackAMolePlayer player) {
+        if (players == null) {
+            return null;
+        }
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == player) {
+                if (players.length == 1) {
+                    return NONE;
+                }
+                WhackAMolePlayer[] fewer = new WhackAMolePlayer[players.length - 1];
+                System.arraycopy(players, 0, fewer, 0, i);
+                System.arraycopy(players, i + 1, fewer, i, fewer.length - i);
+                return fewer;
+            }
+        }
+        return players;
+    }
+
+    /**
+     * @return whether a mole is in a region
+     */
+    private boolean contains(int[] region, int mole) {
+        int row = mole / cols;
+        int col = mole % cols;
+        return row >= region[0] && row <= region[2] && col >= region[1] && col <= region[3];
+    }
+
+    private int tileOf(int mole) {
+        return mole / cols / tile * tileCols + mole % cols / tile;
+    }
+
+    /**
+     * Sends a {@link WAMProtocol#MOLE_UP} or {@link WAMProtocol#MOLE_DOWN}
+     * to every player who can see the mole.
+     *
+     * @param mole the mole
+     * @param message the message, encoded once for all of them
+     */
+    public void publish(int mole, WhackAMoleMessage message) {
+        for (WhackAMolePlayer player : everyone) {
+            player.sendMole(message, mole);
+        }
+        WhackAMolePlayer[] viewing = tiles.get(tileOf(mole));
+        if (viewing != null) {
+            for (WhackAMolePlayer player : viewing) {
+                int[] region = regions.get(player.getPlayerId());
+                if (region != null && contains(region, mole)) {
+                    player.sendMole(message, mole);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a tick's {@link WAMProtocol#BOARD_DELTA}: the whole delta to
+     * every player sent the whole board, and one of its own to each player
+     * with a region the delta touches, holding only the moles in it. The
+     * moles are grouped by tile first, so each of those players only looks
+     * at the moles in the tiles its region overlaps. Called by one thread
+     * at a time.
+     *
+     * @param delta the whole delta, encoded once
+     * @param ups the moles that rose, in order
+     * @param upCount how many rose
+     * @param downs the moles that fell, in order
+     * @param downCount how many fell
+     */
+    public void publish(WhackAMoleMessage delta, int[] ups, int upCount, int[] downs, int downCount) {
+        WhackAMolePlayer[] everyone = this.everyone;
+        for (WhackAMolePlayer player : everyone) {
+            player.boardDelta(delta);
+        }
+        if (everyone.length == playerStamps.length) {
+            return;
+        }
+        stamp++;
+        int touchedCount = group(ups, upCount, downs, downCount);
+        int viewerCount = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            WhackAMolePlayer[] viewing = tiles.get(touched[i]);
+            if (viewing == null) {
+                continue;
+            }
+            for (WhackAMolePlayer player : viewing) {
+                if (playerStamps[player.getPlayerId()] != stamp) {
+                    playerStamps[player.getPlayerId()] = stamp;
+                    if (viewerCount == viewers.length) {
+                        viewers = Arrays.copyOf(viewers, viewerCount * 2);
+                    }
+                    viewers[viewerCount++] = player;
+                }
+            }
+        }
+        for (int i = 0; i < viewerCount; i++) {
+            send(viewers[i]);
+            viewers[i] = null;
+        }
+    }
+
+    /**
+     * Groups a delta's moles by tile into {@link #byTile}.
+     *
+     * @return how many tiles it touches
+     */
+    private int group(int[] ups, int upCount, int[] downs, int downCount) {
+        int touchedCount = 0;
+        for (int i = 0; i < upCount + downCount; i++) {
+            int t = tileOf(i < upCount ? ups[i] : downs[i - upCount]);
+            if (tileStamps[t] != stamp) {
+                tileStamps[t] = stamp;
+                tileCounts[t] = 0;
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = t;
+            }
+            tileCounts[t]++;
+        }
+        int start = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int t = touched[i];
+            tileStarts[t] = start;
+            start += tileCounts[t];
+            tileCounts[t] = 0;
+        }
+        if (byTile.length < start) {
+            byTile = new int[Math.max(start, byTile.length * 2)];
+        }
+        for (int i = 0; i < upCount + downCount; i++) {
+            int mole = i < upCount ? ups[i] : downs[i - upCount];
+            int t = tileOf(mole);
+            byTile[tileStarts[t] + tileCounts[t]++] = i < upCount ? mole : ~mole;
+        }
+        return touchedCount;
+    }
+
+    /**
+     * Sends a player the moles of the delta in its region, if there are any.
+     */
+    private void send(WhackAMolePlayer player) {
+        int[] region = regions.get(player.getPlayerId());
+        if (region == null) {
+            return;
+        }
+        int upCount = 0;
+        int downCount = 0;
+        for (int row = region[0] / tile; row <= region[2] / tile; row++) {
+            for (int col = region[1] / tile; col <= region[3] / tile; col++) {
+                int t = row * tileCols + col;
+                if (tileStamps[t] != stamp) {
+                    continue;
+                }
+                for (int i = tileStarts[t]; i < tileStarts[t] + tileCounts[t]; i++) {
+                    int mole = byTile[i] < 0 ? ~byTile[i] : byTile[i];
+                    if (!contains(region, mole)) {
+                        continue;
+                    }
+                    if (byTile[i] >= 0) {
+                        if (upCount == ups.length) {
+                            ups = Arrays.copyOf(ups, upCount * 2);
+                        }
+                        ups[upCount++] = mole;
+                    }
+                    else {
+                        if (downCount == downs.length) {
+                            downs = Arrays.copyOf(downs, downCount * 2);
+                        }
+                        downs[downCount++] = mole;
+                    }
+                }
+            }
+        }
+        if (upCount + downCount == 0) {
+            return;
+        }
+        Arrays.sort(ups, 0, upCount);
+        Arrays.sort(downs, 0, downCount);
+        player.boardDelta(ups, upCount, downs, downCount);
+    }
+}
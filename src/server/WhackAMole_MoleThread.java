@@ -1,8 +1,11 @@
 package server;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * creates the mole threads so the game can be run
+ * A mole that blocks its own thread between transitions. Used when the game
+ * runs in {@link WhackAMoleExecutors.Mode#VIRTUAL} mode, where a sleeping
+ * virtual thread costs next to nothing. It sleeps rather than waiting on a
+ * monitor, so it never pins its carrier thread.
  * @author Gabe Megna <gnm1714@rit.edu>
  * @author Nick Piwko <nap2828@rit.edu>
  */
@@ -10,7 +13,6 @@ import java.util.Random;
 public class WhackAMole_MoleThread implements Runnable{
     private int mole;
     private WhackAMoleGame game;
-    Random rand = new Random();
 
     /**
      *
@@ -23,26 +25,37 @@ public class WhackAMole_MoleThread implements Runnable{
     }
 
     /**
-     * starts the mole threads so the game can be played
+     * moves the mole up and down until the game is over, or until the thread
+     * is interrupted when the game settles
      */
     @Override
-    public synchronized void run(){
-        int minUp = 2;
-        int minDown = 3;
-        int maxUp = 5;
-        int maxDown = 8;
-        while(game.getCurrentTime() - game.getStartTime()  < game.getTime()*1000) {
-            try {
-                int upTime = rand.nextInt(maxUp - minUp) + minUp;
-                int downTime = rand.nextInt(maxDown - minDown) + minDown;
+    public void run(){
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        try {
+            while(!game.isOver()) {
+                int upTime = rand.nextInt(WhackAMoleMole.MAX_UP - WhackAMoleMole.MIN_UP) + WhackAMoleMole.MIN_UP;
+                int downTime = rand.nextInt(WhackAMoleMole.MAX_DOWN - WhackAMoleMole.MIN_DOWN) + WhackAMoleMole.MIN_DOWN;
                 game.setDown(mole);
-                wait(downTime * 1000);
+                sleep(downTime);
+                if (game.isOver()) {
+                    break;
+                }
                 game.setUp(mole);
-                wait(upTime * 1000);
-            }
-            catch (InterruptedException ie){
-                game.setDown(mole);
+                sleep(upTime);
             }
         }
+        catch (InterruptedException ie){
+            // the game is settling and pulls every mole down itself
+        }
+    }
+
+    /**
+     * sleeps and records how much longer than asked it took
+     * @param seconds how long to sleep
+     */
+    private static void sleep(int seconds) throws InterruptedException {
+        long wake = System.nanoTime() + seconds * 1000000000L;
+        Thread.sleep(seconds * 1000L);
+        WhackAMoleMetrics.shared().moleDrift().record(System.nanoTime() - wake);
     }
 }
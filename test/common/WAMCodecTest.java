@@ -0,0 +1,175 @@
+package common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Checks that every message {@link WAMCodec} writes reads back the same in
+ * both formats, that a binary frame is only taken once all of it has
+ * arrived, and that {@link WAMBinaryProtocol#check} refuses frames whose
+ * counts or moles do not add up.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WAMCodecTest {
+    public static void main(String[] args) throws Exception {
+        for (boolean binary : new boolean[] {false, true}) {
+            roundTrips(binary);
+            deltasRoundTrip(binary);
+        }
+        waitsForWholeFrames();
+        refusesBadFrames();
+        System.out.println("WAMCodecTest passed");
+    }
+
+    /**
+     * Messages of every size read back as they were written.
+     */
+    private static void roundTrips(boolean binary) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        WAMCodec.encode(buffer, binary, WAMBinaryProtocol.GAME_WON);
+        expect(decode(buffer, binary), WAMBinaryProtocol.GAME_WON);
+        WAMCodec.encode(buffer, binary, WAMBinaryProtocol.MOLE_UP, 300);
+        expect(decode(buffer, binary), WAMBinaryProtocol.MOLE_UP, 300);
+        WAMCodec.encode(buffer, binary, WAMBinaryProtocol.MOLE_DOWN, 0);
+        expect(decode(buffer, binary), WAMBinaryProtocol.MOLE_DOWN, 0);
+        WAMCodec.encode(buffer, binary, WAMBinaryProtocol.WHACK, 17, 1);
+        expect(decode(buffer, binary), WAMBinaryProtocol.WHACK, 17, 1);
+        WAMCodec.encode(buffer, binary, WAMBinaryProtocol.WELCOME, 5, 6, 2, 1);
+        expect(decode(buffer, binary), WAMBinaryProtocol.WELCOME, 5, 6, 2, 1);
+        int[] scores = {-2, 5, 0, Integer.MIN_VALUE};
+        WAMCodec.encodeList(buffer, binary, WAMBinaryProtocol.SCORE, scores, scores.length);
+        expect(decode(buffer, binary), WAMBinaryProtocol.SCORE, 4, -2, 5, 0, Integer.MIN_VALUE);
+        int[] places = {1, 7, 0, -4};
+        WAMCodec.encodeList(buffer, binary, WAMBinaryProtocol.GAME_OVER, places, places.length);
+        expect(decode(buffer, binary), WAMBinaryProtocol.GAME_OVER, 4, 1, 7, 0, -4);
+        if (binary) {
+            buffer.put(WAMBinaryProtocol.errorFrame("Game over"));
+        }
+        else {
+            WAMCodec.putLine(buffer, WAMProtocol.ERROR + " Game over");
+        }
+        WAMBinaryProtocol.Frame error = decode(buffer, binary);
+        check(error.opcode == WAMBinaryProtocol.ERROR && "Game over".equals(error.text), "error read as " + error.text);
+    }
+
+    /**
+     * A {@link WAMProtocol#BOARD_DELTA} reads back with both of its lists,
+     * and with the server's clock after them if it was stamped.
+     */
+    private static void deltasRoundTrip(boolean binary) throws IOException {
+        int[] ups = {1, 2, 1000};
+        int[] downs = {7};
+        ByteBuffer buffer = ByteBuffer.allocate(WAMCodec.deltaSize(ups.length, downs.length));
+        WAMCodec.encodeDelta(buffer, binary, ups, ups.length, downs, downs.length, false, 0);
+        WAMBinaryProtocol.Frame frame = decode(buffer, binary);
+        expect(frame, WAMBinaryProtocol.BOARD_DELTA, 3, 1, 2, 1000, 1, 7);
+        check(!WAMBinaryProtocol.isStamped(frame), "an unstamped delta read as stamped");
+        buffer = ByteBuffer.allocate(WAMCodec.deltaSize(ups.length, 0));
+        WAMCodec.encodeDelta(buffer, binary, ups, ups.length, downs, 0, true, 123456);
+        frame = decode(buffer, binary);
+        expect(frame, WAMBinaryProtocol.BOARD_DELTA, 3, 1, 2, 1000, 0, 123456);
+        check(WAMBinaryProtocol.isStamped(frame), "a stamped delta read as unstamped");
+    }
+
+    /**
+     * Every binary frame cut short is waited on rather than read.
+     */
+    private static void waitsForWholeFrames() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        WAMCodec.encode(buffer, true, WAMBinaryProtocol.WELCOME, 500, 600, 2, 1);
+        WAMCodec.encodeList(buffer, true, WAMBinaryProtocol.SCORE, new int[] {300, -300}, 2);
+        WAMCodec.encodeDelta(buffer, true, new int[] {200, 70000}, 2, new int[] {3}, 1, false, 0);
+        buffer.put(WAMBinaryProtocol.errorFrame("cut"));
+        byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+        int off = 0;
+        while (off < bytes.length) {
+            int len = WAMBinaryProtocol.frameLength(bytes, off, bytes.length - off);
+            check(len > 0, "a whole frame was not found at " + off);
+            for (int cut = 0; cut < len; cut++) {
+                check(WAMBinaryProtocol.frameLength(bytes, off, cut) == -1,
+                        "a frame of " + len + " bytes was taken after " + cut);
+            }
+            off += len;
+        }
+    }
+
+    /**
+     * Frames whose counts do not match their arguments, or that name moles
+     * off the board, are refused when they are read.
+     */
+    private static void refusesBadFrames() {
+        WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+        frame.boardSize = 25;
+        refuses(frame, WAMBinaryProtocol.MOLE_UP, 25);
+        refuses(frame, WAMBinaryProtocol.MOLE_DOWN, -1);
+        refuses(frame, WAMBinaryProtocol.SCORE, 3, 1, 2);
+        refuses(frame, WAMBinaryProtocol.GAME_OVER, 3, 1, 7, 0);
+        refuses(frame, WAMBinaryProtocol.BOARD_DELTA, 3, 1, 2);
+        refuses(frame, WAMBinaryProtocol.BOARD_DELTA, 1, 30, 0);
+        refuses(frame, WAMBinaryProtocol.BOARD_DELTA, 1, 4, 0, 99, 99);
+        refuses(frame, WAMBinaryProtocol.WELCOME, 0, 5, 2, 0);
+        refusesText("MOLE_UP 25", frame);
+        refusesText("MOLE_UP five", frame);
+        refusesText("MOLE_UP 99999999999", frame);
+        refusesText("DIG 4", frame);
+    }
+
+    private static void refuses(WAMBinaryProtocol.Frame frame, byte opcode, int... args) {
+        frame.opcode = opcode;
+        frame.args = Arrays.copyOf(args, Math.max(8, args.length));
+        frame.argCount = args.length;
+        try {
+            WAMBinaryProtocol.check(frame);
+        }
+        catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("took " + WAMCodec.name(opcode) + " " + Arrays.toString(args));
+    }
+
+    private static void refusesText(String line, WAMBinaryProtocol.Frame frame) {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        try {
+            WAMCodec.decodeText(bytes, 0, bytes.length, frame);
+        }
+        catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("took " + line);
+    }
+
+    /**
+     * Reads back the one message written to a buffer, and empties it.
+     */
+    private static WAMBinaryProtocol.Frame decode(ByteBuffer buffer, boolean binary) throws IOException {
+        byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+        buffer.clear();
+        WAMBinaryProtocol.Frame frame = new WAMBinaryProtocol.Frame();
+        if (binary) {
+            check(WAMBinaryProtocol.frameLength(bytes, 0, bytes.length) == bytes.length, "frame length is wrong");
+            WAMBinaryProtocol.decode(bytes, 0, bytes.length, frame);
+        }
+        else {
+            check(bytes[bytes.length - 1] == '\n', "line does not end");
+            WAMCodec.decodeText(bytes, 0, bytes.length - 1, frame);
+        }
+        return frame;
+    }
+
+    private static void expect(WAMBinaryProtocol.Frame frame, byte opcode, int... args) {
+        int[] read = Arrays.copyOf(frame.args, frame.argCount);
+        check(frame.opcode == opcode && Arrays.equals(read, args),
+                "read " + WAMCodec.name(frame.opcode) + " " + Arrays.toString(read)
+                        + ", not " + WAMCodec.name(opcode) + " " + Arrays.toString(args));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
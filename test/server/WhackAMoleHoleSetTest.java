@@ -0,0 +1,108 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks both kinds of {@link WhackAMoleHoleSet}: that a mole rises and
+ * falls once however many try, that holes either side of a word boundary
+ * are kept apart, and that the moles up are listed and copied the same way.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleHoleSetTest {
+    /** how many threads race for one mole */
+    private static final int RACERS = 8;
+    /** how many times they race */
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        WhackAMoleHoleSet[] kinds = {new WhackAMoleHoles(200), new WhackAMoleSparseHoles(200)};
+        for (WhackAMoleHoleSet holes : kinds) {
+            String name = holes.getClass().getSimpleName();
+            flipsOnce(holes, name);
+            keepsHolesApart(holes, name);
+            oneWhackHits(holes, name);
+        }
+        System.setProperty(WhackAMoleHoleSet.SPARSE_PROPERTY, "100");
+        check(WhackAMoleHoleSet.create(99) instanceof WhackAMoleHoles, "a small board was kept sparse");
+        check(WhackAMoleHoleSet.create(100) instanceof WhackAMoleSparseHoles, "a big board was not kept sparse");
+        System.out.println("WhackAMoleHoleSetTest passed");
+    }
+
+    /**
+     * A mole only rises if it was down, and only falls if it was up.
+     */
+    private static void flipsOnce(WhackAMoleHoleSet holes, String name) {
+        check(holes.size() == 200, name + " has " + holes.size() + " holes");
+        check(!holes.isUp(7) && !holes.lower(7), name + " started with a mole up");
+        check(holes.raise(7) && holes.isUp(7), name + " did not raise a mole");
+        check(!holes.raise(7), name + " raised a mole that was up");
+        check(holes.lower(7) && !holes.isUp(7), name + " did not lower a mole");
+        check(!holes.lower(7), name + " lowered a mole that was down");
+    }
+
+    /**
+     * Moles next to each other, across words of the bitmap, do not disturb
+     * each other, and are listed in order and copied bit by bit.
+     */
+    private static void keepsHolesApart(WhackAMoleHoleSet holes, String name) {
+        int[] up = {0, 31, 32, 63, 64, 65, 127, 128, 199};
+        for (int id = up.length - 1; id >= 0; id--) {
+            holes.raise(up[id]);
+        }
+        check(Arrays.equals(holes.up(), up), name + " listed " + Arrays.toString(holes.up()));
+        byte[] bitmap = new byte[(holes.size() + 7) / 8];
+        holes.copyTo(bitmap);
+        for (int id = 0; id < holes.size(); id++) {
+            boolean copied = (bitmap[id >>> 3] & (1 << (id & 7))) != 0;
+            check(copied == (Arrays.binarySearch(up, id) >= 0) && copied == holes.isUp(id),
+                    name + " copied mole " + id + " wrong");
+        }
+        for (int id : up) {
+            holes.lower(id);
+        }
+        check(holes.up().length == 0, name + " still has " + Arrays.toString(holes.up()) + " up");
+    }
+
+    /**
+     * When several players whack the same mole at once, exactly one of them
+     * hits it.
+     */
+    private static void oneWhackHits(WhackAMoleHoleSet holes, String name) throws InterruptedException {
+        for (int round = 0; round < ROUNDS; round++) {
+            int id = round % holes.size();
+            holes.raise(id);
+            AtomicInteger hits = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] racers = new Thread[RACERS];
+            for (int i = 0; i < RACERS; i++) {
+                racers[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    if (holes.lower(id)) {
+                        hits.incrementAndGet();
+                    }
+                });
+                racers[i].start();
+            }
+            start.countDown();
+            for (Thread racer : racers) {
+                racer.join();
+            }
+            check(hits.get() == 1, name + " let " + hits.get() + " whacks hit mole " + id);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
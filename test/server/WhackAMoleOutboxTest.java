@@ -0,0 +1,195 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks what each {@link WhackAMoleOutbox.Policy} does with a player that
+ * falls behind. The player's connection holds up the writer on the first
+ * message until the outbox has overflowed, and then lets everything through.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleOutboxTest {
+    /** how long to wait for the writer */
+    private static final long WAIT_MILLIS = 5000;
+
+    /**
+     * A connection that keeps what is written to it, and keeps the writer
+     * waiting on the first write until it is let through.
+     */
+    private static class Recorder implements WhackAMoleConnection {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch through = new CountDownLatch(1);
+        private volatile boolean closed;
+
+        @Override
+        public void send(String message) {
+            byte[] line = (message + "\n").getBytes(StandardCharsets.US_ASCII);
+            write(line, 0, line.length);
+        }
+
+        @Override
+        public void send(ByteBuffer frame) {
+            ByteBuffer copy = frame.duplicate();
+            byte[] bytes = new byte[copy.remaining()];
+            copy.get(bytes);
+            write(bytes, 0, bytes.length);
+        }
+
+        private void write(byte[] bytes, int off, int len) {
+            writing.countDown();
+            try {
+                through.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (written) {
+                written.write(bytes, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        /**
+         * Waits for the writer to be held up on the first write.
+         */
+        void awaitWriting() throws InterruptedException {
+            check(writing.await(WAIT_MILLIS, TimeUnit.MILLISECONDS), "nothing was written");
+        }
+
+        /**
+         * Lets the writer through, and waits for a line to be written.
+         *
+         * @param last the line to wait for
+         * @return every line written by then
+         */
+        List<String> release(String last) throws InterruptedException {
+            through.countDown();
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+            while (System.nanoTime() < until) {
+                List<String> lines = lines();
+                if (lines.contains(last)) {
+                    return lines;
+                }
+                Thread.sleep(10);
+            }
+            throw new AssertionError("never sent " + last + ", only " + lines());
+        }
+
+        List<String> lines() {
+            synchronized (written) {
+                String text = new String(written.toByteArray(), StandardCharsets.US_ASCII);
+                return text.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(text.split("\n")));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty(WhackAMolePinger.PING_PROPERTY, "0");
+        coalesceSendsWhereMolesAreNow();
+        resyncSendsTheWholeBoard();
+        disconnectDropsThePlayer();
+        misspelledPolicyCoalesces();
+        System.out.println("WhackAMoleOutboxTest passed");
+    }
+
+    /**
+     * Once the outbox is full, only which moles changed is kept, and the
+     * player is sent where they are now as one delta.
+     */
+    private static void coalesceSendsWhereMolesAreNow() throws InterruptedException {
+        Recorder connection = new Recorder();
+        WhackAMoleGame game = fallBehind("coalesce", connection);
+        game.setUp(2);
+        game.setUp(3);
+        game.setDown(2);
+        List<String> lines = connection.release("BOARD_DELTA 1 3 1 2");
+        check(lines.subList(2, lines.size()).equals(List.of("MOLE_UP 0", "MOLE_UP 1", "BOARD_DELTA 1 3 1 2")),
+                "coalesce sent " + lines);
+        check(!connection.closed, "coalesce dropped the player");
+    }
+
+    /**
+     * Once the outbox is full, the mole messages waiting are thrown away and
+     * the whole board is sent again.
+     */
+    private static void resyncSendsTheWholeBoard() throws InterruptedException {
+        Recorder connection = new Recorder();
+        WhackAMoleGame game = fallBehind("resync", connection);
+        game.setUp(2);
+        List<String> lines = connection.release("BOARD_DELTA 3 0 1 2 1 3");
+        check(lines.subList(2, lines.size()).equals(List.of("BOARD_DELTA 3 0 1 2 1 3")), "resync sent " + lines);
+        check(!connection.closed, "resync dropped the player");
+    }
+
+    /**
+     * Once the outbox is full, the player is dropped and nothing else is
+     * sent.
+     */
+    private static void disconnectDropsThePlayer() throws InterruptedException {
+        Recorder connection = new Recorder();
+        WhackAMoleGame game = fallBehind("disconnect", connection);
+        game.setUp(2);
+        check(connection.closed, "disconnect kept the player");
+        List<String> lines = connection.release("ERROR held");
+        Thread.sleep(100);
+        check(connection.lines().equals(lines) && lines.size() == 1, "disconnect sent " + connection.lines());
+    }
+
+    /**
+     * A policy the outbox does not know is treated as coalesce.
+     */
+    private static void misspelledPolicyCoalesces() {
+        System.setProperty(WhackAMoleOutbox.POLICY_PROPERTY, "coalsce");
+        check(WhackAMoleOutbox.Policy.configured() == WhackAMoleOutbox.Policy.COALESCE, "no fallback policy");
+        System.setProperty(WhackAMoleOutbox.POLICY_PROPERTY, " Resync ");
+        check(WhackAMoleOutbox.Policy.configured() == WhackAMoleOutbox.Policy.RESYNC, "policy not read");
+    }
+
+    /**
+     * Starts a game of four moles for one player whose outbox holds three
+     * messages, holds up its writer, and fills the outbox with the
+     * {@code GAME_START} and two moles rising. Every mole is down to start
+     * with, and none comes up on its own for a few seconds.
+     *
+     * @param policy the outbox's policy
+     * @param connection the player's connection
+     * @return the running game
+     */
+    private static WhackAMoleGame fallBehind(String policy, Recorder connection) throws InterruptedException {
+        System.setProperty(WhackAMoleOutbox.POLICY_PROPERTY, policy);
+        System.setProperty(WhackAMoleOutbox.CAPACITY_PROPERTY, "3");
+        WhackAMolePlayer player = new WhackAMolePlayer(connection, 0);
+        WhackAMoleGame game = new WhackAMoleGame(2, 2, 1, 60, new WhackAMolePlayer[] {player});
+        player.getGame(game);
+        player.error("held");
+        connection.awaitWriting();
+        game.run();
+        game.setUp(0);
+        game.setUp(1);
+        return game;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package server;
+
+import common.WAMBinaryProtocol;
+import common.WAMCodec;
+import common.WAMProtocol;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a player who drops out of a game can take back its seat, and
+ * is sent a {@link WAMBinaryProtocol#SNAPSHOT} of the game as it stands in
+ * the format it asks for, and that the seat is given up once the grace
+ * period is over.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleResumeTest {
+    /** how long to wait for the writer */
+    private static final long WAIT_MILLIS = 5000;
+    /** how long the seats are held */
+    private static final long GRACE_MILLIS = 300;
+
+    /**
+     * A connection that keeps what is written to it.
+     */
+    private static class Memory implements WhackAMoleConnection {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void send(String message) {
+            byte[] line = (message + "\n").getBytes(StandardCharsets.US_ASCII);
+            synchronized (written) {
+                written.write(line, 0, line.length);
+            }
+        }
+
+        @Override
+        public void send(ByteBuffer frame) {
+            ByteBuffer copy = frame.duplicate();
+            byte[] bytes = new byte[copy.remaining()];
+            copy.get(bytes);
+            synchronized (written) {
+                written.write(bytes, 0, bytes.length);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * @param length how many bytes to wait for
+         * @return everything written, once there is at least that much
+         */
+        byte[] await(int length) throws InterruptedException {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+            while (System.nanoTime() < until) {
+                synchronized (written) {
+                    if (written.size() >= length) {
+                        return written.toByteArray();
+                    }
+                }
+                Thread.sleep(10);
+            }
+            throw new AssertionError("only " + written.size() + " bytes were written");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty(WhackAMolePinger.PING_PROPERTY, "0");
+        System.setProperty(WhackAMoleSessions.GRACE_PROPERTY, Long.toString(GRACE_MILLIS));
+        WhackAMoleSessions sessions = new WhackAMoleSessions(7000, WhackAMoleScheduler.shared());
+        Memory first = new Memory();
+        Memory second = new Memory();
+        WhackAMolePlayer[] players = {new WhackAMolePlayer(first, 0), new WhackAMolePlayer(second, 1)};
+        WhackAMoleGame game = new WhackAMoleGame(2, 3, 2, 60, players);
+        for (WhackAMolePlayer player : players) {
+            player.connect(2, 3, 2, sessions);
+            player.getGame(game);
+        }
+        game.run();
+        game.setUp(1);
+        game.setUp(4);
+        byte[] whack = "WHACK 1 0".getBytes(StandardCharsets.US_ASCII);
+        players[0].handle(whack, 0, whack.length);
+
+        players[0].disconnected(first);
+        check(players[0].isAway(), "the seat was not held");
+        game.setUp(5);
+        Memory back = new Memory();
+        check(players[0].resume(back, false), "the seat was not taken back");
+        byte[] text = back.await(1);
+        int end = 0;
+        while (text[end] != '\n') {
+            if (++end == text.length) {
+                text = back.await(text.length + 1);
+            }
+        }
+        WAMBinaryProtocol.Frame snapshot = new WAMBinaryProtocol.Frame();
+        WAMCodec.decodeText(text, 0, end, snapshot);
+        checkSnapshot(snapshot, 0);
+
+        players[1].disconnected(second);
+        Memory binary = new Memory();
+        check(players[1].resume(binary, true), "the seat was not taken back in binary");
+        String protocol = WAMProtocol.PROTOCOL + " " + WAMProtocol.BINARY + "\n";
+        byte[] frames = binary.await(protocol.length() + 1);
+        check(new String(frames, 0, protocol.length(), StandardCharsets.US_ASCII).equals(protocol),
+                "binary was not confirmed first");
+        int off = protocol.length();
+        int length;
+        while ((length = WAMBinaryProtocol.frameLength(frames, off, frames.length - off)) < 0) {
+            frames = binary.await(frames.length + 1);
+        }
+        WAMBinaryProtocol.decode(frames, off, length, snapshot);
+        checkSnapshot(snapshot, 1);
+
+        players[1].disconnected(binary);
+        Thread.sleep(GRACE_MILLIS + 200);
+        check(!players[1].resume(new Memory(), false), "the seat was held past the grace period");
+        System.out.println("WhackAMoleResumeTest passed");
+    }
+
+    /**
+     * Checks a snapshot of the game above: player 0 has hit mole 1, and
+     * moles 4 and 5 are up.
+     */
+    private static void checkSnapshot(WAMBinaryProtocol.Frame snapshot, int player) throws IOException {
+        check(snapshot.opcode == WAMBinaryProtocol.SNAPSHOT, "sent " + WAMCodec.name(snapshot.opcode) + " first");
+        check(snapshot.args[0] == player, "snapshot for player " + snapshot.args[0]);
+        check(snapshot.args[1] > 0 && snapshot.args[1] <= 60000, snapshot.args[1] + " ms left");
+        int[] scores = Arrays.copyOfRange(snapshot.args, 3, 3 + snapshot.args[2]);
+        check(Arrays.equals(scores, new int[] {WhackAMolePlayer.HIT_POINTS, 0}), "scores " + Arrays.toString(scores));
+        check(WAMBinaryProtocol.snapshotMoles(snapshot) == 6, WAMBinaryProtocol.snapshotMoles(snapshot) + " moles");
+        for (int mole = 0; mole < 6; mole++) {
+            check(WAMBinaryProtocol.snapshotIsUp(snapshot, mole) == (mole == 4 || mole == 5),
+                    "mole " + mole + " is wrong");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a {@link WhackAMoleTimerWheel} fires its timeouts in deadline
+ * order, on time, only once, and never once cancelled.
+ *
+ * @author Gabe Megna <gnm1714@rit.edu>
+ * @author Nick Piwko <nap2828@rit.edu>
+ */
+public class WhackAMoleTimerWheelTest {
+    /** how late a timeout may fire on a busy machine */
+    private static final long SLACK_MILLIS = 500;
+
+    /**
+     * Records when it fired, and can put itself back on the wheel.
+     */
+    private static class Probe extends WhackAMoleTimerWheel.Timeout {
+        private final String name;
+        private final List<String> fired;
+        private final CountDownLatch done;
+        private WhackAMoleTimerWheel again;
+        private long againMillis;
+
+        Probe(String name, List<String> fired, CountDownLatch done) {
+            this.name = name;
+            this.fired = fired;
+            this.done = done;
+        }
+
+        @Override
+        protected void expire() {
+            synchronized (fired) {
+                fired.add(name);
+            }
+            if (again != null) {
+                WhackAMoleTimerWheel wheel = again;
+                again = null;
+                wheel.schedule(this, againMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            done.countDown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        firesInDeadlineOrder();
+        skipsCancelled();
+        reschedulesFromExpire();
+        firesPastOneTurn();
+        System.out.println("WhackAMoleTimerWheelTest passed");
+    }
+
+    /**
+     * Timeouts scheduled out of order fire in the order of their deadlines.
+     */
+    private static void firesInDeadlineOrder() throws InterruptedException {
+        List<String> fired = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        try (WhackAMoleTimerWheel wheel = new WhackAMoleTimerWheel("test-wheel", 10, 64)) {
+            wheel.schedule(new Probe("c", fired, done), 150, TimeUnit.MILLISECONDS);
+            wheel.schedule(new Probe("a", fired, done), 30, TimeUnit.MILLISECONDS);
+            wheel.schedule(new Probe("b", fired, done), 90, TimeUnit.MILLISECONDS);
+            check(done.await(150 + SLACK_MILLIS, TimeUnit.MILLISECONDS), "timeouts did not fire");
+        }
+        check(fired.equals(List.of("a", "b", "c")), "fired out of order: " + fired);
+    }
+
+    /**
+     * A cancelled timeout never fires, and the others around it still do.
+     */
+    private static void skipsCancelled() throws InterruptedException {
+        List<String> fired = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        try (WhackAMoleTimerWheel wheel = new WhackAMoleTimerWheel("test-wheel", 10, 64)) {
+            Probe cancelled = new Probe("cancelled", fired, done);
+            wheel.schedule(new Probe("a", fired, done), 20, TimeUnit.MILLISECONDS);
+            wheel.schedule(cancelled, 40, TimeUnit.MILLISECONDS);
+            wheel.schedule(new Probe("b", fired, done), 60, TimeUnit.MILLISECONDS);
+            cancelled.cancel();
+            check(done.await(60 + SLACK_MILLIS, TimeUnit.MILLISECONDS), "timeouts did not fire");
+            Thread.sleep(50);
+        }
+        check(fired.equals(List.of("a", "b")), "a cancelled timeout fired: " + fired);
+    }
+
+    /**
+     * A timeout may put itself back on the wheel while it expires, as a mole
+     * does for each of its transitions.
+     */
+    private static void reschedulesFromExpire() throws InterruptedException {
+        List<String> fired = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        try (WhackAMoleTimerWheel wheel = new WhackAMoleTimerWheel("test-wheel", 10, 64)) {
+            Probe probe = new Probe("mole", fired, done);
+            probe.again = wheel;
+            probe.againMillis = 50;
+            long start = System.nanoTime();
+            wheel.schedule(probe, 20, TimeUnit.MILLISECONDS);
+            check(done.await(70 + SLACK_MILLIS, TimeUnit.MILLISECONDS), "the timeout did not fire again");
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            check(millis >= 70, "fired again after " + millis + " ms, before its deadline");
+        }
+        check(fired.equals(List.of("mole", "mole")), "fired " + fired);
+    }
+
+    /**
+     * A timeout further off than one turn of the wheel waits out the extra
+     * rounds instead of firing the first time its bucket comes up.
+     */
+    private static void firesPastOneTurn() throws InterruptedException {
+        List<String> fired = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        try (WhackAMoleTimerWheel wheel = new WhackAMoleTimerWheel("test-wheel", 10, 8)) {
+            long start = System.nanoTime();
+            wheel.schedule(new Probe("late", fired, done), 250, TimeUnit.MILLISECONDS);
+            check(done.await(250 + SLACK_MILLIS, TimeUnit.MILLISECONDS), "the timeout did not fire");
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            check(millis >= 250, "fired after " + millis + " ms, before its deadline");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}